@@ -1,5 +1,6 @@
 package com.grammatek.simaromur;
 
+import static com.grammatek.simaromur.cache.AudioFormat.AUDIO_FMT_IMA_ADPCM;
 import static com.grammatek.simaromur.cache.AudioFormat.AUDIO_FMT_PCM;
 import static com.grammatek.simaromur.cache.SampleRate.SAMPLE_RATE_16KHZ;
 import static com.grammatek.simaromur.cache.SampleRate.SAMPLE_RATE_22KHZ;
@@ -13,26 +14,39 @@ import org.junit.runner.RunWith;
 
 import static org.junit.Assert.*;
 
+import android.content.ComponentCallbacks2;
 import android.util.Log;
 
+import com.grammatek.simaromur.cache.AdaptiveCacheSizer;
 import com.grammatek.simaromur.cache.AudioEntry;
+import com.grammatek.simaromur.cache.CacheConsistencyScanner;
+import com.grammatek.simaromur.cache.CacheFrontendMigrator;
 import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.CacheSnapshotArchive;
+import com.grammatek.simaromur.cache.CachedAudioStream;
 import com.grammatek.simaromur.cache.PhonemeEntry;
 import com.grammatek.simaromur.cache.Utterance;
 import com.grammatek.simaromur.cache.UtteranceCache;
 import com.grammatek.simaromur.cache.UtteranceCacheManager;
+import com.grammatek.simaromur.cache.UtteranceCacheMetrics;
 import com.grammatek.simaromur.cache.VoiceAudioDescription;
 import com.grammatek.simaromur.utils.FileUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.stream.Collectors;
 
 /**
@@ -75,10 +89,22 @@ public class UtteranceCacheManagerTest {
     // prefill cache with utterances, but no audio
     private void prefillCacheWithUtterances() {
         for (int i = 0; i < tList.size(); ++i) {
-            mCacheManager.addUtterance(tList.get(i), nList.get(i), p1List);
+            mCacheManager.addUtterance(tList.get(i), nList.get(i), phonemesOf(i));
         }
     }
 
+    /**
+     * Returns the phonemes of the prefilled utterance at given index of tList. Each utterance gets
+     * different phonemes, otherwise their audio would be shared.
+     *
+     * @param i     index into tList
+     *
+     * @return  phonemes derived from p1List
+     */
+    private List<String> phonemesOf(int i) {
+        return p1List.stream().map(p -> p + "_" + (i + 1)).collect(Collectors.toList());
+    }
+
     /**
      * Creates audio buffer with nSeconds seconds of audio for given frequency.
      * Samples have 16 Bit resolution.
@@ -149,6 +175,8 @@ public class UtteranceCacheManagerTest {
                 }
             }
         }
+        // the cache is expired in the background
+        mCacheManager.awaitExpiration();
     }
 
     /**
@@ -256,6 +284,46 @@ public class UtteranceCacheManagerTest {
         aCacheManager.close();
     }
 
+    @Test
+    public void addAndReadAudioWithSegmentAudioStore() {
+        UtteranceCacheManager aCacheManager =
+                new UtteranceCacheManager(AltUtteranceCacheFilename, LowWatermark, HighWatermark, true);
+        aCacheManager.clearCache();
+        CacheItem item = aCacheManager.addUtterance("segment", "segment", p1List);
+        List<byte[]> audioBufs = new ArrayList<>();
+        int phonemeCount = 1;
+        for (PhonemeEntry phonemeEntry: item.getUtterance().getPhonemesList()) {
+            final byte[] audioBuf = createSinusAudio(440 * phonemeCount, 1, 22050);
+            phonemeCount++;
+            audioBufs.add(audioBuf);
+            final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                    SAMPLE_RATE_22KHZ, audioBuf.length, "Alfur", "v1");
+            assertTrue(aCacheManager.addAudioToCacheItem(item.getUuid(), phonemeEntry, vad, audioBuf));
+        }
+
+        // all audio is packed into the same segment file
+        item = aCacheManager.findItemByUuid(item.getUuid()).get();
+        final List<VoiceAudioDescription> vads =
+                item.getVoiceAudioEntriesOrThrow(buildVoiceKey("Alfur", "v1")).getAudioDescriptorsList();
+        assertEquals(audioBufs.size(), vads.size());
+        final String segmentPath = vads.get(0).getPath();
+        for (VoiceAudioDescription vad: vads) {
+            assertNotEquals(0, vad.getSegmentId());
+            assertEquals(segmentPath, vad.getPath());
+        }
+        assertTrue(FileUtils.exists(segmentPath));
+
+        List<byte[]> audioList = aCacheManager.getAudioForUtterance(item.getUtterance(), "Alfur", "v1");
+        assertEquals(audioBufs.size(), audioList.size());
+        for (int i = 0; i < audioBufs.size(); ++i) {
+            assertArrayEquals(audioBufs.get(i), audioList.get(i));
+        }
+
+        aCacheManager.clearCache();
+        assertFalse(FileUtils.exists(segmentPath));
+        aCacheManager.close();
+    }
+
     @Test
     public void createNewUtteranceEntryInCache() {
         String text = "texti";
@@ -344,7 +412,8 @@ public class UtteranceCacheManagerTest {
             Utterance utterance = cacheEntry.getUtterance();
             assertTrue(tList.contains(utterance.getText()));
             assertTrue(nList.contains(utterance.getNormalized()));
-            assertTrue(p1List.contains(utterance.getPhonemes(0).getSymbols()));
+            final List<String> phonemes = phonemesOf(tList.indexOf(utterance.getText()));
+            assertTrue(phonemes.contains(utterance.getPhonemes(0).getSymbols()));
         }
     }
 
@@ -355,7 +424,7 @@ public class UtteranceCacheManagerTest {
         assertTrue(item.isPresent());
         assertEquals("t4", item.get().getUtterance().getText());
         assertEquals("n4", item.get().getUtterance().getNormalized());
-        assertEquals(p1List, item.get().getUtterance().getPhonemesList().stream().map(PhonemeEntry::getSymbols).collect(Collectors.toList()));
+        assertEquals(phonemesOf(3), item.get().getUtterance().getPhonemesList().stream().map(PhonemeEntry::getSymbols).collect(Collectors.toList()));
     }
 
     @Test
@@ -522,6 +591,17 @@ public class UtteranceCacheManagerTest {
             // test if the new audio has been updated in meta-data and on the file system
             checkVoiceAudioInCacheAndOnDisk(uuid, vad, audioBuf);
         }
+
+        // phoneme entries are matched by their symbols, not by their instance
+        final byte[] audioBuf = createSinusAudio(800, 1, 16000);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_16KHZ, audioBuf.length, voiceName, voiceVersion);
+        final PhonemeEntry copiedEntry = UtteranceCacheManager.newPhoneme(phonemeList.get(1).getSymbols());
+        assertTrue(mCacheManager.updateAudio(item, copiedEntry, vad, audioBuf));
+        assertArrayEquals(audioBuf,
+                mCacheManager.getAudioForUtterance(item.getUtterance(), voiceName, voiceVersion).get(1));
+        // there is no audio to be updated for unknown phonemes
+        assertFalse(mCacheManager.updateAudio(item, UtteranceCacheManager.newPhoneme("p9"), vad, audioBuf));
     }
 
     @Test
@@ -652,6 +732,13 @@ public class UtteranceCacheManagerTest {
         // 2. explicitly increase usage counter
         assertTrue(mCacheManager.increaseUsageCount(utterance));
         assertEquals(utteranceUsageCount + 2, mCacheManager.getUsageCount(utterance));
+
+        // 3. flushing the in-memory usage counters doesn't change the values
+        final String uuid = mCacheManager.findItemByText("t1").get().getUuid();
+        assertEquals(utteranceUsageCount + 2, mCacheManager.getCache().getEntriesMap().get(uuid).getUsageCount());
+        mCacheManager.flushTouches();
+        assertEquals(utteranceUsageCount + 2, mCacheManager.getUsageCount(utterance));
+        assertEquals(utteranceUsageCount + 2, mCacheManager.getCache().getEntriesMap().get(uuid).getUsageCount());
     }
 
     @Test
@@ -747,5 +834,797 @@ public class UtteranceCacheManagerTest {
         assertTrue(mCacheManager.getAudioFileSize() < LowWatermark);
     }
 
-}
+    @Test
+    public void evictionWorkerExpiresDownToLowWatermark() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        // 10 seconds of 22kHz PCM audio each, 40 of them exceed the high watermark
+        final byte[] audioBuf = createSinusAudio(440, 10, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        final UtteranceCacheMetrics.Snapshot before = mCacheManager.getMetricsSnapshot();
+        for (int i = 0; i < 40; ++i) {
+            final CacheItem item = mCacheManager.addUtterance("stilling " + i, "stilling " + i,
+                    List.of("s t I t l i N k " + i));
+            // writes don't wait for the eviction, but the cache never exceeds its hard limit
+            assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                    vad, audioBuf));
+            assertTrue(mCacheManager.getAudioFileSize() < 2 * HighWatermark - LowWatermark + audioBuf.length);
+        }
+        mCacheManager.awaitExpiration();
+        final long expiredSize = mCacheManager.getAudioFileSize();
+        assertTrue(expiredSize <= LowWatermark);
+        assertEquals(0, mCacheManager.getEvictionBacklogBytes());
+        final UtteranceCacheMetrics.Snapshot after = mCacheManager.getMetricsSnapshot();
+        assertEquals(0, after.evictionBacklogBytes);
+        assertTrue(after.evictionCounts.getOrDefault(UtteranceCacheMetrics.EVICTION_WATERMARK, 0L)
+                > before.evictionCounts.getOrDefault(UtteranceCacheMetrics.EVICTION_WATERMARK, 0L));
+
+        // hysteresis: below the high watermark, nothing is expired
+        final CacheItem item = mCacheManager.addUtterance("stilling 40", "stilling 40",
+                List.of("s t I t l i N k 40"));
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                vad, audioBuf));
+        mCacheManager.awaitExpiration();
+        assertEquals(expiredSize + audioBuf.length, mCacheManager.getAudioFileSize());
+    }
+
+    @Test
+    public void adaptiveSizingShrinksUnderStoragePressure() {
+        final long MB = 1024 * 1024;
+        UtteranceCacheManager aCacheManager =
+                new UtteranceCacheManager(AltUtteranceCacheFilename, LowWatermark, HighWatermark, true);
+        aCacheManager.awaitLoaded();
+        aCacheManager.clearCache();
+        aCacheManager.setAdaptiveSizer(new AdaptiveCacheSizer(MB, 4 * LowWatermark, 1.0, 64 * MB));
+        final byte[] audioBuf = createSinusAudio(440, 10, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, "Alfur", "v1");
+        for (int i = 0; i < 10; ++i) {
+            final CacheItem item = aCacheManager.addUtterance("stærð " + i, "stærð " + i,
+                    List.of("s t ai r D " + i));
+            assertTrue(aCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                    vad, audioBuf));
+        }
+        final long cacheSize = aCacheManager.getAudioFileSize();
+
+        // 3/4 of the cache size are missing to the min. free storage
+        final long lowWatermark = aCacheManager.adjustCacheSize(64 * MB - 3 * cacheSize / 4);
+        assertEquals(cacheSize - 3 * cacheSize / 4, lowWatermark);
+        assertEquals(lowWatermark, aCacheManager.getCacheSizeLowWatermark());
+        aCacheManager.awaitExpiration();
+        assertTrue(aCacheManager.getAudioFileSize() <= lowWatermark);
+
+        // the adapted low watermark is restored, but only with adaptive sizing
+        aCacheManager.close();
+        aCacheManager = new UtteranceCacheManager(AltUtteranceCacheFilename, LowWatermark, HighWatermark, true);
+        assertEquals(LowWatermark, aCacheManager.getCacheSizeLowWatermark());
+        aCacheManager.setAdaptiveSizer(new AdaptiveCacheSizer(MB, 4 * LowWatermark, 1.0, 64 * MB));
+        assertEquals(lowWatermark, aCacheManager.getCacheSizeLowWatermark());
+        aCacheManager.clearCache();
+        aCacheManager.close();
+    }
+
+    /**
+     * Runs cached lookups of the prefilled utterances in given number of threads for the given
+     * duration, while another thread periodically flushes the usage counters. Fails, if any
+     * lookup misses or throws.
+     *
+     * @param nThreads      number of lookup threads
+     * @param durationMs    duration in milliseconds
+     * @param nLookups      output: successful lookups per utterance of tList
+     *
+     * @return  overall number of successful lookups
+     */
+    private long runConcurrentLookups(int nThreads, long durationMs, AtomicLongArray nLookups)
+            throws InterruptedException {
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicLong nMisses = new AtomicLong(0);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        final List<Utterance> utterances = new ArrayList<>();
+        for (int i = 0; i < tList.size(); ++i) {
+            utterances.add(UtteranceCacheManager.newUtterance(tList.get(i), nList.get(i), p1List));
+        }
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nThreads; ++t) {
+            final Random random = new Random(t);
+            threads.add(new Thread(() -> {
+                try {
+                    while (isRunning.get()) {
+                        final int i = random.nextInt(utterances.size());
+                        if (mCacheManager.findItemByText(tList.get(i)).isPresent()
+                                && !mCacheManager.getAudioForUtterance(utterances.get(i), "Alfur", "v1").isEmpty()) {
+                            nLookups.incrementAndGet(i);
+                        } else {
+                            nMisses.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            while (isRunning.get()) {
+                mCacheManager.flushTouches();
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }));
+        for (Thread thread: threads) {
+            thread.start();
+        }
+        Thread.sleep(durationMs);
+        isRunning.set(false);
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(0, nMisses.get());
+        long nOverall = 0;
+        for (int i = 0; i < nLookups.length(); ++i) {
+            nOverall += nLookups.get(i);
+        }
+        return nOverall;
+    }
 
+    @Test
+    public void consistencyScannerRepairsCache() throws IOException {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final CacheItem intactItem = mCacheManager.addUtterance("scan1", "scan1", List.of("s1"));
+        final CacheItem damagedItem = mCacheManager.addUtterance("scan2", "scan2", List.of("s2"));
+        final byte[] audioBuf = createSinusAudio(440, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        for (CacheItem item: List.of(intactItem, damagedItem)) {
+            assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(),
+                    item.getUtterance().getPhonemes(0), vad, audioBuf));
+        }
+        final String voiceKey = buildVoiceKey(vad);
+
+        // truncate the audio of one item and create an old orphaned audio file
+        final String damagedPath = mCacheManager.findItemByUuid(damagedItem.getUuid()).get()
+                .getVoiceAudioEntriesOrThrow(voiceKey).getAudioDescriptors(0).getPath();
+        Files.write(Paths.get(damagedPath), new byte[16]);
+        final File orphan = new File(new File(damagedPath).getParent(), "orphaned_audio.pcm");
+        Files.write(orphan.toPath(), new byte[100]);
+        assertTrue(orphan.setLastModified(System.currentTimeMillis() - 24 * 60 * 60 * 1000L));
+
+        final CacheConsistencyScanner scanner = new CacheConsistencyScanner(mCacheManager, 2, 0);
+        for (int i = 0; i < 10000 && scanner.getCyclesCompleted() == 0; ++i) {
+            scanner.scanStep();
+        }
+        assertEquals(1, scanner.getCyclesCompleted());
+        assertEquals(2, scanner.getItemsChecked());
+        assertEquals(1, scanner.getEntriesDropped());
+        assertTrue(scanner.getOrphansDeleted() >= 1);
+        assertFalse(orphan.exists());
+        assertFalse(new File(damagedPath).exists());
+        assertTrue(mCacheManager.findItemByUuid(intactItem.getUuid()).get().containsVoiceAudioEntries(voiceKey));
+        assertFalse(mCacheManager.findItemByUuid(damagedItem.getUuid()).get().containsVoiceAudioEntries(voiceKey));
+        assertEquals(audioBuf.length, mCacheManager.getAudioFileSize());
+    }
+
+    /**
+     * Measures the cold start: the constructor only reads the cache header, the time until the
+     * cache is loaded corresponds to the former startup time, when the constructor loaded the
+     * whole cache.
+     */
+    @Test
+    public void startupDoesNotWaitForCacheLoading() {
+        final int nItems = 2000;
+        UtteranceCacheManager aCacheManager = new UtteranceCacheManager(AltUtteranceCacheFilename, LowWatermark, HighWatermark);
+        aCacheManager.clearCache();
+        for (int i = 0; i < nItems; ++i) {
+            aCacheManager.addUtterance("text " + i, "normalized " + i, p1List);
+        }
+        aCacheManager.close();
+
+        final long startNanos = System.nanoTime();
+        aCacheManager = new UtteranceCacheManager(AltUtteranceCacheFilename, LowWatermark, HighWatermark);
+        final long startupNanos = System.nanoTime() - startNanos;
+        // doesn't block: either the loaded item or a new item, that replaces the loaded one
+        final CacheItem item = aCacheManager.addUtterance("text 1");
+        aCacheManager.awaitLoaded();
+        final long loadNanos = System.nanoTime() - startNanos;
+
+        assertTrue(aCacheManager.isLoaded());
+        assertEquals(nItems, aCacheManager.getItemCount());
+        Optional<CacheItem> optItem = aCacheManager.findItemByText("text 1");
+        assertTrue(optItem.isPresent());
+        assertEquals(item.getUuid(), optItem.get().getUuid());
+        assertTrue(startupNanos <= loadNanos);
+        Log.i(LOG_TAG, "Cold start with " + nItems + " items: constructor returned after "
+                + startupNanos / 1000 + " us, cache loaded after " + loadNanos / 1000 + " us");
+        aCacheManager.clearCache();
+        aCacheManager.close();
+    }
+
+    @Test
+    public void addAudioAsynchronously() {
+        prefillCacheWithUtterances();
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        Optional<CacheItem> optItem = mCacheManager.findItemByText("t3");
+        assertTrue(optItem.isPresent());
+        final CacheItem item = optItem.get();
+        final PhonemeEntry phonemeEntry = item.getUtterance().getPhonemes(0);
+        final byte[] audioBuf = createSinusAudio(440, 2, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        final long sizeBefore = mCacheManager.getAudioFileSize();
+        assertTrue(mCacheManager.addAudioToCacheItemAsync(item.getUuid(), phonemeEntry, vad, audioBuf));
+
+        // audio is available immediately, regardless if already written or not
+        List<byte[]> audio = mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(1, audio.size());
+        assertArrayEquals(audioBuf, audio.get(0));
+
+        mCacheManager.flushPendingAudio();
+        optItem = mCacheManager.findItemByUuid(item.getUuid());
+        assertTrue(optItem.isPresent());
+        assertTrue(optItem.get().containsVoiceAudioEntries(buildVoiceKey(vad)));
+        assertTrue(mCacheManager.getAudioFileSize() > sizeBefore);
+        audio = mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(1, audio.size());
+        assertArrayEquals(audioBuf, audio.get(0));
+
+        // audio for unknown items is rejected right away
+        assertFalse(mCacheManager.addAudioToCacheItemAsync("no-such-uuid", phonemeEntry, vad, audioBuf));
+    }
+
+    @Test
+    public void audioIsSharedBetweenUtterances() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final List<String> phonemes = List.of("n i: s k I: l a b O: D");
+        final CacheItem item1 = mCacheManager.addUtterance("Ný skilaboð.", "ný skilaboð", phonemes);
+        final CacheItem item2 = mCacheManager.addUtterance("Ný skilaboð", "ný skilaboð", phonemes);
+        final byte[] audioBuf = createSinusAudio(440, 2, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        final long sizeBefore = mCacheManager.getAudioFileSize();
+        assertNull(mCacheManager.addSharedAudioToCacheItem(item2.getUuid(),
+                item2.getUtterance().getPhonemes(0), vad));
+        assertTrue(mCacheManager.addAudioToCacheItem(item1.getUuid(),
+                item1.getUtterance().getPhonemes(0), vad, audioBuf));
+        final long sizeWithAudio = mCacheManager.getAudioFileSize();
+        assertEquals(sizeBefore + audioBuf.length, sizeWithAudio);
+
+        // the second utterance has the same phonemes and gets the audio without synthesis
+        final byte[] sharedAudio = mCacheManager.addSharedAudioToCacheItem(item2.getUuid(),
+                item2.getUtterance().getPhonemes(0), vad);
+        assertArrayEquals(audioBuf, sharedAudio);
+        assertEquals(sizeWithAudio, mCacheManager.getAudioFileSize());
+        List<byte[]> audio = mCacheManager.getAudioForUtterance(item2.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(1, audio.size());
+        assertArrayEquals(audioBuf, audio.get(0));
+
+        // the audio is kept, as long as any utterance refers to it
+        assertTrue(mCacheManager.deleteCacheItem(item1.getUuid()));
+        assertEquals(sizeWithAudio, mCacheManager.getAudioFileSize());
+        audio = mCacheManager.getAudioForUtterance(item2.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(1, audio.size());
+        assertArrayEquals(audioBuf, audio.get(0));
+        assertTrue(mCacheManager.deleteCacheItem(item2.getUuid()));
+        assertEquals(sizeBefore, mCacheManager.getAudioFileSize());
+    }
+
+    @Test
+    public void sentenceAudioIsSharedBetweenUtterances() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final String sentence1 = "h a l o";
+        final String sentence2 = "n i: s k I: l a b O: D";
+        final String sentence3 = "p l E i";
+        final CacheItem item1 = mCacheManager.addUtterance("Halló. Ný skilaboð.",
+                "halló. ný skilaboð.", List.of(sentence1, sentence2));
+        final CacheItem item2 = mCacheManager.addUtterance("Bless. Ný skilaboð.",
+                "bless. ný skilaboð.", List.of(sentence3, sentence2));
+        final byte[] audio1 = createSinusAudio(440, 1, 22050);
+        final byte[] audio2 = createSinusAudio(880, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, 0, VoiceName, VoiceVersion);
+        assertTrue(mCacheManager.addAudioToCacheItem(item1.getUuid(), item1.getUtterance().getPhonemes(0),
+                vad.toBuilder().setFileSize(audio1.length).build(), audio1));
+        // audio of the second sentence can't be added before the audio of the first one
+        assertFalse(mCacheManager.addAudioToCacheItem(item2.getUuid(), item2.getUtterance().getPhonemes(1),
+                vad.toBuilder().setFileSize(audio2.length).build(), audio2));
+        assertTrue(mCacheManager.addAudioToCacheItem(item1.getUuid(), item1.getUtterance().getPhonemes(1),
+                vad.toBuilder().setFileSize(audio2.length).build(), audio2));
+
+        // the second utterance only shares its second sentence with the first one
+        assertNull(mCacheManager.getSharedAudio(item2.getUtterance().getPhonemes(0), vad));
+        assertArrayEquals(audio2, mCacheManager.getSharedAudio(item2.getUtterance().getPhonemes(1), vad));
+        assertNull(mCacheManager.addSharedAudioToCacheItem(item2.getUuid(),
+                item2.getUtterance().getPhonemes(1), vad));
+
+        List<byte[]> audio = mCacheManager.getAudioForUtterance(item1.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(2, audio.size());
+        assertArrayEquals(audio1, audio.get(0));
+        assertArrayEquals(audio2, audio.get(1));
+        assertTrue(mCacheManager.getAudioForUtterance(item2.getUtterance(), VoiceName, VoiceVersion).isEmpty());
+    }
+
+    @Test
+    public void wholeUtteranceAudioOfSplitItem() throws IOException {
+        final String VoiceName = "Dora";
+        final String VoiceVersion = "v1";
+        final String sentence1 = "h a l o";
+        final String sentence2 = "n i: s k I: l a b O: D";
+        // split into sentences for an on-device voice, but spoken by a network voice
+        final CacheItem item = mCacheManager.addUtterance("Halló. Ný skilaboð!",
+                "halló. ný skilaboð!", List.of(sentence1, sentence2));
+        final CacheItem sentenceItem = mCacheManager.addUtterance("Halló!", "halló!", List.of(sentence1));
+        final byte[] audio = createSinusAudio(440, 2, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audio.length, VoiceName, VoiceVersion);
+        final VoiceAudioDescription wholeVad = vad.toBuilder().setWholeUtterance(true).build();
+        // whole utterance audio needs the phonemes of all sentences
+        assertFalse(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                wholeVad, audio));
+        final PhonemeEntry wholePhoneme = UtteranceCacheManager.newWholeUtterancePhoneme(item.getUtterance());
+        assertTrue(mCacheManager.addAudioToCacheItemAsync(item.getUuid(), wholePhoneme, wholeVad, audio));
+        List<byte[]> audioList = mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(1, audioList.size());
+        assertArrayEquals(audio, audioList.get(0));
+        mCacheManager.flushPendingAudio();
+
+        final CacheItem cachedItem = mCacheManager.findItemByUuid(item.getUuid()).get();
+        final AudioEntry audioEntry = cachedItem.getVoiceAudioEntriesOrThrow(
+                UtteranceCacheManager.buildVoiceKey(VoiceName, VoiceVersion));
+        assertTrue(UtteranceCacheManager.isWholeUtteranceAudio(audioEntry));
+        assertTrue(UtteranceCacheManager.hasCompleteAudio(cachedItem.getUtterance(), audioEntry));
+        audioList = mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+        assertEquals(1, audioList.size());
+        assertArrayEquals(audio, audioList.get(0));
+        try (CachedAudioStream stream = mCacheManager.openAudioStream(item.getUtterance(), VoiceName,
+                VoiceVersion, new byte[0])) {
+            assertNotNull(stream);
+            assertEquals(audio.length, stream.getSize());
+        }
+        // no more audio can be added for the voice
+        assertFalse(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(1),
+                vad, audio));
+
+        // the audio of the whole utterance isn't the audio of its first sentence
+        assertNull(mCacheManager.getSharedAudio(sentenceItem.getUtterance().getPhonemes(0), vad));
+        assertNull(mCacheManager.addSharedAudioToCacheItem(sentenceItem.getUuid(),
+                sentenceItem.getUtterance().getPhonemes(0), vad));
+        assertTrue(mCacheManager.getAudioForUtterance(sentenceItem.getUtterance(), VoiceName, VoiceVersion).isEmpty());
+    }
+
+    @Test
+    public void prewarmedAudioIsNoUsage() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final CacheItem item = mCacheManager.addUtterance("Góðan dag.", "góðan dag.",
+                List.of("k ou: D a n t a: x"));
+        final long usageCount = mCacheManager.getUsageCount(item.getUtterance());
+        final byte[] audioBuf = createSinusAudio(440, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                vad, audioBuf, false));
+        assertEquals(usageCount, mCacheManager.getUsageCount(item.getUtterance()));
+        assertTrue(mCacheManager.findItemByUuid(item.getUuid()).get()
+                .containsVoiceAudioEntries(buildVoiceKey(VoiceName, VoiceVersion)));
+    }
+
+    @Test
+    public void cachedAudioIsStreamedInChunks() throws IOException {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final CacheItem item = mCacheManager.addUtterance("Halló. Ný skilaboð.",
+                "halló. ný skilaboð.", List.of("h a l o", "n i: s k I: l a b O: D"));
+        final byte[] audio1 = createSinusAudio(440, 1, 22050);
+        final byte[] audio2 = createSinusAudio(880, 1, 22050);
+        final byte[] pause = new byte[1000];
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, 0, VoiceName, VoiceVersion);
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                vad.toBuilder().setFileSize(audio1.length).build(), audio1));
+        // audio of the second sentence is missing
+        assertNull(mCacheManager.openAudioStream(item.getUtterance(), VoiceName, VoiceVersion, pause));
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(1),
+                vad.toBuilder().setFileSize(audio2.length).build(), audio2));
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(audio1);
+        expected.write(pause);
+        expected.write(audio2);
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try (CachedAudioStream stream = mCacheManager.openAudioStream(item.getUtterance(), VoiceName,
+                VoiceVersion, pause)) {
+            assertNotNull(stream);
+            assertEquals(expected.size(), stream.getSize());
+            // an odd chunk size, so that chunks span the sentence boundaries
+            final byte[] chunk = new byte[4093];
+            int nRead;
+            while ((nRead = stream.read(chunk, 0, chunk.length)) > 0) {
+                streamed.write(chunk, 0, nRead);
+            }
+            assertEquals(-1, nRead);
+        }
+        assertArrayEquals(expected.toByteArray(), streamed.toByteArray());
+        // compressed audio can't be streamed
+        assertTrue(mCacheManager.deleteAudioForItem(mCacheManager.findItemByUuid(item.getUuid()).get()));
+        mCacheManager.setPcmAudioFormat(AUDIO_FMT_IMA_ADPCM);
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                vad.toBuilder().setFileSize(audio1.length).build(), audio1));
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(1),
+                vad.toBuilder().setFileSize(audio2.length).build(), audio2));
+        assertNull(mCacheManager.openAudioStream(item.getUtterance(), VoiceName, VoiceVersion, pause));
+        mCacheManager.setPcmAudioFormat(AUDIO_FMT_PCM);
+    }
+
+    @Test
+    public void metricsSnapshotCountsAudioAndLookups() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final CacheItem item = mCacheManager.addUtterance("Góðan dag.", "góðan dag.",
+                List.of("k ou: D a n t a: x"));
+        final byte[] audioBuf = createSinusAudio(440, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        final UtteranceCacheMetrics.Snapshot before = mCacheManager.getMetricsSnapshot();
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                vad, audioBuf));
+        assertEquals(1, mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion).size());
+        mCacheManager.getMetrics().recordAudioLookup(true);
+        mCacheManager.getMetrics().recordAudioLookup(false);
+        mCacheManager.getMetrics().recordEviction(UtteranceCacheMetrics.EVICTION_USAGE, 2, 100);
+
+        final UtteranceCacheMetrics.Snapshot after = mCacheManager.getMetricsSnapshot();
+        assertEquals(before.writeCount + 1, after.writeCount);
+        assertEquals(before.readCount + 1, after.readCount);
+        assertEquals(before.audioHits + 1, after.audioHits);
+        assertEquals(before.audioMisses + 1, after.audioMisses);
+        assertEquals(before.evictionCounts.getOrDefault(UtteranceCacheMetrics.EVICTION_USAGE, 0L) + 2,
+                (long) after.evictionCounts.get(UtteranceCacheMetrics.EVICTION_USAGE));
+        assertEquals(audioBuf.length,
+                (long) after.bytesPerVoice.get(buildVoiceKey(VoiceName, VoiceVersion)));
+        assertTrue(after.toString().contains("audio_hits " + after.audioHits));
+    }
+
+    @Test
+    public void memoryTierServesRepeatedReads() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final CacheItem item = mCacheManager.addUtterance("Til baka", "til baka",
+                List.of("t I: l p a: k a"));
+        final byte[] audioBuf = createSinusAudio(440, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                vad, audioBuf));
+        mCacheManager.setMemoryCacheCapacity(16 * audioBuf.length);
+        try {
+            final UtteranceCacheMetrics.Snapshot before = mCacheManager.getMetricsSnapshot();
+            final List<byte[]> audio1 = mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+            final List<byte[]> audio2 = mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+            assertArrayEquals(audioBuf, audio2.get(0));
+            assertSame(audio1.get(0), audio2.get(0));
+            final UtteranceCacheMetrics.Snapshot after = mCacheManager.getMetricsSnapshot();
+            // only the first lookup has read from the audio store
+            assertEquals(before.readCount + 1, after.readCount);
+            assertEquals(before.memoryHits + 1, after.memoryHits);
+            assertEquals(audioBuf.length, after.memoryResidentBytes);
+
+            mCacheManager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+            assertEquals(0, mCacheManager.getMemoryCacheResidentBytes());
+            mCacheManager.getAudioForUtterance(item.getUtterance(), VoiceName, VoiceVersion);
+            assertEquals(audioBuf.length, mCacheManager.getMemoryCacheResidentBytes());
+            assertTrue(mCacheManager.deleteAudioForItem(mCacheManager.findItemByUuid(item.getUuid()).get()));
+            assertEquals(0, mCacheManager.getMemoryCacheResidentBytes());
+        } finally {
+            mCacheManager.setMemoryCacheCapacity(0);
+        }
+    }
+
+    @Test
+    public void snapshotArchiveRoundTrip() throws IOException, InterruptedException {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final List<String> texts = List.of("Til baka", "Áfram");
+        final List<String> phonemes = List.of("t I: l p a: k a", "au: f r a m");
+        final List<byte[]> audioBufs = new ArrayList<>();
+        for (int i = 0; i < texts.size(); ++i) {
+            final CacheItem item = mCacheManager.addUtterance(texts.get(i), texts.get(i).toLowerCase(),
+                    List.of(phonemes.get(i)));
+            final byte[] audioBuf = createSinusAudio(440 + 110 * i, 1, 22050);
+            final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                    SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+            assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), item.getUtterance().getPhonemes(0),
+                    vad, audioBuf));
+            audioBufs.add(audioBuf);
+        }
+        final File archive = File.createTempFile("cache_snapshot", ".zip", App.getContext().getCacheDir());
+        try {
+            final CacheSnapshotArchive snapshotArchive = new CacheSnapshotArchive(mCacheManager);
+            assertEquals(2, snapshotArchive.exportVoice(archive, VoiceName, VoiceVersion));
+            assertEquals(0, snapshotArchive.exportVoice(archive, VoiceName, "v2"));
+            assertEquals(2, snapshotArchive.exportVoice(archive, VoiceName, VoiceVersion));
+
+            // a newer local item with different phonemes is kept
+            mCacheManager.clearCache();
+            Thread.sleep(10);
+            mCacheManager.addUtterance(texts.get(0), texts.get(0).toLowerCase(), List.of("t I l p a k a"));
+
+            // archives of other voice versions are rejected
+            assertEquals(0, snapshotArchive.importArchive(archive, Map.of(VoiceName, "v2")));
+            assertEquals(1, snapshotArchive.importArchive(archive, Map.of(VoiceName, VoiceVersion)));
+            // importing again doesn't change anything
+            assertEquals(0, snapshotArchive.importArchive(archive, Map.of(VoiceName, VoiceVersion)));
+
+            final CacheItem keptItem = mCacheManager.findItemByText(texts.get(0)).get();
+            assertEquals("t I l p a k a", keptItem.getUtterance().getPhonemes(0).getSymbols());
+            assertFalse(keptItem.getVoiceAudioEntriesMap().containsKey(buildVoiceKey(VoiceName, VoiceVersion)));
+            final CacheItem importedItem = mCacheManager.findItemByText(texts.get(1)).get();
+            final List<byte[]> audio = mCacheManager.getAudioForUtterance(importedItem.getUtterance(),
+                    VoiceName, VoiceVersion);
+            assertEquals(1, audio.size());
+            assertArrayEquals(audioBufs.get(1), audio.get(0));
+        } finally {
+            assertTrue(archive.delete());
+        }
+    }
+
+    @Test
+    public void voiceQuotaEvictsOnlyOwnAudio() {
+        final String MainVoice = "Alfur";
+        final String OtherVoice = "Dilja";
+        final String VoiceVersion = "v1";
+        final List<CacheItem> items = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            items.add(mCacheManager.addUtterance("setning " + i, "setning " + i,
+                    List.of("s E h t n i N k " + i)));
+        }
+        // 10 seconds of 22kHz PCM audio each
+        final byte[] audioBuf = createSinusAudio(440, 10, 22050);
+        final VoiceAudioDescription mainVad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, MainVoice, VoiceVersion);
+        final VoiceAudioDescription otherVad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, OtherVoice, VoiceVersion);
+        mCacheManager.setPreferredVoice(MainVoice, VoiceVersion);
+        // quota of the other voice: 10% of the high watermark, i.e. 3 audio buffers
+        mCacheManager.setVoiceQuotas(100, 10);
+        try {
+            for (CacheItem item : items.subList(0, 2)) {
+                assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(),
+                        item.getUtterance().getPhonemes(0), mainVad, audioBuf));
+            }
+            assertEquals(2L * audioBuf.length, mCacheManager.getAudioFileSize(MainVoice, VoiceVersion));
+            for (CacheItem item : items) {
+                assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(),
+                        item.getUtterance().getPhonemes(0), otherVad, audioBuf));
+            }
+            mCacheManager.awaitExpiration();
+            // the other voice has been expired down to 5% of the high watermark
+            final long otherSize = mCacheManager.getAudioFileSize(OtherVoice, VoiceVersion);
+            assertTrue(otherSize <= HighWatermark / 10 * LowWatermark / HighWatermark);
+            assertTrue(otherSize > 0);
+            // neither the items nor the audio of the main voice have been deleted
+            assertEquals(2L * audioBuf.length, mCacheManager.getAudioFileSize(MainVoice, VoiceVersion));
+            assertEquals(mCacheManager.getAudioFileSize(MainVoice, VoiceVersion) + otherSize,
+                    mCacheManager.getAudioFileSize());
+            for (CacheItem item : items) {
+                assertTrue(mCacheManager.findItemByUuid(item.getUuid()).isPresent());
+            }
+            assertTrue(mCacheManager.getMetricsSnapshot().evictionCounts
+                    .containsKey(UtteranceCacheMetrics.EVICTION_QUOTA));
+        } finally {
+            mCacheManager.setVoiceQuotas(100, 100);
+        }
+    }
+
+    @Test
+    public void pinnedItemsAreExemptFromEvictionWithinBudget() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final List<CacheItem> items = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            items.add(mCacheManager.addUtterance("valmynd " + i, "valmynd " + i,
+                    List.of("v a l m I n t " + i)));
+        }
+        // 10 seconds of 22kHz PCM audio each, 40 of them exceed the high watermark
+        final byte[] audioBuf = createSinusAudio(440, 10, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        // the 3 items evicted first are pinned, but the budget only covers 2 of them
+        mCacheManager.setPinnedBytesBudget(2L * audioBuf.length);
+        try {
+            for (CacheItem item : items.subList(0, 3)) {
+                assertTrue(mCacheManager.setItemPinned(item.getUuid(), true));
+            }
+            assertFalse(mCacheManager.setItemPinned("unknown-uuid", true));
+            for (CacheItem item : items) {
+                assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(),
+                        item.getUtterance().getPhonemes(0), vad, audioBuf));
+            }
+            mCacheManager.awaitExpiration();
+            assertTrue(mCacheManager.getAudioFileSize() < HighWatermark);
+            // the pinned item first in the eviction order exceeded the budget
+            assertFalse(mCacheManager.findItemByUuid(items.get(0).getUuid()).isPresent());
+            for (CacheItem item : items.subList(1, 3)) {
+                final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(item.getUuid());
+                assertTrue(optItem.isPresent());
+                assertTrue(optItem.get().getPinned());
+                assertEquals(audioBuf.length, mCacheManager.getAudioFileSize(optItem.get()));
+            }
+            assertEquals(2L * audioBuf.length, mCacheManager.getPinnedAudioFileSize());
+            // unpinned items are evicted as usual
+            assertFalse(mCacheManager.findItemByUuid(items.get(3).getUuid()).isPresent());
+        } finally {
+            mCacheManager.setPinnedBytesBudget(0);
+        }
+    }
+
+    @Test
+    public void textHashCollisionIsAMiss() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        // two texts forced to the same text hash
+        final Utterance utterance1 = UtteranceCacheManager.newUtterance("Fyrsti texti.", "fyrsti texti",
+                List.of("f I r s t I t E x s t I")).toBuilder().setTextHash(42).build();
+        final Utterance utterance2 = UtteranceCacheManager.newUtterance("Annar texti.", "annar texti",
+                List.of("a n a r t E x s t I")).toBuilder().setTextHash(42).build();
+        final CacheItem item1 = mCacheManager.saveUtterance(utterance1);
+        final byte[] audioBuf = createSinusAudio(440, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        assertTrue(mCacheManager.addAudioToCacheItem(item1.getUuid(), utterance1.getPhonemes(0),
+                vad, audioBuf));
+
+        // the other text's audio is neither served nor modified
+        assertTrue(mCacheManager.getAudioForUtterance(utterance2, VoiceName, VoiceVersion).isEmpty());
+        final CacheItem item2 = mCacheManager.saveUtterance(utterance2);
+        assertNotEquals(item1.getUuid(), item2.getUuid());
+        assertEquals(utterance2, item2.getUtterance());
+        final CacheItem foundItem1 = mCacheManager.findItemByUuid(item1.getUuid()).get();
+        assertEquals(utterance1, foundItem1.getUtterance());
+        assertEquals(1, foundItem1.getVoiceAudioEntriesOrThrow(buildVoiceKey(VoiceName, VoiceVersion))
+                .getAudioDescriptorsCount());
+        assertTrue(mCacheManager.getAudioForUtterance(utterance2, VoiceName, VoiceVersion).isEmpty());
+    }
+
+    @Test
+    public void frontendMigrationKeepsUnchangedAudio() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final String text = "Halló. Góðan dag. Bless.";
+        final Utterance outdatedUtterance = UtteranceCacheManager.newUtterance(text, text.toLowerCase(),
+                List.of("h a l ou", "k ou: D a n t a: x", "p l E s")).toBuilder()
+                .setFrontendVersion("0.9")
+                .build();
+        final CacheItem item = mCacheManager.saveUtterance(outdatedUtterance);
+        final byte[] audioBuf = createSinusAudio(440, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, audioBuf.length, VoiceName, VoiceVersion);
+        for (PhonemeEntry phonemeEntry : item.getUtterance().getPhonemesList()) {
+            assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(), phonemeEntry, vad, audioBuf));
+        }
+        final List<VoiceAudioDescription> oldVads = mCacheManager.findItemByUuid(item.getUuid()).get()
+                .getVoiceAudioEntriesOrThrow(buildVoiceKey(VoiceName, VoiceVersion)).getAudioDescriptorsList();
+        assertTrue(CacheFrontendMigrator.isOutdated(mCacheManager.findItemByUuid(item.getUuid()).get()));
+
+        // the new frontend only changes the pronunciation of the last sentence
+        final CacheFrontendMigrator migrator = new CacheFrontendMigrator(mCacheManager,
+                t -> UtteranceCacheManager.newUtterance(t, t.toLowerCase(),
+                        List.of("h a l ou", "k ou: D a n t a: x", "p l E: s")),
+                16, 0);
+        // the first step collects the outdated items, the second one migrates them
+        migrator.migrateStep();
+        migrator.migrateStep();
+        assertEquals(1, migrator.getItemsMigrated());
+        assertEquals(2, migrator.getAudioKept());
+        assertEquals(1, migrator.getAudioInvalidated());
+
+        final CacheItem migratedItem = mCacheManager.findItemByUuid(item.getUuid()).get();
+        assertFalse(CacheFrontendMigrator.isOutdated(migratedItem));
+        assertEquals("p l E: s", migratedItem.getUtterance().getPhonemes(2).getSymbols());
+        final List<VoiceAudioDescription> keptVads = migratedItem
+                .getVoiceAudioEntriesOrThrow(buildVoiceKey(VoiceName, VoiceVersion)).getAudioDescriptorsList();
+        assertEquals(oldVads.subList(0, 2), keptVads);
+        assertEquals(2L * audioBuf.length, mCacheManager.getAudioFileSize());
+        final List<byte[]> audio = mCacheManager.getAudioForUtterance(migratedItem.getUtterance(),
+                VoiceName, VoiceVersion);
+        assertEquals(2, audio.size());
+        assertArrayEquals(audioBuf, audio.get(1));
+    }
+
+    @Test
+    public void frontendMigrationKeepsAudioAfterChangedSentence() {
+        final String VoiceName = "Alfur";
+        final String VoiceVersion = "v1";
+        final String voiceKey = buildVoiceKey(VoiceName, VoiceVersion);
+        final String text = "Halló. Góðan dag. Bless.";
+        final Utterance outdatedUtterance = UtteranceCacheManager.newUtterance(text, text.toLowerCase(),
+                List.of("h a l ou", "k ou: D a n t a: x", "p l E s")).toBuilder()
+                .setFrontendVersion("0.9")
+                .build();
+        final CacheItem item = mCacheManager.saveUtterance(outdatedUtterance);
+        final List<byte[]> audioBufs = List.of(createSinusAudio(440, 1, 22050),
+                createSinusAudio(550, 1, 22050), createSinusAudio(660, 1, 22050));
+        for (int i = 0; i < 3; ++i) {
+            final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                    SAMPLE_RATE_22KHZ, audioBufs.get(i).length, VoiceName, VoiceVersion);
+            assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(),
+                    item.getUtterance().getPhonemes(i), vad, audioBufs.get(i)));
+        }
+        final List<VoiceAudioDescription> oldVads = mCacheManager.findItemByUuid(item.getUuid()).get()
+                .getVoiceAudioEntriesOrThrow(voiceKey).getAudioDescriptorsList();
+
+        // the new frontend only changes the pronunciation of the middle sentence
+        final CacheFrontendMigrator migrator = new CacheFrontendMigrator(mCacheManager,
+                t -> UtteranceCacheManager.newUtterance(t, t.toLowerCase(),
+                        List.of("h a l ou", "k ou: D a n t a x", "p l E s")),
+                16, 0);
+        migrator.migrateStep();
+        migrator.migrateStep();
+        assertEquals(1, migrator.getItemsMigrated());
+        assertEquals(2, migrator.getAudioKept());
+        assertEquals(1, migrator.getAudioInvalidated());
+
+        // the audio of the last sentence is retained until the middle sentence has audio
+        CacheItem migratedItem = mCacheManager.findItemByUuid(item.getUuid()).get();
+        AudioEntry audioEntry = migratedItem.getVoiceAudioEntriesOrThrow(voiceKey);
+        assertEquals(oldVads.subList(0, 1), audioEntry.getAudioDescriptorsList());
+        assertEquals(2, audioEntry.getRetainedAudioCount());
+        assertEquals(oldVads.get(2), audioEntry.getRetainedAudio(1));
+        assertEquals((long) audioBufs.get(0).length + audioBufs.get(2).length,
+                mCacheManager.getAudioFileSize());
+        assertEquals(1, mCacheManager.getAudioForUtterance(migratedItem.getUtterance(),
+                VoiceName, VoiceVersion).size());
+
+        final byte[] newAudioBuf = createSinusAudio(770, 1, 22050);
+        final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                SAMPLE_RATE_22KHZ, newAudioBuf.length, VoiceName, VoiceVersion);
+        assertTrue(mCacheManager.addAudioToCacheItem(item.getUuid(),
+                migratedItem.getUtterance().getPhonemes(1), vad, newAudioBuf));
+        migratedItem = mCacheManager.findItemByUuid(item.getUuid()).get();
+        audioEntry = migratedItem.getVoiceAudioEntriesOrThrow(voiceKey);
+        assertEquals(3, audioEntry.getAudioDescriptorsCount());
+        assertEquals(0, audioEntry.getRetainedAudioCount());
+        assertEquals(oldVads.get(0), audioEntry.getAudioDescriptors(0));
+        assertEquals(oldVads.get(2), audioEntry.getAudioDescriptors(2));
+        final List<byte[]> audio = mCacheManager.getAudioForUtterance(migratedItem.getUtterance(),
+                VoiceName, VoiceVersion);
+        assertEquals(3, audio.size());
+        assertArrayEquals(audioBufs.get(0), audio.get(0));
+        assertArrayEquals(newAudioBuf, audio.get(1));
+        assertArrayEquals(audioBufs.get(2), audio.get(2));
+    }
+
+    @Test
+    public void concurrentLookupsHitAndKeepTouches() throws InterruptedException {
+        prefillCache();
+        final int nThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        final long durationMs = 2000;
+        final long[] usageCounts = new long[tList.size()];
+        for (int i = 0; i < tList.size(); ++i) {
+            usageCounts[i] = mCacheManager.findItemByText(tList.get(i)).get().getUsageCount();
+        }
+
+        final AtomicLongArray nSingleLookups = new AtomicLongArray(tList.size());
+        final long nSingle = runConcurrentLookups(1, durationMs, nSingleLookups);
+        final AtomicLongArray nConcurrentLookups = new AtomicLongArray(tList.size());
+        final long nConcurrent = runConcurrentLookups(nThreads, durationMs, nConcurrentLookups);
+        // throughput depends on the device and its load, it's only reported
+        Log.i(LOG_TAG, "Cached lookups in " + durationMs + "ms: 1 thread: " + nSingle + ", "
+                + nThreads + " threads: " + nConcurrent);
+        assertTrue(nSingle > 0);
+        assertTrue(nConcurrent > 0);
+
+        // no usage count increment has been lost
+        for (int i = 0; i < tList.size(); ++i) {
+            final CacheItem item = mCacheManager.findItemByText(tList.get(i)).get();
+            assertEquals(usageCounts[i] + nSingleLookups.get(i) + nConcurrentLookups.get(i),
+                    item.getUsageCount());
+        }
+    }
+}
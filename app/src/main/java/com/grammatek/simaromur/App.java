@@ -88,4 +88,13 @@ public class App extends Application {
             // bad, see https://stackoverflow.com/questions/8943288/how-to-implement-uncaughtexception-android#answer-8943671
         }
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        Log.v(LOG_TAG, "onTrimMemory(" + level + ")");
+        super.onTrimMemory(level);
+        if (mAppRepository != null) {
+            mAppRepository.onTrimMemory(level);
+        }
+    }
 }
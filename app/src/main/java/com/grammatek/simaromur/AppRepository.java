@@ -2,6 +2,7 @@ package com.grammatek.simaromur;
 
 import static android.speech.tts.TextToSpeech.LANG_COUNTRY_VAR_AVAILABLE;
 
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.app.Application;
 import android.content.ActivityNotFoundException;
@@ -11,6 +12,7 @@ import android.content.Intent;
 import android.media.AudioFormat;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.storage.StorageManager;
 import android.provider.Settings;
 import android.speech.tts.SynthesisCallback;
 import android.speech.tts.TextToSpeech;
@@ -19,7 +21,15 @@ import android.util.Log;
 import androidx.lifecycle.LiveData;
 
 import com.grammatek.simaromur.audio.AudioManager;
+import com.grammatek.simaromur.cache.AdaptiveCacheSizer;
+import com.grammatek.simaromur.cache.CacheConsistencyScanner;
+import com.grammatek.simaromur.cache.CacheEvictionPolicy;
+import com.grammatek.simaromur.cache.CacheFrontendMigrator;
+import com.grammatek.simaromur.cache.CachedAudioStream;
 import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.CacheSnapshotArchive;
+import com.grammatek.simaromur.cache.GdsfEvictionPolicy;
+import com.grammatek.simaromur.cache.LruEvictionPolicy;
 import com.grammatek.simaromur.cache.Utterance;
 import com.grammatek.simaromur.cache.UtteranceCacheManager;
 import com.grammatek.simaromur.db.AppData;
@@ -32,9 +42,13 @@ import com.grammatek.simaromur.db.VoiceDao;
 import com.grammatek.simaromur.device.DownloadVoiceManager;
 import com.grammatek.simaromur.device.TTSAudioControl;
 import com.grammatek.simaromur.device.TTSEngineController;
+import com.grammatek.simaromur.device.TTSEngineOnnx;
 import com.grammatek.simaromur.device.pojo.DeviceVoice;
 import com.grammatek.simaromur.frontend.FrontendManager;
+import com.grammatek.simaromur.frontend.TextCanonicalizer;
 import com.grammatek.simaromur.device.AssetVoiceManager;
+import com.grammatek.simaromur.device.CachePrerenderer;
+import com.grammatek.simaromur.device.CachePrewarmer;
 import com.grammatek.simaromur.network.ConnectionCheck;
 import com.grammatek.simaromur.utils.FileUtils;
 import com.grammatek.simaromur.network.api.SpeakController;
@@ -42,13 +56,18 @@ import com.grammatek.simaromur.network.api.VoiceController;
 import com.grammatek.simaromur.network.api.pojo.SpeakRequest;
 import com.grammatek.simaromur.network.api.pojo.VoiceResponse;
 
+import thirdparty.Sonic;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
@@ -77,10 +96,34 @@ public class AppRepository {
     private final ApiDbUtil mApiDbUtil;
     private final AssetVoiceManager mAVM;
     private final DownloadVoiceManager mDVM;
-    // audio cache low/high watermark: 48/72MB, @todo: make configurable
+    // initial audio cache low watermark: 48MB, the high watermark is 1.5 times the low watermark.
+    // With adaptive sizing, the low watermark is adapted between the min. and max. low watermark
     private static final long CacheLowWatermark = 48 * 1024 * 1024;
-    private static final long CacheHighWatermark = (long) (1.5 * CacheLowWatermark);
+    private static final double CacheHighWatermarkRatio = 1.5;
+    private static final long CacheMinLowWatermark = 16 * 1024 * 1024;
+    private static final long CacheMaxLowWatermark = 512L * 1024 * 1024;
+    // interval between two adaptive sizing steps of the audio cache
+    private static final long CacheSizeAdjustIntervalSecs = 10 * 60;
+    // interval for flushing in-memory usage counts/timestamps into the cache meta data
+    private static final long CacheTouchFlushIntervalSecs = 60;
+    // interval between two steps of the cache consistency scanner
+    private static final long CacheScanStepIntervalSecs = 5;
+    // interval between two cache prewarm steps
+    private static final long CachePrewarmStepIntervalSecs = 60;
+    // interval between two steps of pre-rendering texts requested by client apps
+    private static final long CachePrerenderStepIntervalSecs = 5;
+    // interval between two steps of migrating cache items of older frontend versions
+    private static final long CacheMigrateStepIntervalSecs = 10;
+    // the in-memory tier of cached PCM audio uses this fraction of the app's memory class
+    private static final int CacheMemoryTierHeapFraction = 16;
+    // cache snapshot archives provisioned into this directory of the external files directory
+    // are imported into the cache at startup
+    private static final String CacheSnapshotDir = "cache_snapshots";
     private final UtteranceCacheManager mUtteranceCacheManager;
+    private final CacheConsistencyScanner mCacheConsistencyScanner;
+    private final CachePrewarmer mCachePrewarmer;
+    private final CachePrerenderer mCachePrerenderer;
+    private final CacheFrontendMigrator mCacheFrontendMigrator;
     // in TTSService.onSynthesizeText() we receive items of this queue and send them from either
     // a.) TTS worker threads or b.) via TTSService.onStop()
     private final LinkedBlockingQueue<TTSProcessingResult> mTTSProcessingResultQueue = new LinkedBlockingQueue<>();
@@ -201,8 +244,33 @@ public class AppRepository {
         Log.v(LOG_TAG, "AppRepository()");
         mAllCachedVoices = new ArrayList<>();
         ApplicationDb db = ApplicationDb.getDatabase(application);
+        UtteranceCacheManager.setTextCanonicalizer(
+                TextCanonicalizer.fromConfig(getAssetConfigValueFor("cache_text_canonicalization")));
+        final boolean useSegmentAudioStore =
+                !getAssetConfigValueFor("cache_audio_store").trim().equals("file");
+        // 0: adaptive sizing
+        final long configuredLowWatermark = getCacheLowWatermark(getAssetConfigValueFor("cache_size_mb"));
+        final long lowWatermark = (configuredLowWatermark > 0) ? configuredLowWatermark : CacheLowWatermark;
         mUtteranceCacheManager = new UtteranceCacheManager("utterance_cache.pb",
-                CacheLowWatermark, CacheHighWatermark);
+                lowWatermark, (long) (CacheHighWatermarkRatio * lowWatermark), useSegmentAudioStore);
+        if (configuredLowWatermark == 0) {
+            mUtteranceCacheManager.setAdaptiveSizer(new AdaptiveCacheSizer(CacheMinLowWatermark,
+                    CacheMaxLowWatermark, AdaptiveCacheSizer.DEFAULT_MAX_STORAGE_FRACTION,
+                    AdaptiveCacheSizer.DEFAULT_MIN_FREE_STORAGE_BYTES));
+        }
+        mUtteranceCacheManager.setPcmAudioFormat(
+                getCacheAudioFormat(getAssetConfigValueFor("cache_audio_format")));
+        mUtteranceCacheManager.setEvictionPolicy(
+                getCacheEvictionPolicy(getAssetConfigValueFor("cache_eviction_policy")));
+        mUtteranceCacheManager.setMemoryCacheCapacity(getCacheMemoryTierCapacity(App.getContext()));
+        mUtteranceCacheManager.setVoiceQuotas(
+                getCacheVoiceQuotaPercent(getAssetConfigValueFor("cache_selected_voice_quota")),
+                getCacheVoiceQuotaPercent(getAssetConfigValueFor("cache_other_voice_quota")));
+        mUtteranceCacheManager.setPinnedBytesBudget(
+                getCachePinnedBytesBudget(getAssetConfigValueFor("cache_pinned_budget_mb")));
+        mCacheConsistencyScanner = new CacheConsistencyScanner(mUtteranceCacheManager,
+                CacheConsistencyScanner.DEFAULT_STEP_SIZE,
+                CacheConsistencyScanner.DEFAULT_CYCLE_INTERVAL_MILLIS);
         mAppDataDao = db.appDataDao();
         mVoiceDao = db.voiceDao();
         mNormDictDao = db.normDictDao();
@@ -211,6 +279,18 @@ public class AppRepository {
         mDVM = new DownloadVoiceManager();
         mFrontend = new FrontendManager(App.getContext());
         mTTSEngineController = new TTSEngineController(mAVM, mDVM);
+        mCachePrewarmer = new CachePrewarmer(App.getContext(), mUtteranceCacheManager,
+                mTTSEngineController, CachePrewarmer.DEFAULT_STEP_BUDGET_MILLIS,
+                CachePrewarmer.DEFAULT_MIN_IDLE_MILLIS);
+        mCachePrerenderer = new CachePrerenderer(mUtteranceCacheManager, mTTSEngineController,
+                this::prepareTextForPrerender, CachePrerenderer.DEFAULT_STEP_BUDGET_MILLIS);
+        mCacheFrontendMigrator = new CacheFrontendMigrator(mUtteranceCacheManager,
+                text -> {
+                    final Voice voice = mSelectedVoice;
+                    return (voice != null) ? executeFrontend(text, voice, false) : null;
+                },
+                CacheFrontendMigrator.DEFAULT_STEP_SIZE,
+                CacheFrontendMigrator.DEFAULT_CYCLE_INTERVAL_MILLIS);
         mNetworkSpeakController = new SpeakController();
         mNetworkVoiceController = new VoiceController();
         mAppData = mAppDataDao.getLiveAppData();
@@ -259,9 +339,264 @@ public class AppRepository {
         mScheduler = Executors.newSingleThreadScheduledExecutor();
         // only do this once at the beginning
         mScheduler.schedule(assetVoiceRunnable, 0, TimeUnit.SECONDS);
+        mScheduler.schedule(this::importCacheSnapshots, 0, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(mUtteranceCacheManager::flushTouches,
+                CacheTouchFlushIntervalSecs, CacheTouchFlushIntervalSecs, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(mCacheConsistencyScanner::scanStep,
+                CacheScanStepIntervalSecs, CacheScanStepIntervalSecs, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(() -> mCachePrewarmer.prewarmStep(mSelectedVoice),
+                CachePrewarmStepIntervalSecs, CachePrewarmStepIntervalSecs, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(mCachePrerenderer::prerenderStep,
+                CachePrerenderStepIntervalSecs, CachePrerenderStepIntervalSecs, TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(mCacheFrontendMigrator::migrateStep,
+                CacheMigrateStepIntervalSecs, CacheMigrateStepIntervalSecs, TimeUnit.SECONDS);
+        if (configuredLowWatermark == 0) {
+            mScheduler.scheduleWithFixedDelay(this::adjustCacheSize,
+                    CacheSizeAdjustIntervalSecs, CacheSizeAdjustIntervalSecs, TimeUnit.SECONDS);
+        }
         Log.v(LOG_TAG, "AppRepository() done");
     }
 
+    /**
+     * Maps the given configuration value to the audio format used for caching synthesized PCM
+     * audio.
+     *
+     * @param value     configuration value: "pcm", "lpc" or "adpcm"
+     * @return  audio format, AUDIO_FMT_PCM for unknown values
+     */
+    private static com.grammatek.simaromur.cache.AudioFormat getCacheAudioFormat(String value) {
+        switch (value.trim()) {
+            case "lpc":
+                return com.grammatek.simaromur.cache.AudioFormat.AUDIO_FMT_PCM_LPC;
+            case "adpcm":
+                return com.grammatek.simaromur.cache.AudioFormat.AUDIO_FMT_IMA_ADPCM;
+            default:
+                return com.grammatek.simaromur.cache.AudioFormat.AUDIO_FMT_PCM;
+        }
+    }
+
+    /**
+     * Returns the capacity of the in-memory tier of cached PCM audio, derived from the memory
+     * class of the device, e.g. 16MB for a memory class of 256MB.
+     *
+     * @param context   application context
+     * @return  capacity in bytes, 0 if the memory class is unknown
+     */
+    private static long getCacheMemoryTierCapacity(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return 0;
+        }
+        return (long) activityManager.getMemoryClass() * 1024 * 1024 / CacheMemoryTierHeapFraction;
+    }
+
+    /**
+     * Maps the given configuration value to the low watermark of the audio cache.
+     *
+     * @param value     configuration value: "auto" for adaptive sizing or the low watermark in MB
+     * @return  low watermark in bytes, 0 for adaptive sizing and invalid values
+     */
+    private static long getCacheLowWatermark(String value) {
+        if (value.trim().equals("auto")) {
+            return 0;
+        }
+        try {
+            final long megabytes = Long.parseLong(value.trim());
+            if (megabytes * 1024 * 1024 >= CacheMinLowWatermark) {
+                return megabytes * 1024 * 1024;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        Log.w(LOG_TAG, "getCacheLowWatermark(): invalid cache size '" + value + "', using auto");
+        return 0;
+    }
+
+    /**
+     * Adapts the size of the audio cache to the storage available on the device and to the
+     * observed working set, see AdaptiveCacheSizer. Called periodically, if adaptive sizing is
+     * enabled.
+     */
+    private void adjustCacheSize() {
+        final Context context = App.getContext();
+        final StorageManager storageManager = (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
+        if (storageManager == null) {
+            return;
+        }
+        try {
+            final UUID storageUuid = storageManager.getUuidForPath(new File(App.getDataPath()));
+            mUtteranceCacheManager.adjustCacheSize(storageManager.getAllocatableBytes(storageUuid));
+        } catch (IOException | RuntimeException e) {
+            // a failing task would be cancelled by the scheduler
+            Log.w(LOG_TAG, "adjustCacheSize(): couldn't adjust cache size", e);
+        }
+    }
+
+    /**
+     * Imports all cache snapshot archives provisioned into the cache snapshot directory of the
+     * external files directory, e.g. by a device management tool. Each archive is deleted after
+     * it has been processed, archives not matching the installed voices are dropped as well.
+     */
+    private void importCacheSnapshots() {
+        final File snapshotDir = App.getContext().getExternalFilesDir(CacheSnapshotDir);
+        final File[] archives = (snapshotDir != null) ? snapshotDir.listFiles() : null;
+        if (archives == null || archives.length == 0) {
+            return;
+        }
+        final Map<String, String> installedVoiceVersions = new HashMap<>();
+        for (Voice voice : mVoiceDao.getAnyVoices()) {
+            installedVoiceVersions.put(voice.internalName, voice.version);
+        }
+        final CacheSnapshotArchive snapshotArchive = new CacheSnapshotArchive(mUtteranceCacheManager);
+        for (File archive : archives) {
+            if (!archive.isFile() || !archive.getName().endsWith(".zip")) {
+                continue;
+            }
+            try {
+                final int nImported = snapshotArchive.importArchive(archive, installedVoiceVersions);
+                Log.i(LOG_TAG, "importCacheSnapshots(): imported " + nImported + " items of " + archive.getName());
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "importCacheSnapshots(): couldn't import " + archive.getName(), e);
+            }
+            if (!archive.delete()) {
+                Log.w(LOG_TAG, "importCacheSnapshots(): couldn't delete " + archive.getName());
+            }
+        }
+    }
+
+    /**
+     * Exports the cached audio of the currently selected on-device voice into a cache snapshot
+     * archive, that can be provisioned to other devices.
+     *
+     * @param archive   destination file, is overwritten
+     * @return  number of exported cache items
+     * @throws IOException in case no on-device voice is selected or the archive couldn't be
+     *                     written
+     */
+    public int exportCacheSnapshot(File archive) throws IOException {
+        final Voice voice = mSelectedVoice;
+        if (voice == null || !voice.type.equals(Voice.TYPE_ONNX)) {
+            throw new IOException("No on-device voice selected");
+        }
+        return new CacheSnapshotArchive(mUtteranceCacheManager)
+                .exportVoice(archive, voice.internalName, voice.version);
+    }
+
+    /**
+     * Maps the given configuration value to the audio quota of a voice in the utterance cache.
+     *
+     * @param value     configuration value: percentage of the cache size, 1 - 100
+     * @return  quota in percent, 100 (no quota) for invalid values
+     */
+    private static int getCacheVoiceQuotaPercent(String value) {
+        try {
+            final int percent = Integer.parseInt(value.trim());
+            if (percent > 0 && percent <= 100) {
+                return percent;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        Log.w(LOG_TAG, "getCacheVoiceQuotaPercent(): invalid quota '" + value + "', using 100");
+        return 100;
+    }
+
+    /**
+     * Maps the given configuration value to the budget for the audio of pinned cache items.
+     *
+     * @param value     configuration value: budget in MB, 0 disables the exemption of pinned items
+     * @return  budget in bytes, 0 for invalid values
+     */
+    private static long getCachePinnedBytesBudget(String value) {
+        try {
+            final long megabytes = Long.parseLong(value.trim());
+            if (megabytes >= 0 && megabytes * 1024 * 1024 < CacheMinLowWatermark) {
+                return megabytes * 1024 * 1024;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        Log.w(LOG_TAG, "getCachePinnedBytesBudget(): invalid budget '" + value + "', using 0");
+        return 0;
+    }
+
+    /**
+     * Renders given texts with given on-device voice in the background and pins their cache
+     * items, see CachePrerenderService. Normalization and G2P as well as synthesis are executed
+     * in small chunks by the steps of the cache prerenderer, so that a big request doesn't block
+     * the other tasks of the scheduler thread.
+     *
+     * @param texts     raw texts
+     * @param voiceName name of an installed on-device voice
+     * @return  true if the request has been accepted, false for unknown or network voices
+     */
+    public boolean prerenderTexts(List<String> texts, String voiceName) {
+        final Voice voice = getVoiceForName(voiceName);
+        if (voice == null || !voice.type.equals(Voice.TYPE_ONNX)) {
+            Log.w(LOG_TAG, "prerenderTexts(): no on-device voice (" + voiceName + ")");
+            return false;
+        }
+        mCachePrerenderer.enqueue(voice, texts);
+        return true;
+    }
+
+    /**
+     * Prepares given text of a prerender request: executes normalization and G2P if needed and
+     * pins its cache item. Called by the steps of the cache prerenderer.
+     *
+     * @param text  raw text
+     * @param voice voice of the prerender request
+     * @return  uuid of the pinned cache item, or null if the text couldn't be processed
+     */
+    private String prepareTextForPrerender(String text, Voice voice) {
+        final CacheItem item = saveIntoCacheForPrerender(text, voice);
+        if (item == null || !mUtteranceCacheManager.setItemPinned(item.getUuid(), true)) {
+            return null;
+        }
+        return item.getUuid();
+    }
+
+    /**
+     * Executes normalization and G2P for given text, unless its cache item is already up to date,
+     * and saves the results into the cache. In contrast to executeFrontendAndSaveIntoCache(), the
+     * lookup isn't recorded in the cache metrics, as it isn't a synthesis request.
+     *
+     * @param text  raw text
+     * @param voice voice to use for normalization and G2P
+     * @return  the cache item of the text, or null if there are no phonemes for the text
+     */
+    private CacheItem saveIntoCacheForPrerender(String text, Voice voice) {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        final CacheItem item = mUtteranceCacheManager.findItemByText(text).orElse(null);
+        final boolean hasPhonemes = item != null && item.getUtterance().getPhonemesCount() > 0;
+        if (hasPhonemes && !CacheFrontendMigrator.isOutdated(item)) {
+            return item;
+        }
+        final Utterance utterance = executeFrontend(text, voice, false);
+        if (utterance == null) {
+            Log.w(LOG_TAG, "saveIntoCacheForPrerender(): no phonemes for (\"" + text + "\")");
+            return null;
+        }
+        // keep the audio of unchanged phonemes of outdated items
+        return hasPhonemes ? mUtteranceCacheManager.rephonemizeItem(item.getUuid(), utterance)
+                : mUtteranceCacheManager.saveUtterance(utterance);
+    }
+
+    /**
+     * Maps the given configuration value to the policy used for evicting cached audio.
+     *
+     * @param value     configuration value: "lru" or "gdsf"
+     * @return  eviction policy, LRU for unknown values
+     */
+    private static CacheEvictionPolicy getCacheEvictionPolicy(String value) {
+        if (value.trim().equals(GdsfEvictionPolicy.NAME)) {
+            return new GdsfEvictionPolicy();
+        }
+        return new LruEvictionPolicy();
+    }
+
     /**
      * Create a map of regex patterns for all normalization dictionary entries for fast
      * lookup during normalization.
@@ -320,6 +655,52 @@ public class AppRepository {
         return mUtteranceCacheManager;
     }
 
+    /**
+     * Returns the consistency scanner of the utterance cache
+     *
+     * @return instance of the cache consistency scanner
+     */
+    public CacheConsistencyScanner getCacheConsistencyScanner() {
+        return mCacheConsistencyScanner;
+    }
+
+    /**
+     * Returns the prewarmer of the utterance cache
+     *
+     * @return instance of the cache prewarmer
+     */
+    public CachePrewarmer getCachePrewarmer() {
+        return mCachePrewarmer;
+    }
+
+    /**
+     * Returns the migrator of cache items processed by older frontend versions
+     *
+     * @return instance of the cache frontend migrator
+     */
+    public CacheFrontendMigrator getCacheFrontendMigrator() {
+        return mCacheFrontendMigrator;
+    }
+
+    /**
+     * Returns the prerenderer of texts requested by client apps
+     *
+     * @return instance of the cache prerenderer
+     */
+    public CachePrerenderer getCachePrerenderer() {
+        return mCachePrerenderer;
+    }
+
+    /**
+     * Called when the system is low on memory. Releases in-memory state that can be restored or
+     * persisted.
+     *
+     * @param level     the memory trim level as given to Application.onTrimMemory()
+     */
+    public void onTrimMemory(int level) {
+        mUtteranceCacheManager.onTrimMemory(level);
+    }
+
     synchronized
     public TTSRequest getCurrentTTsRequest() {
         return mCurrentRequest;
@@ -501,20 +882,23 @@ public class AppRepository {
      * play it directly with the media player and return true. Otherwise, return false. The
      * given TTSObserver's update() method is called in case the MediaPlayer finishes playback.
      *
-     * @param voiceId     Voice id / voice name of the audio entry for given cache item
+     * @param voice       Voice of the audio entry for given cache item
      * @param item        Cache item to examine for an audio entry
      * @param ttsObserver the TTSObserver to be called for audio data
      * @param ttsRequest  the TTSRequest to be passed to the TTSObserver
      * @return true in case audio speech entry has been found and playback started, false otherwise
      */
-    private boolean playIfAudioCacheHit(String voiceId, String voiceVersion, CacheItem item, TTSObserver ttsObserver, TTSRequest ttsRequest) {
+    private boolean playIfAudioCacheHit(Voice voice, CacheItem item, TTSObserver ttsObserver, TTSRequest ttsRequest) {
         Log.v(LOG_TAG, "playIfAudioCacheHit(2)");
         UtteranceCacheManager ucm = App.getAppRepository().getUtteranceCache();
         final List<byte[]> audioBuffers =
-                ucm.getAudioForUtterance(item.getUtterance(), voiceId, voiceVersion);
-        byte[] audioData;
-        if (!audioBuffers.isEmpty()) {
-            audioData = audioBuffers.get(0);
+                ucm.getAudioForUtterance(item.getUtterance(), voice.internalName, voice.version);
+        // only play back, if the audio of all sentences is cached. Otherwise the missing
+        // sentences are synthesized. Network voices synthesize the whole utterance at once
+        final boolean isWholeUtterance = voice.type.equals(Voice.TYPE_NETWORK);
+        if (!audioBuffers.isEmpty()
+                && (isWholeUtterance || audioBuffers.size() >= item.getUtterance().getPhonemesCount())) {
+            final byte[] audioData = joinCachedAudio(audioBuffers, getSentencePause(voice, item));
             Log.v(LOG_TAG, "Playing back cached audio of size " + audioData.length);
             ttsObserver.update(audioData, ttsRequest);
             return true;
@@ -522,6 +906,100 @@ public class AppRepository {
         return false;
     }
 
+    /**
+     * Streams the cached audio of given cache item directly to given SynthesisCallback, if the
+     * audio of all sentences is cached uncompressed. This is only valid inside an
+     * onSynthesizeText() callback, after the callback has been started.
+     *
+     * @param callback  callback given in onSynthesizeText()
+     * @param voice     the voice to use
+     * @param item      utterance cache item to play
+     * @param speed     speed to use for the voice audio
+     * @param pitch     pitch to use for the voice audio
+     * @return true in case the cached audio has been fed to the callback, false if the audio has
+     *          to be retrieved via startDeviceTTS() or startNetworkTTS()
+     */
+    public boolean streamIfAudioCacheHit(SynthesisCallback callback, Voice voice, CacheItem item,
+                                         float speed, float pitch) {
+        Log.v(LOG_TAG, "streamIfAudioCacheHit: " + item.getUuid());
+        final int sampleRate;
+        if (voice.type.equals(Voice.TYPE_ONNX)) {
+            try {
+                mTTSEngineController.LoadEngine(voice);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            sampleRate = mTTSEngineController.getEngine().GetNativeSampleRate();
+        } else {
+            sampleRate = mNetworkSpeakController.getNativeSampleRate();
+        }
+        final Utterance utterance = item.getUtterance();
+        try (CachedAudioStream stream = mUtteranceCacheManager.openAudioStream(utterance,
+                voice.internalName, voice.version, getSentencePause(voice, item))) {
+            if (stream == null) {
+                return false;
+            }
+            Log.v(LOG_TAG, "Streaming cached audio of size " + stream.getSize());
+            feedStreamToSynthesisCallback(callback, stream, sampleRate, pitch, speed, utterance.getText());
+        } catch (IOException e) {
+            // the client already received parts of the audio, don't play it twice
+            Log.e(LOG_TAG, "streamIfAudioCacheHit: couldn't read cached audio", e);
+            callback.error(TextToSpeech.ERROR_OUTPUT);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the pause to be inserted between the audio of two sentences of given cache item.
+     * Only utterances of on-device voices are split into sentences. The pause is generated with
+     * the sample rate of the cached audio of given voice, not of the currently loaded voice.
+     *
+     * @param voice Voice of the cached audio
+     * @param item  cache item
+     * @return pause audio, empty for a single sentence
+     */
+    private byte[] getSentencePause(Voice voice, CacheItem item) {
+        if (item.getUtterance().getPhonemesCount() <= 1 || !voice.type.equals(Voice.TYPE_ONNX)) {
+            return new byte[0];
+        }
+        final int sampleRate = mUtteranceCacheManager.getAudioSampleRate(item.getUtterance(),
+                voice.internalName, voice.version);
+        if (sampleRate == 0) {
+            Log.w(LOG_TAG, "getSentencePause: no cached audio of voice " + voice.internalName);
+            return new byte[0];
+        }
+        return AudioManager.generatePcmSilence(TTSEngineOnnx.SENTENCE_PAUSE, sampleRate);
+    }
+
+    /**
+     * Joins the cached audio of all sentences of an utterance.
+     *
+     * @param audioBuffers  audio of each sentence
+     * @param pause         pause inserted between two sentences
+     * @return audio of the whole utterance
+     */
+    private static byte[] joinCachedAudio(List<byte[]> audioBuffers, byte[] pause) {
+        if (audioBuffers.size() == 1) {
+            return audioBuffers.get(0);
+        }
+        int totalSize = pause.length * (audioBuffers.size() - 1);
+        for (byte[] audio : audioBuffers) {
+            totalSize += audio.length;
+        }
+        final byte[] joined = new byte[totalSize];
+        int offset = 0;
+        for (int i = 0; i < audioBuffers.size(); ++i) {
+            if (i > 0) {
+                System.arraycopy(pause, 0, joined, offset, pause.length);
+                offset += pause.length;
+            }
+            System.arraycopy(audioBuffers.get(i), 0, joined, offset, audioBuffers.get(i).length);
+            offset += audioBuffers.get(i).length;
+        }
+        return joined;
+    }
+
     /**
      * Stops speaking current voice, if playing.
      */
@@ -545,7 +1023,7 @@ public class AppRepository {
         // map given voice to voiceId
         if (voice != null) {
             final TTSObserver ttsObserver = new TTSObserver(pitch, speed, mNetworkSpeakController.getNativeSampleRate());
-            if (playIfAudioCacheHit(voice.internalName, voice.version, item, ttsObserver, ttsRequest)) return;
+            if (playIfAudioCacheHit(voice, item, ttsObserver, ttsRequest)) return;
 
             final String SampleRate = "" + mNetworkSpeakController.getNativeSampleRate();
             final String normalized = item.getUtterance().getNormalized();
@@ -580,7 +1058,7 @@ public class AppRepository {
                 return;
             }
             final TTSObserver ttsObserver = new TTSObserver(pitch, speed, mTTSEngineController.getEngine().GetNativeSampleRate());
-            if (playIfAudioCacheHit(voice.internalName, voice.version, item, ttsObserver, ttsRequest)) return;
+            if (playIfAudioCacheHit(voice, item, ttsObserver, ttsRequest)) return;
             mTTSEngineController.StartSpeak(new TTSObserver(pitch, speed,
                     mTTSEngineController.getEngine().GetNativeSampleRate()), ttsRequest);
         } else {
@@ -639,6 +1117,7 @@ public class AppRepository {
                     }
                 }
                 mSelectedVoice = voice;
+                mUtteranceCacheManager.setPreferredVoice(voice.internalName, voice.version);
                 mAppDataDao.selectCurrentVoice(voice);
                 Log.v(LOG_TAG, "SUCCESS");
                 return TextToSpeech.SUCCESS;
@@ -930,33 +1409,113 @@ public class AppRepository {
             Log.v(LOG_TAG, "TTSObserver: offset = " + offset);
             final int bytesLeft = buffer.length - offset;
             final int bytesConsumed = Math.min(maxBytes, bytesLeft);
-            if (callback.hasStarted()) {
-                // this feeds audio data to the callback, which will then be consumed by the TTS
-                // client. In case the current utterance is stopped, all remaining audio data is
-                // consumed and discarded and afterwards TTSService.onStopped() is executed.
-                int cbStatus = callback.audioAvailable(buffer, offset, bytesConsumed);
-                switch(cbStatus) {
-                    case TextToSpeech.SUCCESS:
-                        if (!rawText.isEmpty()) {
-                            updateSpeechMarks(callback, buffer.length, offset, rawText.length(), bytesConsumed);
-                        }
-                        break;
-                    case TextToSpeech.ERROR:
-                        // This is also called, if the user skips the current utterance
-                        Log.w(LOG_TAG, "TTSObserver: callback.audioAvailable() returned ERROR");
-                        return;
-                    case TextToSpeech.STOPPED:
-                        Log.w(LOG_TAG, "TTSObserver: callback.audioAvailable() returned STOPPED");
-                        return;
-                    default:
-                        Log.e(LOG_TAG, "TTSObserver: callback.audioAvailable() returned " + cbStatus);
-                        return;
-                }
+            if (!feedChunkToSynthesisCallback(callback, buffer, offset, bytesConsumed, offset,
+                    buffer.length, rawText)) {
+                return;
             }
             offset += bytesConsumed;
         }
     }
 
+    /**
+     * Feed the audio of given cached audio stream to given SynthesisCallback. The audio is read
+     * chunk by chunk into a single buffer of the callbacks max. buffer size, each chunk is fed to
+     * the callback before the next one is read. Pitch and speed are applied chunk by chunk as
+     * well. Speech marks are also updated in case the given parameter rawText.size() != 0
+     *
+     * @param callback      callback given in onSynthesizeText()
+     * @param stream        cached audio stream to feed
+     * @param sampleRate    sample rate of the audio
+     * @param pitch         pitch to be applied
+     * @param speed         speed to be applied
+     * @param rawText       original text as given via "text" parameter in onSynthesizeText()
+     *
+     * @throws IOException in case the cached audio couldn't be read
+     */
+    public static void feedStreamToSynthesisCallback(SynthesisCallback callback, CachedAudioStream stream,
+                                                     int sampleRate, float pitch, float speed,
+                                                     String rawText) throws IOException {
+        final byte[] buffer = new byte[callback.getMaxBufferSize()];
+        if (pitch == 1.0f && speed == 1.0f) {
+            final int totalSize = (int) stream.getSize();
+            int offset = 0;
+            int nRead;
+            while ((nRead = stream.read(buffer, 0, buffer.length)) > 0) {
+                if (!feedChunkToSynthesisCallback(callback, buffer, 0, nRead, offset, totalSize, rawText)) {
+                    return;
+                }
+                offset += nRead;
+            }
+            return;
+        }
+
+        // the size of the converted audio is only known after the conversion, the speech marks
+        // are based on the expected size
+        final Sonic sonic = AudioManager.createSonic(sampleRate, pitch, speed);
+        final byte[] outBuffer = new byte[buffer.length];
+        final int expectedSize = (int) (stream.getSize() / speed);
+        int offset = 0;
+        int nRead;
+        do {
+            nRead = stream.read(buffer, 0, buffer.length);
+            if (nRead <= 0) {
+                sonic.flushStream();
+            } else {
+                sonic.writeBytesToStream(buffer, nRead);
+            }
+            int nWritten;
+            while ((nWritten = sonic.readBytesFromStream(outBuffer, outBuffer.length)) > 0) {
+                if (!feedChunkToSynthesisCallback(callback, outBuffer, 0, nWritten, offset,
+                        Math.max(expectedSize, offset + nWritten), rawText)) {
+                    return;
+                }
+                offset += nWritten;
+            }
+        } while (nRead > 0);
+    }
+
+    /**
+     * Feed one chunk of audio to given SynthesisCallback and update the speech marks.
+     *
+     * @param callback      callback given in onSynthesizeText()
+     * @param chunk         buffer holding the chunk
+     * @param chunkOffset   offset of the chunk in the buffer
+     * @param chunkSize     size of the chunk, at most callback.getMaxBufferSize()
+     * @param offsetInAudio offset of the chunk in the whole audio
+     * @param audioSize     size of the whole audio
+     * @param rawText       original text as given via "text" parameter in onSynthesizeText()
+     *
+     * @return  true in case feeding should continue, false if the callback didn't accept the audio
+     */
+    private static boolean feedChunkToSynthesisCallback(SynthesisCallback callback, byte[] chunk,
+                                                        int chunkOffset, int chunkSize, int offsetInAudio,
+                                                        int audioSize, String rawText) {
+        if (callback.hasStarted()) {
+            // this feeds audio data to the callback, which will then be consumed by the TTS
+            // client. In case the current utterance is stopped, all remaining audio data is
+            // consumed and discarded and afterwards TTSService.onStopped() is executed.
+            int cbStatus = callback.audioAvailable(chunk, chunkOffset, chunkSize);
+            switch(cbStatus) {
+                case TextToSpeech.SUCCESS:
+                    if (!rawText.isEmpty()) {
+                        updateSpeechMarks(callback, audioSize, offsetInAudio, rawText.length(), chunkSize);
+                    }
+                    break;
+                case TextToSpeech.ERROR:
+                    // This is also called, if the user skips the current utterance
+                    Log.w(LOG_TAG, "TTSObserver: callback.audioAvailable() returned ERROR");
+                    return false;
+                case TextToSpeech.STOPPED:
+                    Log.w(LOG_TAG, "TTSObserver: callback.audioAvailable() returned STOPPED");
+                    return false;
+                default:
+                    Log.e(LOG_TAG, "TTSObserver: callback.audioAvailable() returned " + cbStatus);
+                    return false;
+            }
+        }
+        return true;
+    }
+
     // Open Wifi preferences
     private void openWifiSettings(Context context) {
         try {
@@ -1013,6 +1572,7 @@ public class AppRepository {
                                                      com.grammatek.simaromur.db.Voice voice,
                                                      boolean doIgnoreUserDict) {
         String phonemes = "";
+        mUtteranceCacheManager.getMetrics().recordFrontendLookup(item.getUtterance().getPhonemesCount() > 0);
         if (item.getUtterance().getNormalized().isEmpty()) {
             // we always need to normalize the text, but it doesn't hurt, if we always do G2P as well
             // for network voices, this is currently all that is needed.
@@ -1020,7 +1580,8 @@ public class AppRepository {
             phonemes = mFrontend.transcribe(normalizedText, voice.type, voice.version);
             Log.v(LOG_TAG, "executeFrontendAndSaveIntoCache: original (\"" + text + "\"), normalized (\"" + normalizedText + "\"), phonemes (\"" + phonemes + "\")");
             if (!phonemes.isEmpty()) {
-                Utterance updatedUtterance = UtteranceCacheManager.newUtterance(text, normalizedText, List.of(phonemes));
+                Utterance updatedUtterance = UtteranceCacheManager.newUtterance(text, normalizedText,
+                        splitPhonemesForCaching(phonemes, voice));
                 item = mUtteranceCacheManager.saveUtterance(updatedUtterance);
                 Log.v(LOG_TAG, "... normalization/G2P saved into cache");
             }
@@ -1029,16 +1590,67 @@ public class AppRepository {
             phonemes = mFrontend.transcribe(normalizedText, voice.type, voice.version);
             Log.v(LOG_TAG, "executeFrontendAndSaveIntoCache: normalized (\"" + normalizedText + "\"), phonemes (\"" + phonemes + "\")");
             if (!phonemes.isEmpty()) {
-                Utterance updatedUtterance = UtteranceCacheManager.newUtterance(text, normalizedText, List.of(phonemes));
+                Utterance updatedUtterance = UtteranceCacheManager.newUtterance(text, normalizedText,
+                        splitPhonemesForCaching(phonemes, voice));
                 item = mUtteranceCacheManager.saveUtterance(updatedUtterance);
                 Log.v(LOG_TAG, "... G2P saved into cache");
             }
+        } else if (CacheFrontendMigrator.isOutdated(item)) {
+            // processed by an older frontend version: keep the audio of unchanged phonemes
+            final Utterance updatedUtterance = executeFrontend(text, voice, doIgnoreUserDict);
+            if (updatedUtterance != null) {
+                final CacheItem migratedItem = mUtteranceCacheManager.rephonemizeItem(item.getUuid(), updatedUtterance);
+                if (migratedItem != null) {
+                    item = migratedItem;
+                    Log.v(LOG_TAG, "... outdated normalization/G2P replaced in cache");
+                }
+            }
         } else {
             Log.v(LOG_TAG, "normalization/G2P skipped (hot cache)");
         }
         return item;
     }
 
+    /**
+     * Execute normalization and G2P for given text without saving the results into the cache.
+     *
+     * @param text Raw text
+     * @param voice voice to use for normalization and G2P
+     * @param doIgnoreUserDict true to ignore user dictionary, false otherwise
+     * @return utterance with the results, or null if there are no phonemes for the text
+     */
+    synchronized
+    private Utterance executeFrontend(String text, Voice voice, boolean doIgnoreUserDict) {
+        final String normalizedText = mFrontend.getNormalizationManager().process(text, doIgnoreUserDict);
+        final String phonemes = mFrontend.transcribe(normalizedText, voice.type, voice.version);
+        if (phonemes.isEmpty()) {
+            return null;
+        }
+        return UtteranceCacheManager.newUtterance(text, normalizedText, splitPhonemesForCaching(phonemes, voice));
+    }
+
+    /**
+     * Splits given phonemes into the phoneme entries of an utterance. On-device voices synthesize
+     * sentence by sentence, therefore each sentence gets its own phoneme entry and its audio is
+     * cached separately. Unchanged sentences of a modified text are then found in the cache and
+     * only the changed sentences are synthesized. Network voices synthesize the whole utterance
+     * at once.
+     *
+     * @param phonemes  phonemes of the whole utterance
+     * @param voice     voice used for G2P
+     *
+     * @return  phoneme symbols of each phoneme entry
+     */
+    private static List<String> splitPhonemesForCaching(String phonemes, Voice voice) {
+        if (voice.type.equals(Voice.TYPE_ONNX)) {
+            final List<String> sentences = TTSEngineOnnx.splitSentences(phonemes);
+            if (!sentences.isEmpty()) {
+                return sentences;
+            }
+        }
+        return List.of(phonemes);
+    }
+
     /**
      * Update DB according to network voice
      */
@@ -0,0 +1,122 @@
+package com.grammatek.simaromur;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exported service for client apps with a fixed vocabulary, e.g. menu labels, error prompts or
+ * numbers: the given texts are rendered in the background with an on-device voice and their
+ * cache items are pinned, so that their audio isn't evicted like other cached audio. See
+ * AppRepository.prerenderTexts().
+ *
+ * This is a bound service, so that client apps can use it while Simarómur runs in the
+ * background. Client apps need to hold the permission PERMISSION_PRERENDER, bind to the service
+ * and send a message to the returned Messenger like:
+ *
+ *   Intent intent = new Intent(CachePrerenderService.ACTION_PRERENDER)
+ *           .setPackage("com.grammatek.simaromur");
+ *   context.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+ *   ...
+ *   // in ServiceConnection.onServiceConnected(name, binder)
+ *   Message msg = Message.obtain(null, CachePrerenderService.MSG_PRERENDER);
+ *   Bundle data = new Bundle();
+ *   data.putStringArrayList(CachePrerenderService.EXTRA_TEXTS, texts);
+ *   data.putString(CachePrerenderService.EXTRA_VOICE, voiceName);
+ *   msg.setData(data);
+ *   msg.replyTo = replyMessenger;   // optional
+ *   new Messenger(binder).send(msg);
+ *
+ * The voice name is the name of the voice as used by the TTS service, without it the currently
+ * selected voice is used. If replyTo is set, a message MSG_PRERENDER_RESULT is sent back, its
+ * arg1 is 1 if the request has been accepted and 0 otherwise. The texts are rendered after the
+ * client has unbound as well.
+ */
+public class CachePrerenderService extends Service {
+    private final static String LOG_TAG = "Simaromur_" + CachePrerenderService.class.getSimpleName();
+    public final static String PERMISSION_PRERENDER = "com.grammatek.simaromur.permission.PRERENDER";
+    public final static String ACTION_PRERENDER = "com.grammatek.simaromur.action.PRERENDER";
+    // message requesting to prerender texts, the data bundle holds the extras below
+    public final static int MSG_PRERENDER = 1;
+    // reply to MSG_PRERENDER, arg1 is 1 if the request has been accepted, 0 otherwise
+    public final static int MSG_PRERENDER_RESULT = 2;
+    // ArrayList<String> of the texts to render
+    public final static String EXTRA_TEXTS = "com.grammatek.simaromur.extra.TEXTS";
+    // name of the voice to render the texts with, optional
+    public final static String EXTRA_VOICE = "com.grammatek.simaromur.extra.VOICE";
+    // max. number of texts accepted by one request
+    private final static int MAX_TEXTS = 1000;
+
+    private final Messenger mMessenger = new Messenger(new Handler(Looper.getMainLooper(),
+            this::handleMessage));
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        if (intent == null || !ACTION_PRERENDER.equals(intent.getAction())) {
+            Log.w(LOG_TAG, "onBind(): unsupported intent " + intent);
+            return null;
+        }
+        return mMessenger.getBinder();
+    }
+
+    /**
+     * Handles a message of a bound client app.
+     *
+     * @param msg   the message
+     * @return  true if the message has been handled
+     */
+    private boolean handleMessage(Message msg) {
+        if (msg.what != MSG_PRERENDER) {
+            Log.w(LOG_TAG, "handleMessage(): unsupported message " + msg.what);
+            return false;
+        }
+        final boolean isAccepted = handlePrerender(msg.getData());
+        if (msg.replyTo != null) {
+            try {
+                msg.replyTo.send(Message.obtain(null, MSG_PRERENDER_RESULT, isAccepted ? 1 : 0, 0));
+            } catch (RemoteException e) {
+                Log.w(LOG_TAG, "handleMessage(): client gone before the reply", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates given prerender request and hands it over to the app repository.
+     *
+     * @param data  data of the MSG_PRERENDER message
+     * @return  true if the request has been accepted, false otherwise
+     */
+    private boolean handlePrerender(Bundle data) {
+        final ArrayList<String> texts = data.getStringArrayList(EXTRA_TEXTS);
+        if (texts == null || texts.isEmpty()) {
+            Log.w(LOG_TAG, "handlePrerender(): no texts given");
+            return false;
+        }
+        final List<String> acceptedTexts = (texts.size() > MAX_TEXTS) ? texts.subList(0, MAX_TEXTS) : texts;
+        if (acceptedTexts.size() < texts.size()) {
+            Log.w(LOG_TAG, "handlePrerender(): only the first " + MAX_TEXTS + " of " + texts.size()
+                    + " texts are rendered");
+        }
+        final AppRepository repository = App.getAppRepository();
+        String voiceName = data.getString(EXTRA_VOICE);
+        if (voiceName == null || voiceName.isEmpty()) {
+            voiceName = repository.getLoadedVoiceName();
+        }
+        if (!repository.prerenderTexts(new ArrayList<>(acceptedTexts), voiceName)) {
+            Log.w(LOG_TAG, "handlePrerender(): request for voice (" + voiceName + ") rejected");
+            return false;
+        }
+        return true;
+    }
+}
@@ -23,10 +23,13 @@ import androidx.appcompat.widget.SwitchCompat;
 import androidx.cardview.widget.CardView;
 
 import com.grammatek.simaromur.cache.UtteranceCacheManager;
+import com.grammatek.simaromur.cache.UtteranceCacheMetrics;
 import com.grammatek.simaromur.db.AppData;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,6 +40,8 @@ import javax.annotation.Nullable;
  */
 public class InfoViewer extends AppCompatActivity {
     private final static String LOG_TAG = "Simaromur_Java_" + InfoViewer.class.getSimpleName();
+    private final static String CACHE_METRICS_FILE = "cache_metrics.txt";
+    private final static String CACHE_SNAPSHOT_FILE = "cache_snapshot.zip";
     private final String emptyString = "";
 
     @Override
@@ -64,7 +69,7 @@ public class InfoViewer extends AppCompatActivity {
      *  cardSwitch: emptyString if card doesn't contain a switch, otherwise string
      *
      *  In addition, if all lists contain an emptyString for the same index, a cache card is
-     *  created.
+     *  created. A card with the title R.string.cache_metrics shows the cache metrics.
      *
      *  For example if you want to create a card containing a title and text you still
      *  need to add an emptyString to `cardUrl` and `cardSwitch`
@@ -83,6 +88,7 @@ public class InfoViewer extends AppCompatActivity {
                 add(getString(R.string.info_app_version));
                 add(emptyString);
                 add(emptyString);
+                add(getString(R.string.cache_metrics));
                 add(emptyString);
                 add(getString(R.string.info_about_device_title));
                 add(getString(R.string.info_android_version));
@@ -98,6 +104,7 @@ public class InfoViewer extends AppCompatActivity {
                 add(getAppVersion());
                 add(getString(R.string.wiki_github));
                 add(emptyString);
+                add(getCacheMetricsSummary());
                 add(emptyString);
                 add(emptyString);
                 add(android.os.Build.VERSION.RELEASE);
@@ -118,6 +125,7 @@ public class InfoViewer extends AppCompatActivity {
                 add(emptyString);
                 add(emptyString);
                 add(emptyString);
+                add(emptyString);
                 add(getString(R.string.info_copyright_url));
                 add(getString(R.string.info_privacy_notice_url));
             }
@@ -128,6 +136,7 @@ public class InfoViewer extends AppCompatActivity {
                 add(emptyString);
                 add(emptyString);
                 add(emptyString);
+                add(emptyString);
                 add(getString(R.string.crashlytics_title));
                 add(emptyString);
                 add(emptyString);
@@ -151,6 +160,32 @@ public class InfoViewer extends AppCompatActivity {
         infoView.setAdapter(new SettingsArrayAdapter(this, textArray, titleArray, urlArray, switchArray));
     }
 
+    /**
+     * Returns a short summary of the utterance cache metrics.
+     *
+     * @return  formatted metrics summary
+     */
+    private String getCacheMetricsSummary() {
+        UtteranceCacheMetrics.Snapshot snapshot = App.getAppRepository().getUtteranceCache().getMetricsSnapshot();
+        long evictedItems = 0;
+        for (long count : snapshot.evictionCounts.values()) {
+            evictedItems += count;
+        }
+        long evictedBytes = 0;
+        for (long bytes : snapshot.evictionBytes.values()) {
+            evictedBytes += bytes;
+        }
+        return getString(R.string.cache_metrics_summary,
+                snapshot.audioHits, snapshot.audioHits + snapshot.audioMisses,
+                snapshot.frontendHits, snapshot.frontendHits + snapshot.frontendMisses,
+                evictedItems, evictedBytes / 1024,
+                snapshot.persistLatency[0], snapshot.persistLatency[2],
+                snapshot.readLatency[0], snapshot.readLatency[2],
+                snapshot.memoryHits, snapshot.memoryHits + snapshot.memoryMisses,
+                snapshot.memoryResidentBytes / 1024,
+                snapshot.evictionBacklogBytes / 1024);
+    }
+
     private String getAppVersion() {
         try {
             PackageInfo pInfo = getApplicationContext().getPackageManager()
@@ -198,6 +233,8 @@ public class InfoViewer extends AppCompatActivity {
                     // if everything is empty
                     if ((text.length() + aSwitch.length() + url.length() + title.length()) == 0) {
                         view = this.getCacheCardView(inflater, parent);
+                    } else if (title.equals(context.getString(R.string.cache_metrics))) {
+                        view = this.getCacheMetricsCardView(inflater, parent, position);
                     } else if (aSwitch.length() > 0 ) {
                         view = this.getCrashAnalyticConsentCardView(inflater, parent, position);
                     } else if (text.length() == 0) {
@@ -214,6 +251,16 @@ public class InfoViewer extends AppCompatActivity {
             return cView;
         }
 
+        /**
+         * Creates the cache card. The trash bin clears the cache, a long click exports the cached
+         * audio of the selected voice into a cache snapshot archive in the external files
+         * directory of the app, e.g. for prewarming other devices.
+         *
+         * @param inflater  layout inflater
+         * @param parent    parent view
+         *
+         * @return  the view of the card
+         */
         private View getCacheCardView(LayoutInflater inflater, ViewGroup parent) {
             UtteranceCacheManager mCacheManager = App.getAppRepository().getUtteranceCache();
 
@@ -238,6 +285,51 @@ public class InfoViewer extends AppCompatActivity {
             int progress_percentage = (int) ((cacheUsed / cacheMax) * 100);
             updateVoiceCacheProgressBar(cardView, progress_percentage);
 
+            cardView.setOnLongClickListener(it -> {
+                File archive = new File(context.getExternalFilesDir(null), CACHE_SNAPSHOT_FILE);
+                // reading all cached audio takes a while
+                new Thread(() -> {
+                    try {
+                        int nItems = App.getAppRepository().exportCacheSnapshot(archive);
+                        cardView.post(() -> Toast.makeText(context, context.getString(
+                                R.string.cache_snapshot_exported, nItems, archive.getAbsolutePath()),
+                                Toast.LENGTH_LONG).show());
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Couldn't export cache snapshot to " + archive, e);
+                        cardView.post(() -> Toast.makeText(context,
+                                R.string.cache_snapshot_export_failed, Toast.LENGTH_LONG).show());
+                    }
+                }).start();
+                return true;
+            });
+
+            return cardView;
+        }
+
+        /**
+         * Creates the cache metrics card. A long click writes all metrics into a file in the
+         * external files directory of the app.
+         *
+         * @param inflater  layout inflater
+         * @param parent    parent view
+         * @param position  position of the card
+         *
+         * @return  the view of the card
+         */
+        private View getCacheMetricsCardView(LayoutInflater inflater, ViewGroup parent, int position) {
+            View cardView = getBasicCardView(inflater, parent, position);
+            cardView.setOnLongClickListener(it -> {
+                File dumpFile = new File(context.getExternalFilesDir(null), CACHE_METRICS_FILE);
+                try {
+                    App.getAppRepository().getUtteranceCache().getMetricsSnapshot().dump(dumpFile);
+                    Toast.makeText(context, context.getString(R.string.cache_metrics_dumped,
+                            dumpFile.getAbsolutePath()), Toast.LENGTH_LONG).show();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Couldn't write cache metrics to " + dumpFile, e);
+                    Toast.makeText(context, R.string.cache_metrics_dump_failed, Toast.LENGTH_LONG).show();
+                }
+                return true;
+            });
             return cardView;
         }
 
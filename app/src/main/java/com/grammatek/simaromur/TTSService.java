@@ -13,6 +13,7 @@ import android.util.Log;
 
 import com.grammatek.simaromur.audio.AudioManager;
 import com.grammatek.simaromur.audio.AudioObserver;
+import com.grammatek.simaromur.cache.AudioEntry;
 import com.grammatek.simaromur.cache.CacheItem;
 import com.grammatek.simaromur.cache.UtteranceCacheManager;
 import com.grammatek.simaromur.network.ConnectionCheck;
@@ -131,6 +132,9 @@ public class TTSService extends TextToSpeechService {
         String variant = request.getVariant();
         String text = request.getCharSequenceText().toString();
         Log.i(LOG_TAG, "onSynthesizeText: " + text);
+        // synthesis requests have priority over prewarming the cache
+        mRepository.getCachePrewarmer().onSynthesisRequest();
+        mRepository.getUtteranceCache().onSynthesisActivity();
         String voiceName = request.getVoiceName();
         int callerUid = request.getCallerUid();
         Bundle params = request.getParams();
@@ -208,6 +212,7 @@ public class TTSService extends TextToSpeechService {
 
         TTSRequest ttsRequest = new TTSRequest(item.getUuid());
         mRepository.setCurrentTTSRequest(ttsRequest);
+        recordAudioLookup(item, voice);
 
         // check if network voice && for network availability
         switch (voice.type) {
@@ -224,11 +229,17 @@ public class TTSService extends TextToSpeechService {
                 }
                 startSynthesisCallback(callback, mRepository.getVoiceNativeSampleRate(), true);
                 setSpeechMarksToBeginning(callback);
+                if (streamIfAudioCacheHit(callback, item, voice, speechrate / 100.0f, pitch / 100.0f)) {
+                    return;
+                }
                 mRepository.startNetworkTTS(voice, item, ttsRequest, speechrate / 100.0f, pitch / 100.0f);
                 break;
             case com.grammatek.simaromur.db.Voice.TYPE_ONNX:
                 startSynthesisCallback(callback, mRepository.getVoiceNativeSampleRate(), false);
                 setSpeechMarksToBeginning(callback);
+                if (streamIfAudioCacheHit(callback, item, voice, speechrate / 100.0f, pitch / 100.0f)) {
+                    return;
+                }
                 mRepository.startDeviceTTS(voice, item, ttsRequest, speechrate / 100.0f, pitch / 100.0f);
                 break;
             default:
@@ -239,6 +250,20 @@ public class TTSService extends TextToSpeechService {
         Log.i(LOG_TAG, "onSynthesizeText: finished (" + item.getUuid() + ")");
     }
 
+    /**
+     * Records in the cache metrics and for adaptive cache sizing, whether the audio of the whole
+     * utterance is cached for the given voice.
+     *
+     * @param item  the cache item to speak
+     * @param voice the voice to use
+     */
+    private void recordAudioLookup(CacheItem item, com.grammatek.simaromur.db.Voice voice) {
+        final String voiceKey = UtteranceCacheManager.buildVoiceKey(voice.internalName, voice.version);
+        final AudioEntry audioEntry = item.getVoiceAudioEntriesMap().get(voiceKey);
+        final boolean isHit = UtteranceCacheManager.hasCompleteAudio(item.getUtterance(), audioEntry);
+        mRepository.getUtteranceCache().recordAudioLookup(item, voiceKey, isHit);
+    }
+
     /**
      * Adapt speechrate to feasible values.
      * The possible values retrievable for speechrate settings in the settins menu are from 10 - 600
@@ -346,6 +371,34 @@ public class TTSService extends TextToSpeechService {
         }
     }
 
+    /**
+     * Stream the cached audio of given cache item directly to the callback, without waiting for
+     * a processing result.
+     *
+     * @param callback  the callback to feed
+     * @param item      the cache item to play
+     * @param voice     the voice to use
+     * @param speed     speed to use for the voice audio
+     * @param pitch     pitch to use for the voice audio
+     * @return true in case the cached audio has been played, false otherwise
+     */
+    private boolean streamIfAudioCacheHit(SynthesisCallback callback, CacheItem item,
+                                          com.grammatek.simaromur.db.Voice voice, float speed, float pitch) {
+        if (!mRepository.streamIfAudioCacheHit(callback, voice, item, speed, pitch)) {
+            return false;
+        }
+        if (mRmCacheItemAfterPlaying) {
+            Log.v(LOG_TAG, "rm_cache_item_after_playing: delete cache item " + item.getUuid());
+            mRepository.getUtteranceCache().deleteCacheItem(item.getUuid());
+        }
+        if (callback.hasStarted() && ! callback.hasFinished()) {
+            Log.v(LOG_TAG, "onSynthesizeText: callback.done()");
+            callback.done();
+        }
+        Log.i(LOG_TAG, "onSynthesizeText: finished from cache (" + item.getUuid() + ")");
+        return true;
+    }
+
     /**
      * Estimate the real time factor for the given cache item and the processing result.
      * We use the real time factor to determine if we can delete the cache item after playing.
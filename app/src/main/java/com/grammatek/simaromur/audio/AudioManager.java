@@ -45,17 +45,11 @@ public class AudioManager {
             outputConversionStream.write(monoPcmData, 0, monoPcmData.length);
         } else {
             Log.i(LOG_TAG, "Applying pitch " + pitch + ", speed " + speed);
-            Sonic sonic = new Sonic(sampleRate, N_CHANNELS);
+            Sonic sonic = createSonic(sampleRate, pitch, speed);
             int bufferSize = 8192;  // some typical buffer size, could also be 16K, 32K, ...
             int numRead = 0, numWritten;
             byte[] inBuffer = new byte[bufferSize];
             byte[] outBuffer = new byte[bufferSize];
-            sonic.setSpeed(speed);
-            sonic.setPitch(pitch);
-            sonic.setRate(1.0f);
-            sonic.setVolume(1.0f);
-            sonic.setChordPitch(false);
-            sonic.setQuality(0);    // is much faster without sacrificing quality ...
             InputStream inputStream = new ByteArrayInputStream(monoPcmData);
             do {
                 try {
@@ -79,6 +73,27 @@ public class AudioManager {
         return outputConversionStream.toByteArray();
     }
 
+    /**
+     * Creates a Sonic stream for applying pitch and speed to mono PCM data chunk by chunk. Data is
+     * written via writeBytesToStream() and the converted data is read via readBytesFromStream().
+     * After the last chunk, flushStream() needs to be called.
+     *
+     * @param sampleRate  sample Rate of the PCM data
+     * @param pitch   pitch to be applied, see applyPitchAndSpeed()
+     * @param speed   speed to be applied, see applyPitchAndSpeed()
+     * @return Sonic stream
+     */
+    static public Sonic createSonic(int sampleRate, float pitch, float speed) {
+        Sonic sonic = new Sonic(sampleRate, N_CHANNELS);
+        sonic.setSpeed(speed);
+        sonic.setPitch(pitch);
+        sonic.setRate(1.0f);
+        sonic.setVolume(1.0f);
+        sonic.setChordPitch(false);
+        sonic.setQuality(0);    // is much faster without sacrificing quality ...
+        return sonic;
+    }
+
     /**
      * Converts given float values to 16bits PCM. No resampling or interpolation is done.
      * Floats are rounded to the nearest integer.
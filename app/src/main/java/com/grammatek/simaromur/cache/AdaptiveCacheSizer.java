@@ -0,0 +1,202 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Adaptive sizing of the utterance cache: derives the low watermark of the cache from the free
+ * storage of the device and from the working set of the workload.
+ *
+ * The working set is measured via ghost entries: for each audio expired from the cache, only its
+ * cache key and size are kept. A lookup missing the cache, but hitting a ghost entry, would have
+ * been a hit with a larger cache. The audio size expired since the ghost entry has been created
+ * is its reuse distance, i.e. how much larger the cache would have needed to be. As the eviction
+ * order is close to LRU, this is a good estimate.
+ *
+ * Each call of computeLowWatermark() evaluates the lookups since the previous call:
+ * - the cache grows, if enough lookups would have been hits with a larger cache. It grows by the
+ *   reuse distance covering most of these lookups, but at most doubles per call.
+ * - the cache shrinks, if it would occupy more than its share of the storage, i.e. under storage
+ *   pressure. This is checked on each call, regardless of the lookups.
+ * The low watermark always stays within the given min. and max. size.
+ *
+ * This class is thread-safe.
+ */
+public class AdaptiveCacheSizer {
+    // the cache may occupy at most this fraction of the storage available to it, i.e. the free
+    // storage plus the cache size
+    public final static double DEFAULT_MAX_STORAGE_FRACTION = 0.1;
+    // below this free storage, the cache shrinks to give the storage back to the device
+    public final static long DEFAULT_MIN_FREE_STORAGE_BYTES = 512L * 1024 * 1024;
+    // min. number of lookups since the last adjustment for growing the cache
+    private final static int MIN_LOOKUPS = 50;
+    // min. fraction of lookups hitting a ghost entry for growing the cache
+    private final static double MIN_GHOST_HIT_RATIO = 0.02;
+    // percentile of the reuse distances of the ghost hits, that the grown cache covers
+    private final static int REUSE_DISTANCE_PERCENTILE = 90;
+    // max. number of ghost entries, whatever their size
+    private final static int MAX_GHOST_ENTRIES = 20000;
+
+    /**
+     * Ghost entry of expired audio.
+     */
+    private static class Ghost {
+        final long size;
+        // mExpiredBytes, when the ghost entry has been created
+        final long expiredBytesBefore;
+
+        Ghost(long size, long expiredBytesBefore) {
+            this.size = size;
+            this.expiredBytesBefore = expiredBytesBefore;
+        }
+    }
+
+    private final long mMinLowWatermark;
+    private final long mMaxLowWatermark;
+    private final double mMaxStorageFraction;
+    private final long mMinFreeStorageBytes;
+    // ghost entries in expiration order, the oldest first
+    private final LinkedHashMap<String, Ghost> mGhosts = new LinkedHashMap<>();
+    private long mGhostBytes = 0;
+    // accumulated size of all expired audio
+    private long mExpiredBytes = 0;
+    // lookups since the last adjustment
+    private long mLookups = 0;
+    private final List<Long> mReuseDistances = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param minLowWatermark       min. low watermark of the cache in bytes
+     * @param maxLowWatermark       max. low watermark of the cache in bytes
+     * @param maxStorageFraction    max. fraction of the available storage used by the cache
+     * @param minFreeStorageBytes   the cache shrinks, if less storage is free
+     */
+    public AdaptiveCacheSizer(long minLowWatermark, long maxLowWatermark, double maxStorageFraction,
+                              long minFreeStorageBytes) {
+        if (minLowWatermark <= 0 || maxLowWatermark < minLowWatermark) {
+            throw new IllegalArgumentException("Invalid watermark bounds: " + minLowWatermark
+                    + " - " + maxLowWatermark);
+        }
+        mMinLowWatermark = minLowWatermark;
+        mMaxLowWatermark = maxLowWatermark;
+        mMaxStorageFraction = maxStorageFraction;
+        mMinFreeStorageBytes = minFreeStorageBytes;
+    }
+
+    /**
+     * Records audio expired from the cache as ghost entry. The oldest ghost entries are dropped,
+     * as soon as they exceed the size the cache could grow to.
+     *
+     * @param key   cache key of the audio, e.g. the cache key of the utterance and the voice key
+     * @param size  size of the expired audio in bytes
+     */
+    synchronized
+    public void recordExpiration(String key, long size) {
+        final Ghost previous = mGhosts.remove(key);
+        if (previous != null) {
+            mGhostBytes -= previous.size;
+        }
+        mGhosts.put(key, new Ghost(size, mExpiredBytes));
+        mGhostBytes += size;
+        mExpiredBytes += size;
+        final Iterator<Ghost> it = mGhosts.values().iterator();
+        while (it.hasNext() && (mGhostBytes > mMaxLowWatermark || mGhosts.size() > MAX_GHOST_ENTRIES)) {
+            mGhostBytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * Records a lookup of audio in the cache. A missed lookup hitting a ghost entry records its
+     * reuse distance, the ghost entry is dropped, as the audio is cached again.
+     *
+     * @param key   cache key of the audio, see recordExpiration()
+     * @param isHit true if the audio has been found in the cache
+     */
+    synchronized
+    public void recordLookup(String key, boolean isHit) {
+        mLookups++;
+        if (isHit) {
+            return;
+        }
+        final Ghost ghost = mGhosts.remove(key);
+        if (ghost != null) {
+            mGhostBytes -= ghost.size;
+            mReuseDistances.add(mExpiredBytes - ghost.expiredBytesBefore);
+        }
+    }
+
+    /**
+     * Computes the low watermark of the cache from the lookups since the previous call and the
+     * free storage. The recorded lookups are reset.
+     *
+     * @param currentLowWatermark   the current low watermark in bytes
+     * @param cacheSize             the current audio size of the cache in bytes
+     * @param freeStorageBytes      storage still available to the app in bytes
+     *
+     * @return  the new low watermark in bytes
+     */
+    synchronized
+    public long computeLowWatermark(long currentLowWatermark, long cacheSize, long freeStorageBytes) {
+        long lowWatermark = currentLowWatermark;
+        final int nGhostHits = mReuseDistances.size();
+        if (mLookups >= MIN_LOOKUPS && nGhostHits >= mLookups * MIN_GHOST_HIT_RATIO) {
+            Collections.sort(mReuseDistances);
+            final long reuseDistance = mReuseDistances.get((nGhostHits - 1) * REUSE_DISTANCE_PERCENTILE / 100);
+            lowWatermark += Math.min(reuseDistance, currentLowWatermark);
+        }
+        // storage share of the cache: the cache itself is available to it as well
+        long storageLimit = (long) ((freeStorageBytes + cacheSize) * mMaxStorageFraction);
+        if (freeStorageBytes < mMinFreeStorageBytes) {
+            // storage pressure: give back what is missing to the min. free storage
+            storageLimit = Math.min(storageLimit, cacheSize - (mMinFreeStorageBytes - freeStorageBytes));
+        }
+        lowWatermark = Math.min(lowWatermark, storageLimit);
+        lowWatermark = Math.max(mMinLowWatermark, Math.min(mMaxLowWatermark, lowWatermark));
+        mLookups = 0;
+        mReuseDistances.clear();
+        return lowWatermark;
+    }
+
+    /**
+     * Returns the number of ghost entries.
+     *
+     * @return  number of ghost entries
+     */
+    synchronized
+    public int getGhostCount() {
+        return mGhosts.size();
+    }
+
+    /**
+     * Returns the accumulated size of all ghost entries.
+     *
+     * @return  size in bytes
+     */
+    synchronized
+    public long getGhostBytes() {
+        return mGhostBytes;
+    }
+
+    /**
+     * Returns the min. low watermark.
+     *
+     * @return  size in bytes
+     */
+    public long getMinLowWatermark() {
+        return mMinLowWatermark;
+    }
+
+    /**
+     * Returns the max. low watermark.
+     *
+     * @return  size in bytes
+     */
+    public long getMaxLowWatermark() {
+        return mMaxLowWatermark;
+    }
+}
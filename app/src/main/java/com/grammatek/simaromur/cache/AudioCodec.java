@@ -0,0 +1,48 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.IOException;
+
+/**
+ * Codec for compressing 16 bit little endian mono PCM audio before it's written into the audio
+ * store. Each codec corresponds to an AudioFormat value, which is recorded in the
+ * VoiceAudioDescription of the stored audio.
+ */
+public interface AudioCodec {
+    /**
+     * Encodes given PCM audio.
+     *
+     * @param pcm   16 bit little endian mono PCM audio
+     *
+     * @return  encoded audio
+     */
+    byte[] encode(byte[] pcm);
+
+    /**
+     * Decodes given audio, previously encoded via encode().
+     *
+     * @param encoded   encoded audio
+     *
+     * @return  16 bit little endian mono PCM audio
+     *
+     * @throws IOException in case the encoded audio is corrupt
+     */
+    byte[] decode(byte[] encoded) throws IOException;
+
+    /**
+     * Returns the codec for given audio format.
+     *
+     * @param format    audio format
+     *
+     * @return  codec instance or null, if audio of this format is stored as is
+     */
+    static AudioCodec forFormat(AudioFormat format) {
+        switch (format) {
+            case AUDIO_FMT_PCM_LPC:
+                return new LpcRiceAudioCodec();
+            case AUDIO_FMT_IMA_ADPCM:
+                return new ImaAdpcmAudioCodec();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.grammatek.simaromur.cache;
+
+import com.grammatek.simaromur.utils.XxHash64;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference counting index of all stored audio of the utterance cache.
+ *
+ * Different utterances often result in the same phonemes, e.g. if they only differ in
+ * punctuation. The audio for the same phonemes, voice and sample rate is stored only once and is
+ * shared by all cache items referring to it. This index maps the phonemes to the stored audio and
+ * counts the references of the cache items to each stored audio, identified by its location.
+ * Stored audio must only be deleted, when its last reference has been removed.
+ *
+ * Audio stored by older cache versions or without a known phoneme entry is reference counted as
+ * well, but can't be found by its phonemes. Audio referenced only by resident cache items is
+ * known by the hash of its phonemes, see ResidentItemIndex.
+ *
+ * This class is not thread-safe, synchronization has to be done by the caller.
+ */
+public class AudioReferenceIndex {
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    // maps the phoneme key of audio to its location key
+    private final HashMap<String, String> mLocations = new HashMap<>();
+    private long mStoredBytes = 0;
+    // stored bytes of each voice key
+    private final HashMap<String, Long> mStoredBytesPerVoice = new HashMap<>();
+
+    private static class Entry {
+        final VoiceAudioDescription vad;
+        // null, if the audio can't be found by its phonemes
+        final String phonemeKey;
+        // null, if only the hash of the phonemes is known
+        final String symbols;
+        int refCount = 0;
+
+        Entry(VoiceAudioDescription vad, String phonemeKey, String symbols) {
+            this.vad = vad;
+            this.phonemeKey = phonemeKey;
+            this.symbols = symbols;
+        }
+    }
+
+    /**
+     * Returns the key identifying the location of given stored audio.
+     *
+     * @param vad   voice audio description of stored audio
+     *
+     * @return  location key
+     */
+    public static String getLocationKey(VoiceAudioDescription vad) {
+        if (vad.getSegmentId() == 0) {
+            return vad.getPath();
+        }
+        return vad.getPath() + "@" + vad.getSegmentOffset();
+    }
+
+    /**
+     * Returns the key for looking up audio by its phonemes. Compressed PCM audio is decoded to
+     * PCM on read, therefore it's equivalent to PCM audio.
+     *
+     * @param phonemeEntry  phoneme entry of the audio
+     * @param vad           voice audio description of the audio
+     *
+     * @return  phoneme key
+     */
+    private static String getPhonemeKey(PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
+        final AudioFormat format = (AudioCodec.forFormat(vad.getFormat()) != null)
+                ? AudioFormat.AUDIO_FMT_PCM : vad.getFormat();
+        return UtteranceCacheManager.buildVoiceKey(vad) + "/" + vad.getRateValue() + "/"
+                + format.getNumber() + "/" + XxHash64.toHex(UtteranceCacheManager.getPhonemeHash(phonemeEntry));
+    }
+
+    /**
+     * Returns the symbols of given phoneme entry.
+     *
+     * @param phonemeEntry  phoneme entry
+     *
+     * @return  the symbols, null if only the hash is known
+     */
+    private static String getSymbols(PhonemeEntry phonemeEntry) {
+        return phonemeEntry.getSymbols().isEmpty() ? null : phonemeEntry.getSymbols();
+    }
+
+    /**
+     * Adds a reference to given stored audio.
+     *
+     * @param phonemeEntry  phoneme entry of the audio, null if unknown. A resident phoneme entry
+     *                      only carries the hash of its symbols
+     * @param vad           voice audio description of the stored audio
+     *
+     * @return  true in case the audio hasn't been referenced before
+     */
+    public boolean addReference(PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
+        final String locationKey = getLocationKey(vad);
+        Entry entry = mEntries.get(locationKey);
+        final boolean isNew = (entry == null);
+        if (isNew) {
+            if (phonemeEntry != null) {
+                final String phonemeKey = getPhonemeKey(phonemeEntry, vad);
+                entry = new Entry(vad, phonemeKey, getSymbols(phonemeEntry));
+                // if the same phonemes are stored more than once, the first audio is used
+                mLocations.putIfAbsent(phonemeKey, locationKey);
+            } else {
+                entry = new Entry(vad, null, null);
+            }
+            mEntries.put(locationKey, entry);
+            mStoredBytes += vad.getFileSize();
+            mStoredBytesPerVoice.merge(UtteranceCacheManager.buildVoiceKey(vad), (long) vad.getFileSize(), Long::sum);
+        }
+        entry.refCount++;
+        return isNew;
+    }
+
+    /**
+     * Removes a reference to given stored audio.
+     *
+     * @param vad   voice audio description of the stored audio
+     *
+     * @return  true in case the last reference has been removed, i.e. the stored audio should be
+     *          deleted. False if there are references left or the audio isn't referenced at all
+     */
+    public boolean removeReference(VoiceAudioDescription vad) {
+        final String locationKey = getLocationKey(vad);
+        final Entry entry = mEntries.get(locationKey);
+        if (entry == null) {
+            return false;
+        }
+        if (--entry.refCount > 0) {
+            return false;
+        }
+        mEntries.remove(locationKey);
+        mStoredBytes -= entry.vad.getFileSize();
+        final String voiceKey = UtteranceCacheManager.buildVoiceKey(entry.vad);
+        final long voiceBytes = mStoredBytesPerVoice.getOrDefault(voiceKey, 0L) - entry.vad.getFileSize();
+        if (voiceBytes > 0) {
+            mStoredBytesPerVoice.put(voiceKey, voiceBytes);
+        } else {
+            mStoredBytesPerVoice.remove(voiceKey);
+        }
+        if (entry.phonemeKey != null && locationKey.equals(mLocations.get(entry.phonemeKey))) {
+            mLocations.remove(entry.phonemeKey);
+        }
+        return true;
+    }
+
+    /**
+     * Finds stored audio for given phonemes.
+     *
+     * @param phonemeEntry  phoneme entry, complete or resident
+     * @param vad           voice audio description with voice, sample rate and format of the
+     *                      requested audio
+     *
+     * @return  voice audio description of the stored audio, or null if there is none
+     */
+    public VoiceAudioDescription find(PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
+        final String locationKey = mLocations.get(getPhonemeKey(phonemeEntry, vad));
+        if (locationKey == null) {
+            return null;
+        }
+        final Entry entry = mEntries.get(locationKey);
+        // the phoneme hash is not collision free, the symbols are compared, if both are known
+        final String symbols = getSymbols(phonemeEntry);
+        if (entry == null || (entry.symbols != null && symbols != null && !entry.symbols.equals(symbols))) {
+            return null;
+        }
+        return entry.vad;
+    }
+
+    /**
+     * Returns true in case given stored audio is referenced.
+     *
+     * @param vad   voice audio description of the stored audio
+     *
+     * @return  true if the audio is referenced at least once
+     */
+    public boolean contains(VoiceAudioDescription vad) {
+        return mEntries.containsKey(getLocationKey(vad));
+    }
+
+    /**
+     * Returns the number of references to given stored audio.
+     *
+     * @param vad   voice audio description of the stored audio
+     *
+     * @return  number of references, 0 if not referenced
+     */
+    public int getRefCount(VoiceAudioDescription vad) {
+        final Entry entry = mEntries.get(getLocationKey(vad));
+        return (entry != null) ? entry.refCount : 0;
+    }
+
+    /**
+     * Returns the accumulated size of all referenced audio, shared audio is counted once.
+     *
+     * @return  size in bytes
+     */
+    public long getStoredBytes() {
+        return mStoredBytes;
+    }
+
+    /**
+     * Returns the accumulated size of all referenced audio of given voice.
+     *
+     * @param voiceKey  voice key, see UtteranceCacheManager.buildVoiceKey()
+     *
+     * @return  size in bytes, 0 if there is no audio of the voice
+     */
+    public long getStoredBytes(String voiceKey) {
+        return mStoredBytesPerVoice.getOrDefault(voiceKey, 0L);
+    }
+
+    /**
+     * Returns the accumulated size of all referenced audio of each voice.
+     *
+     * @return  map of voice key to size in bytes
+     */
+    public Map<String, Long> getStoredBytesPerVoice() {
+        return new HashMap<>(mStoredBytesPerVoice);
+    }
+
+    /**
+     * Returns the number of referenced stored audio.
+     *
+     * @return  number of stored audio
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Removes all references.
+     */
+    public void clear() {
+        mEntries.clear();
+        mLocations.clear();
+        mStoredBytes = 0;
+        mStoredBytesPerVoice.clear();
+    }
+}
@@ -0,0 +1,51 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.IOException;
+
+/**
+ * Storage backend for the audio data of the utterance cache. The location of stored audio is
+ * recorded inside the VoiceAudioDescription, which is the only reference to it.
+ */
+public interface AudioStore {
+    /**
+     * Stores given audio data.
+     *
+     * @param vad       voice audio description of the audio
+     * @param fileName  deterministic file name for the audio, as returned by
+     *                  UtteranceCacheManager.getAudioFilenameForPhoneme()
+     * @param data      audio data
+     *
+     * @return  given voice audio description with location and size of the stored audio set
+     *
+     * @throws IOException in case the audio couldn't be written
+     */
+    VoiceAudioDescription write(VoiceAudioDescription vad, String fileName, byte[] data) throws IOException;
+
+    /**
+     * Reads the audio data referenced by given voice audio description.
+     *
+     * @param vad   voice audio description returned by write()
+     *
+     * @return  audio data
+     *
+     * @throws IOException in case the audio couldn't be read
+     */
+    byte[] read(VoiceAudioDescription vad) throws IOException;
+
+    /**
+     * Deletes the audio data referenced by given voice audio description.
+     *
+     * @param vad   voice audio description returned by write()
+     */
+    void delete(VoiceAudioDescription vad);
+
+    /**
+     * Returns true in case the audio referenced by given voice audio description is stored
+     * completely, i.e. it exists and has the size given in the voice audio description.
+     *
+     * @param vad   voice audio description returned by write()
+     *
+     * @return  true if the audio is stored completely
+     */
+    boolean contains(VoiceAudioDescription vad);
+}
@@ -0,0 +1,271 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded write-behind queue for audio, that should be added to the utterance cache.
+ *
+ * Producers enqueue synthesized audio and return immediately, a dedicated worker thread takes the
+ * queued audio in batches and hands them to a BatchWriter. If the accumulated size of the queued
+ * audio exceeds the configured maximum, producers are blocked until the worker has caught up.
+ *
+ * Until a batch has been released by the BatchWriter, its audio can still be retrieved via
+ * getPendingAudio(), i.e. audio is always available either from the queue or from the cache.
+ *
+ * This class is thread-safe.
+ */
+public class AudioWriteBehindQueue {
+    private final static String LOG_TAG = "Simaromur_" + AudioWriteBehindQueue.class.getSimpleName();
+    public final static long DEFAULT_MAX_PENDING_BYTES = 8 * 1024 * 1024;
+    // max. number of audio entries written in one batch
+    private final static int MAX_BATCH_SIZE = 16;
+    private final BatchWriter mBatchWriter;
+    private final long mMaxPendingBytes;
+    private final ArrayDeque<PendingAudio> mQueue = new ArrayDeque<>();
+    // batch currently written by the worker, not yet released
+    private List<PendingAudio> mInFlight = Collections.emptyList();
+    private long mPendingBytes = 0;
+    private boolean mIsClosed = false;
+    private final Thread mWorker;
+
+    /**
+     * Audio waiting to be written into the cache.
+     */
+    public static class PendingAudio {
+        public final String uuid;
+        public final PhonemeEntry phonemeEntry;
+        public final VoiceAudioDescription vad;
+        public final byte[] data;
+
+        /**
+         * Constructor.
+         *
+         * @param uuid          uuid of the cache item the audio belongs to
+         * @param phonemeEntry  phoneme entry that corresponds to the audio
+         * @param vad           voice audio description of the audio
+         * @param data          the audio data
+         */
+        public PendingAudio(String uuid, PhonemeEntry phonemeEntry, VoiceAudioDescription vad, byte[] data) {
+            this.uuid = uuid;
+            this.phonemeEntry = phonemeEntry;
+            this.vad = vad;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Writes a batch of audio into the cache. Called from the worker thread.
+     */
+    public interface BatchWriter {
+        /**
+         * Writes given batch. The implementation has to call release() for the batch, as soon as
+         * the audio is retrievable from the cache or has been discarded.
+         *
+         * @param batch     audio to be written, in the order it has been enqueued
+         */
+        void writeBatch(List<PendingAudio> batch);
+    }
+
+    /**
+     * Constructor. Starts the worker thread.
+     *
+     * @param batchWriter       writer for the queued audio
+     * @param maxPendingBytes   max. accumulated size of queued audio, before producers are blocked
+     */
+    public AudioWriteBehindQueue(BatchWriter batchWriter, long maxPendingBytes) {
+        mBatchWriter = batchWriter;
+        mMaxPendingBytes = maxPendingBytes;
+        mWorker = new Thread(this::runWorker, LOG_TAG);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Enqueues given audio. Blocks while the queue is full.
+     *
+     * @param audio     audio to be written
+     *
+     * @return  true in case the audio has been enqueued, false if the queue has been closed or
+     *          the caller has been interrupted
+     */
+    synchronized
+    public boolean enqueue(PendingAudio audio) {
+        // a single entry bigger than the maximum is accepted, if the queue is empty
+        while (!mIsClosed && mPendingBytes > 0 && mPendingBytes + audio.data.length > mMaxPendingBytes) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (mIsClosed) {
+            Log.w(LOG_TAG, "enqueue(): queue already closed");
+            return false;
+        }
+        mQueue.add(audio);
+        mPendingBytes += audio.data.length;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns copies of all audio for given cache item and voice, that has not been released yet.
+     *
+     * @param uuid      uuid of the cache item
+     * @param voiceKey  voice key as returned by UtteranceCacheManager.buildVoiceKey()
+     *
+     * @return  audio in the order it has been enqueued, empty if there is none
+     */
+    synchronized
+    public List<byte[]> getPendingAudio(String uuid, String voiceKey) {
+        List<byte[]> audio = new ArrayList<>();
+        if (mPendingBytes == 0) {
+            return audio;
+        }
+        for (PendingAudio pending: mInFlight) {
+            if (matches(pending, uuid, voiceKey)) {
+                audio.add(Arrays.copyOf(pending.data, pending.data.length));
+            }
+        }
+        for (PendingAudio pending: mQueue) {
+            if (matches(pending, uuid, voiceKey)) {
+                audio.add(Arrays.copyOf(pending.data, pending.data.length));
+            }
+        }
+        return audio;
+    }
+
+    /**
+     * Returns the audio description of the first audio for given cache item and voice, that has
+     * not been released yet.
+     *
+     * @param uuid      uuid of the cache item
+     * @param voiceKey  voice key as returned by UtteranceCacheManager.buildVoiceKey()
+     *
+     * @return  audio description, null if there is no such audio
+     */
+    synchronized
+    public VoiceAudioDescription getPendingDescription(String uuid, String voiceKey) {
+        if (mPendingBytes == 0) {
+            return null;
+        }
+        for (PendingAudio pending: mInFlight) {
+            if (matches(pending, uuid, voiceKey)) {
+                return pending.vad;
+            }
+        }
+        for (PendingAudio pending: mQueue) {
+            if (matches(pending, uuid, voiceKey)) {
+                return pending.vad;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(PendingAudio pending, String uuid, String voiceKey) {
+        return pending.uuid.equals(uuid)
+                && UtteranceCacheManager.buildVoiceKey(pending.vad).equals(voiceKey);
+    }
+
+    /**
+     * Releases given batch: its audio is not returned by getPendingAudio() anymore and blocked
+     * producers can continue.
+     *
+     * @param batch     batch given to BatchWriter.writeBatch()
+     */
+    synchronized
+    public void release(List<PendingAudio> batch) {
+        if (batch != mInFlight) {
+            return;
+        }
+        for (PendingAudio pending: batch) {
+            mPendingBytes -= pending.data.length;
+        }
+        mInFlight = Collections.emptyList();
+        notifyAll();
+    }
+
+    /**
+     * Returns the accumulated size of all audio not yet released.
+     *
+     * @return  size in bytes
+     */
+    synchronized
+    public long getPendingBytes() {
+        return mPendingBytes;
+    }
+
+    /**
+     * Blocks until all audio enqueued so far has been written.
+     */
+    synchronized
+    public void flush() {
+        while (mPendingBytes > 0 && mWorker.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes all queued audio and stops the worker thread. Afterwards no audio can be enqueued
+     * anymore.
+     */
+    public void close() {
+        synchronized (this) {
+            mIsClosed = true;
+            notifyAll();
+        }
+        try {
+            mWorker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Worker loop: takes batches from the queue and writes them until the queue is closed and
+     * empty.
+     */
+    private void runWorker() {
+        while (true) {
+            final List<PendingAudio> batch;
+            synchronized (this) {
+                while (mQueue.isEmpty() && !mIsClosed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close() ends the worker
+                    }
+                }
+                if (mQueue.isEmpty()) {
+                    notifyAll();
+                    return;
+                }
+                batch = new ArrayList<>(Math.min(MAX_BATCH_SIZE, mQueue.size()));
+                while (!mQueue.isEmpty() && batch.size() < MAX_BATCH_SIZE) {
+                    batch.add(mQueue.poll());
+                }
+                mInFlight = batch;
+            }
+            try {
+                mBatchWriter.writeBatch(batch);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "runWorker(): couldn't write batch", e);
+            } finally {
+                // no-op, if the batch writer has already released the batch
+                release(batch);
+            }
+        }
+    }
+}
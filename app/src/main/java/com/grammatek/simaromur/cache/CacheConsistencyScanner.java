@@ -0,0 +1,266 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Incremental background scanner, that reconciles the cache directory with the cache meta data:
+ *
+ *   - audio entries of cache items, whose audio is missing or has the wrong size, are dropped
+ *   - audio files not referenced by any cache item are deleted. These are e.g. left over, if the
+ *     app crashed after the audio has been written, but before the meta data has been persisted
+ *
+ * A scan cycle first checks all cache items, then all files of the cache directory. Each call of
+ * scanStep() checks only a limited number of items or files, the caller is responsible for rate
+ * limiting by calling it periodically. Cache items are looked up under the read lock of the cache
+ * manager, all file system accesses are done without holding a lock. Therefore the scanner never
+ * blocks the synthesis path.
+ *
+ * Files modified shortly before or after the start of a scan cycle are never deleted, as they
+ * might belong to cache items added after the cache items have been collected for the scan.
+ *
+ * This class is thread-safe.
+ */
+public class CacheConsistencyScanner {
+    private final static String LOG_TAG = "Simaromur_" + CacheConsistencyScanner.class.getSimpleName();
+    // number of cache items or files checked by each scan step
+    public final static int DEFAULT_STEP_SIZE = 64;
+    // time between the start of two scan cycles
+    public final static long DEFAULT_CYCLE_INTERVAL_MILLIS = 6 * 60 * 60 * 1000L;
+    // files modified less than this before the start of the scan cycle are not deleted
+    private final static long MIN_ORPHAN_AGE_MILLIS = 60 * 1000L;
+
+    private enum Phase {
+        IDLE,
+        ITEMS,
+        FILES
+    }
+
+    private final UtteranceCacheManager mCacheManager;
+    private final int mStepSize;
+    private final long mCycleIntervalMillis;
+    private Phase mPhase = Phase.IDLE;
+    // 0 if there hasn't been any scan cycle yet
+    private long mCycleStartMillis = 0;
+    private List<String> mUuids = new ArrayList<>();
+    private String[] mFileNames = new String[0];
+    private int mPosition = 0;
+    // paths of all audio files referenced by the scanned cache items
+    private final Set<String> mReferencedPaths = new HashSet<>();
+
+    // metrics, accumulated over all scan cycles
+    private long mCyclesCompleted = 0;
+    private long mItemsChecked = 0;
+    private long mEntriesDropped = 0;
+    private long mFilesChecked = 0;
+    private long mOrphansDeleted = 0;
+    private long mOrphanBytesDeleted = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheManager          the cache manager, whose cache is scanned
+     * @param stepSize              max. number of cache items or files checked by one scan step
+     * @param cycleIntervalMillis   min. time between the start of two scan cycles
+     */
+    public CacheConsistencyScanner(UtteranceCacheManager cacheManager, int stepSize, long cycleIntervalMillis) {
+        mCacheManager = cacheManager;
+        mStepSize = stepSize;
+        mCycleIntervalMillis = cycleIntervalMillis;
+    }
+
+    /**
+     * Executes the next step of the current scan cycle. Starts a new scan cycle, if the cycle
+     * interval has elapsed since the start of the last one. Doesn't do anything, as long as the
+     * cache hasn't been loaded.
+     */
+    synchronized
+    public void scanStep() {
+        if (!mCacheManager.isLoaded()) {
+            return;
+        }
+        try {
+            switch (mPhase) {
+                case IDLE:
+                    final long now = System.currentTimeMillis();
+                    if (mCycleStartMillis != 0 && now - mCycleStartMillis < mCycleIntervalMillis) {
+                        return;
+                    }
+                    mCycleStartMillis = now;
+                    mUuids = mCacheManager.getUuidsSortedByTimestamp();
+                    mPosition = 0;
+                    mPhase = Phase.ITEMS;
+                    Log.v(LOG_TAG, "scanStep(): starting scan of " + mUuids.size() + " items");
+                    break;
+                case ITEMS:
+                    scanItems();
+                    break;
+                case FILES:
+                    scanFiles();
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // e.g. the cache has been closed
+            Log.e(LOG_TAG, "scanStep(): scan aborted", e);
+            resetCycle();
+        }
+    }
+
+    /**
+     * Checks the audio of the next cache items and drops audio entries with missing or damaged
+     * audio.
+     */
+    private void scanItems() {
+        final int end = Math.min(mPosition + mStepSize, mUuids.size());
+        for (; mPosition < end; ++mPosition) {
+            final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(mUuids.get(mPosition));
+            if (!optItem.isPresent()) {
+                // deleted meanwhile
+                continue;
+            }
+            final CacheItem item = optItem.get();
+            mItemsChecked++;
+            for (Map.Entry<String, AudioEntry> entry: item.getVoiceAudioEntriesMap().entrySet()) {
+                boolean isIntact = true;
+                for (VoiceAudioDescription vad: UtteranceCacheManager.getStoredAudio(entry.getValue())) {
+                    if (!mCacheManager.isAudioStored(vad)) {
+                        isIntact = false;
+                    } else if (vad.getSegmentId() == 0) {
+                        mReferencedPaths.add(vad.getPath());
+                    }
+                }
+                if (!isIntact && mCacheManager.dropVoiceAudio(item.getUuid(), entry.getKey(), entry.getValue())) {
+                    Log.w(LOG_TAG, "scanItems(): dropped missing or damaged audio of voice "
+                            + entry.getKey() + " for item " + item.getUuid());
+                    mEntriesDropped++;
+                }
+            }
+        }
+        if (mPosition >= mUuids.size()) {
+            final String[] fileNames = new File(UtteranceCacheManager.getCacheDirectoryPath()).list();
+            mFileNames = (fileNames != null) ? fileNames : new String[0];
+            mUuids = new ArrayList<>();
+            mPosition = 0;
+            mPhase = Phase.FILES;
+        }
+    }
+
+    /**
+     * Checks the next files of the cache directory and deletes audio files not referenced by any
+     * cache item. Segment files are managed by the segment audio store and are skipped.
+     */
+    private void scanFiles() {
+        final String directory = UtteranceCacheManager.getCacheDirectoryPath();
+        final long maxLastModified = mCycleStartMillis - MIN_ORPHAN_AGE_MILLIS;
+        final int end = Math.min(mPosition + mStepSize, mFileNames.length);
+        for (; mPosition < end; ++mPosition) {
+            final String fileName = mFileNames[mPosition];
+            if (SegmentAudioStore.isSegmentFile(fileName)) {
+                continue;
+            }
+            mFilesChecked++;
+            final String path = directory + "/" + fileName;
+            if (mReferencedPaths.contains(path)) {
+                continue;
+            }
+            final File file = new File(path);
+            if (!file.isFile() || file.lastModified() > maxLastModified) {
+                continue;
+            }
+            final long fileSize = file.length();
+            if (file.delete()) {
+                Log.i(LOG_TAG, "scanFiles(): deleted orphaned file " + fileName);
+                mOrphansDeleted++;
+                mOrphanBytesDeleted += fileSize;
+            } else {
+                Log.w(LOG_TAG, "scanFiles(): couldn't delete orphaned file " + fileName);
+            }
+        }
+        if (mPosition >= mFileNames.length) {
+            mCyclesCompleted++;
+            Log.i(LOG_TAG, "scanFiles(): scan cycle finished, totals: " + mItemsChecked
+                    + " items checked, " + mEntriesDropped + " audio entries dropped, "
+                    + mFilesChecked + " files checked, " + mOrphansDeleted + " orphans deleted ("
+                    + mOrphanBytesDeleted + " bytes)");
+            resetCycle();
+        }
+    }
+
+    /**
+     * Releases all state of the current scan cycle.
+     */
+    private void resetCycle() {
+        mUuids = new ArrayList<>();
+        mFileNames = new String[0];
+        mReferencedPaths.clear();
+        mPosition = 0;
+        mPhase = Phase.IDLE;
+    }
+
+    /**
+     * Returns the number of completed scan cycles.
+     *
+     * @return  number of completed scan cycles
+     */
+    synchronized
+    public long getCyclesCompleted() {
+        return mCyclesCompleted;
+    }
+
+    /**
+     * Returns the number of cache items checked in all scan cycles.
+     *
+     * @return  number of checked cache items
+     */
+    synchronized
+    public long getItemsChecked() {
+        return mItemsChecked;
+    }
+
+    /**
+     * Returns the number of audio entries dropped, because their audio was missing or damaged.
+     *
+     * @return  number of dropped audio entries
+     */
+    synchronized
+    public long getEntriesDropped() {
+        return mEntriesDropped;
+    }
+
+    /**
+     * Returns the number of files checked in all scan cycles, segment files are not counted.
+     *
+     * @return  number of checked files
+     */
+    synchronized
+    public long getFilesChecked() {
+        return mFilesChecked;
+    }
+
+    /**
+     * Returns the number of deleted orphaned files.
+     *
+     * @return  number of deleted orphaned files
+     */
+    synchronized
+    public long getOrphansDeleted() {
+        return mOrphansDeleted;
+    }
+
+    /**
+     * Returns the accumulated size of all deleted orphaned files.
+     *
+     * @return  size in bytes
+     */
+    synchronized
+    public long getOrphanBytesDeleted() {
+        return mOrphanBytesDeleted;
+    }
+}
@@ -0,0 +1,59 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.Map;
+
+/**
+ * Policy deciding the order, in which the audio of cache items is evicted when the cache
+ * exceeds its high watermark.
+ *
+ * The cache manager notifies the policy about accesses, evictions and removals of cache items,
+ * so that a policy can keep its own per item state. Implementations don't need to be
+ * thread-safe, the cache manager calls them either while holding its write lock or synchronized
+ * on its ordering index.
+ */
+public interface CacheEvictionPolicy {
+    /**
+     * Returns the name of the policy, e.g. for logging and metrics.
+     *
+     * @return  policy name
+     */
+    String getName();
+
+    /**
+     * Returns the uuids of the cache items in the order they should be evicted. Items without
+     * audio can be part of the order, they are skipped by the caller. The returned iterable must
+     * not be used after the ordering index or the cache items have been modified.
+     *
+     * @param orderIndex    ordering index with usage count, timestamp and audio size of all items
+     * @param items         all cache items, mapped by their uuid
+     *
+     * @return  uuids, first candidate for eviction first
+     */
+    Iterable<String> evictionOrder(CacheOrderIndex orderIndex, Map<String, CacheItem> items);
+
+    /**
+     * Called, when a cache item has been used.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    void onAccess(String uuid);
+
+    /**
+     * Called, before the audio of a cache item returned by evictionOrder() is evicted.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    void onEvict(String uuid);
+
+    /**
+     * Called, when a cache item has been removed from the cache.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    void onRemove(String uuid);
+
+    /**
+     * Called, when all cache items have been removed or the indexes are rebuilt.
+     */
+    void clear();
+}
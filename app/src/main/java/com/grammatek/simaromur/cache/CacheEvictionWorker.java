@@ -0,0 +1,190 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+/**
+ * Background worker, that expires the utterance cache instead of the write paths. A write path
+ * only wakes the worker, when the cache exceeds its high watermark or a voice exceeds its quota.
+ *
+ * Once woken, the worker evicts in small batches, each limited by a time slice, until the
+ * EvictionTarget reports that eviction has finished, i.e. that the cache is down to its low
+ * watermark. Between two batches the worker releases the cache and pauses, so that synthesis is
+ * delayed by at most one time slice. While synthesis is active, see onSynthesisActivity(), the
+ * pauses are longer, the eviction then takes longer but still progresses.
+ *
+ * This class is thread-safe.
+ */
+public class CacheEvictionWorker {
+    private final static String LOG_TAG = "Simaromur_" + CacheEvictionWorker.class.getSimpleName();
+    // max. duration of one eviction batch
+    public final static long DEFAULT_SLICE_MILLIS = 20;
+    // pause between two eviction batches
+    public final static long DEFAULT_PAUSE_MILLIS = 10;
+    // pause between two eviction batches, while synthesis is active
+    public final static long DEFAULT_ACTIVE_PAUSE_MILLIS = 250;
+    // synthesis is considered active for this time after its last activity
+    private final static long ACTIVITY_WINDOW_MILLIS = 2000;
+
+    /**
+     * The cache evicted by the worker.
+     */
+    public interface EvictionTarget {
+        /**
+         * Evicts the next batch of cache items. Called from the worker thread.
+         *
+         * @param deadlineNanos     System.nanoTime() value, after which the batch should end.
+         *                          At least one item is evicted, if there is anything to evict
+         *
+         * @return  true in case the eviction has finished, false if there is more to evict
+         */
+        boolean evictBatch(long deadlineNanos);
+    }
+
+    private final EvictionTarget mTarget;
+    private final long mSliceNanos;
+    private final long mPauseMillis;
+    private final long mActivePauseMillis;
+    private final Thread mWorker;
+    private volatile long mLastActivityMillis = 0;
+    private boolean mIsWoken = false;
+    private boolean mIsEvicting = false;
+    private boolean mIsClosed = false;
+    private long mBatchCount = 0;
+
+    /**
+     * Constructor. Starts the worker thread.
+     *
+     * @param target            the cache to evict
+     * @param sliceMillis       max. duration of one eviction batch
+     * @param pauseMillis       pause between two eviction batches
+     * @param activePauseMillis pause between two eviction batches, while synthesis is active
+     */
+    public CacheEvictionWorker(EvictionTarget target, long sliceMillis, long pauseMillis, long activePauseMillis) {
+        mTarget = target;
+        mSliceNanos = sliceMillis * 1000000;
+        mPauseMillis = pauseMillis;
+        mActivePauseMillis = activePauseMillis;
+        mWorker = new Thread(this::runWorker, LOG_TAG);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Wakes the worker. A running eviction is continued, otherwise a new one is started.
+     */
+    synchronized
+    public void wake() {
+        mIsWoken = true;
+        notifyAll();
+    }
+
+    /**
+     * Notifies the worker about synthesis activity, the pauses between the eviction batches are
+     * prolonged for a while.
+     */
+    public void onSynthesisActivity() {
+        mLastActivityMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns true in case the worker has been woken and hasn't finished evicting yet.
+     *
+     * @return  true if evicting
+     */
+    synchronized
+    public boolean isEvicting() {
+        return mIsWoken || mIsEvicting;
+    }
+
+    /**
+     * Returns the number of eviction batches executed so far.
+     *
+     * @return  number of batches
+     */
+    synchronized
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    /**
+     * Blocks until the worker has finished evicting.
+     */
+    synchronized
+    public void awaitIdle() {
+        while ((mIsWoken || mIsEvicting) && mWorker.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the worker thread after the current batch. An unfinished eviction is continued by the
+     * next write after the cache has been opened again.
+     */
+    public void close() {
+        synchronized (this) {
+            mIsClosed = true;
+            notifyAll();
+        }
+        try {
+            mWorker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Worker loop: waits until woken and evicts batches until the eviction has finished.
+     */
+    private void runWorker() {
+        while (true) {
+            synchronized (this) {
+                while (!mIsWoken && !mIsClosed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close() ends the worker
+                    }
+                }
+                if (mIsClosed) {
+                    mIsWoken = false;
+                    mIsEvicting = false;
+                    notifyAll();
+                    return;
+                }
+                mIsWoken = false;
+                mIsEvicting = true;
+            }
+            boolean isFinished = false;
+            while (!isFinished) {
+                try {
+                    isFinished = mTarget.evictBatch(System.nanoTime() + mSliceNanos);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "runWorker(): eviction aborted", e);
+                    isFinished = true;
+                }
+                synchronized (this) {
+                    mBatchCount++;
+                    if (isFinished || mIsClosed) {
+                        break;
+                    }
+                    final boolean isActive =
+                            System.currentTimeMillis() - mLastActivityMillis < ACTIVITY_WINDOW_MILLIS;
+                    try {
+                        wait(isActive ? mActivePauseMillis : mPauseMillis);
+                    } catch (InterruptedException e) {
+                        // only close() ends the worker
+                    }
+                }
+            }
+            synchronized (this) {
+                mIsEvicting = false;
+                notifyAll();
+            }
+        }
+    }
+}
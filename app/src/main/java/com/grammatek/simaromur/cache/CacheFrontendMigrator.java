@@ -0,0 +1,220 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import com.grammatek.simaromur.frontend.FrontendManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Incremental background migrator, that re-runs normalization and G2P for cache items processed
+ * by an older frontend version, e.g. after an upgrade of the normalization rules or the
+ * pronunciation dictionary. The audio of each migrated item is kept for all phonemes that haven't
+ * changed, see UtteranceCacheManager.rephonemizeItem().
+ *
+ * A migration cycle collects all outdated cache items, most used first. Each call of
+ * migrateStep() migrates only a limited number of them, the caller is responsible for rate
+ * limiting by calling it periodically. Items the frontend couldn't process are retried in the
+ * next cycle.
+ *
+ * This class is thread-safe.
+ */
+public class CacheFrontendMigrator {
+    private final static String LOG_TAG = "Simaromur_" + CacheFrontendMigrator.class.getSimpleName();
+    // number of cache items migrated by each migration step
+    public final static int DEFAULT_STEP_SIZE = 8;
+    // time between the start of two migration cycles
+    public final static long DEFAULT_CYCLE_INTERVAL_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * The frontend used for migrating the cache items.
+     */
+    public interface Frontend {
+        /**
+         * Executes normalization and G2P for given text.
+         *
+         * @param text  the raw text of a cache item
+         *
+         * @return  utterance built via UtteranceCacheManager.newUtterance(), or null if the text
+         *          can't be processed currently, e.g. because no voice is selected
+         */
+        Utterance process(String text);
+    }
+
+    private final UtteranceCacheManager mCacheManager;
+    private final Frontend mFrontend;
+    private final int mStepSize;
+    private final long mCycleIntervalMillis;
+    // 0 if there hasn't been any migration cycle yet
+    private long mCycleStartMillis = 0;
+    private List<String> mUuids = new ArrayList<>();
+    private int mPosition = 0;
+
+    // metrics, accumulated over all migration cycles
+    private long mItemsMigrated = 0;
+    private long mAudioKept = 0;
+    private long mAudioInvalidated = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheManager          the cache manager, whose cache is migrated
+     * @param frontend              the frontend executing normalization and G2P
+     * @param stepSize              max. number of cache items migrated by one step
+     * @param cycleIntervalMillis   min. time between the start of two migration cycles
+     */
+    public CacheFrontendMigrator(UtteranceCacheManager cacheManager, Frontend frontend, int stepSize,
+                                 long cycleIntervalMillis) {
+        mCacheManager = cacheManager;
+        mFrontend = frontend;
+        mStepSize = stepSize;
+        mCycleIntervalMillis = cycleIntervalMillis;
+    }
+
+    /**
+     * Returns true in case given cache item has been processed by an older frontend version.
+     * Items without phonemes are processed by the synthesis path anyway.
+     *
+     * @param item  the cache item
+     *
+     * @return  true if the item is outdated
+     */
+    public static boolean isOutdated(CacheItem item) {
+        final Utterance utterance = item.getUtterance();
+        return utterance.getPhonemesCount() > 0
+                && !utterance.getFrontendVersion().equals(FrontendManager.getVersion());
+    }
+
+    /**
+     * Executes the next step of the current migration cycle. Starts a new migration cycle, if
+     * the cycle interval has elapsed since the start of the last one. Doesn't do anything, as
+     * long as the cache hasn't been loaded.
+     */
+    synchronized
+    public void migrateStep() {
+        if (!mCacheManager.isLoaded()) {
+            return;
+        }
+        try {
+            if (mPosition >= mUuids.size()) {
+                final long now = System.currentTimeMillis();
+                if (mCycleStartMillis != 0 && now - mCycleStartMillis < mCycleIntervalMillis) {
+                    return;
+                }
+                mCycleStartMillis = now;
+                mUuids = collectOutdatedItems();
+                mPosition = 0;
+                if (!mUuids.isEmpty()) {
+                    Log.v(LOG_TAG, "migrateStep(): starting migration of " + mUuids.size() + " items");
+                }
+                return;
+            }
+            migrateItems();
+        } catch (RuntimeException e) {
+            // e.g. the cache has been closed
+            Log.e(LOG_TAG, "migrateStep(): migration aborted", e);
+            mUuids = new ArrayList<>();
+            mPosition = 0;
+        }
+    }
+
+    /**
+     * Returns the uuids of all outdated cache items.
+     *
+     * @return  uuids, most used first
+     */
+    private List<String> collectOutdatedItems() {
+        final List<String> uuids = mCacheManager.getUuidsSortedByUsage();
+        final List<String> outdatedUuids = new ArrayList<>();
+        for (int i = uuids.size() - 1; i >= 0; --i) {
+            final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(uuids.get(i));
+            if (optItem.isPresent() && isOutdated(optItem.get())) {
+                outdatedUuids.add(uuids.get(i));
+            }
+        }
+        return outdatedUuids;
+    }
+
+    /**
+     * Migrates the next outdated cache items.
+     */
+    private void migrateItems() {
+        final int end = Math.min(mPosition + mStepSize, mUuids.size());
+        for (; mPosition < end; ++mPosition) {
+            final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(mUuids.get(mPosition));
+            // deleted or updated meanwhile
+            if (!optItem.isPresent() || !isOutdated(optItem.get())) {
+                continue;
+            }
+            final CacheItem item = optItem.get();
+            final Utterance utterance = mFrontend.process(item.getUtterance().getText());
+            if (utterance == null || utterance.getPhonemesCount() == 0) {
+                continue;
+            }
+            final CacheItem migratedItem = mCacheManager.rephonemizeItem(item.getUuid(), utterance);
+            if (migratedItem == null) {
+                continue;
+            }
+            final int nAudioBefore = countAudio(item);
+            final int nAudioAfter = countAudio(migratedItem);
+            mItemsMigrated++;
+            mAudioKept += nAudioAfter;
+            mAudioInvalidated += nAudioBefore - nAudioAfter;
+        }
+        if (mPosition >= mUuids.size()) {
+            Log.i(LOG_TAG, "migrateItems(): migration cycle finished, totals: " + mItemsMigrated
+                    + " items migrated, " + mAudioKept + " audio kept, " + mAudioInvalidated
+                    + " audio invalidated");
+            mUuids = new ArrayList<>();
+            mPosition = 0;
+        }
+    }
+
+    /**
+     * Returns the number of audio descriptions of all voices of given cache item.
+     *
+     * @param item  the cache item
+     *
+     * @return  number of audio descriptions
+     */
+    private static int countAudio(CacheItem item) {
+        int nAudio = 0;
+        for (AudioEntry audioEntry : item.getVoiceAudioEntriesMap().values()) {
+            nAudio += UtteranceCacheManager.getStoredAudio(audioEntry).size();
+        }
+        return nAudio;
+    }
+
+    /**
+     * Returns the number of migrated cache items.
+     *
+     * @return  number of migrated cache items
+     */
+    synchronized
+    public long getItemsMigrated() {
+        return mItemsMigrated;
+    }
+
+    /**
+     * Returns the number of audio descriptions kept by the migration, as their phonemes haven't
+     * changed.
+     *
+     * @return  number of kept audio descriptions
+     */
+    synchronized
+    public long getAudioKept() {
+        return mAudioKept;
+    }
+
+    /**
+     * Returns the number of audio descriptions invalidated by the migration.
+     *
+     * @return  number of invalidated audio descriptions
+     */
+    synchronized
+    public long getAudioInvalidated() {
+        return mAudioInvalidated;
+    }
+}
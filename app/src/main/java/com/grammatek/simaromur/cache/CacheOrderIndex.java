@@ -0,0 +1,379 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordering index of the cache items used for finding eviction candidates.
+ *
+ * The index keeps all cache items in two orders at the same time:
+ *
+ *   - recency: a doubly linked list ascending sorted by the access timestamp, i.e. the least
+ *     recently used item is at the head
+ *   - frequency: a doubly linked list of buckets ascending sorted by usage count, each bucket
+ *     contains all items with the same usage count in the order they have entered the bucket
+ *
+ * As access timestamps are usually set to the current time and usage counts are usually increased
+ * by one, updating an item is O(1). Iterating the n least recently or least frequently used items
+ * is O(n). Additionally, the audio size of each item is kept, so that it doesn't need to be
+ * recalculated from the audio descriptions.
+ *
+ * This class is not thread-safe, synchronization has to be done by the caller.
+ */
+public class CacheOrderIndex {
+    private final HashMap<String, Node> mNodes = new HashMap<>();
+    private Node mLruHead;
+    private Node mLruTail;
+    private Bucket mBucketHead;
+    private long mTotalAudioBytes = 0;
+
+    private static class Node {
+        final String uuid;
+        int usageCount;
+        long timestampMillis;
+        long audioBytes;
+        Node lruPrev, lruNext;
+        Bucket bucket;
+        Node bucketPrev, bucketNext;
+
+        Node(String uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    private static class Bucket {
+        final int usageCount;
+        Bucket prev, next;
+        Node head, tail;
+
+        Bucket(int usageCount) {
+            this.usageCount = usageCount;
+        }
+    }
+
+    /**
+     * Adds or updates the entry of given cache item.
+     *
+     * @param uuid              uuid of the cache item
+     * @param usageCount        usage count of the cache item
+     * @param timestampMillis   access timestamp of the cache item as milliseconds since the epoch
+     * @param audioBytes        size of all audio of the cache item in bytes
+     */
+    public void put(String uuid, int usageCount, long timestampMillis, long audioBytes) {
+        Node node = mNodes.get(uuid);
+        if (node == null) {
+            node = new Node(uuid);
+            mNodes.put(uuid, node);
+            node.timestampMillis = timestampMillis;
+            node.usageCount = usageCount;
+            insertByTimestamp(node);
+            insertIntoBucket(node, null);
+        } else {
+            if (node.timestampMillis != timestampMillis) {
+                unlinkLru(node);
+                node.timestampMillis = timestampMillis;
+                insertByTimestamp(node);
+            }
+            if (node.usageCount != usageCount) {
+                final Bucket oldBucket = node.bucket;
+                unlinkFromBucket(node);
+                node.usageCount = usageCount;
+                insertIntoBucket(node, oldBucket);
+                if (oldBucket.head == null) {
+                    removeBucket(oldBucket);
+                }
+            }
+            mTotalAudioBytes -= node.audioBytes;
+        }
+        node.audioBytes = audioBytes;
+        mTotalAudioBytes += audioBytes;
+    }
+
+    /**
+     * Updates usage count and timestamp of given cache item, its audio size stays unchanged.
+     * Doesn't do anything, if the item is not part of the index.
+     *
+     * @param uuid              uuid of the cache item
+     * @param usageCount        usage count of the cache item
+     * @param timestampMillis   access timestamp as milliseconds since the epoch
+     */
+    public void touch(String uuid, int usageCount, long timestampMillis) {
+        final Node node = mNodes.get(uuid);
+        if (node != null) {
+            put(uuid, usageCount, timestampMillis, node.audioBytes);
+        }
+    }
+
+    /**
+     * Removes given cache item from the index.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    public void remove(String uuid) {
+        final Node node = mNodes.remove(uuid);
+        if (node == null) {
+            return;
+        }
+        unlinkLru(node);
+        final Bucket bucket = node.bucket;
+        unlinkFromBucket(node);
+        if (bucket.head == null) {
+            removeBucket(bucket);
+        }
+        mTotalAudioBytes -= node.audioBytes;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        mNodes.clear();
+        mLruHead = mLruTail = null;
+        mBucketHead = null;
+        mTotalAudioBytes = 0;
+    }
+
+    /**
+     * Returns the number of indexed cache items.
+     *
+     * @return  number of entries
+     */
+    public int size() {
+        return mNodes.size();
+    }
+
+    /**
+     * Returns the audio size of given cache item.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  audio size in bytes, or -1 if the item is not part of the index
+     */
+    public long getAudioBytes(String uuid) {
+        final Node node = mNodes.get(uuid);
+        return node != null ? node.audioBytes : -1;
+    }
+
+    /**
+     * Returns the usage count of given cache item.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  usage count, or -1 if the item is not part of the index
+     */
+    public int getUsageCount(String uuid) {
+        final Node node = mNodes.get(uuid);
+        return node != null ? node.usageCount : -1;
+    }
+
+    /**
+     * Returns the accumulated audio size of all cache items.
+     *
+     * @return  audio size in bytes
+     */
+    public long getTotalAudioBytes() {
+        return mTotalAudioBytes;
+    }
+
+    /**
+     * Returns the uuids of all cache items ascending sorted by access timestamp. The returned
+     * iterable must not be used after the index has been modified.
+     *
+     * @return  uuids, least recently used first
+     */
+    public Iterable<String> byRecency() {
+        return () -> new Iterator<String>() {
+            Node mNext = mLruHead;
+
+            @Override
+            public boolean hasNext() {
+                return mNext != null;
+            }
+
+            @Override
+            public String next() {
+                if (mNext == null) {
+                    throw new NoSuchElementException();
+                }
+                final String uuid = mNext.uuid;
+                mNext = mNext.lruNext;
+                return uuid;
+            }
+        };
+    }
+
+    /**
+     * Returns the uuids of all cache items ascending sorted by usage count. The returned
+     * iterable must not be used after the index has been modified.
+     *
+     * @return  uuids, least frequently used first
+     */
+    public Iterable<String> byUsage() {
+        return () -> new Iterator<String>() {
+            Bucket mBucket = mBucketHead;
+            Node mNext = mBucketHead != null ? mBucketHead.head : null;
+
+            @Override
+            public boolean hasNext() {
+                return mNext != null;
+            }
+
+            @Override
+            public String next() {
+                if (mNext == null) {
+                    throw new NoSuchElementException();
+                }
+                final String uuid = mNext.uuid;
+                mNext = mNext.bucketNext;
+                if (mNext == null) {
+                    mBucket = mBucket.next;
+                    mNext = mBucket != null ? mBucket.head : null;
+                }
+                return uuid;
+            }
+        };
+    }
+
+    /**
+     * Inserts given node into the recency list according to its timestamp. Searches backwards
+     * from the tail, which is O(1) for current timestamps.
+     *
+     * @param node  unlinked node
+     */
+    private void insertByTimestamp(Node node) {
+        Node prev = mLruTail;
+        while (prev != null && prev.timestampMillis > node.timestampMillis) {
+            prev = prev.lruPrev;
+        }
+        node.lruPrev = prev;
+        node.lruNext = (prev != null) ? prev.lruNext : mLruHead;
+        if (node.lruNext != null) {
+            node.lruNext.lruPrev = node;
+        } else {
+            mLruTail = node;
+        }
+        if (prev != null) {
+            prev.lruNext = node;
+        } else {
+            mLruHead = node;
+        }
+    }
+
+    /**
+     * Removes given node from the recency list.
+     *
+     * @param node  linked node
+     */
+    private void unlinkLru(Node node) {
+        if (node.lruPrev != null) {
+            node.lruPrev.lruNext = node.lruNext;
+        } else {
+            mLruHead = node.lruNext;
+        }
+        if (node.lruNext != null) {
+            node.lruNext.lruPrev = node.lruPrev;
+        } else {
+            mLruTail = node.lruPrev;
+        }
+        node.lruPrev = node.lruNext = null;
+    }
+
+    /**
+     * Appends given node to the bucket of its usage count, the bucket is created if necessary.
+     * The search starts at given bucket, which is O(1) if the usage count has been increased by
+     * one.
+     *
+     * @param node      node not part of any bucket
+     * @param start     bucket to start the search from, still linked into the bucket list, or
+     *                  null to start from the first bucket
+     */
+    private void insertIntoBucket(Node node, Bucket start) {
+        final int usageCount = node.usageCount;
+        Bucket prev;
+        Bucket next;
+        if (start == null) {
+            prev = null;
+            next = mBucketHead;
+        } else if (start.usageCount < usageCount) {
+            prev = start;
+            next = start.next;
+        } else {
+            prev = start.prev;
+            next = start;
+        }
+        while (next != null && next.usageCount < usageCount) {
+            prev = next;
+            next = next.next;
+        }
+        while (prev != null && prev.usageCount >= usageCount) {
+            next = prev;
+            prev = prev.prev;
+        }
+
+        Bucket bucket;
+        if (next != null && next.usageCount == usageCount) {
+            bucket = next;
+        } else {
+            bucket = new Bucket(usageCount);
+            bucket.prev = prev;
+            bucket.next = next;
+            if (prev != null) {
+                prev.next = bucket;
+            } else {
+                mBucketHead = bucket;
+            }
+            if (next != null) {
+                next.prev = bucket;
+            }
+        }
+        node.bucket = bucket;
+        node.bucketPrev = bucket.tail;
+        node.bucketNext = null;
+        if (bucket.tail != null) {
+            bucket.tail.bucketNext = node;
+        } else {
+            bucket.head = node;
+        }
+        bucket.tail = node;
+    }
+
+    /**
+     * Removes given node from its bucket. The bucket itself stays part of the bucket list, even
+     * if it's empty afterwards.
+     *
+     * @param node  node being part of a bucket
+     */
+    private void unlinkFromBucket(Node node) {
+        final Bucket bucket = node.bucket;
+        if (node.bucketPrev != null) {
+            node.bucketPrev.bucketNext = node.bucketNext;
+        } else {
+            bucket.head = node.bucketNext;
+        }
+        if (node.bucketNext != null) {
+            node.bucketNext.bucketPrev = node.bucketPrev;
+        } else {
+            bucket.tail = node.bucketPrev;
+        }
+        node.bucket = null;
+        node.bucketPrev = node.bucketNext = null;
+    }
+
+    /**
+     * Removes given empty bucket from the bucket list.
+     *
+     * @param bucket    empty bucket
+     */
+    private void removeBucket(Bucket bucket) {
+        if (bucket.prev != null) {
+            bucket.prev.next = bucket.next;
+        } else {
+            mBucketHead = bucket.next;
+        }
+        if (bucket.next != null) {
+            bucket.next.prev = bucket.prev;
+        }
+        bucket.prev = bucket.next = null;
+    }
+}
@@ -0,0 +1,284 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import com.google.protobuf.Timestamp;
+import com.grammatek.simaromur.frontend.FrontendManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports the cached audio of one voice into a portable zip archive and imports such archives
+ * into the cache, e.g. for prewarming the caches of a device fleet with the most used utterances.
+ *
+ * The archive contains the stored audio of each exported audio description as a separate entry,
+ * audio shared by several cache items is stored only once. The entry SNAPSHOT_ENTRY contains the
+ * CacheSnapshot with the meta data of all exported items, in which the path of each audio
+ * description is replaced by the name of the archive entry with its audio. The audio is exported
+ * as stored, i.e. already encoded audio is imported without decoding and encoding it again.
+ *
+ * An archive is only imported, if it has been exported with the same cache schema, the same
+ * frontend version and the same version of the voice as installed on the importing device.
+ * Imported items never replace local items with complete audio of the voice or local items with
+ * different phonemes, that have been used more recently.
+ *
+ * This class is thread-safe.
+ */
+public class CacheSnapshotArchive {
+    private final static String LOG_TAG = "Simaromur_" + CacheSnapshotArchive.class.getSimpleName();
+    // archive entry of the snapshot meta data
+    public final static String SNAPSHOT_ENTRY = "snapshot.pb";
+    // prefix of the archive entries with the stored audio
+    private final static String AUDIO_ENTRY_PREFIX = "audio/";
+
+    private final UtteranceCacheManager mCacheManager;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheManager  the cache manager, whose cache is exported or imported into
+     */
+    public CacheSnapshotArchive(UtteranceCacheManager cacheManager) {
+        mCacheManager = cacheManager;
+    }
+
+    /**
+     * Exports all cache items with complete audio of given voice, that have been processed by the
+     * current frontend version. Items, whose audio is evicted during the export, are skipped.
+     *
+     * @param archive       destination file, is overwritten
+     * @param voiceName     internal name of the voice
+     * @param voiceVersion  version of the voice
+     *
+     * @return  number of exported cache items
+     *
+     * @throws IOException in case the archive couldn't be written
+     */
+    public int exportVoice(File archive, String voiceName, String voiceVersion) throws IOException {
+        final String voiceKey = UtteranceCacheManager.buildVoiceKey(voiceName, voiceVersion);
+        final String frontendVersion = FrontendManager.getVersion();
+        final CacheSnapshot.Builder snapshot = CacheSnapshot.newBuilder()
+                .setSchemaVersion(UtteranceCacheManager.CACHE_SCHEMA_VERSION)
+                .setFrontendVersion(frontendVersion)
+                .setVoiceName(voiceName)
+                .setVoiceVersion(voiceVersion)
+                .setCreated(getCurrentTimestamp());
+        // archive entry names of the already exported audio, by location key
+        final Map<String, String> entryNames = new HashMap<>();
+        try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (String uuid : mCacheManager.getUuidsSortedByUsage()) {
+                final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(uuid);
+                if (!optItem.isPresent()) {
+                    continue;
+                }
+                final CacheItem item = optItem.get();
+                final AudioEntry audioEntry = item.getVoiceAudioEntriesMap().get(voiceKey);
+                if (!item.getUtterance().getFrontendVersion().equals(frontendVersion)
+                        || !UtteranceCacheManager.hasCompleteAudio(item.getUtterance(), audioEntry)) {
+                    continue;
+                }
+                final AudioEntry exportedEntry = exportAudio(zipStream, audioEntry, entryNames);
+                if (exportedEntry == null) {
+                    continue;
+                }
+                snapshot.addItems(item.toBuilder()
+                        .clearVoiceAudioEntries()
+                        .putVoiceAudioEntries(voiceKey, exportedEntry)
+                        .build());
+            }
+            zipStream.putNextEntry(new ZipEntry(SNAPSHOT_ENTRY));
+            snapshot.build().writeTo(zipStream);
+            zipStream.closeEntry();
+        }
+        Log.v(LOG_TAG, "exportVoice(): exported " + snapshot.getItemsCount() + " items of " + voiceKey);
+        return snapshot.getItemsCount();
+    }
+
+    /**
+     * Writes the stored audio of given audio entry into the archive, unless it has been written
+     * already.
+     *
+     * @param zipStream     the archive
+     * @param audioEntry    audio entry of the exported item
+     * @param entryNames    archive entry names of the already written audio, by location key
+     *
+     * @return  audio entry with the archive entry names as paths, null if the audio couldn't be
+     *          read
+     *
+     * @throws IOException in case the archive couldn't be written
+     */
+    private AudioEntry exportAudio(ZipOutputStream zipStream, AudioEntry audioEntry,
+                                   Map<String, String> entryNames) throws IOException {
+        final List<byte[]> newAudio = new ArrayList<>();
+        final List<String> newLocations = new ArrayList<>();
+        final AudioEntry.Builder exportedEntry = AudioEntry.newBuilder();
+        for (VoiceAudioDescription vad : audioEntry.getAudioDescriptorsList()) {
+            final String locationKey = AudioReferenceIndex.getLocationKey(vad);
+            String entryName = entryNames.get(locationKey);
+            if (entryName == null) {
+                final int index = newLocations.indexOf(locationKey);
+                if (index >= 0) {
+                    entryName = AUDIO_ENTRY_PREFIX + (entryNames.size() + index);
+                } else {
+                    try {
+                        newAudio.add(mCacheManager.readStoredAudio(vad));
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "exportAudio(): couldn't read audio " + vad.getPath(), e);
+                        return null;
+                    }
+                    entryName = AUDIO_ENTRY_PREFIX + (entryNames.size() + newLocations.size());
+                    newLocations.add(locationKey);
+                }
+            }
+            exportedEntry.addAudioDescriptors(vad.toBuilder()
+                    .setPath(entryName)
+                    .clearSegmentId()
+                    .clearSegmentOffset());
+        }
+        // all audio of the item has been read, write it
+        for (int i = 0; i < newLocations.size(); ++i) {
+            zipStream.putNextEntry(new ZipEntry(AUDIO_ENTRY_PREFIX + entryNames.size()));
+            zipStream.write(newAudio.get(i));
+            zipStream.closeEntry();
+            entryNames.put(newLocations.get(i), AUDIO_ENTRY_PREFIX + entryNames.size());
+        }
+        return exportedEntry.build();
+    }
+
+    /**
+     * Imports the cache items of given archive into the cache. The archive is rejected, if it
+     * doesn't match the cache schema, the frontend version or the installed version of its voice.
+     *
+     * @param archive                   the archive written by exportVoice()
+     * @param installedVoiceVersions    version of each installed voice, by internal voice name
+     *
+     * @return  number of imported cache items, 0 if the archive has been rejected
+     *
+     * @throws IOException in case the archive couldn't be read
+     */
+    public int importArchive(File archive, Map<String, String> installedVoiceVersions) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            final ZipEntry snapshotEntry = zipFile.getEntry(SNAPSHOT_ENTRY);
+            if (snapshotEntry == null) {
+                Log.w(LOG_TAG, "importArchive(): no snapshot in " + archive.getName());
+                return 0;
+            }
+            final CacheSnapshot snapshot;
+            try (InputStream inStream = zipFile.getInputStream(snapshotEntry)) {
+                snapshot = CacheSnapshot.parseFrom(inStream);
+            }
+            if (!isCompatible(snapshot, installedVoiceVersions)) {
+                return 0;
+            }
+            final String voiceKey = UtteranceCacheManager.buildVoiceKey(snapshot.getVoiceName(),
+                    snapshot.getVoiceVersion());
+            int nImported = 0;
+            for (CacheItem item : snapshot.getItemsList()) {
+                final AudioEntry audioEntry = item.getVoiceAudioEntriesMap().get(voiceKey);
+                if (audioEntry == null || item.getUtterance().getPhonemesCount() == 0
+                        || (audioEntry.getAudioDescriptorsCount() != item.getUtterance().getPhonemesCount()
+                            && !UtteranceCacheManager.isWholeUtteranceAudio(audioEntry))) {
+                    Log.w(LOG_TAG, "importArchive(): incomplete item " + item.getUuid());
+                    continue;
+                }
+                final List<byte[]> storedAudio = readAudio(zipFile, audioEntry);
+                if (storedAudio == null) {
+                    continue;
+                }
+                if (mCacheManager.mergeImportedItem(item, voiceKey, storedAudio)) {
+                    nImported++;
+                }
+            }
+            Log.v(LOG_TAG, "importArchive(): imported " + nImported + " of "
+                    + snapshot.getItemsCount() + " items of " + voiceKey);
+            return nImported;
+        }
+    }
+
+    /**
+     * Returns true in case given snapshot can be imported.
+     *
+     * @param snapshot                  the snapshot
+     * @param installedVoiceVersions    version of each installed voice, by internal voice name
+     *
+     * @return  true if the snapshot matches the cache schema, the frontend version and the
+     *          installed voice version
+     */
+    private static boolean isCompatible(CacheSnapshot snapshot, Map<String, String> installedVoiceVersions) {
+        if (snapshot.getSchemaVersion() != UtteranceCacheManager.CACHE_SCHEMA_VERSION) {
+            Log.w(LOG_TAG, "isCompatible(): unsupported schema version " + snapshot.getSchemaVersion());
+            return false;
+        }
+        if (!snapshot.getFrontendVersion().equals(FrontendManager.getVersion())) {
+            Log.w(LOG_TAG, "isCompatible(): frontend version " + snapshot.getFrontendVersion()
+                    + " doesn't match " + FrontendManager.getVersion());
+            return false;
+        }
+        final String installedVersion = installedVoiceVersions.get(snapshot.getVoiceName());
+        if (!snapshot.getVoiceVersion().equals(installedVersion)) {
+            Log.w(LOG_TAG, "isCompatible(): voice " + snapshot.getVoiceName() + " version "
+                    + snapshot.getVoiceVersion() + " doesn't match installed version " + installedVersion);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the stored audio of given audio entry from the archive.
+     *
+     * @param zipFile       the archive
+     * @param audioEntry    audio entry with the archive entry names as paths
+     *
+     * @return  stored audio of each audio description, null if any audio is missing or its size
+     *          doesn't match
+     *
+     * @throws IOException in case the archive couldn't be read
+     */
+    private static List<byte[]> readAudio(ZipFile zipFile, AudioEntry audioEntry) throws IOException {
+        final List<byte[]> storedAudio = new ArrayList<>(audioEntry.getAudioDescriptorsCount());
+        for (VoiceAudioDescription vad : audioEntry.getAudioDescriptorsList()) {
+            final ZipEntry zipEntry = zipFile.getEntry(vad.getPath());
+            if (zipEntry == null || zipEntry.getSize() != vad.getFileSize()) {
+                Log.w(LOG_TAG, "readAudio(): missing or invalid audio " + vad.getPath());
+                return null;
+            }
+            final byte[] data = new byte[vad.getFileSize()];
+            try (InputStream inStream = zipFile.getInputStream(zipEntry)) {
+                int nRead = 0;
+                while (nRead < data.length) {
+                    final int n = inStream.read(data, nRead, data.length - nRead);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of archive entry " + vad.getPath());
+                    }
+                    nRead += n;
+                }
+            }
+            storedAudio.add(data);
+        }
+        return storedAudio;
+    }
+
+    /**
+     * Returns the current time as protobuf timestamp.
+     *
+     * @return  current timestamp
+     */
+    private static Timestamp getCurrentTimestamp() {
+        final long millis = System.currentTimeMillis();
+        return Timestamp.newBuilder()
+                .setSeconds(millis / 1000)
+                .setNanos((int) ((millis % 1000) * 1000000))
+                .build();
+    }
+}
@@ -0,0 +1,221 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.Arrays;
+
+/**
+ * Compact in-memory side table for the hot access counters of cache items, i.e. usage count and
+ * last access timestamp.
+ *
+ * Bumping these counters on each playback would otherwise mean to rebuild and persist a CacheItem
+ * for every cached replay. Instead the current values are collected here and flushed in batches
+ * into the cache meta data.
+ *
+ * The table is an open addressing hash table with linear probing, keyed by cache item uuid. Values
+ * are kept in primitive arrays, so that no objects are allocated per touch.
+ *
+ * This class is not thread-safe, synchronization has to be done by the caller.
+ */
+public class CacheTouchTable {
+    private final static int INITIAL_CAPACITY = 64;
+    private String[] mKeys;
+    private int[] mUsageCounts;
+    private long[] mTimestamps;
+    private int mSize = 0;
+
+    /**
+     * Callback for iterating over all entries of the table.
+     */
+    public interface Visitor {
+        /**
+         * Called for each entry of the table.
+         *
+         * @param uuid              uuid of the cache item
+         * @param usageCount        current usage count of the cache item
+         * @param timestampMillis   current access timestamp as milliseconds since the epoch
+         */
+        void visit(String uuid, int usageCount, long timestampMillis);
+    }
+
+    /**
+     * Constructor.
+     */
+    public CacheTouchTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Allocates empty arrays of given capacity.
+     *
+     * @param capacity  new capacity, needs to be a power of 2
+     */
+    private void allocate(int capacity) {
+        mKeys = new String[capacity];
+        mUsageCounts = new int[capacity];
+        mTimestamps = new long[capacity];
+    }
+
+    /**
+     * Returns the slot index of given uuid, or the index of the empty slot, where it would be
+     * inserted.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  slot index
+     */
+    private int slotOf(String uuid) {
+        final int mask = mKeys.length - 1;
+        int h = uuid.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        while (mKeys[i] != null && !mKeys[i].equals(uuid)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Sets the current values for given uuid. Existing values are replaced.
+     *
+     * @param uuid              uuid of the cache item
+     * @param usageCount        current usage count
+     * @param timestampMillis   current access timestamp as milliseconds since the epoch
+     */
+    public void put(String uuid, int usageCount, long timestampMillis) {
+        int i = slotOf(uuid);
+        if (mKeys[i] == null) {
+            // keep load factor below 0.5
+            if (2 * (mSize + 1) > mKeys.length) {
+                grow();
+                i = slotOf(uuid);
+            }
+            mKeys[i] = uuid;
+            mSize++;
+        }
+        mUsageCounts[i] = usageCount;
+        mTimestamps[i] = timestampMillis;
+    }
+
+    /**
+     * Doubles the capacity of the table and rehashes all entries.
+     */
+    private void grow() {
+        final String[] oldKeys = mKeys;
+        final int[] oldUsageCounts = mUsageCounts;
+        final long[] oldTimestamps = mTimestamps;
+        allocate(2 * oldKeys.length);
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldKeys[j] != null) {
+                final int i = slotOf(oldKeys[j]);
+                mKeys[i] = oldKeys[j];
+                mUsageCounts[i] = oldUsageCounts[j];
+                mTimestamps[i] = oldTimestamps[j];
+            }
+        }
+    }
+
+    /**
+     * Returns true in case there are values for given uuid.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  true if the table contains given uuid
+     */
+    public boolean contains(String uuid) {
+        return mKeys[slotOf(uuid)] != null;
+    }
+
+    /**
+     * Returns the usage count of given uuid.
+     *
+     * @param uuid          uuid of the cache item
+     * @param defaultValue  value to return, if the table doesn't contain given uuid
+     *
+     * @return  usage count or defaultValue
+     */
+    public int getUsageCount(String uuid, int defaultValue) {
+        final int i = slotOf(uuid);
+        return mKeys[i] != null ? mUsageCounts[i] : defaultValue;
+    }
+
+    /**
+     * Returns the access timestamp of given uuid.
+     *
+     * @param uuid          uuid of the cache item
+     * @param defaultValue  value to return, if the table doesn't contain given uuid
+     *
+     * @return  timestamp as milliseconds since the epoch or defaultValue
+     */
+    public long getTimestampMillis(String uuid, long defaultValue) {
+        final int i = slotOf(uuid);
+        return mKeys[i] != null ? mTimestamps[i] : defaultValue;
+    }
+
+    /**
+     * Removes the values of given uuid. Uses backward shift deletion, so that no tombstones are
+     * necessary.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    public void remove(String uuid) {
+        final int mask = mKeys.length - 1;
+        int i = slotOf(uuid);
+        if (mKeys[i] == null) {
+            return;
+        }
+        mKeys[i] = null;
+        mSize--;
+        // move following entries of the probe sequence into the gap
+        int j = (i + 1) & mask;
+        while (mKeys[j] != null) {
+            final int h = mKeys[j].hashCode();
+            final int home = (h ^ (h >>> 16)) & mask;
+            // entry at j may be moved to i, if its home slot is not cyclically within (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                mKeys[i] = mKeys[j];
+                mUsageCounts[i] = mUsageCounts[j];
+                mTimestamps[i] = mTimestamps[j];
+                mKeys[j] = null;
+                i = j;
+            }
+            j = (j + 1) & mask;
+        }
+    }
+
+    /**
+     * Calls given visitor for each entry of the table.
+     *
+     * @param visitor   the visitor
+     */
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < mKeys.length; ++i) {
+            if (mKeys[i] != null) {
+                visitor.visit(mKeys[i], mUsageCounts[i], mTimestamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(mKeys, null);
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return  number of entries in the table
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true in case the table is empty.
+     *
+     * @return  true if there are no entries
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+}
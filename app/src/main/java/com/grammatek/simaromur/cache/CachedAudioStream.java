@@ -0,0 +1,153 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Sequential reader for the stored PCM audio of all sentences of an utterance. The audio is read
+ * directly from the audio store into the buffer given by the caller, either via the file channel
+ * of an audio file or from the memory mapped segment file. Therefore the audio is never copied
+ * into an intermediate buffer and can be consumed chunk by chunk, before the remaining audio has
+ * been read.
+ *
+ * A separator, e.g. the pause between two sentences, is returned between the audio of two
+ * consecutive parts.
+ *
+ * This class is not thread-safe.
+ */
+public class CachedAudioStream implements Closeable {
+    private final static String LOG_TAG = "Simaromur_" + CachedAudioStream.class.getSimpleName();
+
+    /**
+     * Stored audio of one sentence, either an open audio file or a mapped segment buffer.
+     */
+    static class Part {
+        final FileChannel channel;
+        final ByteBuffer buffer;
+        final long size;
+
+        Part(FileChannel channel, long size) {
+            this.channel = channel;
+            this.buffer = null;
+            this.size = size;
+        }
+
+        Part(ByteBuffer buffer) {
+            this.channel = null;
+            this.buffer = buffer;
+            this.size = buffer.remaining();
+        }
+    }
+
+    private final List<Part> mParts;
+    private final byte[] mSeparator;
+    private final long mSize;
+    private int mPartIndex = 0;
+    // bytes already returned of the current part, or of the separator following it
+    private long mPartOffset = 0;
+    private int mSeparatorOffset = 0;
+    private boolean mIsInSeparator = false;
+
+    /**
+     * Constructor. The stream takes ownership of the file channels of the given parts.
+     *
+     * @param parts         stored audio of each sentence, in sentence order
+     * @param separator     audio inserted between two consecutive parts
+     */
+    CachedAudioStream(List<Part> parts, byte[] separator) {
+        mParts = parts;
+        mSeparator = separator;
+        long size = 0;
+        for (Part part : parts) {
+            size += part.size;
+        }
+        mSize = size + (long) separator.length * Math.max(0, parts.size() - 1);
+    }
+
+    /**
+     * Returns the size of the whole audio, including the separators.
+     *
+     * @return  size in bytes
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Reads the next audio into given buffer. Fills the given range, unless the end of the audio
+     * has been reached.
+     *
+     * @param buffer    destination buffer
+     * @param offset    offset in buffer
+     * @param length    max. number of bytes to read
+     *
+     * @return  number of bytes read, -1 at the end of the audio
+     *
+     * @throws IOException in case the stored audio couldn't be read
+     */
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int nRead = 0;
+        while (nRead < length && mPartIndex < mParts.size()) {
+            if (mIsInSeparator) {
+                final int n = Math.min(length - nRead, mSeparator.length - mSeparatorOffset);
+                System.arraycopy(mSeparator, mSeparatorOffset, buffer, offset + nRead, n);
+                mSeparatorOffset += n;
+                nRead += n;
+                if (mSeparatorOffset == mSeparator.length) {
+                    nextPart();
+                }
+                continue;
+            }
+            final Part part = mParts.get(mPartIndex);
+            final int n = (int) Math.min(length - nRead, part.size - mPartOffset);
+            if (part.channel != null) {
+                final ByteBuffer dst = ByteBuffer.wrap(buffer, offset + nRead, n);
+                while (dst.hasRemaining()) {
+                    if (part.channel.read(dst) < 0) {
+                        throw new IOException("Unexpected end of audio in part " + mPartIndex);
+                    }
+                }
+            } else {
+                part.buffer.get(buffer, offset + nRead, n);
+            }
+            mPartOffset += n;
+            nRead += n;
+            if (mPartOffset == part.size) {
+                if (mPartIndex + 1 < mParts.size() && mSeparator.length > 0) {
+                    mIsInSeparator = true;
+                } else {
+                    nextPart();
+                }
+            }
+        }
+        return (nRead == 0 && length > 0) ? -1 : nRead;
+    }
+
+    /**
+     * Continues with the next part.
+     */
+    private void nextPart() {
+        mPartIndex++;
+        mPartOffset = 0;
+        mSeparatorOffset = 0;
+        mIsInSeparator = false;
+    }
+
+    @Override
+    public void close() {
+        for (Part part : mParts) {
+            if (part.channel != null) {
+                try {
+                    part.channel.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "close(): couldn't close audio file", e);
+                }
+            }
+        }
+    }
+}
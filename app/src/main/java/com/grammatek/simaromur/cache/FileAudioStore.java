@@ -0,0 +1,56 @@
+package com.grammatek.simaromur.cache;
+
+import com.grammatek.simaromur.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Audio store, that saves the audio of each phoneme entry into its own file.
+ */
+public class FileAudioStore implements AudioStore {
+
+    @Override
+    public VoiceAudioDescription write(VoiceAudioDescription vad, String fileName, byte[] data) throws IOException {
+        try (OutputStream outStream = new FileOutputStream(fileName)) {
+            outStream.write(data);
+        }
+        return vad.toBuilder()
+                .setPath(fileName)
+                .setFileSize(data.length)
+                .clearSegmentId()
+                .clearSegmentOffset()
+                .build();
+    }
+
+    @Override
+    public byte[] read(VoiceAudioDescription vad) throws IOException {
+        try (InputStream inStream = new FileInputStream(vad.getPath())) {
+            final byte[] data = new byte[vad.getFileSize()];
+            int nRead = 0;
+            while (nRead < data.length) {
+                final int n = inStream.read(data, nRead, data.length - nRead);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of file: " + vad.getPath());
+                }
+                nRead += n;
+            }
+            return data;
+        }
+    }
+
+    @Override
+    public void delete(VoiceAudioDescription vad) {
+        FileUtils.delete(vad.getPath());
+    }
+
+    @Override
+    public boolean contains(VoiceAudioDescription vad) {
+        final File file = new File(vad.getPath());
+        return file.isFile() && file.length() == vad.getFileSize();
+    }
+}
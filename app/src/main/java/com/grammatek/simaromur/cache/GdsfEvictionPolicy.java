@@ -0,0 +1,117 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GreedyDual-Size-Frequency eviction policy: evicts the cache items, whose audio is cheapest to
+ * synthesize again per stored byte and is used least, first. Each item has the priority
+ *
+ *      H = L + usage count * synthesis cost / audio size
+ *
+ * where L is the inflation value at the time the item has last been used. L is raised to the
+ * priority of each evicted item, so that items not used for a long time age and finally get
+ * evicted, even if they have been expensive or frequently used.
+ *
+ * The synthesis cost is the measured synthesis time of the audio, see
+ * VoiceAudioDescription.synthesis_millis. For audio without a measured cost, e.g. audio cached
+ * before the cost has been recorded, the cost is estimated from its size.
+ */
+public class GdsfEvictionPolicy implements CacheEvictionPolicy {
+    public final static String NAME = "gdsf";
+    // estimated synthesis time per kB of audio without measured cost: 1 kB of 16 bit 22 kHz PCM
+    // is about 23 ms of audio, synthesized with a real time factor of about 4
+    private final static double UNKNOWN_COST_MILLIS_PER_KB = 6.0;
+
+    // current inflation value L
+    private double mInflation = 0.0;
+    // inflation value at the last usage of each item, items not contained here have not been
+    // used since the cache has been loaded and use 0
+    private final HashMap<String, Double> mAccessInflation = new HashMap<>();
+    // priorities calculated by the last call of evictionOrder()
+    private final HashMap<String, Double> mPriorities = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Iterable<String> evictionOrder(CacheOrderIndex orderIndex, Map<String, CacheItem> items) {
+        mPriorities.clear();
+        final List<String> uuids = new ArrayList<>();
+        for (String uuid : orderIndex.byRecency()) {
+            final long audioBytes = orderIndex.getAudioBytes(uuid);
+            final CacheItem item = items.get(uuid);
+            if (audioBytes <= 0 || item == null) {
+                continue;
+            }
+            final int usageCount = Math.max(1, orderIndex.getUsageCount(uuid));
+            final double priority = mAccessInflation.getOrDefault(uuid, 0.0)
+                    + usageCount * getSynthesisCostMillis(item) / audioBytes;
+            mPriorities.put(uuid, priority);
+            uuids.add(uuid);
+        }
+        // stable sort: for the same priority, the least recently used item comes first
+        uuids.sort(Comparator.comparingDouble(mPriorities::get));
+        return uuids;
+    }
+
+    @Override
+    public void onAccess(String uuid) {
+        mAccessInflation.put(uuid, mInflation);
+    }
+
+    @Override
+    public void onEvict(String uuid) {
+        final Double priority = mPriorities.get(uuid);
+        if (priority != null) {
+            mInflation = Math.max(mInflation, priority);
+        }
+        // the item needs to be used again, before its audio is worth keeping
+        mAccessInflation.remove(uuid);
+    }
+
+    @Override
+    public void onRemove(String uuid) {
+        mAccessInflation.remove(uuid);
+        mPriorities.remove(uuid);
+    }
+
+    @Override
+    public void clear() {
+        mInflation = 0.0;
+        mAccessInflation.clear();
+        mPriorities.clear();
+    }
+
+    /**
+     * Returns the current inflation value L.
+     *
+     * @return  inflation value
+     */
+    public double getInflation() {
+        return mInflation;
+    }
+
+    /**
+     * Returns the cost of synthesizing all audio of given cache item again.
+     *
+     * @param item  the cache item
+     *
+     * @return  synthesis cost in milliseconds, measured or estimated
+     */
+    static double getSynthesisCostMillis(CacheItem item) {
+        double costMillis = 0.0;
+        for (AudioEntry entry : item.getVoiceAudioEntriesMap().values()) {
+            for (VoiceAudioDescription vad : UtteranceCacheManager.getStoredAudio(entry)) {
+                costMillis += (vad.getSynthesisMillis() > 0) ? vad.getSynthesisMillis()
+                        : vad.getFileSize() / 1024.0 * UNKNOWN_COST_MILLIS_PER_KB;
+            }
+        }
+        return costMillis;
+    }
+}
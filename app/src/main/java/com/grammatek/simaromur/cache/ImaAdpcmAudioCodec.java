@@ -0,0 +1,189 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.IOException;
+
+/**
+ * Lossy 4:1 codec for 16 bit PCM audio using IMA-ADPCM.
+ *
+ * Encoded layout:
+ *
+ *   - 32 bit little endian number of samples
+ *   - for each block of BLOCK_SIZE samples (the last block can be shorter):
+ *     - first sample of the block as 16 bit little endian value
+ *     - step index of the block as 8 bit value, followed by a reserved byte
+ *     - 4 bit codes for all other samples of the block, two per byte, low nibble first
+ *
+ * Each block can be decoded independently.
+ */
+public class ImaAdpcmAudioCodec implements AudioCodec {
+    private final static int BLOCK_SIZE = 1017;
+    private final static int HEADER_SIZE = 4;
+    private final static int BLOCK_HEADER_SIZE = 4;
+
+    private final static int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private final static int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    /**
+     * Returns the encoded size of a block with given number of samples.
+     *
+     * @param nSamples  samples of the block
+     *
+     * @return  encoded size in bytes
+     */
+    private static int encodedBlockSize(int nSamples) {
+        return BLOCK_HEADER_SIZE + nSamples / 2;
+    }
+
+    @Override
+    public byte[] encode(byte[] pcm) {
+        final int nSamples = pcm.length / 2;
+        final int nFullBlocks = nSamples / BLOCK_SIZE;
+        final int lastBlockSize = nSamples % BLOCK_SIZE;
+        final int encodedSize = HEADER_SIZE + nFullBlocks * encodedBlockSize(BLOCK_SIZE)
+                + (lastBlockSize > 0 ? encodedBlockSize(lastBlockSize) : 0);
+        final byte[] out = new byte[encodedSize];
+        writeIntLE(out, 0, nSamples);
+        int outPos = HEADER_SIZE;
+        int index = 0;
+        for (int start = 0; start < nSamples; start += BLOCK_SIZE) {
+            final int blockLength = Math.min(BLOCK_SIZE, nSamples - start);
+            int predictor = sampleAt(pcm, start);
+            out[outPos++] = (byte) predictor;
+            out[outPos++] = (byte) (predictor >> 8);
+            out[outPos++] = (byte) index;
+            out[outPos++] = 0;
+            for (int i = 1; i < blockLength; ++i) {
+                final int step = STEP_TABLE[index];
+                int diff = sampleAt(pcm, start + i) - predictor;
+                int code = 0;
+                if (diff < 0) {
+                    code = 8;
+                    diff = -diff;
+                }
+                // quantize the difference and reconstruct it exactly like the decoder does
+                int delta = step >> 3;
+                if (diff >= step) {
+                    code |= 4;
+                    diff -= step;
+                    delta += step;
+                }
+                if (diff >= (step >> 1)) {
+                    code |= 2;
+                    diff -= step >> 1;
+                    delta += step >> 1;
+                }
+                if (diff >= (step >> 2)) {
+                    code |= 1;
+                    delta += step >> 2;
+                }
+                predictor = clamp16((code & 8) != 0 ? predictor - delta : predictor + delta);
+                index = clampIndex(index + INDEX_TABLE[code]);
+                if ((i & 1) == 1) {
+                    out[outPos] = (byte) code;
+                } else {
+                    out[outPos++] |= (byte) (code << 4);
+                }
+            }
+            if ((blockLength & 1) == 0) {
+                // odd number of codes: the last byte is only half filled
+                outPos++;
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) throws IOException {
+        if (encoded.length < HEADER_SIZE) {
+            throw new IOException("Encoded audio too short");
+        }
+        final int nSamples = readIntLE(encoded, 0);
+        if (nSamples < 0) {
+            throw new IOException("Invalid number of samples: " + nSamples);
+        }
+        final byte[] pcm = new byte[2 * nSamples];
+        int inPos = HEADER_SIZE;
+        for (int start = 0; start < nSamples; start += BLOCK_SIZE) {
+            final int blockLength = Math.min(BLOCK_SIZE, nSamples - start);
+            if (inPos + encodedBlockSize(blockLength) > encoded.length) {
+                throw new IOException("Unexpected end of encoded audio");
+            }
+            int predictor = (short) ((encoded[inPos] & 0xff) | (encoded[inPos + 1] << 8));
+            int index = encoded[inPos + 2] & 0xff;
+            if (index >= STEP_TABLE.length) {
+                throw new IOException("Invalid step index: " + index);
+            }
+            inPos += BLOCK_HEADER_SIZE;
+            int outPos = 2 * start;
+            pcm[outPos++] = (byte) predictor;
+            pcm[outPos++] = (byte) (predictor >> 8);
+            for (int i = 1; i < blockLength; ++i) {
+                final int code;
+                if ((i & 1) == 1) {
+                    code = encoded[inPos] & 0x0f;
+                } else {
+                    code = (encoded[inPos++] >> 4) & 0x0f;
+                }
+                final int step = STEP_TABLE[index];
+                int delta = step >> 3;
+                if ((code & 4) != 0) {
+                    delta += step;
+                }
+                if ((code & 2) != 0) {
+                    delta += step >> 1;
+                }
+                if ((code & 1) != 0) {
+                    delta += step >> 2;
+                }
+                predictor = clamp16((code & 8) != 0 ? predictor - delta : predictor + delta);
+                index = clampIndex(index + INDEX_TABLE[code]);
+                pcm[outPos++] = (byte) predictor;
+                pcm[outPos++] = (byte) (predictor >> 8);
+            }
+            if ((blockLength & 1) == 0) {
+                inPos++;
+            }
+        }
+        return pcm;
+    }
+
+    private static int sampleAt(byte[] pcm, int i) {
+        return (short) ((pcm[2 * i] & 0xff) | (pcm[2 * i + 1] << 8));
+    }
+
+    private static int clamp16(int value) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+
+    private static int clampIndex(int index) {
+        return Math.max(0, Math.min(STEP_TABLE.length - 1, index));
+    }
+
+    private static void writeIntLE(byte[] buffer, int offset, int value) {
+        for (int i = 0; i < 4; ++i) {
+            buffer[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static int readIntLE(byte[] buffer, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; ++i) {
+            value |= (buffer[offset + i] & 0xff) << (8 * i);
+        }
+        return value;
+    }
+}
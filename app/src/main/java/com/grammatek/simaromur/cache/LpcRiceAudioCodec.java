@@ -0,0 +1,313 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lossless codec for 16 bit PCM audio, modelled after FLAC: each block of samples is predicted by
+ * the best of the fixed polynomial predictors of order 0 to 4 and the prediction residuals are
+ * Rice coded with a parameter chosen per partition.
+ *
+ * Encoded layout:
+ *
+ *   - 32 bit little endian length of the PCM data in bytes
+ *   - for each block of BLOCK_SIZE samples (the last block can be shorter):
+ *     - 3 bit predictor order
+ *     - order warm-up samples, 16 bit each
+ *     - for each partition of PARTITION_SIZE samples: 5 bit Rice parameter and the Rice coded
+ *       residuals of the samples of the partition, not covered by the warm-up
+ *   - the last PCM byte, in case of an odd PCM length
+ */
+public class LpcRiceAudioCodec implements AudioCodec {
+    private final static int BLOCK_SIZE = 4096;
+    private final static int PARTITION_SIZE = 256;
+    private final static int MAX_ORDER = 4;
+    private final static int MAX_RICE_PARAMETER = 30;
+
+    @Override
+    public byte[] encode(byte[] pcm) {
+        final int nSamples = pcm.length / 2;
+        final int[] samples = new int[nSamples];
+        for (int i = 0; i < nSamples; ++i) {
+            samples[i] = (short) ((pcm[2 * i] & 0xff) | (pcm[2 * i + 1] << 8));
+        }
+        BitWriter writer = new BitWriter(pcm.length / 2 + 64);
+        writer.writeIntLE(pcm.length);
+        final int[] residuals = new int[BLOCK_SIZE];
+        for (int start = 0; start < nSamples; start += BLOCK_SIZE) {
+            final int blockLength = Math.min(BLOCK_SIZE, nSamples - start);
+            final int order = findBestOrder(samples, start, blockLength);
+            writer.writeBits(order, 3);
+            for (int i = 0; i < order; ++i) {
+                writer.writeBits(samples[start + i] & 0xffff, 16);
+            }
+            computeResiduals(samples, start, blockLength, order, residuals);
+            for (int p = 0; p < blockLength; p += PARTITION_SIZE) {
+                final int from = Math.max(p, order);
+                final int to = Math.min(p + PARTITION_SIZE, blockLength);
+                final int k = findRiceParameter(residuals, from, to);
+                writer.writeBits(k, 5);
+                for (int i = from; i < to; ++i) {
+                    writer.writeRice(residuals[i], k);
+                }
+            }
+        }
+        if ((pcm.length & 1) != 0) {
+            writer.writeBits(pcm[pcm.length - 1] & 0xff, 8);
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) throws IOException {
+        BitReader reader = new BitReader(encoded);
+        final int pcmLength = reader.readIntLE();
+        if (pcmLength < 0) {
+            throw new IOException("Invalid PCM length: " + pcmLength);
+        }
+        final int nSamples = pcmLength / 2;
+        final byte[] pcm = new byte[pcmLength];
+        final int[] block = new int[BLOCK_SIZE];
+        for (int start = 0; start < nSamples; start += BLOCK_SIZE) {
+            final int blockLength = Math.min(BLOCK_SIZE, nSamples - start);
+            final int order = reader.readBits(3);
+            if (order > MAX_ORDER) {
+                throw new IOException("Invalid predictor order: " + order);
+            }
+            for (int i = 0; i < order; ++i) {
+                block[i] = (short) reader.readBits(16);
+            }
+            for (int p = 0; p < blockLength; p += PARTITION_SIZE) {
+                final int from = Math.max(p, order);
+                final int to = Math.min(p + PARTITION_SIZE, blockLength);
+                final int k = reader.readBits(5);
+                for (int i = from; i < to; ++i) {
+                    block[i] = reader.readRice(k) + predict(block, i, order);
+                }
+            }
+            for (int i = 0; i < blockLength; ++i) {
+                final int sample = block[i];
+                pcm[2 * (start + i)] = (byte) sample;
+                pcm[2 * (start + i) + 1] = (byte) (sample >> 8);
+            }
+        }
+        if ((pcmLength & 1) != 0) {
+            pcm[pcmLength - 1] = (byte) reader.readBits(8);
+        }
+        return pcm;
+    }
+
+    /**
+     * Returns the prediction of the fixed polynomial predictor of given order for sample i.
+     *
+     * @param x         samples of the block
+     * @param i         index of the predicted sample, needs to be >= order
+     * @param order     predictor order
+     *
+     * @return  predicted sample value
+     */
+    private static int predict(int[] x, int i, int order) {
+        switch (order) {
+            case 0:
+                return 0;
+            case 1:
+                return x[i - 1];
+            case 2:
+                return 2 * x[i - 1] - x[i - 2];
+            case 3:
+                return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+            default:
+                return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+        }
+    }
+
+    /**
+     * Computes the prediction residuals of a block.
+     *
+     * @param samples       all samples
+     * @param start         index of the first sample of the block
+     * @param blockLength   number of samples of the block
+     * @param order         predictor order
+     * @param residuals     output, residual i corresponds to sample start + i, the first order
+     *                      residuals are undefined
+     */
+    private static void computeResiduals(int[] samples, int start, int blockLength, int order, int[] residuals) {
+        final int[] block = Arrays.copyOfRange(samples, start, start + blockLength);
+        for (int i = order; i < blockLength; ++i) {
+            residuals[i] = block[i] - predict(block, i, order);
+        }
+    }
+
+    /**
+     * Returns the predictor order with the smallest sum of absolute residuals for given block.
+     *
+     * @param samples       all samples
+     * @param start         index of the first sample of the block
+     * @param blockLength   number of samples of the block
+     *
+     * @return  predictor order
+     */
+    private static int findBestOrder(int[] samples, int start, int blockLength) {
+        if (blockLength <= MAX_ORDER) {
+            return 0;
+        }
+        final long[] errors = new long[MAX_ORDER + 1];
+        for (int i = start + MAX_ORDER; i < start + blockLength; ++i) {
+            final int e0 = samples[i];
+            final int e1 = e0 - samples[i - 1];
+            final int e2 = e1 - (samples[i - 1] - samples[i - 2]);
+            final int e3 = e2 - (samples[i - 1] - 2 * samples[i - 2] + samples[i - 3]);
+            final int e4 = e3 - (samples[i - 1] - 3 * samples[i - 2] + 3 * samples[i - 3] - samples[i - 4]);
+            errors[0] += Math.abs(e0);
+            errors[1] += Math.abs(e1);
+            errors[2] += Math.abs(e2);
+            errors[3] += Math.abs(e3);
+            errors[4] += Math.abs(e4);
+        }
+        int bestOrder = 0;
+        for (int order = 1; order <= MAX_ORDER; ++order) {
+            if (errors[order] < errors[bestOrder]) {
+                bestOrder = order;
+            }
+        }
+        return bestOrder;
+    }
+
+    /**
+     * Estimates the optimal Rice parameter for given residuals from their mean.
+     *
+     * @param residuals     residuals
+     * @param from          first index
+     * @param to            index after the last residual
+     *
+     * @return  Rice parameter
+     */
+    private static int findRiceParameter(int[] residuals, int from, int to) {
+        final long n = to - from;
+        if (n <= 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = from; i < to; ++i) {
+            sum += zigzag(residuals[i]);
+        }
+        int k = 0;
+        while (k < MAX_RICE_PARAMETER && (n << (k + 1)) <= sum) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Maps signed to unsigned values: 0, -1, 1, -2, 2, ... become 0, 1, 2, 3, 4, ...
+     *
+     * @param value     signed value
+     *
+     * @return  unsigned value
+     */
+    private static long zigzag(int value) {
+        final long v = value;
+        return (v << 1) ^ (v >> 63);
+    }
+
+    /**
+     * Writes bits MSB first into a growing byte array.
+     */
+    private static class BitWriter {
+        private byte[] mBuffer;
+        private int mPosition = 0;
+        private long mAccumulator = 0;
+        private int mBitCount = 0;
+
+        BitWriter(int initialCapacity) {
+            mBuffer = new byte[Math.max(16, initialCapacity)];
+        }
+
+        void writeIntLE(int value) {
+            for (int i = 0; i < 4; ++i) {
+                writeBits((value >>> (8 * i)) & 0xff, 8);
+            }
+        }
+
+        void writeBits(long value, int nBits) {
+            mAccumulator = (mAccumulator << nBits) | (value & ((1L << nBits) - 1));
+            mBitCount += nBits;
+            while (mBitCount >= 8) {
+                mBitCount -= 8;
+                put((byte) (mAccumulator >>> mBitCount));
+            }
+        }
+
+        void writeRice(int value, int k) {
+            final long u = zigzag(value);
+            long q = u >>> k;
+            // unary coded quotient: q one bits followed by a zero bit
+            while (q >= 32) {
+                writeBits(0xffffffffL, 32);
+                q -= 32;
+            }
+            writeBits(((1L << q) - 1) << 1, (int) q + 1);
+            if (k > 0) {
+                writeBits(u, k);
+            }
+        }
+
+        private void put(byte b) {
+            if (mPosition == mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, 2 * mBuffer.length);
+            }
+            mBuffer[mPosition++] = b;
+        }
+
+        byte[] toByteArray() {
+            if (mBitCount > 0) {
+                writeBits(0, 8 - mBitCount);
+            }
+            return Arrays.copyOf(mBuffer, mPosition);
+        }
+    }
+
+    /**
+     * Reads bits MSB first from a byte array.
+     */
+    private static class BitReader {
+        private final byte[] mBuffer;
+        private int mPosition = 0;
+        private long mAccumulator = 0;
+        private int mBitCount = 0;
+
+        BitReader(byte[] buffer) {
+            mBuffer = buffer;
+        }
+
+        int readIntLE() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; ++i) {
+                value |= readBits(8) << (8 * i);
+            }
+            return value;
+        }
+
+        int readBits(int nBits) throws IOException {
+            while (mBitCount < nBits) {
+                if (mPosition == mBuffer.length) {
+                    throw new IOException("Unexpected end of encoded audio");
+                }
+                mAccumulator = (mAccumulator << 8) | (mBuffer[mPosition++] & 0xff);
+                mBitCount += 8;
+            }
+            mBitCount -= nBits;
+            return (int) ((mAccumulator >>> mBitCount) & ((1L << nBits) - 1));
+        }
+
+        int readRice(int k) throws IOException {
+            long q = 0;
+            while (readBits(1) == 1) {
+                q++;
+            }
+            final long u = (q << k) | (k > 0 ? readBits(k) : 0);
+            // reverse zigzag
+            return (int) ((u >>> 1) ^ -(u & 1));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.Map;
+
+/**
+ * Evicts the least recently used cache items first, regardless of their size or the cost of
+ * synthesizing their audio again. The order is kept by the ordering index, therefore this policy
+ * doesn't have any own state.
+ */
+public class LruEvictionPolicy implements CacheEvictionPolicy {
+    public final static String NAME = "lru";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Iterable<String> evictionOrder(CacheOrderIndex orderIndex, Map<String, CacheItem> items) {
+        return orderIndex.byRecency();
+    }
+
+    @Override
+    public void onAccess(String uuid) {
+    }
+
+    @Override
+    public void onEvict(String uuid) {
+    }
+
+    @Override
+    public void onRemove(String uuid) {
+    }
+
+    @Override
+    public void clear() {
+    }
+}
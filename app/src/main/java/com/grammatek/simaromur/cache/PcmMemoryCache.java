@@ -0,0 +1,161 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte bounded in-memory tier of decoded PCM audio above the audio stores. It keeps the audio
+ * read most recently, so that frequently played utterances don't need to be read from the file
+ * system and decoded again. When the capacity is exceeded, the least recently used audio is
+ * dropped.
+ *
+ * Entries are keyed by the voice key and the location of the stored audio, i.e. audio shared
+ * between cache items is kept only once. The cached audio is returned as is and must not be
+ * modified by the caller.
+ *
+ * This class is thread-safe.
+ */
+public class PcmMemoryCache {
+    // audio bigger than this fraction of the capacity isn't kept, it would displace too much
+    private final static int MAX_ENTRY_FRACTION = 8;
+
+    // access ordered: the least recently used audio is first
+    private final LinkedHashMap<String, byte[]> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mCapacityBytes;
+    private long mResidentBytes = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacityBytes     max. size of all kept audio in bytes, 0 disables the tier
+     */
+    public PcmMemoryCache(long capacityBytes) {
+        mCapacityBytes = Math.max(0, capacityBytes);
+    }
+
+    /**
+     * Returns the key of given stored audio.
+     *
+     * @param vad   voice audio description of the stored audio
+     *
+     * @return  key consisting of the voice key and the audio location
+     */
+    private static String getKey(VoiceAudioDescription vad) {
+        return UtteranceCacheManager.buildVoiceKey(vad) + "|" + AudioReferenceIndex.getLocationKey(vad);
+    }
+
+    /**
+     * Returns the kept PCM audio of given stored audio and marks it as recently used.
+     *
+     * @param vad   voice audio description of the stored audio
+     *
+     * @return  PCM audio, which must not be modified, or null if not kept
+     */
+    synchronized
+    public byte[] get(VoiceAudioDescription vad) {
+        return mEntries.get(getKey(vad));
+    }
+
+    /**
+     * Keeps the PCM audio of given stored audio. Less recently used audio is dropped, until the
+     * capacity is met again.
+     *
+     * @param vad   voice audio description of the stored audio
+     * @param pcm   decoded PCM audio, must not be modified afterwards
+     */
+    synchronized
+    public void put(VoiceAudioDescription vad, byte[] pcm) {
+        if (pcm.length == 0 || pcm.length > mCapacityBytes / MAX_ENTRY_FRACTION) {
+            return;
+        }
+        final byte[] oldPcm = mEntries.put(getKey(vad), pcm);
+        if (oldPcm != null) {
+            mResidentBytes -= oldPcm.length;
+        }
+        mResidentBytes += pcm.length;
+        trimTo(mCapacityBytes);
+    }
+
+    /**
+     * Drops the audio of given stored audio, e.g. because it has been deleted or overwritten.
+     *
+     * @param vad   voice audio description of the stored audio
+     */
+    synchronized
+    public void remove(VoiceAudioDescription vad) {
+        final byte[] pcm = mEntries.remove(getKey(vad));
+        if (pcm != null) {
+            mResidentBytes -= pcm.length;
+        }
+    }
+
+    /**
+     * Keeps the audio of stored audio, that has been moved to another location, under its new
+     * location.
+     *
+     * @param oldVad    voice audio description of the previous location
+     * @param newVad    voice audio description of the new location
+     */
+    synchronized
+    public void relocate(VoiceAudioDescription oldVad, VoiceAudioDescription newVad) {
+        final byte[] pcm = mEntries.remove(getKey(oldVad));
+        if (pcm != null) {
+            mEntries.put(getKey(newVad), pcm);
+        }
+    }
+
+    /**
+     * Drops all audio.
+     */
+    synchronized
+    public void clear() {
+        mEntries.clear();
+        mResidentBytes = 0;
+    }
+
+    /**
+     * Sets the capacity. If the new capacity is smaller than the resident audio, the least
+     * recently used audio is dropped.
+     *
+     * @param capacityBytes     max. size of all kept audio in bytes, 0 disables the tier
+     */
+    synchronized
+    public void setCapacity(long capacityBytes) {
+        mCapacityBytes = Math.max(0, capacityBytes);
+        trimTo(mCapacityBytes);
+    }
+
+    /**
+     * Returns the capacity.
+     *
+     * @return  max. size of all kept audio in bytes
+     */
+    synchronized
+    public long getCapacity() {
+        return mCapacityBytes;
+    }
+
+    /**
+     * Returns the size of all kept audio.
+     *
+     * @return  resident size in bytes
+     */
+    synchronized
+    public long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * Drops the least recently used audio, until the resident size is at most the given size.
+     *
+     * @param maxBytes  max. resident size in bytes
+     */
+    private void trimTo(long maxBytes) {
+        final Iterator<Map.Entry<String, byte[]>> it = mEntries.entrySet().iterator();
+        while (mResidentBytes > maxBytes && it.hasNext()) {
+            mResidentBytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact in-memory index of all cache items. Only the data needed for looking up, accounting
+ * and evicting cache items stays in memory: the uuid, the text hash, the phoneme hashes, the
+ * audio descriptors with their byte offsets and sizes, the usage count and the timestamp. The
+ * utterance body, i.e. the texts and the phoneme symbols, is stored in the UtteranceBodyStore
+ * and read on demand by the caller, e.g. when an item is looked up by its text. Modifications of
+ * the cache are done on the resident data only.
+ *
+ * Each resident item is the cache item with its utterance reduced to the text hash and the hash
+ * of each phoneme entry. Strings repeated in many audio descriptors, like voice names, versions
+ * and segment file paths, are shared by all resident items. If the body of an item couldn't be
+ * stored, the item is kept completely in memory. Without a body store, e.g. while the body file
+ * hasn't been opened yet, all items are kept completely in memory.
+ *
+ * This class is not thread-safe, synchronization has to be done by the caller. Concurrent
+ * readers are supported as long as there is no concurrent modification.
+ */
+public class ResidentItemIndex {
+    // the body file is compacted, if it has more dead space than this and than live bodies
+    private final static long MIN_COMPACTION_DEAD_BYTES = 1024 * 1024;
+
+    // resident items by their uuid
+    private final HashMap<String, CacheItem> mItems = new HashMap<>();
+    // location of the utterance body of each item in the body store. Items without a location
+    // are kept completely in memory
+    private final HashMap<String, Long> mBodyLocations = new HashMap<>();
+    // null, if all items are kept completely in memory
+    private final UtteranceBodyStore mBodyStore;
+    // strings shared by the resident items
+    private final HashMap<String, String> mStringPool = new HashMap<>();
+
+    /**
+     * Resident items and the locations of their bodies at a point in time, e.g. for writing a
+     * snapshot of all cache items without holding them in memory. The locations stay valid, as
+     * long as the body store isn't compacted.
+     */
+    public class Snapshot {
+        private final List<CacheItem> mResidentItems;
+        private final Map<String, Long> mLocations;
+        private final long mBodyFileId;
+
+        private Snapshot() {
+            mResidentItems = new ArrayList<>(mItems.values());
+            mLocations = new HashMap<>(mBodyLocations);
+            mBodyFileId = (mBodyStore != null) ? mBodyStore.getFileId() : 0;
+        }
+
+        /**
+         * Returns the id of the body file, the locations of the bodies refer to.
+         *
+         * @return  body file id
+         */
+        public long getBodyFileId() {
+            return mBodyFileId;
+        }
+
+        /**
+         * Returns the number of items.
+         *
+         * @return  number of items
+         */
+        public int size() {
+            return mResidentItems.size();
+        }
+
+        /**
+         * Returns the resident items.
+         *
+         * @return  resident items
+         */
+        public List<CacheItem> getResidentItems() {
+            return mResidentItems;
+        }
+
+        /**
+         * Returns given resident item with its utterance body read from the body store.
+         *
+         * @param residentItem  one of the items returned by getResidentItems()
+         *
+         * @return  the complete cache item
+         *
+         * @throws IOException in case the body couldn't be read
+         */
+        public CacheItem readItem(CacheItem residentItem) throws IOException {
+            final Long location = mLocations.get(residentItem.getUuid());
+            if (location == null) {
+                return residentItem;
+            }
+            return residentItem.toBuilder().setUtterance(mBodyStore.readUncached(location)).build();
+        }
+
+        /**
+         * Returns given resident item with the location of its utterance body, as stored in the
+         * cache snapshot. Items kept completely in memory are returned as is.
+         *
+         * @param residentItem  one of the items returned by getResidentItems()
+         *
+         * @return  the cache item with its body location, see CacheItem.body_location
+         */
+        public CacheItem getStoredItem(CacheItem residentItem) {
+            final Long location = mLocations.get(residentItem.getUuid());
+            if (location == null) {
+                return residentItem;
+            }
+            return residentItem.toBuilder().setBodyLocation(location).build();
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bodyStore     store for the utterance bodies, null for keeping all items completely
+     *                      in memory
+     */
+    public ResidentItemIndex(UtteranceBodyStore bodyStore) {
+        mBodyStore = bodyStore;
+    }
+
+    /**
+     * Returns the utterance kept in memory for given utterance: its text hash, the check hash of
+     * its cache key and the hashes of its phoneme entries.
+     *
+     * @param utterance     the utterance, complete or resident
+     * @param textHash      64 bit hash of the utterance text
+     *
+     * @return  the resident utterance
+     */
+    private static Utterance toResidentUtterance(Utterance utterance, long textHash) {
+        final Utterance.Builder residentBuilder = Utterance.newBuilder()
+                .setTextHash(textHash)
+                .setKeyCheckHash(UtteranceCacheManager.getKeyCheckHash(utterance));
+        for (PhonemeEntry phonemeEntry : utterance.getPhonemesList()) {
+            residentBuilder.addPhonemes(PhonemeEntry.newBuilder()
+                    .setHash(UtteranceCacheManager.getPhonemeHash(phonemeEntry)));
+        }
+        return residentBuilder.build();
+    }
+
+    /**
+     * Returns true in case given utterance only consists of its text hash, key check hash and
+     * phoneme hashes, i.e. it's either the utterance of a resident item or an utterance without body.
+     *
+     * @param utterance     the utterance
+     *
+     * @return  true if the utterance has no body
+     */
+    public static boolean isResidentUtterance(Utterance utterance) {
+        return utterance.equals(toResidentUtterance(utterance, utterance.getTextHash()));
+    }
+
+    /**
+     * Adds or replaces given cache item. The utterance body is stored in the body store, unless
+     * the stored body is still the same. An item with a resident utterance, e.g. a resident item
+     * with changed audio, keeps its stored body.
+     *
+     * @param item      the cache item, complete or resident
+     * @param textHash  64 bit hash of the utterance text, kept in memory for looking up the item
+     */
+    public void put(CacheItem item, long textHash) {
+        final String uuid = item.getUuid();
+        final Utterance utterance = item.getUtterance();
+        if (mBodyStore == null) {
+            mItems.put(uuid, item);
+            return;
+        }
+        final Long location = mBodyLocations.get(uuid);
+        if (!utterance.equals(toResidentUtterance(utterance, textHash))) {
+            final Utterance storedBody = (location != null) ? mBodyStore.getRecent(location) : null;
+            if (!utterance.equals(storedBody)) {
+                if (location != null) {
+                    mBodyStore.release(location);
+                    mBodyLocations.remove(uuid);
+                }
+                try {
+                    mBodyLocations.put(uuid, mBodyStore.append(utterance));
+                } catch (IOException e) {
+                    // keep the complete item in memory
+                    mItems.put(uuid, item);
+                    return;
+                }
+            }
+        }
+        mItems.put(uuid, toResidentItem(item, textHash));
+    }
+
+    /**
+     * Adds a resident item, whose utterance body is already stored in the body file at given
+     * location, e.g. an item loaded from the cache snapshot. The body is only read, if the
+     * resident utterance has no key check hash yet.
+     *
+     * @param residentItem  the resident item
+     * @param location      location of its utterance body in the body file
+     *
+     * @return  true in case the item has been added, false if the location is beyond the body
+     *          file, e.g. because the file has been lost
+     */
+    public boolean putStored(CacheItem residentItem, long location) {
+        if (mBodyStore == null || !mBodyStore.retain(location)) {
+            return false;
+        }
+        CacheItem item = residentItem.toBuilder().clearBodyLocation().build();
+        if (item.getUtterance().getKeyCheckHash() == 0) {
+            // snapshots of older versions don't have it, it's calculated from the body
+            try {
+                item = item.toBuilder().setUtterance(mBodyStore.readUncached(location)).build();
+            } catch (IOException e) {
+                mBodyStore.release(location);
+                return false;
+            }
+        }
+        final String uuid = residentItem.getUuid();
+        final Long oldLocation = mBodyLocations.put(uuid, location);
+        if (oldLocation != null) {
+            mBodyStore.release(oldLocation);
+        }
+        mItems.put(uuid, toResidentItem(item, residentItem.getUtterance().getTextHash()));
+        return true;
+    }
+
+    /**
+     * Returns given cache item reduced to its resident data, with strings shared with other
+     * resident items.
+     *
+     * @param item      the cache item
+     * @param textHash  64 bit hash of the utterance text
+     *
+     * @return  the resident item
+     */
+    private CacheItem toResidentItem(CacheItem item, long textHash) {
+        final CacheItem.Builder residentBuilder = item.toBuilder()
+                .setUtterance(toResidentUtterance(item.getUtterance(), textHash))
+                .clearVoiceAudioEntries();
+        for (Map.Entry<String, AudioEntry> entry : item.getVoiceAudioEntriesMap().entrySet()) {
+            final AudioEntry.Builder entryBuilder = AudioEntry.newBuilder();
+            for (VoiceAudioDescription vad : entry.getValue().getAudioDescriptorsList()) {
+                entryBuilder.addAudioDescriptors(toResidentAudio(vad));
+            }
+            for (VoiceAudioDescription vad : entry.getValue().getRetainedAudioList()) {
+                entryBuilder.addRetainedAudio(toResidentAudio(vad));
+            }
+            residentBuilder.putVoiceAudioEntries(share(entry.getKey()), entryBuilder.build());
+        }
+        return residentBuilder.build();
+    }
+
+    /**
+     * Returns given voice audio description with strings shared with other resident items.
+     *
+     * @param vad   voice audio description
+     *
+     * @return  the resident voice audio description
+     */
+    private VoiceAudioDescription toResidentAudio(VoiceAudioDescription vad) {
+        return vad.toBuilder()
+                .setVoiceName(share(vad.getVoiceName()))
+                .setVoiceVersion(share(vad.getVoiceVersion()))
+                .setPath(share(vad.getPath()))
+                .build();
+    }
+
+    /**
+     * Returns the shared instance of given string.
+     *
+     * @param s     the string
+     *
+     * @return  equal string shared by all resident items
+     */
+    private String share(String s) {
+        final String shared = mStringPool.putIfAbsent(s, s);
+        return (shared != null) ? shared : s;
+    }
+
+    /**
+     * Returns the resident cache item of given uuid, i.e. without its utterance body. This
+     * doesn't access the body store.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  the resident item, null if there is no such item
+     */
+    public CacheItem getResident(String uuid) {
+        return mItems.get(uuid);
+    }
+
+    /**
+     * Returns the location of the utterance body of given cache item in the body store. This
+     * doesn't access the body store, the body is read by the caller, e.g. after releasing its
+     * lock.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  the location, null if there is no such item or it's kept completely in memory
+     */
+    public Long getBodyLocation(String uuid) {
+        return mBodyLocations.get(uuid);
+    }
+
+    /**
+     * Returns true in case there is a cache item with given uuid.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  true if the item exists
+     */
+    public boolean contains(String uuid) {
+        return mItems.containsKey(uuid);
+    }
+
+    /**
+     * Removes the cache item with given uuid, its body becomes dead space of the body store.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    public void remove(String uuid) {
+        mItems.remove(uuid);
+        final Long location = mBodyLocations.remove(uuid);
+        if (location != null) {
+            mBodyStore.release(location);
+        }
+    }
+
+    /**
+     * Removes all cache items.
+     */
+    public void clear() {
+        for (long location : mBodyLocations.values()) {
+            mBodyStore.release(location);
+        }
+        mItems.clear();
+        mBodyLocations.clear();
+        mStringPool.clear();
+    }
+
+    /**
+     * Returns the number of cache items.
+     *
+     * @return  number of cache items
+     */
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Returns all resident items, e.g. for summarizing their audio. The returned collection must
+     * not be used after modifying the index.
+     *
+     * @return  unmodifiable view of the resident items
+     */
+    public Collection<CacheItem> residentItems() {
+        return Collections.unmodifiableCollection(mItems.values());
+    }
+
+    /**
+     * Returns the resident items by their uuid. The returned map must not be used after modifying
+     * the index.
+     *
+     * @return  unmodifiable view of the resident items
+     */
+    public Map<String, CacheItem> residentItemMap() {
+        return Collections.unmodifiableMap(mItems);
+    }
+
+    /**
+     * Returns the uuids of all cache items. The returned set must not be used after modifying
+     * the index.
+     *
+     * @return  unmodifiable view of the uuids
+     */
+    public Set<String> uuids() {
+        return Collections.unmodifiableSet(mItems.keySet());
+    }
+
+    /**
+     * Takes a snapshot of all resident items and the locations of their bodies.
+     *
+     * @return  the snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Compacts the body store, if it has too much dead space. Must not be called, while a
+     * snapshot is still in use.
+     *
+     * @throws IOException in case the body store couldn't be compacted, all bodies are still
+     *                     available at their previous locations
+     */
+    public void compactBodiesIfNeeded() throws IOException {
+        if (mBodyStore == null || !mBodyStore.needsCompaction(MIN_COMPACTION_DEAD_BYTES)) {
+            return;
+        }
+        final Map<Long, Long> newLocations = mBodyStore.compact(mBodyLocations.values());
+        for (Map.Entry<String, Long> entry : mBodyLocations.entrySet()) {
+            entry.setValue(newLocations.get(entry.getValue()));
+        }
+    }
+
+    /**
+     * Returns the body store of the utterance bodies.
+     *
+     * @return  the body store, null if all items are kept completely in memory
+     */
+    public UtteranceBodyStore getBodyStore() {
+        return mBodyStore;
+    }
+}
@@ -0,0 +1,322 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Audio store, that packs audio data into large append-only segment files.
+ *
+ * Audio is always appended to the active segment. If the active segment exceeds its maximum size,
+ * a new segment is started. Segments are read via memory mapping. Deleting audio only marks its
+ * bytes as dead, the space is reclaimed by compaction: the live audio of a segment with too many
+ * dead bytes is rewritten into the active segment by the caller and then the whole segment is
+ * dropped.
+ *
+ * The location of audio is stored in the VoiceAudioDescription fields segment_id and
+ * segment_offset. The live bytes of each segment are not persisted, they need to be registered
+ * via register() for all audio descriptions at startup.
+ *
+ * This class is thread-safe. Appends to the active segment are serialized, reads only synchronize
+ * for looking up the memory mapping of a segment, copying the audio is done without holding a
+ * lock.
+ */
+public class SegmentAudioStore implements AudioStore {
+    private final static String LOG_TAG = "Simaromur_" + SegmentAudioStore.class.getSimpleName();
+    private final static String SEGMENT_PREFIX = "segment_";
+    private final static String SEGMENT_SUFFIX = ".seg";
+    public final static long DEFAULT_MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    // segments with less live bytes than this ratio are compacted
+    private final static double MIN_LIVE_RATIO = 0.5;
+    private final String mDirectory;
+    private final long mMaxSegmentSize;
+    private final Map<Integer, Long> mSegmentSizes = new HashMap<>();
+    private final Map<Integer, Long> mLiveBytes = new HashMap<>();
+    private final Map<Integer, MappedByteBuffer> mMappedSegments = new HashMap<>();
+    private int mActiveSegmentId = 0;
+    private FileChannel mActiveChannel;
+
+    /**
+     * Constructor. Scans given directory for existing segment files, new audio is appended to the
+     * newest of them.
+     *
+     * @param directory         directory of the segment files
+     * @param maxSegmentSize    size in bytes, after which a new segment is started
+     */
+    public SegmentAudioStore(String directory, long maxSegmentSize) {
+        mDirectory = directory;
+        mMaxSegmentSize = maxSegmentSize;
+        final File[] files = new File(directory).listFiles();
+        if (files != null) {
+            for (File file: files) {
+                final int segmentId = parseSegmentId(file.getName());
+                if (segmentId > 0) {
+                    mSegmentSizes.put(segmentId, file.length());
+                    mLiveBytes.put(segmentId, 0L);
+                    mActiveSegmentId = Math.max(mActiveSegmentId, segmentId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the segment id encoded in given file name.
+     *
+     * @param fileName  file name without directory
+     *
+     * @return  segment id or 0, if given file name is not a segment file
+     */
+    private static int parseSegmentId(String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(),
+                    fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns true in case given file name is the name of a segment file.
+     *
+     * @param fileName  file name without directory
+     *
+     * @return  true for segment files
+     */
+    public static boolean isSegmentFile(String fileName) {
+        return parseSegmentId(fileName) > 0;
+    }
+
+    /**
+     * Returns the path of the segment file with given id.
+     *
+     * @param segmentId     segment id
+     *
+     * @return  absolute path of the segment file
+     */
+    public String getSegmentPath(int segmentId) {
+        return mDirectory + "/" + SEGMENT_PREFIX + segmentId + SEGMENT_SUFFIX;
+    }
+
+    /**
+     * Registers the audio referenced by given voice audio description as live. Needs to be
+     * called for all audio descriptions of the cache at startup.
+     *
+     * @param vad   voice audio description
+     */
+    synchronized
+    public void register(VoiceAudioDescription vad) {
+        final int segmentId = vad.getSegmentId();
+        if (mSegmentSizes.containsKey(segmentId)) {
+            mLiveBytes.merge(segmentId, (long) vad.getFileSize(), Long::sum);
+        } else {
+            Log.w(LOG_TAG, "register(): no such segment: " + segmentId);
+        }
+    }
+
+    @Override
+    synchronized
+    public VoiceAudioDescription write(VoiceAudioDescription vad, String fileName, byte[] data) throws IOException {
+        long offset = mSegmentSizes.getOrDefault(mActiveSegmentId, 0L);
+        if (mActiveSegmentId == 0 || (offset > 0 && offset + data.length > mMaxSegmentSize)) {
+            startNewSegment();
+            offset = 0;
+        }
+        if (mActiveChannel == null) {
+            mActiveChannel = FileChannel.open(new File(getSegmentPath(mActiveSegmentId)).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += mActiveChannel.write(buffer, position);
+        }
+        mSegmentSizes.put(mActiveSegmentId, offset + data.length);
+        mLiveBytes.merge(mActiveSegmentId, (long) data.length, Long::sum);
+        return vad.toBuilder()
+                .setPath(getSegmentPath(mActiveSegmentId))
+                .setFileSize(data.length)
+                .setSegmentId(mActiveSegmentId)
+                .setSegmentOffset(offset)
+                .build();
+    }
+
+    /**
+     * Closes the active segment and starts a new one.
+     */
+    private void startNewSegment() {
+        closeActiveChannel();
+        mActiveSegmentId++;
+        mSegmentSizes.put(mActiveSegmentId, 0L);
+        mLiveBytes.put(mActiveSegmentId, 0L);
+        Log.v(LOG_TAG, "Starting new segment " + mActiveSegmentId);
+    }
+
+    @Override
+    public byte[] read(VoiceAudioDescription vad) throws IOException {
+        final ByteBuffer buffer = map(vad);
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Returns a read-only buffer of the audio referenced by given voice audio description. The
+     * buffer is backed by the memory mapped segment file.
+     *
+     * @param vad   voice audio description returned by write()
+     *
+     * @return  buffer positioned at the start of the audio, its limit is the end of the audio
+     *
+     * @throws IOException in case the segment file couldn't be mapped or is too small
+     */
+    public ByteBuffer map(VoiceAudioDescription vad) throws IOException {
+        final long end = vad.getSegmentOffset() + vad.getFileSize();
+        final ByteBuffer buffer = getMappedSegment(vad.getSegmentId(), end).duplicate();
+        buffer.limit((int) end);
+        buffer.position((int) vad.getSegmentOffset());
+        return buffer.slice();
+    }
+
+    /**
+     * Returns the memory mapping of given segment, the segment is (re)mapped if necessary.
+     *
+     * @param segmentId     segment id
+     * @param minSize       minimum size of the mapping
+     *
+     * @return  memory mapped segment file, at least minSize bytes big
+     *
+     * @throws IOException in case the segment file couldn't be mapped or is too small
+     */
+    synchronized
+    private MappedByteBuffer getMappedSegment(int segmentId, long minSize) throws IOException {
+        MappedByteBuffer mapped = mMappedSegments.get(segmentId);
+        if (mapped == null || mapped.capacity() < minSize) {
+            // (re)map, the active segment grows while being written to
+            try (FileChannel channel = FileChannel.open(new File(getSegmentPath(segmentId)).toPath(),
+                    StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size < minSize) {
+                    throw new IOException("Segment " + segmentId + " too small: " + size + " < " + minSize);
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            mMappedSegments.put(segmentId, mapped);
+        }
+        return mapped;
+    }
+
+    @Override
+    synchronized
+    public void delete(VoiceAudioDescription vad) {
+        final int segmentId = vad.getSegmentId();
+        final Long liveBytes = mLiveBytes.get(segmentId);
+        if (liveBytes != null) {
+            mLiveBytes.put(segmentId, Math.max(0, liveBytes - vad.getFileSize()));
+        }
+    }
+
+    @Override
+    synchronized
+    public boolean contains(VoiceAudioDescription vad) {
+        final Long segmentSize = mSegmentSizes.get(vad.getSegmentId());
+        return segmentSize != null && vad.getSegmentOffset() + vad.getFileSize() <= segmentSize;
+    }
+
+    /**
+     * Returns the ids of all segments, whose dead bytes should be reclaimed. The active segment
+     * is never returned.
+     *
+     * @return  ids of the segments to be compacted
+     */
+    synchronized
+    public List<Integer> getSegmentsToCompact() {
+        List<Integer> segments = new ArrayList<>();
+        for (Map.Entry<Integer, Long> entry: mSegmentSizes.entrySet()) {
+            final int segmentId = entry.getKey();
+            if (segmentId == mActiveSegmentId) {
+                continue;
+            }
+            final long liveBytes = mLiveBytes.getOrDefault(segmentId, 0L);
+            if (liveBytes < MIN_LIVE_RATIO * entry.getValue()) {
+                segments.add(segmentId);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the number of live bytes of given segment.
+     *
+     * @param segmentId     segment id
+     *
+     * @return  live bytes of the segment
+     */
+    synchronized
+    public long getLiveBytes(int segmentId) {
+        return mLiveBytes.getOrDefault(segmentId, 0L);
+    }
+
+    /**
+     * Deletes given segment file. All live audio of the segment has to be relocated before.
+     *
+     * @param segmentId     segment id
+     */
+    synchronized
+    public void dropSegment(int segmentId) {
+        if (segmentId == mActiveSegmentId) {
+            closeActiveChannel();
+            mActiveSegmentId++;
+        }
+        mMappedSegments.remove(segmentId);
+        mSegmentSizes.remove(segmentId);
+        mLiveBytes.remove(segmentId);
+        if (!new File(getSegmentPath(segmentId)).delete()) {
+            Log.w(LOG_TAG, "dropSegment(): couldn't delete segment " + segmentId);
+        }
+    }
+
+    /**
+     * Deletes all segment files.
+     */
+    synchronized
+    public void clear() {
+        for (int segmentId: new ArrayList<>(mSegmentSizes.keySet())) {
+            dropSegment(segmentId);
+        }
+    }
+
+    /**
+     * Closes the channel of the active segment.
+     */
+    private void closeActiveChannel() {
+        if (mActiveChannel != null) {
+            try {
+                mActiveChannel.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "closeActiveChannel(): " + e.getMessage());
+            }
+            mActiveChannel = null;
+        }
+    }
+
+    /**
+     * Closes all open files.
+     */
+    synchronized
+    public void close() {
+        closeActiveChannel();
+        mMappedSegments.clear();
+    }
+}
@@ -0,0 +1,162 @@
+package com.grammatek.simaromur.cache;
+
+import java.util.Arrays;
+
+/**
+ * In-memory lookup index from the 64 bit text hash of an utterance to the uuid of its cache item.
+ *
+ * The index is an open addressing hash table with linear probing over a primitive long key array,
+ * so that a lookup neither allocates nor compares strings. As the text hash is not collision free,
+ * callers need to verify a found item against the utterance text. In the unlikely case that two
+ * texts have the same hash, only the item put last is reachable via this index.
+ *
+ * This class is not thread-safe, synchronization has to be done by the caller.
+ */
+public class TextHashIndex {
+    private final static int INITIAL_CAPACITY = 64;
+    private long[] mKeys;
+    // a null value marks an empty slot, therefore every key value is allowed
+    private String[] mValues;
+    private int mSize = 0;
+
+    /**
+     * Constructor.
+     */
+    public TextHashIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Allocates empty arrays of given capacity.
+     *
+     * @param capacity  new capacity, needs to be a power of 2
+     */
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new String[capacity];
+    }
+
+    /**
+     * Returns the home slot of given hash.
+     *
+     * @param hash  text hash
+     * @param mask  capacity - 1
+     *
+     * @return  slot index
+     */
+    private static int homeOf(long hash, int mask) {
+        // the hash is already well distributed, just fold the upper bits in
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the slot index of given hash, or the index of the empty slot, where it would be
+     * inserted.
+     *
+     * @param hash  text hash
+     *
+     * @return  slot index
+     */
+    private int slotOf(long hash) {
+        final int mask = mKeys.length - 1;
+        int i = homeOf(hash, mask);
+        while (mValues[i] != null && mKeys[i] != hash) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Maps given text hash to given uuid. An existing mapping is replaced.
+     *
+     * @param hash  text hash
+     * @param uuid  uuid of the cache item, must not be null
+     */
+    public void put(long hash, String uuid) {
+        int i = slotOf(hash);
+        if (mValues[i] == null) {
+            // keep load factor below 0.5
+            if (2 * (mSize + 1) > mKeys.length) {
+                grow();
+                i = slotOf(hash);
+            }
+            mKeys[i] = hash;
+            mSize++;
+        }
+        mValues[i] = uuid;
+    }
+
+    /**
+     * Doubles the capacity of the table and rehashes all entries.
+     */
+    private void grow() {
+        final long[] oldKeys = mKeys;
+        final String[] oldValues = mValues;
+        allocate(2 * oldKeys.length);
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldValues[j] != null) {
+                final int i = slotOf(oldKeys[j]);
+                mKeys[i] = oldKeys[j];
+                mValues[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Returns the uuid mapped to given text hash.
+     *
+     * @param hash  text hash
+     *
+     * @return  uuid of the cache item or null, if there is none
+     */
+    public String get(long hash) {
+        return mValues[slotOf(hash)];
+    }
+
+    /**
+     * Removes the mapping of given text hash, but only if it maps to given uuid. Uses backward
+     * shift deletion, so that no tombstones are necessary.
+     *
+     * @param hash  text hash
+     * @param uuid  uuid of the cache item
+     */
+    public void remove(long hash, String uuid) {
+        final int mask = mKeys.length - 1;
+        int i = slotOf(hash);
+        if (mValues[i] == null || !mValues[i].equals(uuid)) {
+            return;
+        }
+        mValues[i] = null;
+        mSize--;
+        // move following entries of the probe sequence into the gap
+        int j = (i + 1) & mask;
+        while (mValues[j] != null) {
+            final int home = homeOf(mKeys[j], mask);
+            // entry at j may be moved to i, if its home slot is not cyclically within (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                mKeys[i] = mKeys[j];
+                mValues[i] = mValues[j];
+                mValues[j] = null;
+                i = j;
+            }
+            j = (j + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return  number of entries in the index
+     */
+    public int size() {
+        return mSize;
+    }
+}
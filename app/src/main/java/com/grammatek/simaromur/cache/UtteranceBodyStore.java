@@ -0,0 +1,412 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of serialized utterance bodies, i.e. texts, normalized texts and phonemes of
+ * the cache items, which are not kept in memory, see ResidentItemIndex.
+ *
+ * Each body is addressed by its location, the byte offset and length of the body packed into a
+ * long. Bodies are never overwritten: a replaced or removed body becomes dead space, which is
+ * reclaimed by compact(). The most recently read bodies are kept in memory, so that the items
+ * currently spoken don't need to be read again.
+ *
+ * The body file is persistent: the cache snapshot only contains the locations of the bodies
+ * together with the id of the body file, see UtteranceCache.body_file_id. Compacting writes a
+ * body file with a new id, the previous file is kept until a snapshot referring to the new file
+ * has been persisted, see deleteFilesExcept().
+ *
+ * This class is thread-safe.
+ */
+public class UtteranceBodyStore {
+    // the lower bits of a location hold the length of the body, the upper bits its offset
+    private final static int LENGTH_BITS = 24;
+    private final static long MAX_LENGTH = (1L << LENGTH_BITS) - 1;
+
+    private final File mBaseFile;
+    private final int mRecentCapacity;
+    private long mFileId;
+    private FileChannel mChannel;
+    private long mFileSize = 0;
+    private long mLiveBytes = 0;
+    // most recently read or written bodies by their location, in access order
+    private final LinkedHashMap<Long, Utterance> mRecentBodies;
+
+    /**
+     * Constructor. Opens the body file with given id, it's created if it doesn't exist. All
+     * bodies of an existing file are dead space, until they are retained via retain().
+     *
+     * @param basePath          path of the body files, the file id is appended to it
+     * @param fileId            id of the body file
+     * @param recentCapacity    number of most recently used bodies kept in memory
+     *
+     * @throws IOException in case the file couldn't be opened
+     */
+    public UtteranceBodyStore(String basePath, long fileId, int recentCapacity) throws IOException {
+        mBaseFile = new File(basePath);
+        mFileId = fileId;
+        mRecentCapacity = recentCapacity;
+        mRecentBodies = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Utterance> eldest) {
+                return size() > mRecentCapacity;
+            }
+        };
+        mChannel = openChannel(getFile(fileId));
+        mFileSize = mChannel.size();
+    }
+
+    /**
+     * Returns the body file with given id.
+     *
+     * @param fileId    id of the body file
+     *
+     * @return  the body file
+     */
+    private File getFile(long fileId) {
+        return new File(mBaseFile.getPath() + "." + fileId);
+    }
+
+    /**
+     * Opens given file for reading and writing, it's created if it doesn't exist.
+     *
+     * @param file  the file
+     *
+     * @return  the file channel
+     *
+     * @throws IOException in case the file couldn't be opened
+     */
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the id of the current body file.
+     *
+     * @return  file id
+     */
+    synchronized
+    public long getFileId() {
+        return mFileId;
+    }
+
+    /**
+     * Returns the byte offset of the body at given location.
+     *
+     * @param location  location of a body
+     *
+     * @return  byte offset in the body file
+     */
+    public static long getOffset(long location) {
+        return location >>> LENGTH_BITS;
+    }
+
+    /**
+     * Returns the length of the body at given location.
+     *
+     * @param location  location of a body
+     *
+     * @return  length in bytes
+     */
+    public static int getLength(long location) {
+        return (int) (location & MAX_LENGTH);
+    }
+
+    /**
+     * Appends given body to the body file.
+     *
+     * @param body  the utterance body
+     *
+     * @return  location of the body
+     *
+     * @throws IOException in case the body couldn't be written
+     */
+    synchronized
+    public long append(Utterance body) throws IOException {
+        final long location = write(mChannel, mFileSize, body);
+        mFileSize += getLength(location);
+        mLiveBytes += getLength(location);
+        mRecentBodies.put(location, body);
+        return location;
+    }
+
+    /**
+     * Writes given body at given offset.
+     *
+     * @param channel   channel of the body file
+     * @param offset    byte offset to write to
+     * @param body      the utterance body
+     *
+     * @return  location of the body
+     *
+     * @throws IOException in case the body couldn't be written
+     */
+    private static long write(FileChannel channel, long offset, Utterance body) throws IOException {
+        final byte[] data = body.toByteArray();
+        if (data.length > MAX_LENGTH) {
+            throw new IOException("Utterance body too large: " + data.length + " bytes");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return (offset << LENGTH_BITS) | data.length;
+    }
+
+    /**
+     * Reads the body at given location. Recently used bodies are returned from memory, all others
+     * are read without holding the monitor of the store. If the body file is compacted
+     * concurrently, the returned body might be another one than expected or reading fails: the
+     * caller needs to check, if the location is still valid afterwards.
+     *
+     * @param location  location of the body, as returned by append()
+     *
+     * @return  the utterance body
+     *
+     * @throws IOException in case the body couldn't be read
+     */
+    public Utterance read(long location) throws IOException {
+        final FileChannel channel;
+        final long fileId;
+        synchronized (this) {
+            final Utterance body = mRecentBodies.get(location);
+            if (body != null) {
+                return body;
+            }
+            channel = mChannel;
+            fileId = mFileId;
+        }
+        final Utterance body = readFromFile(channel, location);
+        synchronized (this) {
+            // after a compaction, the location refers to another body
+            if (mFileId == fileId) {
+                mRecentBodies.put(location, body);
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Reads the body at given location without keeping it in memory, e.g. for reading all bodies
+     * once.
+     *
+     * @param location  location of the body, as returned by append()
+     *
+     * @return  the utterance body
+     *
+     * @throws IOException in case the body couldn't be read
+     */
+    synchronized
+    public Utterance readUncached(long location) throws IOException {
+        final Utterance body = mRecentBodies.get(location);
+        return (body != null) ? body : readFromFile(mChannel, location);
+    }
+
+    /**
+     * Returns the body at given location, if it's kept in memory.
+     *
+     * @param location  location of the body
+     *
+     * @return  the utterance body, null if it's not kept in memory
+     */
+    synchronized
+    public Utterance getRecent(long location) {
+        return mRecentBodies.get(location);
+    }
+
+    /**
+     * Reads the body at given location from the body file.
+     *
+     * @param channel   channel of the body file
+     * @param location  location of the body
+     *
+     * @return  the utterance body
+     *
+     * @throws IOException in case the body couldn't be read
+     */
+    private static Utterance readFromFile(FileChannel channel, long location) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(getLength(location));
+        long position = getOffset(location);
+        while (buffer.hasRemaining()) {
+            final int nRead = channel.read(buffer, position);
+            if (nRead < 0) {
+                throw new IOException("Utterance body beyond end of file: " + getOffset(location));
+            }
+            position += nRead;
+        }
+        buffer.flip();
+        return Utterance.parseFrom(buffer);
+    }
+
+    /**
+     * Retains the body at given location of the body file as opened, e.g. a body referred to by
+     * the cache snapshot. Its bytes are live afterwards.
+     *
+     * @param location  location of the body
+     *
+     * @return  true in case the body is inside the body file, false otherwise
+     */
+    synchronized
+    public boolean retain(long location) {
+        if (getOffset(location) + getLength(location) > mFileSize) {
+            return false;
+        }
+        mLiveBytes += getLength(location);
+        return true;
+    }
+
+    /**
+     * Releases the body at given location, its bytes become dead space.
+     *
+     * @param location  location of the body
+     */
+    synchronized
+    public void release(long location) {
+        mLiveBytes -= getLength(location);
+        mRecentBodies.remove(location);
+    }
+
+    /**
+     * Returns true in case the dead space exceeds the live bodies and given minimum size, i.e.
+     * the body file should be compacted.
+     *
+     * @param minDeadBytes  min. dead space in bytes
+     *
+     * @return  true if compact() should be called
+     */
+    synchronized
+    public boolean needsCompaction(long minDeadBytes) {
+        final long deadBytes = mFileSize - mLiveBytes;
+        return deadBytes > mLiveBytes && deadBytes > minDeadBytes;
+    }
+
+    /**
+     * Rewrites the live bodies at given locations only into a new body file with the next file
+     * id, which is used afterwards. If writing fails, the current file is kept. The previous file
+     * isn't deleted, as the persisted snapshot might still refer to it.
+     *
+     * @param liveLocations     locations of all live bodies
+     *
+     * @return  new location of each given location
+     *
+     * @throws IOException in case the body file couldn't be rewritten
+     */
+    synchronized
+    public Map<Long, Long> compact(Iterable<Long> liveLocations) throws IOException {
+        final long newFileId = mFileId + 1;
+        final File newFile = getFile(newFileId);
+        final Map<Long, Long> newLocations = new HashMap<>();
+        final Map<Long, Utterance> recentBodies = new HashMap<>();
+        long fileSize = 0;
+        final FileChannel newChannel = openChannel(newFile);
+        try {
+            newChannel.truncate(0);
+            for (long location : liveLocations) {
+                final Utterance body = readUncached(location);
+                final long newLocation = write(newChannel, fileSize, body);
+                fileSize += getLength(newLocation);
+                newLocations.put(location, newLocation);
+                final Utterance recentBody = mRecentBodies.get(location);
+                if (recentBody != null) {
+                    recentBodies.put(newLocation, recentBody);
+                }
+            }
+        } catch (IOException e) {
+            newChannel.close();
+            //noinspection ResultOfMethodCallIgnored
+            newFile.delete();
+            throw e;
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // nothing to do, the previous file isn't used anymore
+        }
+        mChannel = newChannel;
+        mFileId = newFileId;
+        mFileSize = fileSize;
+        mLiveBytes = fileSize;
+        mRecentBodies.clear();
+        mRecentBodies.putAll(recentBodies);
+        return newLocations;
+    }
+
+    /**
+     * Returns the size of the body file.
+     *
+     * @return  size in bytes, including dead space
+     */
+    synchronized
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    /**
+     * Returns the size of all live bodies.
+     *
+     * @return  size in bytes
+     */
+    synchronized
+    public long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    /**
+     * Forces all appended bodies to the storage device, e.g. before persisting a snapshot
+     * referring to them.
+     *
+     * @throws IOException in case the body file couldn't be synced
+     */
+    public void sync() throws IOException {
+        final FileChannel channel;
+        synchronized (this) {
+            channel = mChannel;
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Deletes all body files except the one with given id, e.g. the previous files after a
+     * snapshot referring to the current file has been persisted.
+     *
+     * @param fileId    id of the body file to keep
+     */
+    public void deleteFilesExcept(long fileId) {
+        final File[] files = mBaseFile.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        final String keptName = getFile(fileId).getName();
+        final String prefix = mBaseFile.getName() + ".";
+        for (File file : files) {
+            final String name = file.getName();
+            // the body file of older cache versions has no id
+            if ((name.startsWith(prefix) || name.equals(mBaseFile.getName())) && !name.equals(keptName)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Closes the body file.
+     */
+    synchronized
+    public void close() {
+        mRecentBodies.clear();
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // nothing to do, all bodies have been written
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.grammatek.simaromur.cache;
+
+import android.util.Log;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only journal for the meta data of the utterance cache.
+ *
+ * Instead of rewriting the whole UtteranceCache for every modification, each modification of a
+ * CacheItem is appended as a CacheJournalRecord to the journal file. On startup, the journal is
+ * replayed on top of the last persisted UtteranceCache snapshot. If the journal grows too large,
+ * it is rotated and a fresh snapshot is written. As soon as the snapshot has been persisted, the
+ * rotated journal is discarded.
+ *
+ * All records are idempotent: replaying a rotated journal on top of a snapshot that already
+ * contains its changes results in the same cache state.
+ *
+ * This class is thread-safe: the snapshot of a rotated journal is persisted asynchronously and
+ * discards the rotated journal from another thread.
+ */
+public class UtteranceCacheJournal {
+    private final static String LOG_TAG = "Simaromur_" + UtteranceCacheJournal.class.getSimpleName();
+    private final static String ROTATED_SUFFIX = ".old";
+    private final File mJournalFile;
+    private final File mRotatedFile;
+    private OutputStream mOutStream;
+    private long mJournalSize;
+    private boolean mIsCorrupt = false;
+
+    /**
+     * Constructor. Opens the journal file for appending, creates it if it doesn't exist yet.
+     *
+     * @param journalPath   file path of the journal
+     */
+    public UtteranceCacheJournal(String journalPath) {
+        mJournalFile = new File(journalPath);
+        mRotatedFile = new File(journalPath + ROTATED_SUFFIX);
+        mJournalSize = mJournalFile.length();
+    }
+
+    /**
+     * Replays a rotated journal, if any, and the current journal on top of the given cache
+     * builder.
+     *
+     * @param cacheBuilder  builder of the last persisted cache snapshot, modified in place
+     *
+     * @return number of records replayed
+     */
+    synchronized
+    public int replay(UtteranceCache.Builder cacheBuilder) {
+        int nRecords = 0;
+        if (mRotatedFile.exists()) {
+            nRecords += replayFile(mRotatedFile, cacheBuilder);
+        }
+        if (mJournalFile.exists()) {
+            nRecords += replayFile(mJournalFile, cacheBuilder);
+        }
+        return nRecords;
+    }
+
+    /**
+     * Replays all records of the given file. A truncated or corrupt record stops the replay of
+     * this file, e.g. in case the app crashed while writing the last record. The file is truncated
+     * after the last valid record, so that records appended afterwards are replayed on the next
+     * start. The journal is marked as corrupt in this case and should be compacted as soon as
+     * possible.
+     *
+     * @param file          journal file to replay
+     * @param cacheBuilder  cache builder to apply the records to
+     *
+     * @return number of records replayed
+     */
+    private int replayFile(File file, UtteranceCache.Builder cacheBuilder) {
+        int nRecords = 0;
+        long validSize = 0;
+        boolean isTorn = false;
+        try (InputStream inStream = new BufferedInputStream(new FileInputStream(file))) {
+            final CodedInputStream codedIn = CodedInputStream.newInstance(inStream);
+            while (!codedIn.isAtEnd()) {
+                final int recordSize = codedIn.readRawVarint32();
+                final int oldLimit = codedIn.pushLimit(recordSize);
+                final CacheJournalRecord record = CacheJournalRecord.parseFrom(codedIn);
+                codedIn.popLimit(oldLimit);
+                apply(record, cacheBuilder);
+                nRecords++;
+                validSize = codedIn.getTotalBytesRead();
+            }
+        } catch (InvalidProtocolBufferException e) {
+            Log.w(LOG_TAG, "replay(): corrupt record in " + file.getName() + " after "
+                    + nRecords + " records");
+            mIsCorrupt = true;
+            isTorn = true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "replay(): couldn't read " + file.getName(), e);
+            mIsCorrupt = true;
+        }
+        if (isTorn) {
+            truncate(file, validSize);
+        }
+        return nRecords;
+    }
+
+    /**
+     * Truncates given journal file after its last valid record.
+     *
+     * @param file      journal file
+     * @param size      size of all valid records in bytes
+     */
+    private void truncate(File file, long size) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "replay(): couldn't truncate " + file.getName(), e);
+            return;
+        }
+        if (file.equals(mJournalFile)) {
+            mJournalSize = size;
+        }
+    }
+
+    /**
+     * Applies a single journal record to the given cache builder.
+     *
+     * @param record        the journal record
+     * @param cacheBuilder  cache builder to apply the record to
+     */
+    static void apply(CacheJournalRecord record, UtteranceCache.Builder cacheBuilder) {
+        switch (record.getRecordCase()) {
+            case PUT_ITEM: {
+                final CacheItem item = record.getPutItem();
+                cacheBuilder.putEntries(item.getUuid(), item);
+                break;
+            }
+            case UPDATE_ITEM: {
+                final CacheItem item = record.getUpdateItem();
+                final CacheItem existingItem = cacheBuilder.getEntriesMap().get(item.getUuid());
+                if (existingItem == null) {
+                    Log.w(LOG_TAG, "apply(): ignoring update of unknown item " + item.getUuid());
+                    break;
+                }
+                cacheBuilder.putEntries(item.getUuid(), item.toBuilder()
+                        .setUtterance(existingItem.getUtterance())
+                        .setBodyLocation(existingItem.getBodyLocation())
+                        .build());
+                break;
+            }
+            case REMOVED_UUID:
+                cacheBuilder.removeEntries(record.getRemovedUuid());
+                break;
+            case CLEARED:
+                cacheBuilder.clearEntries();
+                break;
+            default:
+                Log.w(LOG_TAG, "apply(): ignoring unknown record");
+                break;
+        }
+    }
+
+    /**
+     * Appends a record for an added or updated cache item.
+     *
+     * @param item  the cache item
+     *
+     * @return  true in case the record has been written, false otherwise
+     */
+    synchronized
+    public boolean appendPut(CacheItem item) {
+        return append(CacheJournalRecord.newBuilder().setPutItem(item).build());
+    }
+
+    /**
+     * Appends a record for an updated cache item, whose utterance hasn't changed.
+     *
+     * @param item  the cache item, its utterance is ignored on replay
+     *
+     * @return  true in case the record has been written, false otherwise
+     */
+    synchronized
+    public boolean appendUpdate(CacheItem item) {
+        return append(CacheJournalRecord.newBuilder().setUpdateItem(item).build());
+    }
+
+    /**
+     * Appends a record for a removed cache item.
+     *
+     * @param uuid  uuid of the removed cache item
+     *
+     * @return  true in case the record has been written, false otherwise
+     */
+    synchronized
+    public boolean appendRemove(String uuid) {
+        return append(CacheJournalRecord.newBuilder().setRemovedUuid(uuid).build());
+    }
+
+    /**
+     * Appends a record for clearing all cache items.
+     *
+     * @return  true in case the record has been written, false otherwise
+     */
+    synchronized
+    public boolean appendClear() {
+        return append(CacheJournalRecord.newBuilder().setCleared(true).build());
+    }
+
+    /**
+     * Appends all given records and flushes the journal file only once.
+     *
+     * @param records   records to be written, in order
+     *
+     * @return  true in case all records have been written, false otherwise
+     */
+    synchronized
+    public boolean appendAll(List<CacheJournalRecord> records) {
+        return append(records);
+    }
+
+    /**
+     * Appends given record length-delimited to the journal file and flushes it.
+     *
+     * @param record    record to be written
+     *
+     * @return  true in case the record has been written, false otherwise
+     */
+    synchronized
+    private boolean append(CacheJournalRecord record) {
+        return append(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends given records length-delimited to the journal file and flushes it.
+     *
+     * @param records   records to be written
+     *
+     * @return  true in case the records have been written, false otherwise
+     */
+    synchronized
+    private boolean append(List<CacheJournalRecord> records) {
+        try {
+            if (mOutStream == null) {
+                mOutStream = new BufferedOutputStream(new FileOutputStream(mJournalFile, true));
+            }
+            for (CacheJournalRecord record: records) {
+                record.writeDelimitedTo(mOutStream);
+                final int recordSize = record.getSerializedSize();
+                mJournalSize += CodedOutputStream.computeUInt32SizeNoTag(recordSize) + recordSize;
+            }
+            mOutStream.flush();
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "append(): couldn't write journal record", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the size of the current journal in bytes, rotated journals are not included.
+     *
+     * @return  size of the journal file in bytes
+     */
+    synchronized
+    public long size() {
+        return mJournalSize;
+    }
+
+    /**
+     * Returns true in case a corrupt record has been found during replay.
+     *
+     * @return  true if the journal should be compacted as soon as possible
+     */
+    synchronized
+    public boolean isCorrupt() {
+        return mIsCorrupt;
+    }
+
+    /**
+     * Returns true in case a rotated journal exists, i.e. a snapshot for it has not been persisted
+     * yet.
+     *
+     * @return  true if there is a rotated journal
+     */
+    synchronized
+    public boolean hasRotated() {
+        return mRotatedFile.exists();
+    }
+
+    /**
+     * Rotates the current journal: all following records are written to a fresh journal. The
+     * rotated journal is kept until discardRotated() is called, i.e. after a snapshot containing
+     * all its changes has been persisted.
+     *
+     * @return  true in case the journal has been rotated, false otherwise
+     */
+    synchronized
+    public boolean rotate() {
+        close();
+        if (mRotatedFile.exists()) {
+            Log.w(LOG_TAG, "rotate(): previous rotated journal still exists");
+            return false;
+        }
+        if (mJournalFile.exists() && !mJournalFile.renameTo(mRotatedFile)) {
+            Log.e(LOG_TAG, "rotate(): couldn't rename " + mJournalFile.getName());
+            return false;
+        }
+        mJournalSize = 0;
+        mIsCorrupt = false;
+        return true;
+    }
+
+    /**
+     * Deletes the rotated journal.
+     */
+    synchronized
+    public void discardRotated() {
+        if (mRotatedFile.exists() && !mRotatedFile.delete()) {
+            Log.w(LOG_TAG, "discardRotated(): couldn't delete " + mRotatedFile.getName());
+        }
+    }
+
+    /**
+     * Closes the journal file. A following append reopens it.
+     */
+    synchronized
+    public void close() {
+        if (mOutStream != null) {
+            try {
+                mOutStream.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "close(): " + e.getMessage());
+            }
+            mOutStream = null;
+        }
+    }
+}
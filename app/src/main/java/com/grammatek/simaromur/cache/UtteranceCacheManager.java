@@ -5,33 +5,44 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.OptIn;
-import androidx.datastore.rxjava3.RxDataStore;
-import androidx.datastore.rxjava3.RxDataStoreBuilder;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Timestamp;
+import com.google.protobuf.WireFormat;
 import com.grammatek.simaromur.App;
 import com.grammatek.simaromur.utils.FileUtils;
+import com.grammatek.simaromur.utils.XxHash64;
 import com.grammatek.simaromur.frontend.FrontendManager;
+import com.grammatek.simaromur.frontend.TextCanonicalizer;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
-import io.reactivex.rxjava3.core.Single;
-
 @OptIn(markerClass = kotlinx.coroutines.ExperimentalCoroutinesApi.class)
 
 /*
@@ -40,16 +51,113 @@ import io.reactivex.rxjava3.core.Single;
 public class UtteranceCacheManager {
     private final static String LOG_TAG = "Simaromur_" + UtteranceCacheManager.class.getSimpleName();
     private final static String CACHE_SUBDIR_PATH = "voice_cache";
-    private final RxDataStore<UtteranceCache> mUtteranceCacheDataStore;
-    private final UtteranceCache.Builder mUtteranceCacheBuilder;
-    private boolean mIsClosed = false;
+    private final static String JOURNAL_SUFFIX = ".journal";
+    private final static String HEADER_SUFFIX = ".header";
+    private final static String BODIES_SUFFIX = ".bodies";
+    // directory of the cache snapshot inside the files directory of the app
+    private final static String SNAPSHOT_SUBDIR_PATH = "datastore";
+    // number of most recently used utterance bodies kept in memory
+    private final static int RECENT_BODIES_CAPACITY = 64;
+    // number of attempts to read the utterance body of an item, that is modified concurrently
+    private final static int MAX_BODY_READ_ATTEMPTS = 3;
+    // seed of the key check hash, independent of the text hash with seed 0
+    private final static long KEY_CHECK_SEED = 0x5173a70e4c9d2b61L;
+    // version of the cache meta data schema, written into the header. Version 2 uses 64 bit text
+    // hashes instead of MD5 sums
+    final static int CACHE_SCHEMA_VERSION = 2;
+    // the journal is compacted into a new snapshot, if it's bigger than this and bigger than the
+    // last snapshot
+    private final static long JOURNAL_MIN_COMPACTION_SIZE = 512 * 1024;
+    // number of touch tables, needs to be a power of 2
+    private final static int TOUCH_STRIPES = 16;
+    // deadline of expireCache() for expiring everything at once
+    private final static long NO_DEADLINE = 0;
+    // Lookups share the read lock, modifications of the cache meta data take the write lock. Usage
+    // counts and timestamps are recorded under the read lock in touch tables striped by item
+    // uuid, each stripe is guarded by its own monitor. Audio is read, encoded and written without
+    // holding the lock.
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final File mSnapshotFile;
+    // Compact index of all cache items, their utterance bodies are read on demand from the body
+    // store. Until the snapshot and the journal have been loaded in the background, this contains
+    // only the items added meanwhile. Lookups of all other items miss and fall through to
+    // synthesis.
+    private ResidentItemIndex mItems;
+    // persistent file of the utterance bodies, opened by the loader for the body file of the
+    // snapshot. Null until then, the items added meanwhile are kept completely in memory
+    private UtteranceBodyStore mBodyStore = null;
+    private final String mBodiesPath;
+    // writes the snapshot in the background, null if no snapshot has been written yet
+    private Thread mSnapshotWriter = null;
+    private final UtteranceCacheJournal mJournal;
+    private final String mHeaderPath;
+    private final UtteranceCacheHeader mHeader;
+    private volatile boolean mIsLoaded = false;
+    private final CountDownLatch mLoadedLatch = new CountDownLatch(1);
+    private final AtomicBoolean mIsCompacting = new AtomicBoolean(false);
+    private volatile long mSnapshotSize;
+    // live usage counts and timestamps of cache items, not yet flushed into the cache meta data
+    private final CacheTouchTable[] mTouchTables = new CacheTouchTable[TOUCH_STRIPES];
+    // recency/frequency order and audio size of all cache items, touches under the read lock
+    // synchronize on it
+    private final CacheOrderIndex mOrderIndex = new CacheOrderIndex();
+    // order in which audio is evicted at the high watermark, guarded like the ordering index
+    private CacheEvictionPolicy mEvictionPolicy = new LruEvictionPolicy();
+    // maps the text hash of all cache items to their uuid
+    private final TextHashIndex mTextHashIndex = new TextHashIndex();
+    // reference counts of all stored audio, audio for the same phonemes is shared between items
+    private final AudioReferenceIndex mAudioIndex = new AudioReferenceIndex();
+    private final UtteranceCacheMetrics mMetrics = new UtteranceCacheMetrics();
+    // audio stores: new audio is written to the segment store if enabled, existing audio is
+    // always accessed via the store it has been written to
+    private final FileAudioStore mFileAudioStore = new FileAudioStore();
+    private final SegmentAudioStore mSegmentAudioStore;
+    // recently read PCM audio kept in memory, disabled until a capacity is set
+    private final PcmMemoryCache mMemoryCache = new PcmMemoryCache(0);
+    private final boolean mUseSegmentAudioStore;
+    // format used for storing PCM audio, compressed formats are decoded transparently on read
+    private volatile AudioFormat mPcmAudioFormat = AudioFormat.AUDIO_FMT_PCM;
+    // audio added via addAudioToCacheItemAsync(), written in batches by a worker thread
+    private final AudioWriteBehindQueue mWriteBehindQueue;
+    // if not null, journal records are collected here and appended at once by the caller
+    private List<CacheJournalRecord> mJournalBatch = null;
+    private volatile boolean mIsClosed = false;
     private long mCurrentCacheSize;
-    private final long mCacheSizeHighWatermark;
-    private final long mCacheSizeLowWatermark;
+    // watermarks and hard limit, guarded by the write lock. They only change with adaptive
+    // sizing, see setAdaptiveSizer()
+    private volatile long mCacheSizeHighWatermark;
+    private volatile long mCacheSizeLowWatermark;
+    // beyond this size, the write paths expire the cache themselves instead of the eviction worker
+    private long mCacheSizeHardLimit;
+    // ratio of the high to the low watermark, kept when the watermarks are adapted
+    private final double mHighWatermarkRatio;
+    // adapts the watermarks to the free storage and the working set, null if disabled
+    private volatile AdaptiveCacheSizer mAdaptiveSizer = null;
+    // expires the cache in the background, woken by the write paths via requestExpiration()
+    private final CacheEvictionWorker mEvictionWorker;
+    // expiration state, guarded by the write lock: once the high watermark or the quota of a
+    // voice has been exceeded, audio is expired until the low watermark or the scaled down quota
+    // has been reached
+    private boolean mIsExpiring = false;
+    private final Set<String> mExpiringVoiceKeys = new HashSet<>();
+    private boolean mHasExpiredAudio = false;
+    // audio quotas of the preferred voice and of each other voice, in percent of the watermarks.
+    // 100 disables the quota, guarded by the write lock
+    private String mPreferredVoiceKey = "";
+    private int mPreferredVoiceQuotaPercent = 100;
+    private int mOtherVoiceQuotaPercent = 100;
+    // pinned items are exempt from eviction as long as their audio doesn't exceed this budget,
+    // 0 disables the exemption, guarded by the write lock
+    private long mPinnedBytesBudget = 0;
+    // audio size of all pinned items as in the ordering index, guarded by the write lock
+    private long mPinnedBytes = 0;
+    // computes the cache key of utterance texts, null if texts are used as is. This is static, as
+    // utterances are built via the static newUtterance()
+    private static volatile TextCanonicalizer mTextCanonicalizer = null;
 
     /**
      * Constructor. A single instance of this should be put into an application as there must only
-     *              be a single DataStore object for the same file in an application.
+     *              be a single cache manager for the same file in an application.
      * @param dataStoreFileName         the data store filename to use for storing the Protobuf data
      *                                  store file
      * @param cacheSizeLowWatermark     low watermark, i.e the target cache size to be reached, when
@@ -58,438 +166,1819 @@ public class UtteranceCacheManager {
      *                                  be set in the cache
      */
     public UtteranceCacheManager(String dataStoreFileName, long cacheSizeLowWatermark, long cacheSizeHighWatermark) {
+        this(dataStoreFileName, cacheSizeLowWatermark, cacheSizeHighWatermark, false);
+    }
+
+    /**
+     * Constructor. A single instance of this should be put into an application as there must only
+     *              be a single cache manager for the same file in an application.
+     *              Only the small cache header is read synchronously, the cache meta data is
+     *              loaded in the background, see isLoaded().
+     * @param dataStoreFileName         the data store filename to use for storing the Protobuf data
+     *                                  store file
+     * @param cacheSizeLowWatermark     low watermark, i.e the target cache size to be reached, when
+     *                                  expiring elements from the cache
+     * @param cacheSizeHighWatermark    high watermark, i.e. max. allowed size of the audio that can
+     *                                  be set in the cache
+     * @param useSegmentAudioStore      if true, new audio is packed into segment files, otherwise
+     *                                  each audio is written into its own file
+     */
+    public UtteranceCacheManager(String dataStoreFileName, long cacheSizeLowWatermark,
+                                 long cacheSizeHighWatermark, boolean useSegmentAudioStore) {
         if (cacheSizeHighWatermark <= cacheSizeLowWatermark) {
             throw new RuntimeException("cacheSizeHighWatermark <= cacheSizeLowWatermark ?!");
         }
+        for (int i = 0; i < TOUCH_STRIPES; ++i) {
+            mTouchTables[i] = new CacheTouchTable();
+        }
 
-        mUtteranceCacheDataStore =
-                new RxDataStoreBuilder<>(App.getContext(), dataStoreFileName,
-                        new UtteranceCacheSerializer()).build();
-        mUtteranceCacheBuilder = readCache().toBuilder();
+        final long startNanos = System.nanoTime();
+        mSnapshotFile = new File(new File(App.getContext().getFilesDir(), SNAPSHOT_SUBDIR_PATH),
+                dataStoreFileName);
+        mBodiesPath = getBodiesPath(dataStoreFileName);
+        mItems = new ResidentItemIndex(null);
+        mJournal = new UtteranceCacheJournal(getJournalPath(dataStoreFileName));
+        mHeaderPath = getHeaderPath(dataStoreFileName);
+        mHeader = readHeader(mHeaderPath);
+        // the exact size is calculated, as soon as the cache is loaded
+        mCurrentCacheSize = mHeader.getAudioSize();
         // create data cache directory
         final String path = getCacheDirectoryPath();
         if (! FileUtils.mkdir(path)) {
             throw new RuntimeException("Couldn't create cache directory");
         }
-        mCurrentCacheSize = summarizeAudioFileSize();
+        mUseSegmentAudioStore = useSegmentAudioStore;
+        mSegmentAudioStore = new SegmentAudioStore(path, SegmentAudioStore.DEFAULT_MAX_SEGMENT_SIZE);
         mCacheSizeHighWatermark = cacheSizeHighWatermark;
         mCacheSizeLowWatermark = cacheSizeLowWatermark;
-        updateMD5SumsOfAllCacheItems();
+        mCacheSizeHardLimit = 2 * cacheSizeHighWatermark - cacheSizeLowWatermark;
+        mHighWatermarkRatio = (double) cacheSizeHighWatermark / cacheSizeLowWatermark;
+        mEvictionWorker = new CacheEvictionWorker(this::evictBatch, CacheEvictionWorker.DEFAULT_SLICE_MILLIS,
+                CacheEvictionWorker.DEFAULT_PAUSE_MILLIS, CacheEvictionWorker.DEFAULT_ACTIVE_PAUSE_MILLIS);
+        mWriteBehindQueue = new AudioWriteBehindQueue(this::writeAudioBatch,
+                AudioWriteBehindQueue.DEFAULT_MAX_PENDING_BYTES);
+        final Thread loader = new Thread(() -> loadCache(startNanos), LOG_TAG + "_Loader");
+        loader.setDaemon(true);
+        loader.start();
+        Log.i(LOG_TAG, "Startup took " + (System.nanoTime() - startNanos) / 1000 + " us, "
+                + mHeader.getItemCount() + " items loaded in background");
     }
 
     /**
-     * Returns absolute path to the cache directory
+     * Loads the cache snapshot and the journal, migrates the meta data if necessary and builds
+     * all indexes. Runs in its own thread, started by the constructor. Items added while loading
+     * are merged into the loaded cache.
      *
-     * @return  Path to cache directory
+     * @param startNanos    start time of the constructor, for logging the load time
      */
-    private static String getCacheDirectoryPath() {
-        return new File(App.getDataPath()) + "/" + CACHE_SUBDIR_PATH;
+    private void loadCache(long startNanos) {
+        try {
+            final UtteranceCache snapshot = readSnapshot();
+            final UtteranceCache.Builder loadedBuilder = snapshot.toBuilder();
+            // apply all modifications done since the snapshot has been written
+            final int nRecords = mJournal.replay(loadedBuilder);
+            Log.v(LOG_TAG, "Replayed " + nRecords + " journal records");
+            final boolean isMigrated = (mHeader.getSchemaVersion() < CACHE_SCHEMA_VERSION)
+                    && migrateTextHashes(loadedBuilder);
+            // the snapshot only refers to the bodies in its body file, the bodies of journaled
+            // items and of older snapshots are appended to it. Only the loading thread holds
+            // these complete items until the indexes are built
+            final UtteranceBodyStore bodyStore = openBodyStore(snapshot.getBodyFileId());
+            final ResidentItemIndex loadedIndex = new ResidentItemIndex(bodyStore);
+            int nLostBodies = 0;
+            for (CacheItem item: new ArrayList<>(loadedBuilder.getEntriesMap().values())) {
+                if (item.getBodyLocation() == 0) {
+                    loadedIndex.put(item, getTextHash(item.getUtterance()));
+                } else if (!loadedIndex.putStored(item, item.getBodyLocation())) {
+                    loadedBuilder.removeEntries(item.getUuid());
+                    ++nLostBodies;
+                }
+            }
+            if (nLostBodies > 0) {
+                Log.w(LOG_TAG, "loadCache(): utterance bodies of " + nLostBodies
+                        + " items missing in body file, items dropped");
+            }
+            // snapshots of older versions contain the complete items or lack the key check hashes
+            final boolean isOutdatedSnapshot = snapshot.getEntriesMap().values().stream()
+                    .anyMatch(item -> item.getBodyLocation() == 0
+                            || item.getUtterance().getKeyCheckHash() == 0);
+            registerSegmentAudio(loadedBuilder);
+
+            mLock.writeLock().lock();
+            try {
+                // until now, all items have been kept completely in memory
+                final List<CacheItem> itemsAddedMeanwhile = new ArrayList<>(mItems.residentItems());
+                mItems.clear();
+                mItems = loadedIndex;
+                mBodyStore = bodyStore;
+                mSnapshotSize = snapshot.getSerializedSize();
+                buildIndexes(loadedIndex.residentItems());
+                mIsLoaded = true;
+                for (CacheItem item: itemsAddedMeanwhile) {
+                    mergeItem(item);
+                }
+                if (isMigrated || isOutdatedSnapshot || nLostBodies > 0 || mJournal.isCorrupt()
+                        || mJournal.hasRotated() || mHeader.getSchemaVersion() != CACHE_SCHEMA_VERSION) {
+                    // the cache meta data has been migrated, the snapshot is outdated, a previous compaction didn't finish, the journal or the body file is
+                    // damaged or there is no valid header: write a fresh snapshot
+                    persistCache();
+                }
+                requestExpiration();
+            } finally {
+                mLock.writeLock().unlock();
+            }
+            Log.i(LOG_TAG, "Loaded " + getItemCount() + " cache items after "
+                    + (System.nanoTime() - startNanos) / 1000000 + " ms");
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "loadCache(): couldn't load cache, only new items are cached", e);
+        } finally {
+            mLoadedLatch.countDown();
+        }
     }
 
     /**
-     * Closes the data store. After calling this method, one shouldn't call any other methods
-     * anymore afterwards.
+     * Opens the utterance body file with given id. Body files left over by other snapshots, e.g.
+     * by a compaction of the body file, whose snapshot hasn't been persisted, are deleted.
+     *
+     * @param fileId    id of the body file referred to by the snapshot
+     *
+     * @return  the body store
+     *
+     * @throws RuntimeException in case the body file couldn't be opened
      */
-    synchronized public void close() {
-        assertNotClosed();
-        mUtteranceCacheDataStore.dispose();
-        mUtteranceCacheDataStore.shutdownComplete().blockingAwait();
-        mIsClosed = true;
+    private UtteranceBodyStore openBodyStore(long fileId) {
+        try {
+            final UtteranceBodyStore bodyStore = new UtteranceBodyStore(mBodiesPath, fileId,
+                    RECENT_BODIES_CAPACITY);
+            bodyStore.deleteFilesExcept(fileId);
+            return bodyStore;
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't open utterance body file " + mBodiesPath, e);
+        }
     }
 
     /**
-     * Asserts in case object is used after method close() has been used.
+     * Merges an item added while the cache has been loaded into the loaded cache and journals it.
+     * A loaded item with the same text is replaced, as the added item might already be used by a
+     * running speak request. The caller needs to hold the write lock.
+     *
+     * @param item  item added while loading
      */
-    private void assertNotClosed() {
-        if (mIsClosed) {
-            throw new RuntimeException("UtteranceCacheManager has already been closed !");
+    private void mergeItem(CacheItem item) {
+        final Optional<CacheItem> optLoadedItem = findItem(item.getUtterance());
+        // the added item is put first, so that audio it shares with the loaded item is kept
+        putEntry(item);
+        journalPut(item);
+        if (optLoadedItem.isPresent()) {
+            final CacheItem loadedItem = optLoadedItem.get();
+            mItems.remove(loadedItem.getUuid());
+            mPinnedBytes -= getIndexedPinnedBytes(loadedItem);
+            mOrderIndex.remove(loadedItem.getUuid());
+            mEvictionPolicy.onRemove(loadedItem.getUuid());
+            mTextHashIndex.remove(getTextHash(loadedItem.getUtterance()), loadedItem.getUuid());
+            updateAudioReferences(loadedItem, null);
+            journalRemove(loadedItem.getUuid());
         }
     }
 
     /**
-     * Returns the whole UtteranceCache
+     * Returns true, as soon as the cache has been loaded. Before that, only items added since
+     * startup can be found.
      *
-     * @return Utterance cache
+     * @return  true if the cache has been loaded
      */
-    synchronized
-    public UtteranceCache getCache() {
-        assertNotClosed();
-        return mUtteranceCacheBuilder.build();
+    public boolean isLoaded() {
+        return mIsLoaded;
     }
 
     /**
-     * Returns the number of cache items inside the cache
-     *
-     * @return Utterance cache
+     * Blocks until the cache has been loaded or loading has failed. Operations on the whole cache
+     * call this implicitly. Must not be called while holding the lock.
      */
-    synchronized
-    public long getItemCount() {
-        assertNotClosed();
-        return mUtteranceCacheBuilder.getEntriesCount();
+    public void awaitLoaded() {
+        if (mIsLoaded) {
+            return;
+        }
+        try {
+            mLoadedLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * Reads the cache from disk. This is a blocking call.
+     * Reads the cache header. This is the only file read synchronously at startup.
      *
-     * This method is used to read from disk all cache meta data and should only be used at the
-     * very beginning.
+     * @param headerPath    path of the header file
      *
-     * @return The UtteranceCache meta data
+     * @return  the header, an empty header if it doesn't exist or can't be read
      */
-    synchronized
-    private UtteranceCache readCache() {
-        assertNotClosed();
-        return mUtteranceCacheDataStore.data().blockingFirst();
-        // TODO: cleanup audio cache files, not found in the cache meta-data
+    private static UtteranceCacheHeader readHeader(String headerPath) {
+        final File headerFile = new File(headerPath);
+        if (!headerFile.exists()) {
+            return UtteranceCacheHeader.getDefaultInstance();
+        }
+        try (InputStream in = new FileInputStream(headerFile)) {
+            return UtteranceCacheHeader.parseFrom(in);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "readHeader(): couldn't read header " + headerPath, e);
+            return UtteranceCacheHeader.getDefaultInstance();
+        }
     }
 
     /**
-     * Sets a new Utterance Cache. This can be a modified utterance
-     * cache or a completely new one. It replaces an already existing one.
-     *
-     * @param anUtteranceCache    the utterance cache to be updated
+     * Writes the cache header with the current cache size. The header is written to a temporary
+     * file first and then renamed. The caller needs to hold the write lock.
      */
-    synchronized
-    public void persistCache(UtteranceCache anUtteranceCache) {
-        assertNotClosed();
-        mUtteranceCacheDataStore.updateDataAsync(currentCache ->
-                Single.just(anUtteranceCache));
+    private void writeHeader() {
+        final UtteranceCacheHeader header = UtteranceCacheHeader.newBuilder()
+                .setSchemaVersion(CACHE_SCHEMA_VERSION)
+                .setAudioSize(mCurrentCacheSize)
+                .setItemCount(mItems.size())
+                .setLowWatermark(mCacheSizeLowWatermark)
+                .build();
+        final File tmpFile = new File(mHeaderPath + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            header.writeTo(out);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "writeHeader(): couldn't write header " + tmpFile, e);
+            return;
+        }
+        if (!tmpFile.renameTo(new File(mHeaderPath))) {
+            Log.w(LOG_TAG, "writeHeader(): couldn't rename header " + tmpFile);
+        }
     }
 
     /**
-     * Save given Utterance instance in cache. If utterance already exists, update it. If
-     * it doesn't, add it to the cache.
+     * Registers all audio stored in segment files, so that the segment store knows the live bytes
+     * of each segment.
      *
-     * @param utterance  the utterance to be persisted
-     * @return CacheItem created when saving the utterance, or in case utterance already
-     *         existed, the updated cache item
+     * @param cacheBuilder  cache meta data containing the audio
      */
-    synchronized
-    public CacheItem saveUtterance(Utterance utterance) {
-        assertNotClosed();
-
-        // Update existing utterance
-        Optional<CacheItem> optItem = findItemByText(utterance.getText());
-        if (optItem.isPresent()) {
-            return updateUtterance(optItem.get().getUuid(), utterance);
-        } else {
-            // ... or add a new one
-            final String uuid = UUID.randomUUID().toString();
-            CacheItem item = CacheItem.newBuilder()
-                    .setUtterance(utterance)
-                    .setUuid(uuid)
-                    .build();
-            mUtteranceCacheBuilder.putEntries(uuid, item);
-            mUtteranceCacheBuilder.putMd5Entries(utterance.getTextMd5Sum(), uuid);
-            persistCache(mUtteranceCacheBuilder.build());
-            optItem = Optional.of(item);
+    private void registerSegmentAudio(UtteranceCache.Builder cacheBuilder) {
+        // audio shared by several items is registered only once
+        final Set<String> registeredLocations = new HashSet<>();
+        for (CacheItem item: cacheBuilder.getEntriesMap().values()) {
+            for (AudioEntry entry: item.getVoiceAudioEntriesMap().values()) {
+                for (VoiceAudioDescription vad: getStoredAudio(entry)) {
+                    if (vad.getSegmentId() != 0
+                            && registeredLocations.add(AudioReferenceIndex.getLocationKey(vad))) {
+                        mSegmentAudioStore.register(vad);
+                    }
+                }
+            }
         }
-        return optItem.get();
     }
 
     /**
-     * Finds an element in the cache by given utterance.
+     * Returns the audio store, where the audio of given voice audio description is located.
      *
-     * @param utterance     The utterance to search for
+     * @param vad   voice audio description
      *
-     * @return  a CacheItem in case the given utterance matched with an item in the cache
+     * @return  the audio store
      */
-    private Optional<CacheItem> findItem(Utterance utterance) {
-        return findItemByText(utterance.getText());
+    private AudioStore audioStoreFor(VoiceAudioDescription vad) {
+        return (vad.getSegmentId() != 0) ? mSegmentAudioStore : mFileAudioStore;
     }
 
     /**
-     * Finds a CacheItem by given UUID. There should only be one Cache Item available by the
-     * given combination of these parameters.
+     * Sets the format used for storing PCM audio. Audio added with format AUDIO_FMT_PCM is encoded
+     * into this format before it's stored. Audio already in the cache is not modified.
      *
-     * @param uuid          UUID of the cache Item.
-     * @return  a CacheItem in case the given UUID matched with an item in the cache, or none
-     *          otherwise
+     * @param format    AUDIO_FMT_PCM or one of the formats supported by AudioCodec
      */
-    synchronized
-    public Optional<CacheItem> findItemByUuid(String uuid) {
-        assertNotClosed();
-        Optional<CacheItem> opt = Optional.empty();
-        CacheItem item = mUtteranceCacheBuilder.getEntriesMap().get(uuid);
-        if (item != null) {
-            opt = Optional.of(item);
+    public void setPcmAudioFormat(AudioFormat format) {
+        if (format != AudioFormat.AUDIO_FMT_PCM && AudioCodec.forFormat(format) == null) {
+            Log.w(LOG_TAG, "setPcmAudioFormat(): unsupported format " + format);
+            return;
         }
-        return opt;
+        mPcmAudioFormat = format;
     }
 
     /**
-     * Find a cache item just by the utterance text. The utterance text is the unique distinction
-     * point for a Cache Item.
+     * Encodes given audio data if necessary and writes it into the configured audio store.
      *
-     * @param text  the raw text of an utterance
+     * @param phonemeEntry  phoneme entry that corresponds to the audio
+     * @param vad           voice audio description of the audio
+     * @param data          audio data
      *
-     * @return a CacheItem in case the given text matched with an item in the cache
+     * @return  given voice audio description with the stored format and audio location set
+     *
+     * @throws IOException in case the audio couldn't be written
      */
-    synchronized
-    public Optional<CacheItem> findItemByText(String text) {
-        assertNotClosed();
-        Optional<CacheItem> opt = Optional.empty();
-        final String uuid = mUtteranceCacheBuilder.getMd5EntriesMap().get(FileUtils.getMD5SumOfString(text));
-        if (uuid != null && !uuid.isEmpty()) {
-            opt = findItemByUuid(uuid);
+    private VoiceAudioDescription writeAudio(PhonemeEntry phonemeEntry, VoiceAudioDescription vad, byte[] data) throws IOException {
+        VoiceAudioDescription storedVad = vad;
+        byte[] storedData = data;
+        if (vad.getFormat() == AudioFormat.AUDIO_FMT_PCM && mPcmAudioFormat != AudioFormat.AUDIO_FMT_PCM) {
+            storedData = AudioCodec.forFormat(mPcmAudioFormat).encode(data);
+            storedVad = vad.toBuilder().setFormat(mPcmAudioFormat).build();
         }
-        return opt;
+        final String fileName = getAudioFilenameForPhoneme(phonemeEntry, storedVad);
+        final AudioStore store = mUseSegmentAudioStore ? mSegmentAudioStore : mFileAudioStore;
+        final long startNanos = System.nanoTime();
+        final VoiceAudioDescription writtenVad = store.write(storedVad, fileName, storedData);
+        mMetrics.recordWrite(startNanos);
+        // audio files are named by their phonemes, older audio at the same location is replaced
+        mMemoryCache.remove(writtenVad);
+        return writtenVad;
     }
 
     /**
-     * Build a new Utterance instance from given parameters and immediately saves it into the
-     * cache if not already existing. This entry doesn't need to have an audio attached.
-     * This can be done later.
+     * Reads the audio of given voice audio description from the in-memory tier or, if it's not
+     * kept there, from its audio store and decodes it if necessary. PCM audio read from the audio
+     * store is kept in the in-memory tier afterwards.
      *
-     * @param text          The raw text as given to the speak request
-     * @param normalized    normalization result
-     * @param phonemes      G2P result
+     * @param vad   voice audio description
      *
-     * @return  Utterance instance
+     * @return  audio data, PCM audio is always returned as PCM. The audio must not be modified,
+     *          as it might be shared with the in-memory tier
+     *
+     * @throws IOException in case the audio couldn't be read or decoded
      */
-    synchronized
-    public CacheItem addUtterance(String text, String normalized, List<String> phonemes) {
-        assertNotClosed();
-
-        Optional<CacheItem> optItem = findItem(text, normalized, phonemes);
-        if (optItem.isPresent()) {
-            return optItem.get();
+    private byte[] readAudio(VoiceAudioDescription vad) throws IOException {
+        final boolean isMemoryCached = mMemoryCache.getCapacity() > 0;
+        if (isMemoryCached) {
+            final byte[] pcm = mMemoryCache.get(vad);
+            mMetrics.recordMemoryLookup(pcm != null);
+            if (pcm != null) {
+                return pcm;
+            }
         }
-
-        // save only if not already exists
-        Utterance utterance = newUtterance(text, normalized, phonemes);
-        return saveUtterance(utterance);
+        final long startNanos = System.nanoTime();
+        final byte[] data = audioStoreFor(vad).read(vad);
+        mMetrics.recordRead(startNanos);
+        final AudioCodec codec = AudioCodec.forFormat(vad.getFormat());
+        final byte[] audio = (codec != null) ? codec.decode(data) : data;
+        if (isMemoryCached && (codec != null || vad.getFormat() == AudioFormat.AUDIO_FMT_PCM)) {
+            mMemoryCache.put(vad, audio);
+        }
+        return audio;
     }
 
     /**
-     * Add utterance to cache and return its cache item. If there is a corresponding cache item for
-     * the given text, this is returned instead.
+     * Reads the audio of given voice audio description from its audio store as stored, i.e.
+     * without decoding it, e.g. for exporting it.
      *
-     * @param text  text to be added to the cache
+     * @param vad   voice audio description
      *
-     * @return new or existing cache item corresponding to text
+     * @return  stored audio data in the format of the voice audio description
+     *
+     * @throws IOException in case the audio couldn't be read
      */
-    synchronized
-    public CacheItem addUtterance(String text) {
-        assertNotClosed();
-
-        Optional<CacheItem> optItem = findItemByText(text);
-        if (optItem.isPresent()) {
-            return optItem.get();
-        }
+    byte[] readStoredAudio(VoiceAudioDescription vad) throws IOException {
+        final long startNanos = System.nanoTime();
+        final byte[] data = audioStoreFor(vad).read(vad);
+        mMetrics.recordRead(startNanos);
+        return data;
+    }
 
-        // save only if not already exists
-        Utterance utterance = newUtterance(text, "", new ArrayList<>());
-        return saveUtterance(utterance);
+    /**
+     * Deletes the audio of given voice audio description from its audio store.
+     *
+     * @param vad   voice audio description
+     */
+    private void deleteAudio(VoiceAudioDescription vad) {
+        mMemoryCache.remove(vad);
+        audioStoreFor(vad).delete(vad);
     }
 
     /**
-     * Build a new Utterance instance from given parameters. This is not saved into the cache yet.
+     * Deletes written audio, that hasn't been added to any cache item. As audio files are named
+     * by their phonemes, the audio is kept if its location is referenced by a cache item. Until
+     * the cache has been loaded, not all references are known, the audio is then left to the
+     * consistency scanner. The caller needs to hold the write lock.
      *
-     * @param text              The raw text as given to the speak request
-     * @param normalized        normalization result
-     * @param phonemeSymbols    G2P phoneme symbols
+     * @param vad   voice audio description as returned by writeAudio()
+     */
+    private void discardAudio(VoiceAudioDescription vad) {
+        if (mIsLoaded && !mAudioIndex.contains(vad)) {
+            deleteAudio(vad);
+        }
+    }
+
+    /**
+     * Updates the audio reference counts for a cache item, that is replaced by a new version of
+     * it. References of the new item are added before the references of the old item are
+     * removed, therefore audio kept by the new item is never deleted. Audio, whose last reference
+     * has been removed, is deleted and the cache size is adjusted. The caller needs to hold the
+     * write lock.
      *
-     * @return new Utterance instance
+     * @param oldItem   previous version of the cache item, null if the item is added
+     * @param newItem   new version of the cache item, null if the item is removed
      */
-    public static Utterance newUtterance(String text, String normalized, List<String> phonemeSymbols) {
-        List<PhonemeEntry> phonemeList = new ArrayList<>();
-        for (String symbols: phonemeSymbols) {
-            phonemeList.add(newPhoneme(symbols));
+    private void updateAudioReferences(CacheItem oldItem, CacheItem newItem) {
+        final long storedBytes = mAudioIndex.getStoredBytes();
+        if (newItem != null) {
+            final Utterance utterance = newItem.getUtterance();
+            for (AudioEntry audioEntry: newItem.getVoiceAudioEntriesMap().values()) {
+                for (int i = 0; i < audioEntry.getAudioDescriptorsCount(); ++i) {
+                    // the audio descriptors are in the same order as the phonemes. Whole
+                    // utterance audio isn't shared, therefore it's not looked up by phonemes
+                    final VoiceAudioDescription vad = audioEntry.getAudioDescriptors(i);
+                    final PhonemeEntry phonemeEntry = (!vad.getWholeUtterance() && i < utterance.getPhonemesCount())
+                            ? utterance.getPhonemes(i) : null;
+                    mAudioIndex.addReference(phonemeEntry, vad);
+                }
+                // retained audio follows the audio descriptors in the order of the phonemes
+                final int nAudio = audioEntry.getAudioDescriptorsCount();
+                for (int j = 0; j < audioEntry.getRetainedAudioCount(); ++j) {
+                    final VoiceAudioDescription vad = audioEntry.getRetainedAudio(j);
+                    if (!isAudioPlaceholder(vad)) {
+                        final PhonemeEntry phonemeEntry = (nAudio + j < utterance.getPhonemesCount())
+                                ? utterance.getPhonemes(nAudio + j) : null;
+                        mAudioIndex.addReference(phonemeEntry, vad);
+                    }
+                }
+            }
         }
-        return Utterance.newBuilder()
-                .setFrontendVersion(FrontendManager.getVersion())
-                .setText(text)
-                .setTextMd5Sum(FileUtils.getMD5SumOfString(text))
-                .setNormalized(normalized)
-                .addAllPhonemes(phonemeList)
-                .build();
+        if (oldItem != null) {
+            for (AudioEntry audioEntry: oldItem.getVoiceAudioEntriesMap().values()) {
+                for (VoiceAudioDescription vad: getStoredAudio(audioEntry)) {
+                    // until the cache has been loaded, a loaded item might still refer to the audio
+                    if (mAudioIndex.removeReference(vad) && mIsLoaded) {
+                        deleteAudio(vad);
+                    }
+                }
+            }
+        }
+        mCurrentCacheSize += mAudioIndex.getStoredBytes() - storedBytes;
     }
 
     /**
-     * Build a new Phoneme entry from given symbols
+     * Returns true in case both voice audio descriptions refer to the same stored audio.
      *
-     * @param symbols   symbols of the Phoneme entry
+     * @param vad1  first voice audio description
+     * @param vad2  second voice audio description
      *
-     * @return new PhonemeEntry usable for updating elements in the cache
+     * @return  true if both have the same location
      */
-    public static PhonemeEntry newPhoneme(String symbols) {
-        return PhonemeEntry.newBuilder()
-            .setSymbols(symbols)
-            .setMd5(FileUtils.getMD5SumOfString(symbols))
-            .build();
+    private static boolean isSameAudioLocation(VoiceAudioDescription vad1, VoiceAudioDescription vad2) {
+        return vad1.getPath().equals(vad2.getPath())
+                && vad1.getSegmentId() == vad2.getSegmentId()
+                && vad1.getSegmentOffset() == vad2.getSegmentOffset();
     }
 
     /**
-     * Clears the cache from all entries.
+     * Reclaims the space of deleted audio inside segment files. The live audio of all segments
+     * with too much dead space is moved into the active segment, afterwards these segments are
+     * deleted.
      */
-    synchronized
-    public void clearCache() {
-        assertNotClosed();
-        for (String uuid: getUuids()) {
-            deleteCacheItem(uuid);
+    private void compactAudioSegments() {
+        final List<Integer> segments = mSegmentAudioStore.getSegmentsToCompact();
+        if (segments.isEmpty()) {
+            return;
+        }
+        Log.v(LOG_TAG, "compactAudioSegments(): compacting segments " + segments);
+        final List<CacheItem> items = new ArrayList<>(mItems.residentItems());
+        // shared audio is relocated only once. The old location is deleted, as soon as no item
+        // refers to it anymore
+        final Map<String, VoiceAudioDescription> relocatedAudio = new HashMap<>();
+        for (CacheItem item: items) {
+            boolean isRelocated = false;
+            CacheItem.Builder itemBuilder = item.toBuilder();
+            for (String voiceKey: item.getVoiceAudioEntriesMap().keySet()) {
+                AudioEntry.Builder entryBuilder = item.getVoiceAudioEntriesOrThrow(voiceKey).toBuilder();
+                final int nAudio = entryBuilder.getAudioDescriptorsCount();
+                for (int i = 0; i < nAudio + entryBuilder.getRetainedAudioCount(); ++i) {
+                    final VoiceAudioDescription vad = (i < nAudio)
+                            ? entryBuilder.getAudioDescriptors(i) : entryBuilder.getRetainedAudio(i - nAudio);
+                    if (!segments.contains(vad.getSegmentId())) {
+                        continue;
+                    }
+                    final String locationKey = AudioReferenceIndex.getLocationKey(vad);
+                    try {
+                        VoiceAudioDescription relocatedVad = relocatedAudio.get(locationKey);
+                        if (relocatedVad == null) {
+                            final byte[] data = mSegmentAudioStore.read(vad);
+                            relocatedVad = mSegmentAudioStore.write(vad, vad.getPath(), data);
+                            relocatedAudio.put(locationKey, relocatedVad);
+                            mMemoryCache.relocate(vad, relocatedVad);
+                        }
+                        if (i < nAudio) {
+                            entryBuilder.setAudioDescriptors(i, relocatedVad);
+                        } else {
+                            entryBuilder.setRetainedAudio(i - nAudio, relocatedVad);
+                        }
+                        isRelocated = true;
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "compactAudioSegments(): couldn't relocate audio of "
+                                + item.getUuid(), e);
+                        return;
+                    }
+                }
+                itemBuilder.putVoiceAudioEntries(voiceKey, entryBuilder.build());
+            }
+            if (isRelocated) {
+                // the usage count and timestamp are preserved
+                updateCacheItem(applyTouch(itemBuilder.build()));
+            }
+        }
+        for (int segmentId: segments) {
+            mSegmentAudioStore.dropSegment(segmentId);
         }
-        mUtteranceCacheBuilder.clearEntries();
-        persistCache(mUtteranceCacheBuilder.build());
     }
 
-    @NonNull
-    private List<String> getUuids() {
-        return mUtteranceCacheBuilder.getEntriesMap().values()
-                .stream()
-                .map(CacheItem::getUuid)
-                .collect(Collectors.toList());
+    /**
+     * Builds the ordering index, the text hash index and the audio reference index from all cache
+     * items and calculates the cache size. This is the only place, where the cache items need to
+     * be sorted.
+     *
+     * @param items     all cache items, complete or resident
+     */
+    private void buildIndexes(Collection<CacheItem> items) {
+        mOrderIndex.clear();
+        mEvictionPolicy.clear();
+        mTextHashIndex.clear();
+        mAudioIndex.clear();
+        mPinnedBytes = 0;
+        items.stream()
+                .sorted(Comparator.comparing(i -> convertTimestampToMillis(i.getTimestamp())))
+                .forEach(item -> {
+                    indexItem(item);
+                    mPinnedBytes += getIndexedPinnedBytes(item);
+                    updateAudioReferences(null, item);
+                });
+        mCurrentCacheSize = mAudioIndex.getStoredBytes();
     }
 
     /**
-     * Returns all cache item uuids ascending sorted by their latest timestamp.
+     * Adds or updates given cache item in the ordering index and the text hash index.
      *
-     * @return  timely sorted list of uuids
+     * @param item  the cache item
      */
-    synchronized
-    public List<String> getUuidsSortedByTimestamp() {
-        assertNotClosed();
-        List<CacheItem> items = getCacheItemsSortedByTimestamp();
-        return items
-                .stream()
-                .map(CacheItem::getUuid)
-                .collect(Collectors.toList());
+    private void indexItem(CacheItem item) {
+        mOrderIndex.put(item.getUuid(), item.getUsageCount(),
+                convertTimestampToMillis(item.getTimestamp()), computeAudioFileSize(item));
+        mTextHashIndex.put(getTextHash(item.getUtterance()), item.getUuid());
     }
 
     /**
-     * Returns all cache item uuids ascending sorted by their latest timestamp.
+     * Puts given cache item into the cache meta data and updates the indexes. Audio no longer
+     * referenced by any item is deleted.
      *
-     * @return  timely sorted list of uuids
+     * @param item  the cache item, either complete or as returned by getResident() with modified
+     *              audio, usage count or timestamp
      */
-    synchronized
-    public List<CacheItem> getCacheItemsSortedByTimestamp() {
-        assertNotClosed();
-        return mUtteranceCacheBuilder.getEntriesMap().values()
-                .stream()
-                .sorted(Comparator.comparing(i -> convertTimestampToMillis(i.getTimestamp())))
-                .collect(Collectors.toList());
+    private void putEntry(CacheItem item) {
+        final CacheItem oldItem = mItems.getResident(item.getUuid());
+        final long textHash = getTextHash(item.getUtterance());
+        if (oldItem != null) {
+            final long oldTextHash = getTextHash(oldItem.getUtterance());
+            if (oldTextHash != textHash) {
+                mTextHashIndex.remove(oldTextHash, item.getUuid());
+            }
+        }
+        mPinnedBytes -= getIndexedPinnedBytes(oldItem);
+        mItems.put(item, textHash);
+        indexItem(item);
+        mPinnedBytes += getIndexedPinnedBytes(item);
+        // the audio references only need the phoneme hashes, which are resident
+        updateAudioReferences(oldItem, item);
     }
 
     /**
-     * Returns all cache item uuids ascending sorted by their usage.
+     * Returns the audio size of given cache item as in the ordering index, if the item is pinned.
      *
-     * @return  timely sorted list of uuids
+     * @param item  the cache item, may be null
+     *
+     * @return  audio size in bytes, 0 if the item is null, not pinned or not indexed
      */
-    synchronized
-    public List<String> getUuidsSortedByUsage() {
-        assertNotClosed();
-        List<CacheItem> items = mUtteranceCacheBuilder.getEntriesMap().values()
-                .stream()
-                .sorted(Comparator.comparing(CacheItem::getUsageCount))
-                .collect(Collectors.toList());
-        return items
-                .stream()
-                .map(CacheItem::getUuid)
-                .collect(Collectors.toList());
+    private long getIndexedPinnedBytes(CacheItem item) {
+        if (item == null || !item.getPinned()) {
+            return 0;
+        }
+        return Math.max(0, mOrderIndex.getAudioBytes(item.getUuid()));
     }
 
     /**
-     * Returns all cache item uuids sorted by their latest timestamp.
+     * Returns the text hash of given utterance. Utterances built via newUtterance() already carry
+     * their hash, for all others it's calculated.
      *
-     * @param nOldestItems  max number of oldest items from the cache
+     * @param utterance     the utterance
      *
-     * @return  timely sorted list of uuids
+     * @return  64 bit hash of the utterance text
      */
-    synchronized
-    public List<String> getUuidsSortedByTimestamp(int nOldestItems) {
-        return getUuidsSortedByTimestamp().stream().limit(nOldestItems).collect(Collectors.toList());
+    private static long getTextHash(Utterance utterance) {
+        final long textHash = utterance.getTextHash();
+        return (textHash != 0) ? textHash : XxHash64.hash(getCacheKey(utterance));
     }
 
     /**
-     * Finds a CacheItem entry by given parameters. There should only be one Cache Item available by the
-     * given combination of these parameters. The cache item itself contains a map of available audios
-     * with voice:version as key
+     * Returns the key check hash of given utterance, a second hash of its cache key verifying a
+     * match of its text hash. Resident utterances carry it, for all others it's calculated.
      *
-     * @param text          Text of an utterance
-     * @param normalized    Normalized text
-     * @param phonemes      Phonemes of the normalized text
-     * @return  a CacheItem in case the given parameters matched with an item in the cache, or none
-     *          otherwise
+     * @param utterance     the utterance, complete or resident
+     *
+     * @return  64 bit check hash of the cache key
      */
-    synchronized
-    public Optional<CacheItem> findItem(String text, String normalized, List<String> phonemes) {
-        assertNotClosed();
-        Utterance utterance = newUtterance(text, normalized, phonemes);
-        return findItem(utterance);
+    public static long getKeyCheckHash(Utterance utterance) {
+        final long keyCheckHash = utterance.getKeyCheckHash();
+        return (keyCheckHash != 0) ? keyCheckHash : computeKeyCheckHash(getCacheKey(utterance));
     }
 
     /**
-     * Update given item inside the cache with given utterance. It also deletes all audio data
-     * as this data would be stale anyway. As an optimization this operation
-     * doesn't do anything in case the given utterance is the same as in the cache.
+     * Returns the key check hash of given cache key.
      *
-     * @param itemUuid  Item identified by given uuid to be updated with given utterance
-     * @param utterance utterance
+     * @param cacheKey  the cache key, see getCacheKey()
      *
-     * @return  true in case item could be found and has been successfully updated, false otherwise
+     * @return  64 bit check hash of the cache key
      */
-    synchronized
-    public CacheItem updateUtterance(String itemUuid, Utterance utterance) {
-        assertNotClosed();
-        CacheItem item = mUtteranceCacheBuilder.getEntriesMap().get(itemUuid);
-        if (item != null) {
-            if (utterance != item.getUtterance()) {
-                // persist only if different
-                CacheItem.Builder itemBuilder = item.toBuilder();
-                itemBuilder.setUtterance(utterance);
-                CacheItem updateItem = itemBuilder.build();
-                mUtteranceCacheBuilder.putEntries(itemUuid, updateItem);
-                mUtteranceCacheBuilder.putMd5Entries(utterance.getTextMd5Sum(), itemUuid);
-                deleteAudioForText(item.getUtterance().getText());
-                persistCache(mUtteranceCacheBuilder.build());
-                return updateItem;
-            }
-        }
-        return item;
+    private static long computeKeyCheckHash(String cacheKey) {
+        final byte[] data = cacheKey.getBytes(StandardCharsets.UTF_8);
+        return XxHash64.hash(data, 0, data.length, KEY_CHECK_SEED);
     }
 
     /**
-     * Delete a cache item from the cache. In case the item exists and could be deleted, true is
-     * returned, false otherwise.
+     * Sets the canonicalizer computing the cache key of utterance texts. Texts with the same
+     * canonical form share their cache item. It should be set before any cache manager is
+     * created: cache items keep the key they have been added with, changing the canonicalizer
+     * later on only results in cache misses for existing items.
      *
-     * @param itemUuid  the uuid of the cache item to be deleted
-     * @return  true in case the cache item has been successfully be deleted, false otherwise
+     * @param canonicalizer     the canonicalizer, null for using texts as is
      */
-    synchronized
-    public boolean deleteCacheItem(String itemUuid) {
-        assertNotClosed();
-        boolean isDeleted = false;
-        Optional<CacheItem> optItem = findItemByUuid(itemUuid);
-        if (optItem.isPresent()) {
-            CacheItem item = optItem.get();
-            final Collection<AudioEntry> audioEntries = item.getVoiceAudioEntriesMap().values();
-            // remove meta data
-            mUtteranceCacheBuilder.removeEntries(itemUuid);
-            // remove related audio files
-            for (AudioEntry audioEntry: audioEntries) {
-                for (VoiceAudioDescription vad:audioEntry.getAudioDescriptorsList()) {
-                    FileUtils.delete(vad.getPath());
-                    mCurrentCacheSize -= vad.getFileSize();
-                }
-            }
-            isDeleted = true;
-            persistCache(mUtteranceCacheBuilder.build());
-        }
-        return isDeleted;
+    public static void setTextCanonicalizer(TextCanonicalizer canonicalizer) {
+        mTextCanonicalizer = canonicalizer;
     }
 
     /**
-     * Returns a new voice audio description for provided parameters.
+     * Returns the cache key of given raw text, i.e. its canonical form.
      *
-     * @param format        audio format (wav, mp3, ...)
-     * @param rate          one of the predefined sample rates
-     * @param fileSize      the size of the audio data in bytes
-     * @param voiceName     name of the corresponding voice
-     * @param voiceVersion  version of the voice
-     * @return  a VoiceAudioDescription instance
+     * @param text  raw text
+     *
+     * @return  cache key
      */
-    public static VoiceAudioDescription newAudioDescription(AudioFormat format, SampleRate rate, int fileSize, String voiceName, String voiceVersion) {
-        return VoiceAudioDescription.newBuilder()
+    public static String getCacheKey(String text) {
+        final TextCanonicalizer canonicalizer = mTextCanonicalizer;
+        return (canonicalizer != null) ? canonicalizer.canonicalize(text) : text;
+    }
+
+    /**
+     * Returns the cache key of given utterance, as computed when the utterance has been built.
+     *
+     * @param utterance     the utterance
+     *
+     * @return  cache key
+     */
+    public static String getCacheKey(Utterance utterance) {
+        final String canonicalText = utterance.getCanonicalText();
+        return canonicalText.isEmpty() ? utterance.getText() : canonicalText;
+    }
+
+    /**
+     * Migrates the cache meta data of older cache versions: the MD5 sums of the utterance texts
+     * are replaced by 64 bit text hashes and the no longer used MD5 lookup map is removed. The
+     * migrated items are not journaled, the caller needs to write a new snapshot instead.
+     *
+     * @param cacheBuilder  cache meta data to migrate, modified in place
+     *
+     * @return  true in case anything has been migrated
+     */
+    private static boolean migrateTextHashes(UtteranceCache.Builder cacheBuilder) {
+        boolean isMigrated = cacheBuilder.getMd5EntriesCount() > 0;
+        cacheBuilder.clearMd5Entries();
+        final List<CacheItem> items = new ArrayList<>(cacheBuilder.getEntriesMap().values());
+        int nMigrated = 0;
+        for (CacheItem item: items) {
+            final Utterance utterance = item.getUtterance();
+            if (utterance.getTextHash() == 0) {
+                final Utterance migratedUtterance = utterance.toBuilder()
+                        .setTextHash(XxHash64.hash(utterance.getText()))
+                        .clearTextMd5Sum()
+                        .build();
+                cacheBuilder.putEntries(item.getUuid(),
+                        item.toBuilder().setUtterance(migratedUtterance).build());
+                nMigrated++;
+            }
+        }
+        if (nMigrated > 0) {
+            Log.i(LOG_TAG, "Migrated text hashes of " + nMigrated + " cache items");
+            isMigrated = true;
+        }
+        return isMigrated;
+    }
+
+    /**
+     * Returns absolute path to the journal file belonging to given data store filename.
+     *
+     * @param dataStoreFileName     the data store filename
+     *
+     * @return  Path to the journal file
+     */
+    private static String getJournalPath(String dataStoreFileName) {
+        return new File(App.getDataPath()) + "/" + dataStoreFileName + JOURNAL_SUFFIX;
+    }
+
+    /**
+     * Returns absolute path to the header file belonging to given data store filename.
+     *
+     * @param dataStoreFileName     the data store filename
+     *
+     * @return  Path to the header file
+     */
+    private static String getHeaderPath(String dataStoreFileName) {
+        return new File(App.getDataPath()) + "/" + dataStoreFileName + HEADER_SUFFIX;
+    }
+
+    /**
+     * Returns absolute path to the utterance body files belonging to given data store filename,
+     * without the file id.
+     *
+     * @param dataStoreFileName     the data store filename
+     *
+     * @return  Path to the body files
+     */
+    private static String getBodiesPath(String dataStoreFileName) {
+        return new File(App.getDataPath()) + "/" + dataStoreFileName + BODIES_SUFFIX;
+    }
+
+    /**
+     * Returns absolute path to the cache directory
+     *
+     * @return  Path to cache directory
+     */
+    static String getCacheDirectoryPath() {
+        return new File(App.getDataPath()) + "/" + CACHE_SUBDIR_PATH;
+    }
+
+    /**
+     * Closes the data store. A snapshot still being written is awaited. After calling this method,
+     * one shouldn't call any other methods anymore afterwards.
+     */
+    public void close() {
+        assertNotClosed();
+        awaitLoaded();
+        // the workers need the write lock for writing the queued audio and for evicting
+        mWriteBehindQueue.close();
+        mEvictionWorker.close();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            flushTouches();
+            if (mIsLoaded) {
+                writeHeader();
+            }
+            mSegmentAudioStore.close();
+            mMemoryCache.clear();
+            awaitSnapshotWriter();
+            mJournal.close();
+            if (mBodyStore != null) {
+                mBodyStore.close();
+            }
+            mIsClosed = true;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Asserts in case object is used after method close() has been used.
+     */
+    private void assertNotClosed() {
+        if (mIsClosed) {
+            throw new RuntimeException("UtteranceCacheManager has already been closed !");
+        }
+    }
+
+    /**
+     * Returns the whole UtteranceCache
+     *
+     * @return Utterance cache
+     */
+    public UtteranceCache getCache() {
+        awaitLoaded();
+        final List<String> uuids;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            uuids = new ArrayList<>(mItems.uuids());
+        } finally {
+            mLock.readLock().unlock();
+        }
+        // all utterance bodies are read without holding the lock, this is meant for tests and
+        // diagnostics only
+        final UtteranceCache.Builder liveCacheBuilder = UtteranceCache.newBuilder();
+        for (String uuid: uuids) {
+            final CacheItem item = readItem(uuid);
+            if (item != null) {
+                liveCacheBuilder.putEntries(uuid, item);
+            }
+        }
+        return liveCacheBuilder.build();
+    }
+
+    /**
+     * Writes all usage counts and timestamps collected in memory into the cache meta data. This
+     * is done periodically, when the cache is closed or when the system is low on memory.
+     */
+    public void flushTouches() {
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            final int nTouches = getTouchCount();
+            if (nTouches == 0) {
+                return;
+            }
+            Log.v(LOG_TAG, "flushTouches(): " + nTouches + " items");
+            final List<CacheItem> touchedItems = new ArrayList<>(nTouches);
+            forEachTouch((uuid, usageCount, timestampMillis) -> {
+                final CacheItem item = mItems.getResident(uuid);
+                if (item != null) {
+                    touchedItems.add(withTouch(item, usageCount, timestampMillis));
+                }
+            });
+            clearTouches();
+            for (CacheItem item: touchedItems) {
+                putEntry(item);
+                journalPut(item);
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Should be called from the applications onTrimMemory() callback. Flushes all in-memory
+     * state of the cache meta data and drops the in-memory audio tier.
+     *
+     * @param level     the memory trim level as given to onTrimMemory()
+     */
+    public void onTrimMemory(int level) {
+        mMemoryCache.clear();
+        mLock.writeLock().lock();
+        try {
+            if (mIsClosed) {
+                return;
+            }
+            Log.v(LOG_TAG, "onTrimMemory(" + level + ")");
+            flushTouches();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns given cache item with its live usage count and timestamp applied. These are
+     * different to the persisted values, if the item has been touched since the last flush.
+     *
+     * @param item  cache item as saved in the cache meta data, can be null
+     *
+     * @return  cache item with the current usage count and timestamp
+     */
+    private CacheItem applyTouch(CacheItem item) {
+        if (item == null) {
+            return null;
+        }
+        final String uuid = item.getUuid();
+        final CacheTouchTable touchTable = getTouchTable(uuid);
+        final int usageCount;
+        final long timestampMillis;
+        synchronized (touchTable) {
+            if (!touchTable.contains(uuid)) {
+                return item;
+            }
+            usageCount = touchTable.getUsageCount(uuid, item.getUsageCount());
+            timestampMillis = touchTable.getTimestampMillis(uuid, 0);
+        }
+        return withTouch(item, usageCount, timestampMillis);
+    }
+
+    /**
+     * Returns the touch table stripe responsible for given uuid.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  touch table, accesses need to synchronize on it
+     */
+    private CacheTouchTable getTouchTable(String uuid) {
+        final int h = uuid.hashCode();
+        return mTouchTables[(h ^ (h >>> 16)) & (TOUCH_STRIPES - 1)];
+    }
+
+    /**
+     * Returns the number of touched cache items in all stripes. The caller needs to hold the
+     * write lock.
+     *
+     * @return  number of touched cache items
+     */
+    private int getTouchCount() {
+        int nTouches = 0;
+        for (CacheTouchTable touchTable: mTouchTables) {
+            nTouches += touchTable.size();
+        }
+        return nTouches;
+    }
+
+    /**
+     * Calls given visitor for each touched cache item in all stripes. The caller needs to hold
+     * the write lock.
+     *
+     * @param visitor   the visitor
+     */
+    private void forEachTouch(CacheTouchTable.Visitor visitor) {
+        for (CacheTouchTable touchTable: mTouchTables) {
+            touchTable.forEach(visitor);
+        }
+    }
+
+    /**
+     * Removes all touches in all stripes. The caller needs to hold the write lock.
+     */
+    private void clearTouches() {
+        for (CacheTouchTable touchTable: mTouchTables) {
+            touchTable.clear();
+        }
+    }
+
+    /**
+     * Removes the touch of given cache item. The caller needs to hold the write lock.
+     *
+     * @param uuid  uuid of the cache item
+     */
+    private void removeTouch(String uuid) {
+        getTouchTable(uuid).remove(uuid);
+    }
+
+    /**
+     * Returns given cache item with given usage count and timestamp.
+     *
+     * @param item              the cache item
+     * @param usageCount        usage count to set
+     * @param timestampMillis   timestamp to set as milliseconds since the epoch
+     *
+     * @return  updated cache item
+     */
+    private static CacheItem withTouch(CacheItem item, int usageCount, long timestampMillis) {
+        return item.toBuilder()
+                .setUsageCount(usageCount)
+                .setTimestamp(convertMillisToTimestamp(timestampMillis))
+                .build();
+    }
+
+    /**
+     * Records an access of given cache item in memory, without modifying the cache meta data.
+     * The caller needs to hold the read or the write lock, concurrent touches of different items
+     * only contend, if the items share the same stripe. If the item has been removed in the
+     * meantime, nothing is done.
+     *
+     * @param uuid              uuid of the cache item
+     * @param increaseUsage     true if the usage count should be increased
+     * @param updateTimestamp   true if the timestamp should be set to the current time
+     */
+    private void touchItem(String uuid, boolean increaseUsage, boolean updateTimestamp) {
+        final CacheItem item = mItems.getResident(uuid);
+        if (item == null) {
+            return;
+        }
+        final CacheTouchTable touchTable = getTouchTable(uuid);
+        synchronized (touchTable) {
+            final int usageCount = touchTable.getUsageCount(uuid, item.getUsageCount())
+                    + (increaseUsage ? 1 : 0);
+            final long timestampMillis = updateTimestamp ? System.currentTimeMillis()
+                    : touchTable.getTimestampMillis(uuid, convertTimestampToMillis(item.getTimestamp()));
+            touchTable.put(uuid, usageCount, timestampMillis);
+            synchronized (mOrderIndex) {
+                mOrderIndex.touch(uuid, usageCount, timestampMillis);
+                if (increaseUsage || updateTimestamp) {
+                    mEvictionPolicy.onAccess(uuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cache items inside the cache
+     *
+     * @return Utterance cache
+     */
+    public long getItemCount() {
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return mItems.size();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the cache from disk. This is a blocking call.
+     *
+     * This method is used to read from disk all cache meta data and should only be used at the
+     * very beginning.
+     *
+     * @return The UtteranceCache meta data, empty if there is no snapshot or it can't be read
+     */
+    private UtteranceCache readSnapshot() {
+        if (!mSnapshotFile.exists()) {
+            return UtteranceCache.getDefaultInstance();
+        }
+        try (InputStream in = new FileInputStream(mSnapshotFile)) {
+            return UtteranceCache.parseFrom(in);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "readSnapshot(): couldn't read snapshot " + mSnapshotFile, e);
+            return UtteranceCache.getDefaultInstance();
+        }
+    }
+
+    /**
+     * Writes a new snapshot of the whole cache.
+     *
+     * The current journal is rotated and the snapshot is written asynchronously. As soon as the
+     * snapshot has been persisted, the rotated journal is deleted. If a snapshot is already being
+     * written, this call doesn't do anything, the journal still contains all modifications.
+     *
+     * Only the resident items are copied under the lock, the snapshot refers to their utterance
+     * bodies in the body file. Before that, the body file is compacted, if necessary. The previous
+     * body file is deleted, as soon as the snapshot has been persisted.
+     */
+    public void persistCache() {
+        awaitLoaded();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            if (!mIsLoaded) {
+                Log.w(LOG_TAG, "persistCache(): cache not loaded, not overwriting snapshot");
+                return;
+            }
+            if (mIsCompacting.getAndSet(true)) {
+                Log.v(LOG_TAG, "persistCache(): snapshot already in progress");
+                return;
+            }
+            // a rotated journal left over is included in the new snapshot as well
+            if (!mJournal.hasRotated() && !mJournal.rotate()) {
+                Log.w(LOG_TAG, "persistCache(): couldn't rotate journal");
+                mIsCompacting.set(false);
+                return;
+            }
+            // the snapshot taken afterwards refers to the compacted body file
+            try {
+                mItems.compactBodiesIfNeeded();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "persistCache(): couldn't compact utterance bodies", e);
+            }
+            writeHeader();
+            final ResidentItemIndex.Snapshot snapshot = mItems.snapshot();
+            final long startNanos = System.nanoTime();
+            mSnapshotWriter = new Thread(() -> {
+                if (writeSnapshot(snapshot)) {
+                    mMetrics.recordPersist(startNanos);
+                    mJournal.discardRotated();
+                }
+                mIsCompacting.set(false);
+            }, LOG_TAG + "_SnapshotWriter");
+            mSnapshotWriter.setDaemon(true);
+            mSnapshotWriter.start();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes given snapshot as UtteranceCache message. The cache items are serialized one by one
+     * with the locations of their utterance bodies instead of the bodies. The snapshot is written
+     * to a temporary file first and renamed, after the body file has been synced.
+     *
+     * @param snapshot  snapshot of the resident items
+     *
+     * @return  true in case the snapshot has been written, false otherwise
+     */
+    private boolean writeSnapshot(ResidentItemIndex.Snapshot snapshot) {
+        final File tmpFile = new File(mSnapshotFile.getPath() + ".tmp");
+        if (!FileUtils.mkdir(mSnapshotFile.getParent())) {
+            Log.e(LOG_TAG, "writeSnapshot(): couldn't create directory of " + mSnapshotFile);
+            return false;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+            final CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+            codedOut.writeUInt64(UtteranceCache.BODY_FILE_ID_FIELD_NUMBER, snapshot.getBodyFileId());
+            for (CacheItem residentItem: snapshot.getResidentItems()) {
+                final CacheItem item = snapshot.getStoredItem(residentItem);
+                // map entry of UtteranceCache.entries: uuid as key, the item as value
+                final int entrySize = CodedOutputStream.computeStringSize(1, item.getUuid())
+                        + CodedOutputStream.computeMessageSize(2, item);
+                codedOut.writeTag(UtteranceCache.ENTRIES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                codedOut.writeUInt32NoTag(entrySize);
+                codedOut.writeString(1, item.getUuid());
+                codedOut.writeMessage(2, item);
+            }
+            codedOut.flush();
+            // the snapshot must not refer to bodies not yet on disk
+            mBodyStore.sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "writeSnapshot(): couldn't write snapshot " + tmpFile, e);
+            return false;
+        }
+        if (!tmpFile.renameTo(mSnapshotFile)) {
+            Log.e(LOG_TAG, "writeSnapshot(): couldn't rename snapshot " + tmpFile);
+            return false;
+        }
+        mSnapshotSize = mSnapshotFile.length();
+        mBodyStore.deleteFilesExcept(snapshot.getBodyFileId());
+        return true;
+    }
+
+    /**
+     * Waits until the snapshot currently written, if any, has been persisted.
+     */
+    private void awaitSnapshotWriter() {
+        if (mSnapshotWriter == null) {
+            return;
+        }
+        try {
+            mSnapshotWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends an added or updated cache item to the journal. Falls back to writing a full snapshot
+     * in case the journal couldn't be written.
+     *
+     * @param item  the cache item as saved in the cache, complete or resident
+     */
+    private void journalPut(CacheItem item) {
+        if (!mIsLoaded) {
+            // items added while loading are journaled, when they are merged
+            return;
+        }
+        // a complete item replaces the whole item on replay, a resident item keeps the utterance
+        final boolean isResident = ResidentItemIndex.isResidentUtterance(item.getUtterance());
+        if (mJournalBatch != null) {
+            mJournalBatch.add(isResident ? CacheJournalRecord.newBuilder().setUpdateItem(item).build()
+                    : CacheJournalRecord.newBuilder().setPutItem(item).build());
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        if (!(isResident ? mJournal.appendUpdate(item) : mJournal.appendPut(item))) {
+            persistCache();
+            return;
+        }
+        mMetrics.recordPersist(startNanos);
+        compactJournalIfNeeded();
+    }
+
+    /**
+     * Appends the removal of a cache item to the journal. Falls back to writing a full snapshot
+     * in case the journal couldn't be written.
+     *
+     * @param uuid  uuid of the removed cache item
+     */
+    private void journalRemove(String uuid) {
+        if (!mIsLoaded) {
+            return;
+        }
+        if (mJournalBatch != null) {
+            mJournalBatch.add(CacheJournalRecord.newBuilder().setRemovedUuid(uuid).build());
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        if (!mJournal.appendRemove(uuid)) {
+            persistCache();
+            return;
+        }
+        mMetrics.recordPersist(startNanos);
+        compactJournalIfNeeded();
+    }
+
+    /**
+     * Writes a new snapshot in case the journal has grown bigger than the last snapshot.
+     */
+    private void compactJournalIfNeeded() {
+        if (mJournal.size() > Math.max(JOURNAL_MIN_COMPACTION_SIZE, mSnapshotSize)) {
+            persistCache();
+        }
+    }
+
+    /**
+     * Save given Utterance instance in cache. If utterance already exists, update it. If
+     * it doesn't, add it to the cache.
+     *
+     * @param utterance  the utterance to be persisted
+     * @return CacheItem created when saving the utterance, or in case utterance already
+     *         existed, the updated cache item
+     */
+    public CacheItem saveUtterance(Utterance utterance) {
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+
+            // Update existing utterance
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (optItem.isPresent()) {
+                return updateUtterance(optItem.get().getUuid(), utterance);
+            } else {
+                // ... or add a new one
+                final String uuid = UUID.randomUUID().toString();
+                CacheItem item = CacheItem.newBuilder()
+                        .setUtterance(utterance)
+                        .setUuid(uuid)
+                        .build();
+                putEntry(item);
+                journalPut(item);
+                optItem = Optional.of(item);
+            }
+            return optItem.get();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds an element in the cache by given utterance. The caller needs to hold the read or the
+     * write lock.
+     *
+     * @param utterance     The utterance to search for
+     *
+     * @return  the resident CacheItem in case the given utterance matched with an item in the
+     *          cache
+     */
+    private Optional<CacheItem> findItem(Utterance utterance) {
+        final long keyCheckHash = getKeyCheckHash(utterance);
+        return findItemByTextHash(getTextHash(utterance))
+                // the text hash is not collision free
+                .filter(item -> getKeyCheckHash(item.getUtterance()) == keyCheckHash);
+    }
+
+    /**
+     * Finds an element in the cache by given cache key. Only the resident data is used, the
+     * utterance body isn't read. The caller needs to hold the read or the write lock.
+     *
+     * @param cacheKey  the cache key, see getCacheKey()
+     *
+     * @return  the resident CacheItem in case the given cache key matched with an item in the
+     *          cache
+     */
+    private Optional<CacheItem> findItemByCacheKey(String cacheKey) {
+        final long keyCheckHash = computeKeyCheckHash(cacheKey);
+        return findItemByTextHash(XxHash64.hash(cacheKey))
+                // the text hash is not collision free
+                .filter(item -> getKeyCheckHash(item.getUtterance()) == keyCheckHash);
+    }
+
+    /**
+     * Finds a CacheItem by given UUID. There should only be one Cache Item available by the
+     * given combination of these parameters. Must not be called while holding the lock, the
+     * utterance body is read after releasing it.
+     *
+     * @param uuid          UUID of the cache Item.
+     * @return  a CacheItem in case the given UUID matched with an item in the cache, or none
+     *          otherwise, also if the utterance body of the item couldn't be read
+     */
+    public Optional<CacheItem> findItemByUuid(String uuid) {
+        return Optional.ofNullable(readItem(uuid));
+    }
+
+    /**
+     * Find a cache item just by the utterance text. The utterance text is the unique distinction
+     * point for a Cache Item. Must not be called while holding the lock, the utterance body is
+     * read after releasing it.
+     *
+     * @param text  the raw text of an utterance
+     *
+     * @return a CacheItem in case the given text matched with an item in the cache
+     */
+    public Optional<CacheItem> findItemByText(String text) {
+        final String cacheKey = getCacheKey(text);
+        final Optional<CacheItem> optResidentItem;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            optResidentItem = findItemByCacheKey(cacheKey);
+        } finally {
+            mLock.readLock().unlock();
+        }
+        return optResidentItem.map(residentItem -> readItem(residentItem.getUuid()))
+                .filter(item -> getCacheKey(item.getUtterance()).equals(cacheKey));
+    }
+
+    /**
+     * Find a cache item by the precalculated hash of the cache key of the utterance text. Only
+     * the resident data is used, the utterance body isn't read. The caller needs to hold the read
+     * or the write lock.
+     *
+     * @param textHash  64 bit hash of the cache key, see getCacheKey()
+     *
+     * @return the resident CacheItem in case the given hash matched with an item in the cache
+     */
+    private Optional<CacheItem> findItemByTextHash(long textHash) {
+        final String uuid = mTextHashIndex.get(textHash);
+        if (uuid == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(applyTouch(mItems.getResident(uuid)));
+    }
+
+    /**
+     * Returns the resident cache item of given uuid. The caller needs to hold the read or the
+     * write lock.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  the resident CacheItem, or none if there is no such item
+     */
+    private Optional<CacheItem> findResidentItem(String uuid) {
+        return Optional.ofNullable(applyTouch(mItems.getResident(uuid)));
+    }
+
+    /**
+     * Returns true in case there is a cache item with given uuid.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  true if the item exists
+     */
+    private boolean containsItem(String uuid) {
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return mItems.contains(uuid);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the complete cache item of given uuid. Only the resident item and the location of
+     * its utterance body are looked up under the read lock, the body is read after releasing it.
+     * If the body has been moved or replaced meanwhile, it's read again. Must not be called while
+     * holding the lock.
+     *
+     * @param uuid  uuid of the cache item
+     *
+     * @return  the cache item, null if there is no such item or its body couldn't be read
+     */
+    private CacheItem readItem(String uuid) {
+        for (int i = 0; i < MAX_BODY_READ_ATTEMPTS; ++i) {
+            final CacheItem residentItem;
+            final Long location;
+            final UtteranceBodyStore bodyStore;
+            mLock.readLock().lock();
+            try {
+                assertNotClosed();
+                residentItem = applyTouch(mItems.getResident(uuid));
+                location = mItems.getBodyLocation(uuid);
+                bodyStore = mBodyStore;
+            } finally {
+                mLock.readLock().unlock();
+            }
+            if (residentItem == null || location == null) {
+                // no such item or kept completely in memory
+                return residentItem;
+            }
+            Utterance body = null;
+            IOException readError = null;
+            try {
+                body = bodyStore.read(location);
+            } catch (IOException e) {
+                readError = e;
+            }
+            mLock.readLock().lock();
+            try {
+                if (!location.equals(mItems.getBodyLocation(uuid))) {
+                    // compacted, updated or removed meanwhile
+                    continue;
+                }
+            } finally {
+                mLock.readLock().unlock();
+            }
+            if (body == null) {
+                Log.w(LOG_TAG, "readItem(): couldn't read utterance of " + uuid, readError);
+                return null;
+            }
+            return residentItem.toBuilder().setUtterance(body).build();
+        }
+        Log.w(LOG_TAG, "readItem(): utterance of " + uuid + " modified while reading it");
+        return null;
+    }
+
+    /**
+     * Build a new Utterance instance from given parameters and immediately saves it into the
+     * cache if not already existing. This entry doesn't need to have an audio attached.
+     * This can be done later.
+     *
+     * @param text          The raw text as given to the speak request
+     * @param normalized    normalization result
+     * @param phonemes      G2P result
+     *
+     * @return  Utterance instance
+     */
+    public CacheItem addUtterance(String text, String normalized, List<String> phonemes) {
+        return addUtterance(newUtterance(text, normalized, phonemes));
+    }
+
+    /**
+     * Add utterance to cache and return its cache item. If there is a corresponding cache item for
+     * the given text, this is returned instead.
+     *
+     * @param text  text to be added to the cache
+     *
+     * @return new or existing cache item corresponding to text
+     */
+    public CacheItem addUtterance(String text) {
+        return addUtterance(newUtterance(text, "", new ArrayList<>()));
+    }
+
+    /**
+     * Returns the cache item of given utterance, the utterance is saved if there is none yet.
+     * The utterance body of an existing item is read without holding the lock. If it can't be
+     * read, the utterance is saved again.
+     *
+     * @param utterance     the utterance
+     *
+     * @return  new or existing cache item of the utterance
+     */
+    private CacheItem addUtterance(Utterance utterance) {
+        final Optional<CacheItem> optResidentItem;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            optResidentItem = findItem(utterance);
+        } finally {
+            mLock.readLock().unlock();
+        }
+        if (optResidentItem.isPresent()) {
+            final CacheItem item = readItem(optResidentItem.get().getUuid());
+            if (item != null && getCacheKey(item.getUtterance()).equals(getCacheKey(utterance))) {
+                return item;
+            }
+        }
+        // save only if not already exists
+        return saveUtterance(utterance);
+    }
+
+    /**
+     * Build a new Utterance instance from given parameters. This is not saved into the cache yet.
+     *
+     * @param text              The raw text as given to the speak request
+     * @param normalized        normalization result
+     * @param phonemeSymbols    G2P phoneme symbols
+     *
+     * @return new Utterance instance
+     */
+    public static Utterance newUtterance(String text, String normalized, List<String> phonemeSymbols) {
+        List<PhonemeEntry> phonemeList = new ArrayList<>();
+        for (String symbols: phonemeSymbols) {
+            phonemeList.add(newPhoneme(symbols));
+        }
+        final String cacheKey = getCacheKey(text);
+        final Utterance.Builder utterance = Utterance.newBuilder()
+                .setFrontendVersion(FrontendManager.getVersion())
+                .setText(text)
+                .setTextHash(XxHash64.hash(cacheKey))
+                .setNormalized(normalized)
+                .addAllPhonemes(phonemeList);
+        if (!cacheKey.equals(text)) {
+            utterance.setCanonicalText(cacheKey);
+        }
+        return utterance.build();
+    }
+
+    /**
+     * Build a new Phoneme entry from given symbols
+     *
+     * @param symbols   symbols of the Phoneme entry
+     *
+     * @return new PhonemeEntry usable for updating elements in the cache
+     */
+    public static PhonemeEntry newPhoneme(String symbols) {
+        return PhonemeEntry.newBuilder()
+            .setSymbols(symbols)
+            .setHash(XxHash64.hash(symbols))
+            .build();
+    }
+
+    /**
+     * Returns the hash of given phoneme entry. Entries built via newPhoneme() already carry their
+     * hash, for all others it's calculated.
+     *
+     * @param phonemeEntry  the phoneme entry
+     *
+     * @return  64 bit hash of the phoneme symbols
+     */
+    public static long getPhonemeHash(PhonemeEntry phonemeEntry) {
+        final long hash = phonemeEntry.getHash();
+        return (hash != 0) ? hash : XxHash64.hash(phonemeEntry.getSymbols());
+    }
+
+    /**
+     * Clears the cache from all entries.
+     */
+    public void clearCache() {
+        awaitLoaded();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            for (CacheItem item: mItems.residentItems()) {
+                deleteAudioFiles(item);
+            }
+            mItems.clear();
+            mOrderIndex.clear();
+            mEvictionPolicy.clear();
+            mTextHashIndex.clear();
+            mAudioIndex.clear();
+            mCurrentCacheSize = 0;
+            mPinnedBytes = 0;
+            clearTouches();
+            mSegmentAudioStore.clear();
+            mMemoryCache.clear();
+            if (!mJournal.appendClear()) {
+                persistCache();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes all audio files of given cache item, regardless of other items sharing them. The
+     * cache meta data is not modified.
+     *
+     * @param item  the cache item
+     */
+    private void deleteAudioFiles(CacheItem item) {
+        for (AudioEntry audioEntry: item.getVoiceAudioEntriesMap().values()) {
+            for (VoiceAudioDescription vad: getStoredAudio(audioEntry)) {
+                deleteAudio(vad);
+            }
+        }
+    }
+
+    /**
+     * Copies the uuids of an ordering of the ordering index. As touches under the read lock modify
+     * the ordering index, this synchronizes on it.
+     *
+     * @param orderedUuids  byRecency() or byUsage() of the ordering index
+     *
+     * @return  list of uuids in the given order
+     */
+    private List<String> copyUuids(Iterable<String> orderedUuids) {
+        synchronized (mOrderIndex) {
+            List<String> uuids = new ArrayList<>(mOrderIndex.size());
+            for (String uuid: orderedUuids) {
+                uuids.add(uuid);
+            }
+            return uuids;
+        }
+    }
+
+    /**
+     * Returns all cache item uuids ascending sorted by their latest timestamp.
+     *
+     * @return  timely sorted list of uuids
+     */
+    public List<String> getUuidsSortedByTimestamp() {
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return copyUuids(mOrderIndex.byRecency());
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all cache item uuids ascending sorted by their latest timestamp.
+     *
+     * @return  timely sorted list of uuids
+     */
+    public List<CacheItem> getCacheItemsSortedByTimestamp() {
+        awaitLoaded();
+        final List<String> uuids;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            uuids = copyUuids(mOrderIndex.byRecency());
+        } finally {
+            mLock.readLock().unlock();
+        }
+        // the utterance bodies are read without holding the lock, items removed meanwhile or
+        // with unreadable bodies are skipped
+        List<CacheItem> items = new ArrayList<>(uuids.size());
+        for (String uuid: uuids) {
+            final CacheItem item = readItem(uuid);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Returns all cache item uuids ascending sorted by their usage.
+     *
+     * @return  timely sorted list of uuids
+     */
+    public List<String> getUuidsSortedByUsage() {
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return copyUuids(mOrderIndex.byUsage());
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all cache item uuids sorted by their latest timestamp.
+     *
+     * @param nOldestItems  max number of oldest items from the cache
+     *
+     * @return  timely sorted list of uuids
+     */
+    public List<String> getUuidsSortedByTimestamp(int nOldestItems) {
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            return getUuidsSortedByTimestamp().stream().limit(nOldestItems).collect(Collectors.toList());
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds a CacheItem entry by given parameters. There should only be one Cache Item available by the
+     * given combination of these parameters. The cache item itself contains a map of available audios
+     * with voice:version as key
+     *
+     * @param text          Text of an utterance
+     * @param normalized    Normalized text
+     * @param phonemes      Phonemes of the normalized text
+     * @return  a CacheItem in case the given parameters matched with an item in the cache, or none
+     *          otherwise
+     */
+    public Optional<CacheItem> findItem(String text, String normalized, List<String> phonemes) {
+        return findItemByText(text);
+    }
+
+    /**
+     * Update given item inside the cache with given utterance. It also deletes all audio data
+     * as this data would be stale anyway.
+     *
+     * @param itemUuid  Item identified by given uuid to be updated with given utterance
+     * @param utterance utterance
+     *
+     * @return  the updated cache item, or null in case the item couldn't be found
+     */
+    public CacheItem updateUtterance(String itemUuid, Utterance utterance) {
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            CacheItem item = applyTouch(mItems.getResident(itemUuid));
+            if (item == null) {
+                return null;
+            }
+            // the audio files are deleted, unless shared with other items
+            final CacheItem updateItem = item.toBuilder()
+                    .setUtterance(utterance)
+                    .clearVoiceAudioEntries()
+                    .build();
+            updateCacheItem(updateItem);
+            return updateItem;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the utterance of given item by the result of a newer frontend version, see
+     * CacheFrontendMigrator. In contrast to updateUtterance(), audio is only invalidated for the
+     * phonemes that have actually changed: the audio of each voice is kept for all phoneme
+     * entries, whose symbols have audio in the old utterance. As audio has to be in the order of
+     * the phoneme entries, the audio following the first changed phoneme entry is kept as retained
+     * audio, until the audio of the changed phoneme entries has been added.
+     *
+     * @param itemUuid  uuid of the cache item
+     * @param utterance utterance with the new normalization and phonemes, needs to have the same
+     *                  cache key as the utterance of the item
+     *
+     * @return  the updated cache item, or null in case the item doesn't exist or its cache key
+     *          differs
+     */
+    public CacheItem rephonemizeItem(String itemUuid, Utterance utterance) {
+        awaitLoaded();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            // only the resident item is used, its text hash and key check hash stand in for the cache key
+            final CacheItem item = applyTouch(mItems.getResident(itemUuid));
+            if (item == null || getTextHash(item.getUtterance()) != getTextHash(utterance)
+                    || getKeyCheckHash(item.getUtterance()) != getKeyCheckHash(utterance)) {
+                return null;
+            }
+            final CacheItem.Builder newItem = item.toBuilder()
+                    .setUtterance(utterance)
+                    .clearVoiceAudioEntries();
+            for (Map.Entry<String, AudioEntry> entry : item.getVoiceAudioEntriesMap().entrySet()) {
+                final AudioEntry.Builder keptAudio = AudioEntry.newBuilder();
+                final List<VoiceAudioDescription> retainedAudio = new ArrayList<>();
+                int nRetained = 0;
+                for (PhonemeEntry phonemeEntry : utterance.getPhonemesList()) {
+                    final VoiceAudioDescription vad =
+                            findAudioOfPhonemes(item.getUtterance(), entry.getValue(), phonemeEntry);
+                    if (vad != null && retainedAudio.isEmpty()) {
+                        keptAudio.addAudioDescriptors(vad);
+                    } else if (vad != null) {
+                        retainedAudio.add(vad);
+                        nRetained = retainedAudio.size();
+                    } else {
+                        retainedAudio.add(VoiceAudioDescription.getDefaultInstance());
+                    }
+                }
+                // the placeholders of trailing sentences without audio aren't needed
+                keptAudio.addAllRetainedAudio(retainedAudio.subList(0, nRetained));
+                if (keptAudio.getAudioDescriptorsCount() > 0 || keptAudio.getRetainedAudioCount() > 0) {
+                    newItem.putVoiceAudioEntries(entry.getKey(), keptAudio.build());
+                }
+            }
+            final CacheItem updatedItem = newItem.build();
+            updateCacheItem(updatedItem);
+            return updatedItem;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the audio of given phoneme symbols in given audio entry, including its retained
+     * audio. The phoneme entries are compared by their hashes.
+     *
+     * @param utterance     utterance the audio entry belongs to, complete or resident
+     * @param audioEntry    audio entry of one voice, in the order of the phoneme entries
+     * @param phonemeEntry  phoneme entry, whose symbols are looked up
+     *
+     * @return  voice audio description, or null if there is no audio of the symbols
+     */
+    private static VoiceAudioDescription findAudioOfPhonemes(Utterance utterance, AudioEntry audioEntry,
+                                                             PhonemeEntry phonemeEntry) {
+        if (isWholeUtteranceAudio(audioEntry)) {
+            // doesn't match the phonemes of a single sentence
+            return null;
+        }
+        final int nAudio = audioEntry.getAudioDescriptorsCount();
+        final int nPositions = Math.min(nAudio + audioEntry.getRetainedAudioCount(), utterance.getPhonemesCount());
+        final long hash = getPhonemeHash(phonemeEntry);
+        for (int i = 0; i < nPositions; ++i) {
+            if (getPhonemeHash(utterance.getPhonemes(i)) != hash) {
+                continue;
+            }
+            final VoiceAudioDescription vad = (i < nAudio)
+                    ? audioEntry.getAudioDescriptors(i) : audioEntry.getRetainedAudio(i - nAudio);
+            if (!isAudioPlaceholder(vad)) {
+                return vad;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete a cache item from the cache. In case the item exists and could be deleted, true is
+     * returned, false otherwise.
+     *
+     * @param itemUuid  the uuid of the cache item to be deleted
+     * @return  true in case the cache item has been successfully be deleted, false otherwise
+     */
+    public boolean deleteCacheItem(String itemUuid) {
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            boolean isDeleted = false;
+            Optional<CacheItem> optItem = findResidentItem(itemUuid);
+            if (optItem.isPresent()) {
+                CacheItem item = optItem.get();
+                // remove meta data
+                mItems.remove(itemUuid);
+                removeTouch(itemUuid);
+                mPinnedBytes -= getIndexedPinnedBytes(item);
+                mOrderIndex.remove(itemUuid);
+                mEvictionPolicy.onRemove(itemUuid);
+                mTextHashIndex.remove(getTextHash(item.getUtterance()), itemUuid);
+                // remove related audio files, unless shared with other items
+                updateAudioReferences(item, null);
+                isDeleted = true;
+                journalRemove(itemUuid);
+            }
+            return isDeleted;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a new voice audio description for provided parameters.
+     *
+     * @param format        audio format (wav, mp3, ...)
+     * @param rate          one of the predefined sample rates
+     * @param fileSize      the size of the audio data in bytes
+     * @param voiceName     name of the corresponding voice
+     * @param voiceVersion  version of the voice
+     * @return  a VoiceAudioDescription instance
+     */
+    public static VoiceAudioDescription newAudioDescription(AudioFormat format, SampleRate rate, int fileSize, String voiceName, String voiceVersion) {
+        return VoiceAudioDescription.newBuilder()
                 .setFormat(format)
                 .setRate(rate)
                 .setFileSize(fileSize)
@@ -498,17 +1987,179 @@ public class UtteranceCacheManager {
                 .build();
     }
 
+    /**
+     * Returns a new voice audio description for provided parameters, including the time needed
+     * for synthesizing the audio. The synthesis time is used by cost aware eviction policies.
+     *
+     * @param format            audio format (wav, mp3, ...)
+     * @param rate              one of the predefined sample rates
+     * @param fileSize          the size of the audio data in bytes
+     * @param voiceName         name of the corresponding voice
+     * @param voiceVersion      version of the voice
+     * @param synthesisMillis   time needed for synthesizing the audio, 0 if unknown
+     * @return  a VoiceAudioDescription instance
+     */
+    public static VoiceAudioDescription newAudioDescription(AudioFormat format, SampleRate rate, int fileSize,
+                                                            String voiceName, String voiceVersion,
+                                                            long synthesisMillis) {
+        return newAudioDescription(format, rate, fileSize, voiceName, voiceVersion).toBuilder()
+                .setSynthesisMillis((int) Math.max(0, Math.min(synthesisMillis, Integer.MAX_VALUE)))
+                .build();
+    }
+
+    /**
+     * Returns a phoneme entry with the phonemes of all sentences of given utterance. Audio
+     * synthesized for the whole utterance at once, e.g. by a network voice, is stored under this
+     * entry and its voice audio description is marked as whole utterance audio, see
+     * VoiceAudioDescription.whole_utterance.
+     *
+     * @param utterance     the utterance
+     *
+     * @return  phoneme entry of the whole utterance
+     */
+    public static PhonemeEntry newWholeUtterancePhoneme(Utterance utterance) {
+        final StringBuilder symbols = new StringBuilder();
+        for (PhonemeEntry phonemeEntry : utterance.getPhonemesList()) {
+            if (symbols.length() > 0) {
+                symbols.append('\n');
+            }
+            symbols.append(phonemeEntry.getSymbols());
+        }
+        return PhonemeEntry.newBuilder()
+                .setSymbols(symbols.toString())
+                .setHash(getWholeUtterancePhonemeHash(utterance))
+                .build();
+    }
+
+    /**
+     * Returns the hash of the phoneme entry of the whole utterance, see
+     * newWholeUtterancePhoneme(). It's calculated from the hashes of the phoneme entries of all
+     * sentences, so that it's known for resident utterances as well.
+     *
+     * @param utterance     the utterance, complete or resident
+     *
+     * @return  64 bit hash of the phonemes of the whole utterance
+     */
+    private static long getWholeUtterancePhonemeHash(Utterance utterance) {
+        final ByteBuffer hashes = ByteBuffer.allocate(Long.BYTES * utterance.getPhonemesCount());
+        for (PhonemeEntry phonemeEntry : utterance.getPhonemesList()) {
+            hashes.putLong(getPhonemeHash(phonemeEntry));
+        }
+        return XxHash64.hash(hashes.array(), 0, hashes.capacity(), 0);
+    }
+
+    /**
+     * Returns true in case given audio entry consists of audio synthesized for the whole
+     * utterance at once.
+     *
+     * @param audioEntry    audio entry of one voice
+     *
+     * @return  true if the audio entry has whole utterance audio
+     */
+    public static boolean isWholeUtteranceAudio(AudioEntry audioEntry) {
+        return audioEntry.getAudioDescriptorsCount() == 1
+                && audioEntry.getAudioDescriptors(0).getWholeUtterance();
+    }
+
+    /**
+     * Returns true in case given voice audio description is a placeholder of the retained audio,
+     * i.e. stands for a sentence without audio, see AudioEntry.retained_audio.
+     *
+     * @param vad   voice audio description
+     *
+     * @return  true if there is no audio for the voice audio description
+     */
+    private static boolean isAudioPlaceholder(VoiceAudioDescription vad) {
+        return vad.getPath().isEmpty();
+    }
+
+    /**
+     * Returns all stored audio of given audio entry, i.e. its audio descriptors followed by its
+     * retained audio without the placeholders.
+     *
+     * @param audioEntry    audio entry of one voice
+     *
+     * @return  voice audio descriptions of all stored audio of the audio entry
+     */
+    public static List<VoiceAudioDescription> getStoredAudio(AudioEntry audioEntry) {
+        if (audioEntry.getRetainedAudioCount() == 0) {
+            return audioEntry.getAudioDescriptorsList();
+        }
+        final List<VoiceAudioDescription> vads = new ArrayList<>(audioEntry.getAudioDescriptorsList());
+        for (VoiceAudioDescription vad : audioEntry.getRetainedAudioList()) {
+            if (!isAudioPlaceholder(vad)) {
+                vads.add(vad);
+            }
+        }
+        return vads;
+    }
+
+    /**
+     * Moves the retained audio following the last audio descriptor of given audio entry into its
+     * audio descriptors, after audio for the first retained position has been added. Moving
+     * stops at the next placeholder, i.e. at the next sentence without audio.
+     *
+     * @param audioEntry    audio entry of one voice, the audio of the first retained position
+     *                      has just been added to its audio descriptors
+     */
+    private static void attachRetainedAudio(AudioEntry.Builder audioEntry) {
+        if (audioEntry.getRetainedAudioCount() == 0) {
+            return;
+        }
+        final List<VoiceAudioDescription> retainedAudio =
+                new ArrayList<>(audioEntry.getRetainedAudioList());
+        // the position of the added audio
+        retainedAudio.remove(0);
+        while (!retainedAudio.isEmpty() && !isAudioPlaceholder(retainedAudio.get(0))) {
+            audioEntry.addAudioDescriptors(retainedAudio.remove(0));
+        }
+        audioEntry.clearRetainedAudio().addAllRetainedAudio(retainedAudio);
+    }
+
+    /**
+     * Returns true in case given audio entry has the audio of all sentences of given utterance,
+     * either as audio of each phoneme entry or as whole utterance audio.
+     *
+     * @param utterance     the utterance
+     * @param audioEntry    audio entry of one voice of the utterance, can be null
+     *
+     * @return  true if the audio is complete
+     */
+    public static boolean hasCompleteAudio(Utterance utterance, AudioEntry audioEntry) {
+        return audioEntry != null
+                && (audioEntry.getAudioDescriptorsCount() >= utterance.getPhonemesCount()
+                    || isWholeUtteranceAudio(audioEntry));
+    }
+
+    /**
+     * Returns the phoneme entry, under which the audio of given audio description is stored.
+     *
+     * @param utterance     utterance the audio belongs to
+     * @param i             position of the audio description in its audio entry
+     * @param vad           voice audio description
+     *
+     * @return  phoneme entry of the audio, null if the utterance has no phonemes at the position
+     */
+    private static PhonemeEntry getPhonemeOfAudio(Utterance utterance, int i, VoiceAudioDescription vad) {
+        if (vad.getWholeUtterance()) {
+            return newWholeUtterancePhoneme(utterance);
+        }
+        return (i < utterance.getPhonemesCount()) ? utterance.getPhonemes(i) : null;
+    }
+
     /**
      * Returns audio filename  for given phonemeEntry and voice audio description. The returned filename
      * is deterministic.
      *
-     * @param phonemeEntry      phoneme entry, needs the MD5 sum to be prefilled
+     * @param phonemeEntry      phoneme entry, needs the hash or for entries of older cache versions
+     *                          the MD5 sum to be prefilled
      * @param vad               voice audio description, necessary for the filename suffix
      * @return  filename for an audio file corresponding to passed parameters
      */
     synchronized
     public static String getAudioFilenameForPhoneme(PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
-        String fileName = phonemeEntry.getMd5();
+        String fileName = phonemeEntry.getMd5().isEmpty() ? XxHash64.toHex(phonemeEntry.getHash())
+                : phonemeEntry.getMd5();
         switch (vad.getFormat()) {
             case AUDIO_FMT_PCM:
                 fileName += ".pcm";
@@ -516,6 +2167,12 @@ public class UtteranceCacheManager {
             case AUDIO_FMT_MP3:
                 fileName += ".mp3";
                 break;
+            case AUDIO_FMT_PCM_LPC:
+                fileName += ".lpc";
+                break;
+            case AUDIO_FMT_IMA_ADPCM:
+                fileName += ".adpcm";
+                break;
             default:
                 fileName += ".unknown";
                 break;
@@ -528,6 +2185,9 @@ public class UtteranceCacheManager {
      * Add audio data and description to a cache item. This writes the data to the cache and updates
      * the cache meta data. In case the high water mark of the cache is reached, the operation fails.
      * Calling this method successfully increases the usage counter of the cache item.
+     * The audio is encoded and written without holding the cache lock. If audio for the same
+     * phonemes and voice is already stored for another item, that audio is shared and the given
+     * data isn't written at all.
      *
      * @param uuid              uuid of cache item for which the audio should be added
      * @param phonemeEntry      Phoneme entry that corresponds to the attached audio
@@ -537,56 +2197,530 @@ public class UtteranceCacheManager {
      * @return                  true in case the audio has been added successfully to the given
      *                          CacheItem, false otherwise
      */
-    synchronized
     public boolean addAudioToCacheItem(String uuid, PhonemeEntry phonemeEntry, VoiceAudioDescription vad, byte[] data) {
+        return addAudioToCacheItem(uuid, phonemeEntry, vad, data, true);
+    }
+
+    /**
+     * Add audio data and description to a cache item, see addAudioToCacheItem(). Audio added
+     * ahead of time, e.g. by prewarming the cache, doesn't count as usage of the cache item.
+     *
+     * @param uuid              uuid of cache item for which the audio should be added
+     * @param phonemeEntry      Phoneme entry that corresponds to the attached audio
+     * @param vad               voice audio descriptions about the audio specifics
+     * @param data              the raw audio data itself, will be saved on disk to the cache
+     * @param isUsage           true if the usage counter and timestamp of the cache item should
+     *                          be updated
+     *
+     * @return                  true in case the audio has been added successfully to the given
+     *                          CacheItem, false otherwise
+     */
+    public boolean addAudioToCacheItem(String uuid, PhonemeEntry phonemeEntry, VoiceAudioDescription vad,
+                                       byte[] data, boolean isUsage) {
         assertNotClosed();
         if ((data.length == 0) || (vad.getVoiceName().isEmpty() || vad.getVoiceVersion().isEmpty())) {
             Log.w(LOG_TAG, "addAudioToCacheItem(): at least one of the given parameters is invalid");
             return false;
         }
-        Optional<CacheItem> optItem = findItemByUuid(uuid);
-        if (!optItem.isPresent()) {
+        if (!containsItem(uuid)) {
             Log.w(LOG_TAG, "addAudioToCacheItem(): no such item: " + uuid);
             return false;
         }
-        CacheItem item = optItem.get();
 
-        final String fileName = getAudioFilenameForPhoneme(phonemeEntry, vad);
-        VoiceAudioDescription newVad = vad.toBuilder()
-                .setPath(fileName)
-                .setFileSize(data.length)
-                .build();
-        final String voiceKey = buildVoiceKey(vad);
+        // write audio buffer to the audio store, if not already stored
+        VoiceAudioDescription newVad = findSharedAudio(phonemeEntry, vad);
+        final boolean isWritten = (newVad == null);
+        if (isWritten) {
+            try {
+                newVad = writeAudio(phonemeEntry, vad, data);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            final boolean hasUpdated = applyAudioToCacheItem(uuid, phonemeEntry, newVad, isWritten, isUsage);
+            requestExpiration();
+            return hasUpdated;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds stored audio of another cache item with the same phonemes to given cache item. This
+     * avoids synthesizing the audio again for utterances, that only differ in e.g. punctuation or
+     * spelling, but result in the same phonemes. Calling this method successfully increases the
+     * usage counter of the cache item.
+     *
+     * @param uuid              uuid of cache item for which the audio should be added
+     * @param phonemeEntry      Phoneme entry for which audio is needed
+     * @param vad               voice audio description with the voice, sample rate and format of
+     *                          the needed audio, the file size is ignored
+     *
+     * @return  the shared audio data, PCM audio is always returned as PCM. Null in case there is
+     *          no such audio or it couldn't be added
+     */
+    public byte[] addSharedAudioToCacheItem(String uuid, PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
+        assertNotClosed();
+        if (vad.getVoiceName().isEmpty() || vad.getVoiceVersion().isEmpty()) {
+            Log.w(LOG_TAG, "addSharedAudioToCacheItem(): at least one of the given parameters is invalid");
+            return null;
+        }
+        final VoiceAudioDescription sharedVad = findSharedAudio(phonemeEntry, vad);
+        if (sharedVad == null) {
+            return null;
+        }
+        final byte[] data;
+        try {
+            data = readAudio(sharedVad);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "addSharedAudioToCacheItem(): couldn't read shared audio", e);
+            return null;
+        }
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            if (!applyAudioToCacheItem(uuid, phonemeEntry, sharedVad, false, true)) {
+                return null;
+            }
+            requestExpiration();
+            return data;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns stored audio of any cache item for given phonemes without adding it to a cache
+     * item. The audio can be added later on via addAudioToCacheItem() or
+     * addAudioToCacheItemAsync(), which then share the stored audio instead of writing it again.
+     *
+     * @param phonemeEntry      Phoneme entry for which audio is needed
+     * @param vad               voice audio description with the voice, sample rate and format of
+     *                          the needed audio, the file size is ignored
+     *
+     * @return  the stored audio data, PCM audio is always returned as PCM. Null in case there is
+     *          no such audio
+     */
+    public byte[] getSharedAudio(PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
+        assertNotClosed();
+        if (vad.getVoiceName().isEmpty() || vad.getVoiceVersion().isEmpty()) {
+            Log.w(LOG_TAG, "getSharedAudio(): at least one of the given parameters is invalid");
+            return null;
+        }
+        final VoiceAudioDescription sharedVad = findSharedAudio(phonemeEntry, vad);
+        if (sharedVad == null) {
+            return null;
+        }
+        try {
+            return readAudio(sharedVad);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "getSharedAudio(): couldn't read shared audio", e);
+            return null;
+        }
+    }
+
+    /**
+     * Looks up stored audio for given phonemes, voice and sample rate. Whole utterance audio is
+     * never shared.
+     *
+     * @param phonemeEntry  phoneme entry, can be null
+     * @param vad           voice audio description with voice, sample rate and format
+     *
+     * @return  voice audio description of the stored audio, null if there is none
+     */
+    private VoiceAudioDescription findSharedAudio(PhonemeEntry phonemeEntry, VoiceAudioDescription vad) {
+        if (phonemeEntry == null || vad.getWholeUtterance()) {
+            return null;
+        }
+        mLock.readLock().lock();
+        try {
+            return mAudioIndex.find(phonemeEntry, vad);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
 
-        AudioEntry audioForVoice;
+    /**
+     * Adds stored audio to the meta data of given cache item and optionally increases its usage
+     * counter. If audio for the same phonemes has been stored meanwhile, the written audio is
+     * discarded and the stored audio is shared instead. If the item doesn't exist anymore, the
+     * written audio is discarded. The audio of each voice needs to be added in the order of the
+     * phoneme entries, audio for any other than the next phoneme entry without audio is rejected.
+     * The caller needs to hold the write lock.
+     *
+     * @param uuid          uuid of cache item for which the audio should be added
+     * @param phonemeEntry  phoneme entry that corresponds to the audio, can be null
+     * @param storedVad     voice audio description as returned by writeAudio() or of shared audio
+     * @param isWritten     true if the audio has been written for this item, false if it's shared
+     *                      audio of another item
+     * @param isUsage       true if the usage counter and timestamp of the item should be updated
+     *
+     * @return  true in case the audio has been added, false otherwise
+     */
+    private boolean applyAudioToCacheItem(String uuid, PhonemeEntry phonemeEntry,
+                                          VoiceAudioDescription storedVad, boolean isWritten,
+                                          boolean isUsage) {
+        // the item could have been modified or deleted while the audio has been written
+        final CacheItem item = applyTouch(mItems.getResident(uuid));
+        if (item == null) {
+            Log.w(LOG_TAG, "applyAudioToCacheItem(): item deleted meanwhile: " + uuid);
+            if (isWritten) {
+                discardAudio(storedVad);
+            }
+            return false;
+        }
+        if (phonemeEntry != null && !isNextPhonemeWithoutAudio(item, storedVad, phonemeEntry)) {
+            Log.w(LOG_TAG, "applyAudioToCacheItem(): audio doesn't belong to the next phoneme entry of " + uuid);
+            if (isWritten) {
+                discardAudio(storedVad);
+            }
+            return false;
+        }
+        VoiceAudioDescription newVad = storedVad;
+        final VoiceAudioDescription sharedVad = (phonemeEntry != null && !storedVad.getWholeUtterance())
+                ? mAudioIndex.find(phonemeEntry, storedVad) : null;
+        if (sharedVad != null && !isSameAudioLocation(sharedVad, storedVad)) {
+            if (isWritten) {
+                discardAudio(storedVad);
+            }
+            newVad = sharedVad;
+        } else if (!isWritten && !mAudioIndex.contains(storedVad)) {
+            Log.w(LOG_TAG, "applyAudioToCacheItem(): shared audio deleted meanwhile: " + uuid);
+            return false;
+        }
+        final String voiceKey = buildVoiceKey(newVad);
+        AudioEntry.Builder audioForVoice;
         if (item.containsVoiceAudioEntries(voiceKey)) {
             // if list entries inside item for given voice already exist, add newVad to that list
-            audioForVoice = item.getVoiceAudioEntriesOrThrow(voiceKey).toBuilder().addAudioDescriptors(newVad).build();
+            audioForVoice = item.getVoiceAudioEntriesOrThrow(voiceKey).toBuilder().addAudioDescriptors(newVad);
         } else {
             // otherwise create a new list with a single entry
-            audioForVoice = AudioEntry.newBuilder().addAudioDescriptors(newVad).build();
+            audioForVoice = AudioEntry.newBuilder().addAudioDescriptors(newVad);
         }
-        CacheItem newItem = item.toBuilder()
-                .setUsageCount(item.getUsageCount() + 1)
-                .setTimestamp(getCurrentTimestamp())
-                .putVoiceAudioEntries(voiceKey, audioForVoice)
-                .build();
-        boolean hasUpdated = updateCacheItem(newItem);
+        if (newVad.getWholeUtterance()) {
+            audioForVoice.clearRetainedAudio();
+        } else {
+            // retained audio of the following sentences is used again
+            attachRetainedAudio(audioForVoice);
+        }
+        CacheItem.Builder newItem = item.toBuilder().putVoiceAudioEntries(voiceKey, audioForVoice.build());
+        if (isUsage) {
+            newItem.setUsageCount(item.getUsageCount() + 1)
+                    .setTimestamp(getCurrentTimestamp());
+            mEvictionPolicy.onAccess(uuid);
+        }
+        return updateCacheItem(newItem.build());
+    }
+
+    /**
+     * Returns true in case given phoneme entry is the first phoneme entry of given item without
+     * audio for the voice of given audio. Whole utterance audio can only be added to an item
+     * without audio for the voice and needs to have the phonemes of all sentences. Entries are
+     * compared by their hashes, as the item might have been updated meanwhile.
+     *
+     * @param item          the cache item, complete or resident
+     * @param vad           voice audio description of the audio
+     * @param phonemeEntry  phoneme entry of the audio
+     *
+     * @return  true if audio for the phoneme entry is the next audio to be added
+     */
+    private static boolean isNextPhonemeWithoutAudio(CacheItem item, VoiceAudioDescription vad,
+                                                     PhonemeEntry phonemeEntry) {
+        final AudioEntry audioEntry = item.getVoiceAudioEntriesMap().get(buildVoiceKey(vad));
+        final int i = (audioEntry != null) ? audioEntry.getAudioDescriptorsCount() : 0;
+        final Utterance utterance = item.getUtterance();
+        if (vad.getWholeUtterance()) {
+            return i == 0 && utterance.getPhonemesCount() > 0
+                    && getWholeUtterancePhonemeHash(utterance) == getPhonemeHash(phonemeEntry);
+        }
+        return i < utterance.getPhonemesCount()
+                && (audioEntry == null || !isWholeUtteranceAudio(audioEntry))
+                && getPhonemeHash(utterance.getPhonemes(i)) == getPhonemeHash(phonemeEntry);
+    }
 
-        // write audio buffer to file
+    /**
+     * Merges a cache item of an imported cache snapshot into the cache, see
+     * CacheSnapshotArchive. The imported item needs to have complete audio for the given voice.
+     * A local item with the same text is kept as is, if it already has complete audio for the
+     * voice, or if it has different phonemes and has been used more recently than the imported
+     * item. Otherwise the imported audio is added to it, in case of different phonemes replacing
+     * its utterance and all its audio. The stored audio is written before the cache is locked,
+     * audio already stored for the same phonemes is shared instead.
+     *
+     * @param importedItem  the imported cache item
+     * @param voiceKey      voice key of the imported audio
+     * @param storedAudio   stored audio of each audio description of the imported item, in the
+     *                      format of the audio description
+     *
+     * @return  true in case the item has been merged, false if it has been skipped or its audio
+     *          couldn't be written
+     */
+    boolean mergeImportedItem(CacheItem importedItem, String voiceKey, List<byte[]> storedAudio) {
+        assertNotClosed();
+        awaitLoaded();
+        final Utterance utterance = importedItem.getUtterance();
+        final List<VoiceAudioDescription> importedVads =
+                importedItem.getVoiceAudioEntriesOrThrow(voiceKey).getAudioDescriptorsList();
+        mLock.readLock().lock();
         try {
-            OutputStream outStream = new FileOutputStream(fileName);
-            FileUtils.copyFile(new ByteArrayInputStream(data), outStream);
-            outStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            assertNotClosed();
+            if (!isImportNeeded(importedItem, voiceKey)) {
+                return false;
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+
+        // write the audio without holding the lock
+        final List<VoiceAudioDescription> vads = new ArrayList<>(importedVads.size());
+        final List<Boolean> isWritten = new ArrayList<>(importedVads.size());
+        for (int i = 0; i < importedVads.size(); ++i) {
+            final PhonemeEntry phonemeEntry = getPhonemeOfAudio(utterance, i, importedVads.get(i));
+            final VoiceAudioDescription sharedVad = findSharedAudio(phonemeEntry, importedVads.get(i));
+            if (sharedVad != null) {
+                vads.add(sharedVad);
+                isWritten.add(false);
+                continue;
+            }
+            final VoiceAudioDescription vad = importedVads.get(i).toBuilder()
+                    .clearPath()
+                    .clearSegmentId()
+                    .clearSegmentOffset()
+                    .setFileSize(storedAudio.get(i).length)
+                    .build();
+            try {
+                vads.add(writeAudio(phonemeEntry, vad, storedAudio.get(i)));
+                isWritten.add(true);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "mergeImportedItem(): couldn't write audio for " + importedItem.getUuid(), e);
+                mLock.writeLock().lock();
+                try {
+                    discardWrittenAudio(vads, isWritten);
+                } finally {
+                    mLock.writeLock().unlock();
+                }
+                return false;
+            }
+        }
+
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            // the cache could have been modified while the audio has been written
+            if (!isImportNeeded(importedItem, voiceKey)) {
+                discardWrittenAudio(vads, isWritten);
+                return false;
+            }
+            for (int i = 0; i < vads.size(); ++i) {
+                final VoiceAudioDescription sharedVad = vads.get(i).getWholeUtterance()
+                        ? null : mAudioIndex.find(utterance.getPhonemes(i), vads.get(i));
+                if (isWritten.get(i) && sharedVad != null && !isSameAudioLocation(sharedVad, vads.get(i))) {
+                    discardAudio(vads.get(i));
+                    vads.set(i, sharedVad);
+                    isWritten.set(i, false);
+                } else if (!isWritten.get(i) && !mAudioIndex.contains(vads.get(i))) {
+                    Log.w(LOG_TAG, "mergeImportedItem(): shared audio deleted meanwhile: " + importedItem.getUuid());
+                    discardWrittenAudio(vads, isWritten);
+                    return false;
+                }
+            }
+            final AudioEntry audioEntry = AudioEntry.newBuilder().addAllAudioDescriptors(vads).build();
+            final Optional<CacheItem> optLocalItem = findItem(utterance);
+            if (optLocalItem.isPresent()) {
+                final CacheItem localItem = applyTouch(optLocalItem.get());
+                final CacheItem.Builder newItem = localItem.toBuilder();
+                if (!hasSamePhonemes(localItem.getUtterance(), utterance)) {
+                    newItem.setUtterance(utterance).clearVoiceAudioEntries();
+                }
+                newItem.putVoiceAudioEntries(voiceKey, audioEntry)
+                        .setUsageCount(Math.max(localItem.getUsageCount(), importedItem.getUsageCount()));
+                if (convertTimestampToMillis(importedItem.getTimestamp())
+                        > convertTimestampToMillis(localItem.getTimestamp())) {
+                    newItem.setTimestamp(importedItem.getTimestamp());
+                }
+                updateCacheItem(newItem.build());
+            } else {
+                final String uuid = mItems.contains(importedItem.getUuid())
+                        ? UUID.randomUUID().toString() : importedItem.getUuid();
+                // pins are made by the client apps of each device
+                final CacheItem newItem = importedItem.toBuilder()
+                        .setUuid(uuid)
+                        .clearPinned()
+                        .clearVoiceAudioEntries()
+                        .putVoiceAudioEntries(voiceKey, audioEntry)
+                        .build();
+                putEntry(newItem);
+                journalPut(newItem);
+            }
+            requestExpiration();
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true in case an imported item should be merged into the cache, see
+     * mergeImportedItem(). The caller needs to hold the read or the write lock.
+     *
+     * @param importedItem  the imported cache item
+     * @param voiceKey      voice key of the imported audio
+     *
+     * @return  true if the imported item should be merged
+     */
+    private boolean isImportNeeded(CacheItem importedItem, String voiceKey) {
+        final Utterance utterance = importedItem.getUtterance();
+        final Optional<CacheItem> optLocalItem = findItem(utterance);
+        if (!optLocalItem.isPresent()) {
+            return true;
+        }
+        final CacheItem localItem = applyTouch(optLocalItem.get());
+        if (!hasSamePhonemes(localItem.getUtterance(), utterance)) {
+            // don't overwrite an item, that has been updated more recently
+            return convertTimestampToMillis(localItem.getTimestamp())
+                    < convertTimestampToMillis(importedItem.getTimestamp());
+        }
+        return !hasCompleteAudio(utterance, localItem.getVoiceAudioEntriesMap().get(voiceKey));
+    }
+
+    /**
+     * Returns true in case both utterances have the same phoneme symbols, compared by their
+     * hashes.
+     *
+     * @param utterance1    first utterance, complete or resident
+     * @param utterance2    second utterance, complete or resident
+     *
+     * @return  true if the phoneme symbols are the same
+     */
+    private static boolean hasSamePhonemes(Utterance utterance1, Utterance utterance2) {
+        if (utterance1.getPhonemesCount() != utterance2.getPhonemesCount()) {
             return false;
         }
-        if (hasUpdated) {
-            mCurrentCacheSize += data.length;
+        for (int i = 0; i < utterance1.getPhonemesCount(); ++i) {
+            if (getPhonemeHash(utterance1.getPhonemes(i)) != getPhonemeHash(utterance2.getPhonemes(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Discards the written audio of given audio descriptions. The caller needs to hold the write
+     * lock.
+     *
+     * @param vads          voice audio descriptions
+     * @param isWritten     true for each audio description, whose audio has been written
+     */
+    private void discardWrittenAudio(List<VoiceAudioDescription> vads, List<Boolean> isWritten) {
+        for (int i = 0; i < vads.size(); ++i) {
+            if (isWritten.get(i)) {
+                discardAudio(vads.get(i));
+            }
+        }
+    }
+
+    /**
+     * Add audio data and description to a cache item asynchronously. The audio is queued and
+     * written in batches by a background thread, i.e. this method returns without doing any I/O,
+     * unless too much audio is pending: then it blocks until the background thread has caught up.
+     * Until written, the audio is already returned by getAudioForUtterance().
+     *
+     * @param uuid              uuid of cache item for which the audio should be added
+     * @param phonemeEntry      Phoneme entry that corresponds to the attached audio
+     * @param vad               voice audio descriptions about the audio specifics
+     * @param data              the raw audio data itself, must not be modified afterwards
+     *
+     * @return  true in case the audio has been queued, false otherwise
+     */
+    public boolean addAudioToCacheItemAsync(String uuid, PhonemeEntry phonemeEntry, VoiceAudioDescription vad, byte[] data) {
+        assertNotClosed();
+        if ((data.length == 0) || (vad.getVoiceName().isEmpty() || vad.getVoiceVersion().isEmpty())) {
+            Log.w(LOG_TAG, "addAudioToCacheItemAsync(): at least one of the given parameters is invalid");
+            return false;
+        }
+        if (!containsItem(uuid)) {
+            Log.w(LOG_TAG, "addAudioToCacheItemAsync(): no such item: " + uuid);
+            return false;
+        }
+        return mWriteBehindQueue.enqueue(new AudioWriteBehindQueue.PendingAudio(uuid, phonemeEntry, vad, data));
+    }
+
+    /**
+     * Blocks until all audio queued via addAudioToCacheItemAsync() has been written to the cache.
+     */
+    public void flushPendingAudio() {
+        mWriteBehindQueue.flush();
+    }
+
+    /**
+     * Writes a batch of queued audio: the audio data is written without holding the cache lock,
+     * afterwards the meta data of all items is updated at once, with a single journal append and
+     * a single expiry run. Called from the write-behind worker thread.
+     *
+     * @param batch     queued audio
+     */
+    private void writeAudioBatch(List<AudioWriteBehindQueue.PendingAudio> batch) {
+        final List<AudioWriteBehindQueue.PendingAudio> applied = new ArrayList<>(batch.size());
+        final List<VoiceAudioDescription> vads = new ArrayList<>(batch.size());
+        final List<Boolean> isWritten = new ArrayList<>(batch.size());
+        for (AudioWriteBehindQueue.PendingAudio pending: batch) {
+            final VoiceAudioDescription sharedVad = findSharedAudio(pending.phonemeEntry, pending.vad);
+            if (sharedVad != null) {
+                vads.add(sharedVad);
+                isWritten.add(false);
+                applied.add(pending);
+                continue;
+            }
+            try {
+                final VoiceAudioDescription newVad = writeAudio(pending.phonemeEntry, pending.vad, pending.data);
+                // audio files are named by their phonemes: if the same phonemes are written
+                // twice in this batch, the file contains the audio written last
+                for (int i = 0; i < vads.size(); ++i) {
+                    if (isWritten.get(i) && isSameAudioLocation(vads.get(i), newVad)) {
+                        vads.set(i, newVad);
+                    }
+                }
+                vads.add(newVad);
+                isWritten.add(true);
+                applied.add(pending);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "writeAudioBatch(): couldn't write audio for " + pending.uuid, e);
+            }
+        }
+
+        mLock.writeLock().lock();
+        try {
+            if (mIsClosed) {
+                Log.w(LOG_TAG, "writeAudioBatch(): cache already closed");
+                return;
+            }
+            mJournalBatch = new ArrayList<>(applied.size());
+            for (int i = 0; i < applied.size(); ++i) {
+                final AudioWriteBehindQueue.PendingAudio pending = applied.get(i);
+                applyAudioToCacheItem(pending.uuid, pending.phonemeEntry, vads.get(i), isWritten.get(i), true);
+            }
+            final List<CacheJournalRecord> records = mJournalBatch;
+            mJournalBatch = null;
+            if (!records.isEmpty()) {
+                final long startNanos = System.nanoTime();
+                if (mJournal.appendAll(records)) {
+                    mMetrics.recordPersist(startNanos);
+                    compactJournalIfNeeded();
+                } else {
+                    persistCache();
+                }
+            }
+            requestExpiration();
+            // the audio is now retrievable from the cache
+            mWriteBehindQueue.release(batch);
+        } finally {
+            mJournalBatch = null;
+            mLock.writeLock().unlock();
         }
-        expireCache();
-        return hasUpdated;
     }
 
     /**
@@ -595,9 +2729,7 @@ public class UtteranceCacheManager {
      * @return Protobuf Timestamp of current time
      */
     public static Timestamp getCurrentTimestamp() {
-        final long millis = System.currentTimeMillis();
-        return Timestamp.newBuilder().setSeconds(millis / 1000)
-                .setNanos((int) ((millis % 1000) * 1000000)).build();
+        return convertMillisToTimestamp(System.currentTimeMillis());
     }
 
     /**
@@ -610,6 +2742,17 @@ public class UtteranceCacheManager {
         return aTimestamp.getSeconds()*1000 + aTimestamp.getNanos()/1000000;
     }
 
+    /**
+     * Converts given milliseconds since the epoch to a Protobuf Timestamp.
+     *
+     * @param millis    milliseconds since the epoch
+     * @return  Protobuf Timestamp
+     */
+    public static Timestamp convertMillisToTimestamp(long millis) {
+        return Timestamp.newBuilder().setSeconds(millis / 1000)
+                .setNanos((int) ((millis % 1000) * 1000000)).build();
+    }
+
     /**
      * Builds the voice key for the voice audio entries map.
      *
@@ -639,122 +2782,143 @@ public class UtteranceCacheManager {
     }
 
     /**
-     * Updates given item meta data in cache.
+     * Updates given item meta data in cache. The usage count and timestamp of given item replace
+     * any values collected in memory, therefore the item should have been retrieved via
+     * findItemByUuid() or similar.
      *
      * @param item  cache item to be updated
      *
      * @return  true in case item has been found and updated, false otherwise
      */
-    synchronized
     private boolean updateCacheItem(CacheItem item) {
         assertNotClosed();
         boolean hasUpdated = false;
-        if (mUtteranceCacheBuilder.getEntriesMap().get(item.getUuid()) != null) {
-            mUtteranceCacheBuilder.putEntries(item.getUuid(), item);
-            mUtteranceCacheBuilder.putMd5Entries(item.getUtterance().getTextMd5Sum(), item.getUuid());
-            persistCache(mUtteranceCacheBuilder.build());
+        if (mItems.contains(item.getUuid())) {
+            putEntry(item);
+            removeTouch(item.getUuid());
+            journalPut(item);
             hasUpdated = true;
         }
-        return hasUpdated;
+        return hasUpdated;
+    }
+
+    /**
+     * Update the given cache item/phoneme entry/voice name/voice version tuple with the provided
+     * audio description and audio buffer. The item/phoneme entry and a voice audio description for
+     * the provided voice name/voice version of the new audio description needs to exist for this
+     * function to succeed.
+     *
+     * @param item          The cache item to be updated
+     * @param phonemeEntry  The specific phoneme entry to be updated
+     * @param newVad        New voice audio description
+     * @param newAudioBuf   New audio buffer to be saved to the cache
+     *
+     * @return  true in case cache item and phoneme entry exists and the audio has been updated,
+     *          false otherwise
+     */
+    public boolean updateAudio(CacheItem item, PhonemeEntry phonemeEntry, VoiceAudioDescription newVad, byte[] newAudioBuf) {
+        assertNotClosed();
+        if ((newAudioBuf.length == 0) || (newVad.getVoiceName().isEmpty() || newVad.getVoiceVersion().isEmpty())) {
+            Log.w(LOG_TAG, "updateAudio(): at least one of the given parameters is invalid");
+            return false;
+        }
+        final String voiceAudioKey = buildVoiceKey(newVad);
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findResidentItem(item.getUuid());
+            if (!optItem.isPresent()) {
+                Log.w(LOG_TAG, "updateAudio(): no such item: " + item.getUuid());
+                return false;
+            }
+            if (! canUpdateAudio(optItem.get(), phonemeEntry, voiceAudioKey)) {
+                return false;
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+
+        // update audio file, this sets the audio location in the description
+        VoiceAudioDescription newDescription;
+        try {
+            newDescription = writeAudio(phonemeEntry, newVad, newAudioBuf);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            // the item could have been modified or deleted while the audio has been written
+            final CacheItem foundItem = applyTouch(mItems.getResident(item.getUuid()));
+            if (foundItem == null || ! canUpdateAudio(foundItem, phonemeEntry, voiceAudioKey)) {
+                discardAudio(newDescription);
+                return false;
+            }
+            final int i = getPhonemePosition(foundItem.getUtterance(), phonemeEntry);
+            final AudioEntry foundAudioEntry = foundItem.getVoiceAudioEntriesOrThrow(voiceAudioKey);
+
+            // the old audio is deleted by updateCacheItem(), unless it's shared with other items
+            AudioEntry audioEntryForVoice = foundAudioEntry.toBuilder()
+                    .setAudioDescriptors(i, newDescription)
+                    .build();
+            CacheItem updatedItem = foundItem.toBuilder()
+                    .putVoiceAudioEntries(voiceAudioKey, audioEntryForVoice)
+                    .setUsageCount(foundItem.getUsageCount() + 1)
+                    .setTimestamp(getCurrentTimestamp())
+                    .build();
+            if (! updateCacheItem(updatedItem)) {
+                Log.w(LOG_TAG, "updateAudio(): couldn't update audio entry " + foundItem.getUuid());
+                return false;
+            }
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
+        }
     }
 
     /**
-     * Update all MD5sums of utterances in case, we haven't them already saved because of an older
-     * cache version.
+     * Returns the position of given phoneme entry inside the phonemes of given utterance. Entries
+     * are compared by their hashes, as only these are resident.
+     *
+     * @param utterance     the utterance, complete or resident
+     * @param phonemeEntry  phoneme entry of the utterance
+     *
+     * @return  position of the phoneme entry, or the number of phonemes if it's not found
      */
-    private void updateMD5SumsOfAllCacheItems() {
-        final Collection<CacheItem> allItems = mUtteranceCacheBuilder.getEntriesMap().values();
-        for (CacheItem item: allItems) {
-            if (item.getUtterance().getTextMd5Sum().isEmpty()) {
-                Log.v(LOG_TAG, "Updating MD5sum of item " + item.getUuid());
-                Utterance.Builder updatedUtterance = item.getUtterance().toBuilder();
-                updatedUtterance.setTextMd5Sum(FileUtils.getMD5SumOfString(updatedUtterance.getText()));
-                updateCacheItem(item.toBuilder().setUtterance(updatedUtterance).build());
+    private static int getPhonemePosition(Utterance utterance, PhonemeEntry phonemeEntry) {
+        final long hash = getPhonemeHash(phonemeEntry);
+        int i = 0;
+        for (; i < utterance.getPhonemesCount(); ++i) {
+            if (getPhonemeHash(utterance.getPhonemes(i)) == hash) {
+                break;
             }
         }
+        return i;
     }
 
     /**
-     * Update the given cache item/phoneme entry/voice name/voice version tuple with the provided
-     * audio description and audio buffer. The item/phoneme entry and a voice audio description for
-     * the provided voice name/voice version of the new audio description needs to exist for this
-     * function to succeed.
+     * Checks, if the audio of given phoneme entry and voice can be updated for given cache item.
      *
-     * @param item          The cache item to be updated
-     * @param phonemeEntry  The specific phoneme entry to be updated
-     * @param newVad        New voice audio description
-     * @param newAudioBuf   New audio buffer to be saved to the cache
+     * @param item          the cache item
+     * @param phonemeEntry  phoneme entry to be updated
+     * @param voiceAudioKey voice key of the audio
      *
-     * @return  true in case cache item and phoneme entry exists and the audio has been updated,
-     *          false otherwise
+     * @return  true if the item has audio entries for the voice and audio at the phoneme position
      */
-    synchronized
-    public boolean updateAudio(CacheItem item, PhonemeEntry phonemeEntry, VoiceAudioDescription newVad, byte[] newAudioBuf) {
-        assertNotClosed();
-        if ((newAudioBuf.length == 0) || (newVad.getVoiceName().isEmpty() || newVad.getVoiceVersion().isEmpty())) {
-            Log.w(LOG_TAG, "updateAudio(): at least one of the given parameters is invalid");
-            return false;
-        }
-        Optional<CacheItem> optItem = findItemByUuid(item.getUuid());
-        if (!optItem.isPresent()) {
-            Log.w(LOG_TAG, "updateAudio(): no such item: " + item.getUuid());
-            return false;
-        }
-
-        final String voiceAudioKey = buildVoiceKey(newVad);
-        final CacheItem foundItem = optItem.get();
-        if (! foundItem.containsVoiceAudioEntries(voiceAudioKey)) {
+    private boolean canUpdateAudio(CacheItem item, PhonemeEntry phonemeEntry, String voiceAudioKey) {
+        if (! item.containsVoiceAudioEntries(voiceAudioKey)) {
             Log.w(LOG_TAG, "updateAudio(): no entry found for voice " + voiceAudioKey + ","
                     + " item: "+ item.getUuid());
             return false;
         }
-
-        final Utterance foundUtterance = foundItem.getUtterance();
-        // get position of phoneme entry
-        int i = 0;
-        for (; i < foundUtterance.getPhonemesCount(); ++i) {
-            if (foundUtterance.getPhonemes(i) == phonemeEntry) {
-                break;
-            }
-        }
-        AudioEntry foundAudioEntry = foundItem.getVoiceAudioEntriesOrThrow(voiceAudioKey);
-        if (foundAudioEntry.getAudioDescriptorsCount() + 1 < i) {
+        final int i = getPhonemePosition(item.getUtterance(), phonemeEntry);
+        if (i >= item.getVoiceAudioEntriesOrThrow(voiceAudioKey).getAudioDescriptorsCount()) {
             Log.w(LOG_TAG, "updateAudio(): no corresponding entry at phoneme position " + i
                     + " found, please add a new entry instead");
             return false;
         }
-
-        final long oldAudioSizeOfItem = getAudioFileSize(foundItem);
-
-        // sets the filename in description
-        // update audio file
-        String fileName = getAudioFilenameForPhoneme(phonemeEntry, newVad);
-        VoiceAudioDescription newDescription = newVad.toBuilder()
-                .setPath(fileName)
-                .setFileSize(newAudioBuf.length)
-                .build();
-
-        AudioEntry audioEntryForVoice = foundAudioEntry.toBuilder()
-                .setAudioDescriptors(i, newDescription)
-                .build();
-        CacheItem updatedItem = foundItem.toBuilder()
-                .putVoiceAudioEntries(voiceAudioKey, audioEntryForVoice)
-                .setUsageCount(foundItem.getUsageCount() + 1)
-                .setTimestamp(getCurrentTimestamp())
-                .build();
-        final long newAudioSizeOfItem = getAudioFileSize(updatedItem);
-        if (! updateCacheItem(updatedItem)) {
-            Log.w(LOG_TAG, "updateAudio(): couldn't update audio entry " + foundItem.getUuid());
-            return false;
-        }
-        mCurrentCacheSize = mCurrentCacheSize - oldAudioSizeOfItem + newAudioSizeOfItem;
-        try {
-            OutputStream outStream = new FileOutputStream(fileName);
-            FileUtils.copyFile(new ByteArrayInputStream(newAudioBuf), outStream);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
         return true;
     }
 
@@ -766,48 +2930,46 @@ public class UtteranceCacheManager {
      * @param voiceVersion  Voice version
      * @return  true in case operation was successful, false otherwise
      */
-    synchronized
     public boolean deleteAudioForVoice(CacheItem item, String voiceName, String voiceVersion) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItemByUuid(item.getUuid());
-        if (!optItem.isPresent()) {
-            Log.w(LOG_TAG, "deleteAudioForVoice(): no such item: " + item.getUuid());
-            return false;
-        }
-        CacheItem itemInCache = optItem.get();
-        final String voiceAudioKey = buildVoiceKey(voiceName, voiceVersion);
-        if (! itemInCache.containsVoiceAudioEntries(voiceAudioKey)) {
-            Log.w(LOG_TAG, "deleteAudioForVoice(): no entry found for voice " + voiceAudioKey + ","
-                    + " item: "+ itemInCache.getUuid());
-            return false;
-        }
-
-        long audioDeleted = 0;
+        mLock.writeLock().lock();
         try {
-            AudioEntry foundAudioEntry = itemInCache.getVoiceAudioEntriesOrThrow(voiceAudioKey);
-            if (foundAudioEntry.getAudioDescriptorsCount() == 0) {
-                Log.w(LOG_TAG, "deleteAudioForVoice(): no audio entries found ?!");
-            }
-
-            // delete all attached audio files
-            for (VoiceAudioDescription vad : foundAudioEntry.getAudioDescriptorsList()) {
-                audioDeleted += vad.getFileSize();
-                FileUtils.delete(vad.getPath());
+            assertNotClosed();
+            Optional<CacheItem> optItem = findResidentItem(item.getUuid());
+            if (!optItem.isPresent()) {
+                Log.w(LOG_TAG, "deleteAudioForVoice(): no such item: " + item.getUuid());
+                return false;
             }
-            // clear audio meta data
-            // note: don't delete usage count or last access timestamp. We want to preserve this info
-            //       even in case of cache invalidation of the audio files/metadata
-            if (! updateCacheItem(itemInCache.toBuilder().removeVoiceAudioEntries(voiceAudioKey).build())) {
-                Log.w(LOG_TAG, "deleteAudioForVoice(): couldn't update audio entry " + itemInCache.getUuid());
+            CacheItem itemInCache = optItem.get();
+            final String voiceAudioKey = buildVoiceKey(voiceName, voiceVersion);
+            if (! itemInCache.containsVoiceAudioEntries(voiceAudioKey)) {
+                Log.w(LOG_TAG, "deleteAudioForVoice(): no entry found for voice " + voiceAudioKey + ","
+                        + " item: "+ itemInCache.getUuid());
                 return false;
             }
-            mCurrentCacheSize -= audioDeleted;
-        } catch (Exception e) {
-            Log.i(LOG_TAG, "deleteAudioForVoice(): no audio entries found for "
-                    + voiceName + "/" + voiceVersion);
-            // non-fatal: no voice audio entries found is as good as deleting them
+
+            try {
+                AudioEntry foundAudioEntry = itemInCache.getVoiceAudioEntriesOrThrow(voiceAudioKey);
+                if (foundAudioEntry.getAudioDescriptorsCount() == 0) {
+                    Log.w(LOG_TAG, "deleteAudioForVoice(): no audio entries found ?!");
+                }
+
+                // clear audio meta data, this deletes all attached audio files not shared with
+                // other items
+                // note: don't delete usage count or last access timestamp. We want to preserve this info
+                //       even in case of cache invalidation of the audio files/metadata
+                if (! updateCacheItem(itemInCache.toBuilder().removeVoiceAudioEntries(voiceAudioKey).build())) {
+                    Log.w(LOG_TAG, "deleteAudioForVoice(): couldn't update audio entry " + itemInCache.getUuid());
+                    return false;
+                }
+            } catch (Exception e) {
+                Log.i(LOG_TAG, "deleteAudioForVoice(): no audio entries found for "
+                        + voiceName + "/" + voiceVersion);
+                // non-fatal: no voice audio entries found is as good as deleting them
+            }
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
         }
-        return true;
     }
 
     /**
@@ -818,31 +2980,26 @@ public class UtteranceCacheManager {
      * @param aText     text to be searched
      * @return  true in case audio for given text could be found and successfully deleted, false otherwise
      */
-    synchronized
     public boolean deleteAudioForText(String aText) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItemByText(aText);
-        if (!optItem.isPresent()) {
-            Log.w(LOG_TAG, "deleteAudioForText(): no such text: " + aText);
-            return false;
-        }
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItemByCacheKey(getCacheKey(aText));
+            if (!optItem.isPresent()) {
+                Log.w(LOG_TAG, "deleteAudioForText(): no such text: " + aText);
+                return false;
+            }
 
-        long audioDeleted = 0;
-        CacheItem itemInCache = optItem.get();
-        for (AudioEntry entry : itemInCache.getVoiceAudioEntriesMap().values()) {
-            for (VoiceAudioDescription vad : entry.getAudioDescriptorsList()) {
-                audioDeleted += vad.getFileSize();
-                // remove related files
-                FileUtils.delete(vad.getPath());
+            CacheItem itemInCache = optItem.get();
+            // clear meta data, this removes related files not shared with other items
+            if (! updateCacheItem(itemInCache.toBuilder().clearVoiceAudioEntries().build())) {
+                Log.w(LOG_TAG, "deleteAudioForText(): couldn't clear audio entries for " + itemInCache.getUuid());
+                return false;
             }
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
         }
-        // clear meta data
-        if (! updateCacheItem(itemInCache.toBuilder().clearVoiceAudioEntries().build())) {
-            Log.w(LOG_TAG, "deleteAudioForText(): couldn't clear audio entries for " + itemInCache.getUuid());
-            return false;
-        }
-        mCurrentCacheSize -= audioDeleted;
-        return true;
     }
 
     /**
@@ -853,44 +3010,290 @@ public class UtteranceCacheManager {
      * @return  true in case item could be found and audio could be successfully deleted,
      *          false otherwise
      */
-    synchronized
     public boolean deleteAudioForItem(CacheItem item) {
-        assertNotClosed();
-        long audioDeleted = 0;
-        for (AudioEntry entry : item.getVoiceAudioEntriesMap().values()) {
-            for (VoiceAudioDescription vad : entry.getAudioDescriptorsList()) {
-                // remove related files
-                audioDeleted += vad.getFileSize();
-                FileUtils.delete(vad.getPath());
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            // clear meta data, this removes related files not shared with other items
+            if (! updateCacheItem(item.toBuilder().clearVoiceAudioEntries().build())) {
+                Log.w(LOG_TAG, "deleteAudioForItem(): couldn't clear audio entries for " + item.getUuid());
+                return false;
             }
+            return true;
+        } finally {
+            mLock.writeLock().unlock();
         }
-        // clear meta data
-        if (! updateCacheItem(item.toBuilder().clearVoiceAudioEntries().build())) {
-            Log.w(LOG_TAG, "deleteAudioForItem(): couldn't clear audio entries for " + item.getUuid());
-            return false;
-        }
-        mCurrentCacheSize -= audioDeleted;
-        return true;
     }
 
     /**
      * Returns overall audio file size as used on disk by summing up all audio entries for all
-     * cache items.
+     * cache items. Audio shared by several cache items is counted once.
      *
      * @return Size of all audio files in cache for all utterances and all voices.
      */
-    synchronized
     public long summarizeAudioFileSize() {
-        assertNotClosed();
-        long audioFileSizeInBytes = 0;
-        for (CacheItem item: mUtteranceCacheBuilder.getEntriesMap().values()) {
-            for (AudioEntry entry: item.getVoiceAudioEntriesMap().values()) {
-                for (VoiceAudioDescription vad: entry.getAudioDescriptorsList()) {
-                    audioFileSizeInBytes += vad.getFileSize();
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            long audioFileSizeInBytes = 0;
+            final Set<String> locations = new HashSet<>();
+            for (CacheItem item: mItems.residentItems()) {
+                for (AudioEntry entry: item.getVoiceAudioEntriesMap().values()) {
+                    for (VoiceAudioDescription vad: getStoredAudio(entry)) {
+                        if (locations.add(AudioReferenceIndex.getLocationKey(vad))) {
+                            audioFileSizeInBytes += vad.getFileSize();
+                        }
+                    }
+                }
+            }
+            return audioFileSizeInBytes;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the metrics of the cache, e.g. for recording lookups done by the caller.
+     *
+     * @return  cache metrics
+     */
+    public UtteranceCacheMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns a snapshot of the cache metrics, including the stored audio size of each voice.
+     *
+     * @return  metrics snapshot
+     */
+    public UtteranceCacheMetrics.Snapshot getMetricsSnapshot() {
+        final Map<String, Long> bytesPerVoice;
+        final long evictionBacklog;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            bytesPerVoice = mAudioIndex.getStoredBytesPerVoice();
+            evictionBacklog = computeEvictionBacklog();
+        } finally {
+            mLock.readLock().unlock();
+        }
+        return mMetrics.snapshot(bytesPerVoice, mMemoryCache.getResidentBytes(), evictionBacklog);
+    }
+
+    /**
+     * Sets the capacity of the in-memory tier of recently read PCM audio. Audio kept there is
+     * returned without accessing the file system. A capacity of 0 disables the tier.
+     *
+     * @param capacityBytes     max. size of the audio kept in memory in bytes
+     */
+    public void setMemoryCacheCapacity(long capacityBytes) {
+        mMemoryCache.setCapacity(capacityBytes);
+    }
+
+    /**
+     * Returns the size of the audio currently kept in the in-memory tier.
+     *
+     * @return  resident size in bytes
+     */
+    public long getMemoryCacheResidentBytes() {
+        return mMemoryCache.getResidentBytes();
+    }
+
+    /**
+     * Sets the policy deciding which audio is evicted, when the cache exceeds its high watermark.
+     * The default policy evicts the least recently used cache items first. The new policy starts
+     * without any knowledge about previous accesses.
+     *
+     * @param policy    the eviction policy
+     */
+    public void setEvictionPolicy(CacheEvictionPolicy policy) {
+        mLock.writeLock().lock();
+        try {
+            synchronized (mOrderIndex) {
+                mEvictionPolicy = policy;
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the audio quotas of the voices in percent of the watermarks. The audio of each voice
+     * forms a partition of the cache: if the audio of a voice exceeds its quota, only audio of
+     * this voice is evicted until it's at or below the same percentage of the low watermark.
+     * The watermarks still apply to the audio of all voices together. By default, the quotas are
+     * disabled.
+     *
+     * @param preferredVoicePercent     quota of the preferred voice, see setPreferredVoice()
+     * @param otherVoicePercent         quota of each other voice
+     */
+    public void setVoiceQuotas(int preferredVoicePercent, int otherVoicePercent) {
+        mLock.writeLock().lock();
+        try {
+            mPreferredVoiceQuotaPercent = Math.max(0, Math.min(100, preferredVoicePercent));
+            mOtherVoiceQuotaPercent = Math.max(0, Math.min(100, otherVoicePercent));
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the preferred voice, e.g. the currently selected voice, whose audio is limited by the
+     * quota of the preferred voice instead of the quota of the other voices. Audio of the
+     * previously preferred voice isn't evicted immediately, but the next time the cache is
+     * expired.
+     *
+     * @param voiceName     internal name of the voice
+     * @param voiceVersion  version of the voice
+     */
+    public void setPreferredVoice(String voiceName, String voiceVersion) {
+        mLock.writeLock().lock();
+        try {
+            mPreferredVoiceKey = buildVoiceKey(voiceName, voiceVersion);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the audio quota of given voice. The caller needs to hold the read or the write lock.
+     *
+     * @param voiceKey  voice key
+     *
+     * @return  quota in bytes, 0 if the quota is disabled
+     */
+    private long getVoiceQuota(String voiceKey) {
+        final int percent = voiceKey.equals(mPreferredVoiceKey)
+                ? mPreferredVoiceQuotaPercent : mOtherVoiceQuotaPercent;
+        return (percent < 100) ? mCacheSizeHighWatermark * percent / 100 : 0;
+    }
+
+    /**
+     * Sets the budget for the audio of pinned cache items, see setItemPinned(). As long as the
+     * audio of all pinned items fits into the budget, they are exempt from the eviction at the
+     * high watermark and by the voice quotas. Beyond the budget, pinned items are evicted in the
+     * order of the eviction policy like all other items, until the remaining pinned audio fits
+     * into the budget again. The budget is part of the watermarks, not in addition to them. By
+     * default, the budget is 0, i.e. pinned items are evicted like all other items.
+     *
+     * @param budgetBytes   max. size of the audio of all pinned items exempt from eviction
+     */
+    public void setPinnedBytesBudget(long budgetBytes) {
+        mLock.writeLock().lock();
+        try {
+            mPinnedBytesBudget = Math.max(0, budgetBytes);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Pins or unpins given cache item. The audio of pinned items is exempt from eviction within
+     * the pinned budget, see setPinnedBytesBudget(). Explicit deletions, e.g. via
+     * deleteCacheItem() or clearCache(), delete pinned items as well.
+     *
+     * @param itemUuid  uuid of the cache item
+     * @param isPinned  true to pin the item, false to unpin it
+     *
+     * @return  true in case the item has been found, false otherwise
+     */
+    public boolean setItemPinned(String itemUuid, boolean isPinned) {
+        awaitLoaded();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            final CacheItem item = applyTouch(mItems.getResident(itemUuid));
+            if (item == null) {
+                return false;
+            }
+            if (item.getPinned() == isPinned) {
+                return true;
+            }
+            return updateCacheItem(item.toBuilder().setPinned(isPinned).build());
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the audio size of all pinned cache items. Audio shared by several items is counted
+     * for each of them.
+     *
+     * @return  audio size of all pinned items in bytes
+     */
+    public long getPinnedAudioFileSize() {
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return mPinnedBytes;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the uuids of the cache items in the order given by the eviction policy. Pinned
+     * items are left out as long as their audio fits into the pinned budget: if it doesn't, the
+     * pinned items first in the eviction order are kept in it, until the audio of the remaining
+     * pinned items fits. The order is filtered while iterating it, the pinned audio size is
+     * tracked by putEntry() and the removals. The caller needs to hold the write lock while
+     * iterating.
+     *
+     * @return  uuids of the evictable cache items, first to be evicted first
+     */
+    private Iterable<String> getEvictionOrder() {
+        final Map<String, CacheItem> entries = mItems.residentItemMap();
+        final Iterable<String> evictionOrder = mEvictionPolicy.evictionOrder(mOrderIndex, entries);
+        if (mPinnedBytesBudget == 0 || mPinnedBytes == 0) {
+            return evictionOrder;
+        }
+        final long pinnedBytesBudget = mPinnedBytesBudget;
+        final long pinnedBytes = mPinnedBytes;
+        return () -> new Iterator<String>() {
+            private final Iterator<String> mUuids = evictionOrder.iterator();
+            private long mPinnedBytesLeft = pinnedBytes;
+            private String mNext = null;
+
+            @Override
+            public boolean hasNext() {
+                while (mNext == null && mUuids.hasNext()) {
+                    final String uuid = mUuids.next();
+                    final CacheItem item = entries.get(uuid);
+                    if (item != null && item.getPinned()) {
+                        if (mPinnedBytesLeft <= pinnedBytesBudget) {
+                            continue;
+                        }
+                        mPinnedBytesLeft -= getIndexedPinnedBytes(item);
+                    }
+                    mNext = uuid;
+                }
+                return mNext != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                final String uuid = mNext;
+                mNext = null;
+                return uuid;
             }
+        };
+    }
+
+    /**
+     * Returns the policy deciding which audio is evicted, when the cache exceeds its high
+     * watermark.
+     *
+     * @return  the eviction policy
+     */
+    public CacheEvictionPolicy getEvictionPolicy() {
+        synchronized (mOrderIndex) {
+            return mEvictionPolicy;
         }
-        return audioFileSizeInBytes;
     }
 
     /**
@@ -902,128 +3305,363 @@ public class UtteranceCacheManager {
         return mCacheSizeHighWatermark;
     }
 
+    /**
+     * Returns the low watermark of the cache, i.e. the size the cache is expired to.
+     *
+     * @return  low watermark in bytes
+     */
+    public long getCacheSizeLowWatermark() {
+        return mCacheSizeLowWatermark;
+    }
+
     /**
      * Returns overall audio file size as used on disk.
      *
      * @return Size of all audio files in cache for all utterances and all voices.
      */
-    synchronized
     public long getAudioFileSize() {
-        assertNotClosed();
-        return mCurrentCacheSize;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return mCurrentCacheSize;
+        } finally {
+            mLock.readLock().unlock();
+        }
     }
 
     /**
-     * Return the audio file size as used by given voice.
+     * Return the audio file size as used by given voice. Audio shared by several cache items is
+     * counted once.
      *
      * @param voiceName     Voice name
      * @param voiceVersion  Voice version
      *
      * @return  file size of all audio files for a voice
      */
-    synchronized
     public long getAudioFileSize(String voiceName, String voiceVersion) {
-        assertNotClosed();
-        long fileSize = 0;
-        for (CacheItem item: mUtteranceCacheBuilder.getEntriesMap().values()) {
-            for (AudioEntry entry : item.getVoiceAudioEntriesMap().values()) {
-                for (VoiceAudioDescription vad : entry.getAudioDescriptorsList()) {
-                    if (vad.getVoiceName().equals(voiceName) &&
-                        vad.getVoiceVersion().equals(voiceVersion)) {
-                        fileSize += vad.getFileSize();
-                    }
-                }
-            }
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return mAudioIndex.getStoredBytes(buildVoiceKey(voiceName, voiceVersion));
+        } finally {
+            mLock.readLock().unlock();
         }
-        return fileSize;
     }
 
     /**
-     * Return the audio file size as used by given cache item.
+     * Return the audio file size as used by given cache item. For items inside the cache, the
+     * size is taken from the ordering index and reflects the current state of the item in the
+     * cache.
      *
      * @param item  the cache item
      * @return file size of all audio files for an item
      */
-    synchronized
     public long getAudioFileSize(CacheItem item) {
+        mLock.readLock().lock();
+        try {
+            final long audioSizeOfItem;
+            synchronized (mOrderIndex) {
+                audioSizeOfItem = mOrderIndex.getAudioBytes(item.getUuid());
+            }
+            if (audioSizeOfItem >= 0) {
+                return audioSizeOfItem;
+            }
+            return computeAudioFileSize(item);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Calculates the audio file size of given cache item from its voice audio descriptions.
+     *
+     * @param item  the cache item
+     * @return file size of all audio files for an item
+     */
+    private static long computeAudioFileSize(CacheItem item) {
         long audioSizeOfItem = 0;
 
         for (AudioEntry entry: item.getVoiceAudioEntriesMap().values()) {
-            for (VoiceAudioDescription vad: entry.getAudioDescriptorsList()) {
+            for (VoiceAudioDescription vad: getStoredAudio(entry)) {
                 audioSizeOfItem += vad.getFileSize();
             }
         }
         return audioSizeOfItem;
     }
 
+    /**
+     * Returns true in case the audio of given voice audio description is stored completely in its
+     * audio store. Doesn't need any lock.
+     *
+     * @param vad   voice audio description
+     *
+     * @return  true if the audio exists and has the expected size
+     */
+    boolean isAudioStored(VoiceAudioDescription vad) {
+        return audioStoreFor(vad).contains(vad);
+    }
+
+    /**
+     * Removes the audio of given voice from a cache item, because it's missing or damaged. This
+     * is only done, if the audio entry of the item is still the same as given scanned entry, i.e.
+     * the audio hasn't been replaced meanwhile.
+     *
+     * @param uuid          uuid of the cache item
+     * @param voiceKey      voice key of the audio entry
+     * @param scannedEntry  audio entry as found by the caller
+     *
+     * @return  true in case the audio entry has been removed
+     */
+    boolean dropVoiceAudio(String uuid, String voiceKey, AudioEntry scannedEntry) {
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            final CacheItem item = applyTouch(mItems.getResident(uuid));
+            if (item == null || !scannedEntry.equals(item.getVoiceAudioEntriesMap().get(voiceKey))) {
+                return false;
+            }
+            return updateCacheItem(item.toBuilder().removeVoiceAudioEntries(voiceKey).build());
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Returns a list of all available voices inside the cache.
      *
      * @return List of available voices as list of strings.
      */
-    synchronized
     public List<String> getAvailableVoices() {
-        assertNotClosed();
-        Set<String> voicesSet = new ArraySet<>();
-        for (CacheItem item:mUtteranceCacheBuilder.getEntriesMap().values()) {
-            voicesSet.addAll(item.getVoiceAudioEntriesMap().keySet());
+        awaitLoaded();
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Set<String> voicesSet = new ArraySet<>();
+            for (CacheItem item: mItems.residentItems()) {
+                voicesSet.addAll(item.getVoiceAudioEntriesMap().keySet());
+            }
+            return new ArrayList<>(voicesSet);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Look up utterance in cache and if found, return a list of audio data, each corresponding to
+     * the phoneme list of the given utterance. Whole utterance audio is returned as a single
+     * audio data.
+     * This call increases the overall usage counter of the utterance in cache and updates the last
+     * access timestamp.
+     *
+     * @param utterance             The utterance to be looked up in the cache.
+     * @param voiceName             voice name to be used for audio
+     * @param voiceVersion          voice version
+     * @return  list of audio data in case audio was available in the cache, otherwise an empty
+     *          list in case, no audio data could be found for the given utterance or if some error
+     *          occurred while reading the audio file from file system
+     */
+    public List<byte[]> getAudioForUtterance(Utterance utterance, String voiceName, String voiceVersion) {
+        final String uuid;
+        final List<VoiceAudioDescription> vads = new ArrayList<>();
+        final List<byte[]> pendingAudio;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (!optItem.isPresent()) {
+                Log.w(LOG_TAG, "getAudioForUtterance(): no such utterance: " + utterance.getText());
+                return new ArrayList<>();
+            }
+            CacheItem itemInCache = optItem.get();
+            uuid = itemInCache.getUuid();
+            for (AudioEntry entry : itemInCache.getVoiceAudioEntriesMap().values()) {
+                for (VoiceAudioDescription vad : entry.getAudioDescriptorsList()) {
+                    if (vad.getVoiceName().equals(voiceName)
+                            && vad.getVoiceVersion().equals(voiceVersion)) {
+                        vads.add(vad);
+                    }
+                }
+            }
+            // audio not yet written by the write-behind queue. As batches are released under the
+            // write lock, each audio is found either here or in the item
+            pendingAudio = mWriteBehindQueue.getPendingAudio(uuid, buildVoiceKey(voiceName, voiceVersion));
+        } finally {
+            mLock.readLock().unlock();
+        }
+
+        // read the audio without holding the lock. If the audio is deleted concurrently, reading
+        // fails and the utterance is treated as not cached
+        List<byte[]> audioDataList = new ArrayList<>();
+        for (VoiceAudioDescription vad : vads) {
+            try {
+                audioDataList.add(readAudio(vad));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return new ArrayList<>();
+            }
+        }
+        audioDataList.addAll(pendingAudio);
+        if (! audioDataList.isEmpty()) {
+            // increases usage count and bump timestamp as well, these are persisted with the next
+            // flush
+            mLock.readLock().lock();
+            try {
+                if (!mIsClosed) {
+                    touchItem(uuid, true, true);
+                }
+            } finally {
+                mLock.readLock().unlock();
+            }
         }
-        return new ArrayList<>(voicesSet);
+        return audioDataList;
     }
 
     /**
-     * Look up utterance in cache and if found, return a list of audio data, each corresponding to
-     * the phoneme list of the given utterance.
+     * Look up utterance in cache and if its audio is available completely, open a stream for
+     * reading the audio of all its sentences without loading it into memory. This is only
+     * possible for audio stored uncompressed as PCM or kept in the in-memory tier, all other
+     * audio stored compressed needs to be decoded via getAudioForUtterance().
      * This call increases the overall usage counter of the utterance in cache and updates the last
      * access timestamp.
      *
      * @param utterance             The utterance to be looked up in the cache.
      * @param voiceName             voice name to be used for audio
      * @param voiceVersion          voice version
-     * @return  list of audio data in case audio was available in the cache, otherwise an empty
-     *          list in case, no audio data could be found for the given utterance or if some error
-     *          occurred while reading the audio file from file system
+     * @param separator             audio returned between the audio of two sentences
+     *
+     * @return  audio stream, which needs to be closed by the caller. Null in case the audio of
+     *          any sentence is missing, not yet written, stored compressed and not kept in memory
+     *          or couldn't be opened
      */
-    synchronized
-    public List<byte[]> getAudioForUtterance(Utterance utterance, String voiceName, String voiceVersion) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItem(utterance);
-        if (!optItem.isPresent()) {
-            Log.w(LOG_TAG, "getAudioForUtterance(): no such utterance: " + utterance.getText());
-            return new ArrayList<>();
+    public CachedAudioStream openAudioStream(Utterance utterance, String voiceName, String voiceVersion,
+                                             byte[] separator) {
+        final String uuid;
+        final String voiceKey = buildVoiceKey(voiceName, voiceVersion);
+        final List<VoiceAudioDescription> vads;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (!optItem.isPresent()) {
+                return null;
+            }
+            CacheItem itemInCache = optItem.get();
+            uuid = itemInCache.getUuid();
+            final AudioEntry entry = itemInCache.getVoiceAudioEntriesMap().get(voiceKey);
+            if (!hasCompleteAudio(itemInCache.getUtterance(), entry)) {
+                return null;
+            }
+            vads = entry.getAudioDescriptorsList();
+        } finally {
+            mLock.readLock().unlock();
+        }
+        final List<byte[]> memoryPcm = new ArrayList<>(vads.size());
+        for (VoiceAudioDescription vad : vads) {
+            final byte[] pcm = mMemoryCache.get(vad);
+            if (pcm == null && vad.getFormat() != AudioFormat.AUDIO_FMT_PCM) {
+                return null;
+            }
+            memoryPcm.add(pcm);
         }
 
-        List<byte[]> audioDataList = new ArrayList<>();
-        CacheItem itemInCache = optItem.get();
-        for (AudioEntry entry : itemInCache.getVoiceAudioEntriesMap().values()) {
-            for (VoiceAudioDescription vad : entry.getAudioDescriptorsList()) {
-                if (vad.getVoiceName().equals(voiceName)
-                        && vad.getVoiceVersion().equals(voiceVersion)) {
-                    try {
-                        InputStream inStream = new FileInputStream(vad.getPath());
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(vad.getFileSize());
-                        FileUtils.copyFile(inStream, outputStream);
-                        audioDataList.add(outputStream.toByteArray());
-                        inStream.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        return new ArrayList<>();
+        // open the audio without holding the lock. Once opened, the audio stays readable even if
+        // it's deleted concurrently. Audio kept in memory is read from there
+        final List<CachedAudioStream.Part> parts = new ArrayList<>();
+        try {
+            for (int i = 0; i < vads.size(); ++i) {
+                final VoiceAudioDescription vad = vads.get(i);
+                if (memoryPcm.get(i) != null) {
+                    parts.add(new CachedAudioStream.Part(ByteBuffer.wrap(memoryPcm.get(i))));
+                } else if (vad.getSegmentId() != 0) {
+                    parts.add(new CachedAudioStream.Part(mSegmentAudioStore.map(vad)));
+                } else {
+                    final FileChannel channel = FileChannel.open(new File(vad.getPath()).toPath(),
+                            StandardOpenOption.READ);
+                    parts.add(new CachedAudioStream.Part(channel, vad.getFileSize()));
+                    if (channel.size() < vad.getFileSize()) {
+                        throw new IOException("Audio file too small: " + vad.getPath());
                     }
                 }
             }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "openAudioStream(): couldn't open audio", e);
+            new CachedAudioStream(parts, separator).close();
+            return null;
         }
-        if (! audioDataList.isEmpty()) {
-            // increases usage count and bump timestamp as well
-            if (! updateCacheItem(itemInCache.toBuilder()
-                    .setUsageCount(itemInCache.getUsageCount() + 1)
-                    .setTimestamp(getCurrentTimestamp())
-                    .build())) {
-                Log.w(LOG_TAG, "getAudioForUtterance(): couldn't increase usage count for "
-                        + utterance.getText());
-                return new ArrayList<>();
+        if (mMemoryCache.getCapacity() > 0) {
+            for (byte[] pcm : memoryPcm) {
+                mMetrics.recordMemoryLookup(pcm != null);
             }
         }
-        return audioDataList;
+        mLock.readLock().lock();
+        try {
+            if (!mIsClosed) {
+                touchItem(uuid, true, true);
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+        return new CachedAudioStream(parts, separator);
+    }
+
+    /**
+     * Returns the sample rate of the cached audio of given utterance and voice. All sentences
+     * of an utterance are rendered by the same voice, i.e. with the same sample rate, and this
+     * doesn't depend on the voice currently loaded.
+     *
+     * @param utterance     the utterance to be looked up in the cache
+     * @param voiceName     voice name of the audio
+     * @param voiceVersion  voice version of the audio
+     *
+     * @return  sample rate in Hz, 0 if there is no audio of the voice for the utterance
+     */
+    public int getAudioSampleRate(Utterance utterance, String voiceName, String voiceVersion) {
+        final String voiceKey = buildVoiceKey(voiceName, voiceVersion);
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            final Optional<CacheItem> optItem = findItem(utterance);
+            if (!optItem.isPresent()) {
+                return 0;
+            }
+            final String uuid = optItem.get().getUuid();
+            final AudioEntry entry = optItem.get().getVoiceAudioEntriesMap().get(voiceKey);
+            final List<VoiceAudioDescription> vads =
+                    (entry != null) ? getStoredAudio(entry) : new ArrayList<>();
+            if (!vads.isEmpty()) {
+                return convertSampleRateToHz(vads.get(0).getRate());
+            }
+            // audio not yet written by the write-behind queue
+            final VoiceAudioDescription vad = mWriteBehindQueue.getPendingDescription(uuid, voiceKey);
+            return (vad != null) ? convertSampleRateToHz(vad.getRate()) : 0;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Converts given sample rate of a voice audio description into Hz.
+     *
+     * @param rate  sample rate
+     *
+     * @return  sample rate in Hz, 0 for an invalid sample rate
+     */
+    public static int convertSampleRateToHz(SampleRate rate) {
+        switch (rate) {
+            case SAMPLE_RATE_11KHZ:
+                return 11025;
+            case SAMPLE_RATE_16KHZ:
+                return 16000;
+            case SAMPLE_RATE_22KHZ:
+                return 22050;
+            case SAMPLE_RATE_44_1KHZ:
+                return 44100;
+            case SAMPLE_RATE_48KHZ:
+                return 48000;
+            default:
+                return 0;
+        }
     }
 
     /**
@@ -1037,16 +3675,20 @@ public class UtteranceCacheManager {
      * @param utterance utterance to be looked up in cache
      * @return usage count of utterance
      */
-    synchronized
     public long getUsageCount(Utterance utterance) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItem(utterance);
-        if (! optItem.isPresent()) {
-            Log.w(LOG_TAG, "getUsageCount(): no such utterance: "
-                    + utterance.getText());
-            return 0;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (! optItem.isPresent()) {
+                Log.w(LOG_TAG, "getUsageCount(): no such utterance: "
+                        + utterance.getText());
+                return 0;
+            }
+            return optItem.get().getUsageCount();
+        } finally {
+            mLock.readLock().unlock();
         }
-        return optItem.get().getUsageCount();
     }
 
     /**
@@ -1056,28 +3698,28 @@ public class UtteranceCacheManager {
      * @param utterance the utterance for which the usage count should be increased
      * @return  true in case the usage count has been increased, false otherwise
      */
-    synchronized
     public boolean increaseUsageCount(Utterance utterance) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItem(utterance);
-        if (! optItem.isPresent()) {
-            Log.w(LOG_TAG, "increaseUsageCount(): no such utterance: "
-                    + utterance.getText());
-            return false;
-        }
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (! optItem.isPresent()) {
+                Log.w(LOG_TAG, "increaseUsageCount(): no such utterance: "
+                        + utterance.getText());
+                return false;
+            }
 
-        CacheItem item = optItem.get();
-        if (item.getVoiceAudioEntriesCount() == 0) {
-            Log.w(LOG_TAG, "increaseUsageCount(): no audio for utterance: "
-                    + utterance.getText());
-            return false;
-        }
-        if (! updateCacheItem(item.toBuilder().setUsageCount(item.getUsageCount() + 1).build())) {
-            Log.w(LOG_TAG, "increaseUsageCount(): couldn't increase usage count for "
-                    + utterance.getText());
-            return false;
+            CacheItem item = optItem.get();
+            if (item.getVoiceAudioEntriesCount() == 0) {
+                Log.w(LOG_TAG, "increaseUsageCount(): no audio for utterance: "
+                        + utterance.getText());
+                return false;
+            }
+            touchItem(item.getUuid(), true, false);
+            return true;
+        } finally {
+            mLock.readLock().unlock();
         }
-        return true;
     }
 
     /**
@@ -1087,28 +3729,28 @@ public class UtteranceCacheManager {
      * @param utterance the utterance for which the usage count should be increased
      * @return  true in case the usage count has been increased, false otherwise
      */
-    synchronized
     public boolean updateTimestamp(Utterance utterance) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItem(utterance);
-        if (! optItem.isPresent()) {
-            Log.w(LOG_TAG, "updateTimestamp(): no such utterance: "
-                    + utterance.getText());
-            return false;
-        }
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (! optItem.isPresent()) {
+                Log.w(LOG_TAG, "updateTimestamp(): no such utterance: "
+                        + utterance.getText());
+                return false;
+            }
 
-        CacheItem item = optItem.get();
-        if (item.getVoiceAudioEntriesCount() == 0) {
-            Log.w(LOG_TAG, "updateTimestamp(): no audio for utterance: "
-                    + utterance.getText());
-            return false;
-        }
-        if (! updateCacheItem(item.toBuilder().setTimestamp(getCurrentTimestamp()).build())) {
-            Log.w(LOG_TAG, "updateTimestamp(): couldn't set timestamp for "
-                    + utterance.getText());
-            return false;
+            CacheItem item = optItem.get();
+            if (item.getVoiceAudioEntriesCount() == 0) {
+                Log.w(LOG_TAG, "updateTimestamp(): no audio for utterance: "
+                        + utterance.getText());
+                return false;
+            }
+            touchItem(item.getUuid(), false, true);
+            return true;
+        } finally {
+            mLock.readLock().unlock();
         }
-        return true;
     }
 
     /**
@@ -1120,15 +3762,20 @@ public class UtteranceCacheManager {
      * @return  audio update timestamp as milliseconds since 1.1.1970 (i.e. the epoch)
      */
     public long getTimestampMillis(Utterance utterance) {
-        assertNotClosed();
-        Optional<CacheItem> optItem = findItem(utterance);
-        if (! optItem.isPresent()) {
-            Log.w(LOG_TAG, "updateTimestamp(): no such utterance: "
-                    + utterance.getText());
-            return 0;
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            Optional<CacheItem> optItem = findItem(utterance);
+            if (! optItem.isPresent()) {
+                Log.w(LOG_TAG, "updateTimestamp(): no such utterance: "
+                        + utterance.getText());
+                return 0;
+            }
+            final Timestamp lastUsage = optItem.get().getTimestamp();
+            return lastUsage.getSeconds() * 1000 + lastUsage.getNanos() / 1000000;
+        } finally {
+            mLock.readLock().unlock();
         }
-        final Timestamp lastUsage = optItem.get().getTimestamp();
-        return lastUsage.getSeconds() * 1000 + lastUsage.getNanos() / 1000000;
     }
 
     /**
@@ -1140,18 +3787,61 @@ public class UtteranceCacheManager {
      * @return collected cache items
      */
     private List<CacheItem> collectItemsWithAudioSortedByTimestamp(long minAudioByteSize) {
+        return collectItemsWithAudio(mOrderIndex.byRecency(), minAudioByteSize);
+    }
+
+    /**
+     * Collect cache items in the given order that together try to fulfill given audio file size
+     * criterion. Only as many items as necessary are visited.
+     *
+     * @param orderedUuids      uuids of the cache items in eviction order
+     * @param minAudioByteSize  minimal byte size to reach for collected cache items
+     *
+     * @return collected cache items
+     */
+    private List<CacheItem> collectItemsWithAudio(Iterable<String> orderedUuids, long minAudioByteSize) {
         long collectedAudio = 0;
-        final List<CacheItem> allItemsSorted = getCacheItemsSortedByTimestamp();
         List<CacheItem> collectedItems = new ArrayList<>();
-        for (CacheItem item:allItemsSorted) {
-            long itemAudioFileSize = getAudioFileSize(item);
+        for (String uuid: orderedUuids) {
+            if (collectedAudio >= minAudioByteSize) {
+                break;
+            }
+            long itemAudioFileSize = mOrderIndex.getAudioBytes(uuid);
             if (itemAudioFileSize > 0) {
                 collectedAudio += itemAudioFileSize;
-                collectedItems.add(item);
+                collectedItems.add(applyTouch(mItems.getResident(uuid)));
             }
+        }
+        return collectedItems;
+    }
+
+    /**
+     * Collect cache items with audio of given voice in the given order, whose audio of the voice
+     * together tries to fulfill given audio file size criterion.
+     *
+     * @param orderedUuids      uuids of the cache items in eviction order
+     * @param voiceKey          voice key
+     * @param minAudioByteSize  minimal byte size to reach for the audio of the collected items
+     *
+     * @return collected cache items
+     */
+    private List<CacheItem> collectItemsWithVoiceAudio(Iterable<String> orderedUuids, String voiceKey,
+                                                       long minAudioByteSize) {
+        long collectedAudio = 0;
+        List<CacheItem> collectedItems = new ArrayList<>();
+        for (String uuid: orderedUuids) {
             if (collectedAudio >= minAudioByteSize) {
                 break;
             }
+            final CacheItem item = mItems.getResident(uuid);
+            final AudioEntry audioEntry = (item != null) ? item.getVoiceAudioEntriesMap().get(voiceKey) : null;
+            if (audioEntry == null) {
+                continue;
+            }
+            for (VoiceAudioDescription vad : getStoredAudio(audioEntry)) {
+                collectedAudio += vad.getFileSize();
+            }
+            collectedItems.add(applyTouch(item));
         }
         return collectedItems;
     }
@@ -1172,25 +3862,35 @@ public class UtteranceCacheManager {
      *     the returned size is equal to the given size
      *   - if the given number is negative, or if there is no audio in the cache, 0 is returned
      *
+     * Audio shared with cache items not deleted by this call is kept and doesn't count as deleted.
+     *
      * @param minAudioFileSizeToDelete  minimum size of audio files to delete from the cache
      *
      * @return number of bytes deleted
      */
-    synchronized
     public long deleteAudioSortedByTimestamp(long minAudioFileSizeToDelete) {
-        assertNotClosed();
-        long deletedAudio = 0;
-        List<CacheItem> allItemsSorted = collectItemsWithAudioSortedByTimestamp(minAudioFileSizeToDelete);
-        for (CacheItem item:allItemsSorted) {
-            long audioSizeOfItem = getAudioFileSize(item);
-            if (deleteAudioForItem(item)) {
-                deletedAudio += audioSizeOfItem;
-            }
-            if (deletedAudio >= minAudioFileSizeToDelete) {
-                break;
+        awaitLoaded();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            // audio shared with remaining items isn't deleted, only the cache size tells
+            final long cacheSizeBefore = mCurrentCacheSize;
+            List<CacheItem> allItemsSorted = collectItemsWithAudioSortedByTimestamp(minAudioFileSizeToDelete);
+            int nEvicted = 0;
+            for (CacheItem item:allItemsSorted) {
+                deleteAudioForItem(item);
+                nEvicted++;
+                if (cacheSizeBefore - mCurrentCacheSize >= minAudioFileSizeToDelete) {
+                    break;
+                }
             }
+            final long deletedAudio = cacheSizeBefore - mCurrentCacheSize;
+            mMetrics.recordEviction(UtteranceCacheMetrics.EVICTION_TIMESTAMP, nEvicted, deletedAudio);
+            compactAudioSegments();
+            return deletedAudio;
+        } finally {
+            mLock.writeLock().unlock();
         }
-        return deletedAudio;
     }
 
     /**
@@ -1209,61 +3909,397 @@ public class UtteranceCacheManager {
      *     the returned size is equal to the given size
      *   - if the given number is negative, or if there is no audio in the cache, 0 is returned
      *
+     * Audio shared with cache items not deleted by this call is kept and doesn't count as deleted.
+     *
      * @param minAudioFileSizeToDelete  minimum size of audio files to delete from the cache
      * @return number of bytes deleted
      */
-    synchronized
     public long deleteAudioSortedByUsage(long minAudioFileSizeToDelete) {
-        assertNotClosed();
-        long deletedAudio = 0;
-        final List<String> uuids = getUuidsSortedByUsage();
-        final int count = uuids.size();
-        for (int i=0; i<count; ++i) {
-            Optional<CacheItem> optItem = findItemByUuid(uuids.get(i));
-            if (optItem.isPresent()) {
-                CacheItem item = optItem.get();
-                long audioSizeOfItem = getAudioFileSize(item);
-                if (deleteAudioForItem(item)) {
-                    deletedAudio += audioSizeOfItem;
-                }
-                if (deletedAudio >= minAudioFileSizeToDelete) {
+        awaitLoaded();
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            // audio shared with remaining items isn't deleted, only the cache size tells
+            final long cacheSizeBefore = mCurrentCacheSize;
+            final List<CacheItem> items = collectItemsWithAudio(mOrderIndex.byUsage(), minAudioFileSizeToDelete);
+            int nEvicted = 0;
+            for (CacheItem item: items) {
+                deleteAudioForItem(item);
+                nEvicted++;
+                if (cacheSizeBefore - mCurrentCacheSize >= minAudioFileSizeToDelete) {
                     break;
                 }
             }
+            final long deletedAudio = cacheSizeBefore - mCurrentCacheSize;
+            mMetrics.recordEviction(UtteranceCacheMetrics.EVICTION_USAGE, nEvicted, deletedAudio);
+            compactAudioSegments();
+            return deletedAudio;
+        } finally {
+            mLock.writeLock().unlock();
         }
-        return deletedAudio;
     }
 
     /**
-     * Expire cache contents. For this operation the high and low watermarks are taken into account.
-     * In case the current cache size is less than the high watermark, nothing will be done.
-     * If it's higher than the high watermark, cache items are deleted until the audio cache size
-     * is lower or equal to the low watermark setting. Cache items are deleted starting from their
-     * oldest access timestamp.
-     */
-    private void expireCache() {
-        long currentCacheSize = getAudioFileSize();
-        if (currentCacheSize < mCacheSizeHighWatermark) {
-            // we are still fine: nothing to expire
+     * Requests the expiration of the cache, if it exceeds its high watermark or a voice exceeds
+     * its quota. The cache is expired by the eviction worker in the background, the write path
+     * calling this doesn't pay for deleting the audio. Only if the cache exceeds its hard limit,
+     * e.g. because the worker can't keep up with continuous synthesis, it's expired right away.
+     * The caller needs to hold the write lock.
+     */
+    private void requestExpiration() {
+        if (!mIsLoaded) {
+            // the cache size is only an estimate and most items are not known yet
+            return;
+        }
+        if (mCurrentCacheSize >= mCacheSizeHighWatermark) {
+            mIsExpiring = true;
+        }
+        for (Map.Entry<String, Long> entry : mAudioIndex.getStoredBytesPerVoice().entrySet()) {
+            final long quota = getVoiceQuota(entry.getKey());
+            if (quota > 0 && entry.getValue() >= quota) {
+                mExpiringVoiceKeys.add(entry.getKey());
+            }
+        }
+        if (!mIsExpiring && mExpiringVoiceKeys.isEmpty()) {
             return;
         }
-        long sizeToBeFreed = currentCacheSize - mCacheSizeLowWatermark;
-        if (sizeToBeFreed > 0) {
-            // collect uuids of cache items necessary to fulfill freed size
-            final List<CacheItem> allItemsSorted = collectItemsWithAudioSortedByTimestamp(sizeToBeFreed);
-            // bulk delete found cache items
-            for (CacheItem item: allItemsSorted) {
-                final String utteranceText = item.getUtterance().getText();
-                final String uuid = item.getUuid();
-                final String textExcerpt = uuid + " ("
-                        + utteranceText.substring(0, Math.min(8, utteranceText.length()))
-                        + " ..)";
-                if (deleteCacheItem(uuid)) {
-                    Log.i(LOG_TAG, "Expired cache item " + textExcerpt);
+        if (mCurrentCacheSize >= mCacheSizeHardLimit) {
+            Log.w(LOG_TAG, "requestExpiration(): hard limit exceeded, expiring synchronously");
+            expireCache(NO_DEADLINE);
+        } else {
+            mEvictionWorker.wake();
+        }
+    }
+
+    /**
+     * Evicts the next batch of cache items. Called by the eviction worker.
+     *
+     * @param deadlineNanos     System.nanoTime() value, after which the batch should end
+     *
+     * @return  true in case the expiration has finished
+     */
+    private boolean evictBatch(long deadlineNanos) {
+        mLock.writeLock().lock();
+        try {
+            if (mIsClosed) {
+                return true;
+            }
+            return expireCache(deadlineNanos);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true in case the current eviction batch should end, either because its deadline
+     * has passed or other threads are waiting for the lock, e.g. a running synthesis.
+     *
+     * @param deadlineNanos     System.nanoTime() value, after which the batch should end, or
+     *                          NO_DEADLINE
+     *
+     * @return  true if the batch should end
+     */
+    private boolean shouldEndBatch(long deadlineNanos) {
+        return deadlineNanos != NO_DEADLINE
+                && (System.nanoTime() - deadlineNanos >= 0 || mLock.hasQueuedThreads());
+    }
+
+    /**
+     * Expire cache contents. For this operation the high and low watermarks are taken into account.
+     * Once the cache size has exceeded the high watermark, see requestExpiration(), cache items
+     * are deleted until the audio cache size is lower or equal to the low watermark setting.
+     * Cache items are deleted in the order given by the eviction policy, see setEvictionPolicy().
+     * Pinned items within the pinned budget are kept, see setPinnedBytesBudget(). Voices
+     * exceeding their quota are expired before. The caller needs to hold the write lock.
+     *
+     * @param deadlineNanos     System.nanoTime() value, after which to stop expiring, or
+     *                          NO_DEADLINE to expire everything at once
+     *
+     * @return  true in case the expiration has finished, false if the deadline has been reached
+     *          before
+     */
+    private boolean expireCache(long deadlineNanos) {
+        boolean isFinished = expireVoicePartitions(deadlineNanos);
+        if (isFinished && mIsExpiring) {
+            isFinished = expireWatermark(deadlineNanos);
+        }
+        if (isFinished && mHasExpiredAudio) {
+            mHasExpiredAudio = false;
+            compactAudioSegments();
+        }
+        return isFinished;
+    }
+
+    /**
+     * Deletes cache items in the order given by the eviction policy, until the cache size is
+     * lower or equal to the low watermark or the deadline has been reached. The caller needs to
+     * hold the write lock.
+     *
+     * @param deadlineNanos     System.nanoTime() value, after which to stop expiring, or
+     *                          NO_DEADLINE
+     *
+     * @return  true in case the cache size has reached the low watermark or nothing is left to
+     *          expire
+     */
+    private boolean expireWatermark(long deadlineNanos) {
+        final long cacheSizeBefore = mCurrentCacheSize;
+        final long sizeToBeFreed = cacheSizeBefore - mCacheSizeLowWatermark;
+        if (sizeToBeFreed <= 0) {
+            mIsExpiring = false;
+            return true;
+        }
+        // collect uuids of cache items necessary to fulfill freed size
+        final List<CacheItem> allItemsSorted = collectItemsWithAudio(getEvictionOrder(), sizeToBeFreed);
+        int nEvicted = 0;
+        for (CacheItem item: allItemsSorted) {
+            // the collected items are resident, their text isn't read just for logging
+            final String uuid = item.getUuid();
+            mEvictionPolicy.onEvict(uuid);
+            recordExpiredAudio(item, null);
+            if (deleteCacheItem(uuid)) {
+                Log.i(LOG_TAG, "Expired cache item " + uuid);
+                nEvicted++;
+            } else {
+                Log.e(LOG_TAG, "Couldn't delete cache item " + uuid);
+            }
+            if (mCurrentCacheSize <= mCacheSizeLowWatermark || shouldEndBatch(deadlineNanos)) {
+                break;
+            }
+        }
+        mMetrics.recordEviction(UtteranceCacheMetrics.EVICTION_WATERMARK, nEvicted,
+                cacheSizeBefore - mCurrentCacheSize);
+        mHasExpiredAudio |= nEvicted > 0;
+        // nothing left to expire, e.g. only pinned items have audio
+        if (mCurrentCacheSize <= mCacheSizeLowWatermark || allItemsSorted.isEmpty()) {
+            mIsExpiring = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Expire the audio of each voice exceeding its quota, see setVoiceQuotas(). The audio of such
+     * a voice is deleted from cache items in the order given by the eviction policy, until the
+     * audio of the voice is lower or equal to its quota scaled down like the low watermark. The
+     * cache items themselves and their audio of other voices are kept. The caller needs to hold
+     * the write lock.
+     *
+     * @param deadlineNanos     System.nanoTime() value, after which to stop expiring, or
+     *                          NO_DEADLINE
+     *
+     * @return  true in case all voices are within their quotas or nothing is left to expire
+     */
+    private boolean expireVoicePartitions(long deadlineNanos) {
+        final Iterator<String> it = mExpiringVoiceKeys.iterator();
+        while (it.hasNext()) {
+            final String voiceKey = it.next();
+            final long voiceSize = mAudioIndex.getStoredBytes(voiceKey);
+            final long quota = getVoiceQuota(voiceKey);
+            final long targetSize = quota * mCacheSizeLowWatermark / mCacheSizeHighWatermark;
+            if (quota == 0 || voiceSize <= targetSize) {
+                it.remove();
+                continue;
+            }
+            final List<CacheItem> items = collectItemsWithVoiceAudio(getEvictionOrder(), voiceKey,
+                    voiceSize - targetSize);
+            if (items.isEmpty()) {
+                it.remove();
+                continue;
+            }
+            int nEvicted = 0;
+            for (CacheItem item: items) {
+                mEvictionPolicy.onEvict(item.getUuid());
+                recordExpiredAudio(item, voiceKey);
+                if (updateCacheItem(item.toBuilder().removeVoiceAudioEntries(voiceKey).build())) {
+                    nEvicted++;
                 } else {
-                    Log.e(LOG_TAG, "Couldn't delete cache item " + textExcerpt);
+                    Log.e(LOG_TAG, "Couldn't expire audio of " + voiceKey + " for " + item.getUuid());
+                }
+                // audio shared with remaining items isn't deleted, only the voice size tells
+                if (mAudioIndex.getStoredBytes(voiceKey) <= targetSize || shouldEndBatch(deadlineNanos)) {
+                    break;
                 }
             }
+            Log.i(LOG_TAG, "Expired audio of " + nEvicted + " items exceeding quota of " + voiceKey);
+            mMetrics.recordEviction(UtteranceCacheMetrics.EVICTION_QUOTA, nEvicted,
+                    voiceSize - mAudioIndex.getStoredBytes(voiceKey));
+            mHasExpiredAudio |= nEvicted > 0;
+            if (shouldEndBatch(deadlineNanos)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the audio of given item expired by the watermark or the quota expiration as ghost
+     * entries of the adaptive sizer, if enabled.
+     *
+     * @param item      the cache item, whose audio is expired
+     * @param voiceKey  voice key of the expired audio, null if the audio of all voices is expired
+     */
+    private void recordExpiredAudio(CacheItem item, String voiceKey) {
+        final AdaptiveCacheSizer sizer = mAdaptiveSizer;
+        if (sizer == null) {
+            return;
+        }
+        for (Map.Entry<String, AudioEntry> entry : item.getVoiceAudioEntriesMap().entrySet()) {
+            if (voiceKey != null && !voiceKey.equals(entry.getKey())) {
+                continue;
+            }
+            long size = 0;
+            for (VoiceAudioDescription vad : getStoredAudio(entry.getValue())) {
+                size += vad.getFileSize();
+            }
+            sizer.recordExpiration(buildGhostKey(item.getUtterance(), entry.getKey()), size);
+        }
+    }
+
+    /**
+     * Returns the key of the audio of given utterance and voice for the ghost entries of the
+     * adaptive sizer. The text hash is used instead of the text, ghost entries are kept for much
+     * more audio than the cache holds.
+     *
+     * @param utterance the utterance
+     * @param voiceKey  the voice key, see buildVoiceKey()
+     *
+     * @return  the ghost key
+     */
+    private static String buildGhostKey(Utterance utterance, String voiceKey) {
+        return Long.toHexString(getTextHash(utterance)) + "|" + voiceKey;
+    }
+
+    /**
+     * Records a lookup of the audio of given cache item for speaking it, in the metrics and in
+     * the adaptive sizer, if enabled.
+     *
+     * @param item      the cache item to speak
+     * @param voiceKey  voice key of the audio, see buildVoiceKey()
+     * @param isHit     true if the audio of all sentences is cached
+     */
+    public void recordAudioLookup(CacheItem item, String voiceKey, boolean isHit) {
+        mMetrics.recordAudioLookup(isHit);
+        final AdaptiveCacheSizer sizer = mAdaptiveSizer;
+        if (sizer != null) {
+            sizer.recordLookup(buildGhostKey(item.getUtterance(), voiceKey), isHit);
+        }
+    }
+
+    /**
+     * Enables adaptive sizing of the cache: the watermarks are adapted by adjustCacheSize(). The
+     * low watermark adapted in a previous run, persisted in the cache header, is restored right
+     * away, so that the cache isn't expired to the initial watermarks after loading.
+     *
+     * @param sizer     the adaptive sizer, null disables adaptive sizing and keeps the current
+     *                  watermarks
+     */
+    public void setAdaptiveSizer(AdaptiveCacheSizer sizer) {
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            mAdaptiveSizer = sizer;
+            if (sizer == null) {
+                return;
+            }
+            final long restoredLowWatermark = (mHeader.getLowWatermark() > 0)
+                    ? mHeader.getLowWatermark() : mCacheSizeLowWatermark;
+            setWatermarks(Math.max(sizer.getMinLowWatermark(),
+                    Math.min(sizer.getMaxLowWatermark(), restoredLowWatermark)));
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adapts the watermarks of the cache to the free storage and the working set observed since
+     * the previous call, see AdaptiveCacheSizer. A smaller low watermark expires the cache in the
+     * background. Called periodically, if adaptive sizing is enabled.
+     *
+     * @param freeStorageBytes  storage still available to the app in bytes
+     *
+     * @return  the low watermark in bytes
+     */
+    public long adjustCacheSize(long freeStorageBytes) {
+        final AdaptiveCacheSizer sizer = mAdaptiveSizer;
+        if (sizer == null || !isLoaded()) {
+            return mCacheSizeLowWatermark;
+        }
+        mLock.writeLock().lock();
+        try {
+            assertNotClosed();
+            final long lowWatermark = sizer.computeLowWatermark(mCacheSizeLowWatermark, mCurrentCacheSize,
+                    freeStorageBytes);
+            if (lowWatermark != mCacheSizeLowWatermark) {
+                Log.i(LOG_TAG, "adjustCacheSize(): low watermark " + mCacheSizeLowWatermark / 1024
+                        + " kB -> " + lowWatermark / 1024 + " kB, " + freeStorageBytes / (1024 * 1024)
+                        + " MB storage free");
+                setWatermarks(lowWatermark);
+                writeHeader();
+            }
+            return lowWatermark;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the low watermark and derives the high watermark and the hard limit from it. The
+     * cache is expired, if it exceeds the new high watermark. The caller needs to hold the write
+     * lock.
+     *
+     * @param lowWatermark  the low watermark in bytes
+     */
+    private void setWatermarks(long lowWatermark) {
+        mCacheSizeLowWatermark = lowWatermark;
+        mCacheSizeHighWatermark = Math.max(lowWatermark + 1, (long) (lowWatermark * mHighWatermarkRatio));
+        mCacheSizeHardLimit = 2 * mCacheSizeHighWatermark - mCacheSizeLowWatermark;
+        requestExpiration();
+    }
+
+    /**
+     * Returns how far the eviction worker is behind: the audio size, that still needs to be
+     * expired to reach the low watermark and the quotas of all voices.
+     *
+     * @return  size in bytes, 0 if the cache doesn't need to be expired
+     */
+    public long getEvictionBacklogBytes() {
+        mLock.readLock().lock();
+        try {
+            assertNotClosed();
+            return computeEvictionBacklog();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the audio size, that still needs to be expired. The caller needs to hold the read
+     * or the write lock.
+     *
+     * @return  size in bytes
+     */
+    private long computeEvictionBacklog() {
+        long backlog = mIsExpiring ? Math.max(0, mCurrentCacheSize - mCacheSizeLowWatermark) : 0;
+        for (String voiceKey : mExpiringVoiceKeys) {
+            final long targetSize = getVoiceQuota(voiceKey) * mCacheSizeLowWatermark / mCacheSizeHighWatermark;
+            backlog += Math.max(0, mAudioIndex.getStoredBytes(voiceKey) - targetSize);
         }
+        return backlog;
+    }
+
+    /**
+     * Notifies the cache about synthesis activity: while synthesis is active, the eviction worker
+     * pauses longer between its batches.
+     */
+    public void onSynthesisActivity() {
+        mEvictionWorker.onSynthesisActivity();
+    }
+
+    /**
+     * Blocks until the eviction worker has expired the cache down to its low watermark, e.g. for
+     * tests or before measuring the cache size.
+     */
+    public void awaitExpiration() {
+        mEvictionWorker.awaitIdle();
     }
 }
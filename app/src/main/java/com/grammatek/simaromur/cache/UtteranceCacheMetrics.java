@@ -0,0 +1,314 @@
+package com.grammatek.simaromur.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters and latency statistics of the utterance cache. Counters are accumulated since the
+ * cache manager has been created, latencies are kept for the most recent operations only.
+ * A consistent copy of all values is returned by snapshot().
+ *
+ * This class is thread-safe.
+ */
+public class UtteranceCacheMetrics {
+    // eviction policies
+    public final static String EVICTION_WATERMARK = "watermark";
+    public final static String EVICTION_TIMESTAMP = "timestamp";
+    public final static String EVICTION_USAGE = "usage";
+    public final static String EVICTION_QUOTA = "quota";
+
+    // number of most recent samples used for the latency percentiles
+    private final static int LATENCY_SAMPLES = 1024;
+
+    private long mFrontendHits = 0;
+    private long mFrontendMisses = 0;
+    private long mAudioHits = 0;
+    private long mAudioMisses = 0;
+    private long mMemoryHits = 0;
+    private long mMemoryMisses = 0;
+    private final Map<String, Long> mEvictionCounts = new HashMap<>();
+    private final Map<String, Long> mEvictionBytes = new HashMap<>();
+    private final LatencyStats mPersistLatency = new LatencyStats(LATENCY_SAMPLES);
+    private final LatencyStats mReadLatency = new LatencyStats(LATENCY_SAMPLES);
+    private final LatencyStats mWriteLatency = new LatencyStats(LATENCY_SAMPLES);
+
+    /**
+     * Latencies of the most recent operations of one kind, in microseconds.
+     */
+    static class LatencyStats {
+        private final long[] mSamples;
+        private int mNext = 0;
+        private long mCount = 0;
+
+        LatencyStats(int capacity) {
+            mSamples = new long[capacity];
+        }
+
+        void add(long micros) {
+            mSamples[mNext] = micros;
+            mNext = (mNext + 1) % mSamples.length;
+            mCount++;
+        }
+
+        /**
+         * Returns the percentiles 50, 90 and 99 and the max. of the recorded samples.
+         *
+         * @return  percentiles in microseconds, all 0 if there are no samples
+         */
+        long[] percentiles() {
+            final int n = (int) Math.min(mCount, mSamples.length);
+            if (n == 0) {
+                return new long[4];
+            }
+            final long[] sorted = Arrays.copyOf(mSamples, n);
+            Arrays.sort(sorted);
+            return new long[] {
+                    sorted[(n - 1) * 50 / 100],
+                    sorted[(n - 1) * 90 / 100],
+                    sorted[(n - 1) * 99 / 100],
+                    sorted[n - 1]
+            };
+        }
+    }
+
+    /**
+     * Immutable copy of the metrics at a point in time.
+     */
+    public static class Snapshot {
+        public final long frontendHits;
+        public final long frontendMisses;
+        public final long audioHits;
+        public final long audioMisses;
+        // lookups of audio in the in-memory tier and the size of the audio kept there
+        public final long memoryHits;
+        public final long memoryMisses;
+        public final long memoryResidentBytes;
+        // audio the eviction worker still needs to expire, i.e. how far it is behind
+        public final long evictionBacklogBytes;
+        // sorted by voice key / eviction policy
+        public final Map<String, Long> bytesPerVoice;
+        public final Map<String, Long> evictionCounts;
+        public final Map<String, Long> evictionBytes;
+        // each of percentiles 50, 90, 99 and the max. in microseconds
+        public final long[] persistLatency;
+        public final long[] readLatency;
+        public final long[] writeLatency;
+        public final long persistCount;
+        public final long readCount;
+        public final long writeCount;
+
+        Snapshot(UtteranceCacheMetrics metrics, Map<String, Long> bytesPerVoice, long memoryResidentBytes,
+                 long evictionBacklogBytes) {
+            frontendHits = metrics.mFrontendHits;
+            frontendMisses = metrics.mFrontendMisses;
+            audioHits = metrics.mAudioHits;
+            audioMisses = metrics.mAudioMisses;
+            memoryHits = metrics.mMemoryHits;
+            memoryMisses = metrics.mMemoryMisses;
+            this.memoryResidentBytes = memoryResidentBytes;
+            this.evictionBacklogBytes = evictionBacklogBytes;
+            this.bytesPerVoice = Collections.unmodifiableMap(new TreeMap<>(bytesPerVoice));
+            evictionCounts = Collections.unmodifiableMap(new TreeMap<>(metrics.mEvictionCounts));
+            evictionBytes = Collections.unmodifiableMap(new TreeMap<>(metrics.mEvictionBytes));
+            persistLatency = metrics.mPersistLatency.percentiles();
+            readLatency = metrics.mReadLatency.percentiles();
+            writeLatency = metrics.mWriteLatency.percentiles();
+            persistCount = metrics.mPersistLatency.mCount;
+            readCount = metrics.mReadLatency.mCount;
+            writeCount = metrics.mWriteLatency.mCount;
+        }
+
+        /**
+         * Returns the ratio of audio lookups, for which the audio was cached.
+         *
+         * @return  hit ratio 0.0 .. 1.0, 0.0 if there haven't been any lookups
+         */
+        public double getAudioHitRatio() {
+            final long total = audioHits + audioMisses;
+            return (total > 0) ? (double) audioHits / total : 0.0;
+        }
+
+        /**
+         * Returns the ratio of audio reads, that have been served from the in-memory tier.
+         *
+         * @return  hit ratio 0.0 .. 1.0, 0.0 if there haven't been any lookups
+         */
+        public double getMemoryHitRatio() {
+            final long total = memoryHits + memoryMisses;
+            return (total > 0) ? (double) memoryHits / total : 0.0;
+        }
+
+        /**
+         * Returns the ratio of frontend lookups, for which normalization and G2P were cached.
+         *
+         * @return  hit ratio 0.0 .. 1.0, 0.0 if there haven't been any lookups
+         */
+        public double getFrontendHitRatio() {
+            final long total = frontendHits + frontendMisses;
+            return (total > 0) ? (double) frontendHits / total : 0.0;
+        }
+
+        /**
+         * Formats the snapshot as one "name value" pair per line.
+         *
+         * @return  formatted snapshot
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("frontend_hits ").append(frontendHits).append('\n');
+            sb.append("frontend_misses ").append(frontendMisses).append('\n');
+            sb.append(String.format(Locale.ROOT, "frontend_hit_ratio %.3f\n", getFrontendHitRatio()));
+            sb.append("audio_hits ").append(audioHits).append('\n');
+            sb.append("audio_misses ").append(audioMisses).append('\n');
+            sb.append(String.format(Locale.ROOT, "audio_hit_ratio %.3f\n", getAudioHitRatio()));
+            sb.append("memory_hits ").append(memoryHits).append('\n');
+            sb.append("memory_misses ").append(memoryMisses).append('\n');
+            sb.append(String.format(Locale.ROOT, "memory_hit_ratio %.3f\n", getMemoryHitRatio()));
+            sb.append("memory_resident_bytes ").append(memoryResidentBytes).append('\n');
+            sb.append("eviction_backlog_bytes ").append(evictionBacklogBytes).append('\n');
+            for (Map.Entry<String, Long> entry : bytesPerVoice.entrySet()) {
+                sb.append("bytes{voice=").append(entry.getKey()).append("} ").append(entry.getValue()).append('\n');
+            }
+            for (Map.Entry<String, Long> entry : evictionCounts.entrySet()) {
+                sb.append("evictions{policy=").append(entry.getKey()).append("} ").append(entry.getValue()).append('\n');
+                sb.append("eviction_bytes{policy=").append(entry.getKey()).append("} ")
+                        .append(evictionBytes.getOrDefault(entry.getKey(), 0L)).append('\n');
+            }
+            appendLatency(sb, "persist", persistCount, persistLatency);
+            appendLatency(sb, "read", readCount, readLatency);
+            appendLatency(sb, "write", writeCount, writeLatency);
+            return sb.toString();
+        }
+
+        private static void appendLatency(StringBuilder sb, String name, long count, long[] percentiles) {
+            sb.append(name).append("_count ").append(count).append('\n');
+            sb.append(name).append("_us{p=50} ").append(percentiles[0]).append('\n');
+            sb.append(name).append("_us{p=90} ").append(percentiles[1]).append('\n');
+            sb.append(name).append("_us{p=99} ").append(percentiles[2]).append('\n');
+            sb.append(name).append("_us{p=100} ").append(percentiles[3]).append('\n');
+        }
+
+        /**
+         * Writes the formatted snapshot to given file, e.g. for offline analysis.
+         *
+         * @param file  destination file, is overwritten
+         *
+         * @throws IOException in case the file couldn't be written
+         */
+        public void dump(File file) throws IOException {
+            try (OutputStream outStream = new FileOutputStream(file)) {
+                outStream.write(toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Records a lookup of normalization and G2P results.
+     *
+     * @param isHit     true if the results were cached
+     */
+    synchronized
+    public void recordFrontendLookup(boolean isHit) {
+        if (isHit) {
+            mFrontendHits++;
+        } else {
+            mFrontendMisses++;
+        }
+    }
+
+    /**
+     * Records a lookup of the audio of an utterance.
+     *
+     * @param isHit     true if the audio of the whole utterance was cached
+     */
+    synchronized
+    public void recordAudioLookup(boolean isHit) {
+        if (isHit) {
+            mAudioHits++;
+        } else {
+            mAudioMisses++;
+        }
+    }
+
+    /**
+     * Records a lookup of audio in the in-memory tier.
+     *
+     * @param isHit     true if the audio was kept in memory
+     */
+    synchronized
+    public void recordMemoryLookup(boolean isHit) {
+        if (isHit) {
+            mMemoryHits++;
+        } else {
+            mMemoryMisses++;
+        }
+    }
+
+    /**
+     * Records evicted cache items.
+     *
+     * @param policy        eviction policy, one of the EVICTION_ constants
+     * @param nItems        number of evicted cache items
+     * @param freedBytes    freed audio size in bytes
+     */
+    synchronized
+    public void recordEviction(String policy, long nItems, long freedBytes) {
+        mEvictionCounts.merge(policy, nItems, Long::sum);
+        mEvictionBytes.merge(policy, freedBytes, Long::sum);
+    }
+
+    /**
+     * Records the duration of persisting cache meta data.
+     *
+     * @param startNanos    System.nanoTime() at the start of the operation
+     */
+    synchronized
+    public void recordPersist(long startNanos) {
+        mPersistLatency.add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records the duration of reading audio from the audio store.
+     *
+     * @param startNanos    System.nanoTime() at the start of the operation
+     */
+    synchronized
+    public void recordRead(long startNanos) {
+        mReadLatency.add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records the duration of writing audio into the audio store.
+     *
+     * @param startNanos    System.nanoTime() at the start of the operation
+     */
+    synchronized
+    public void recordWrite(long startNanos) {
+        mWriteLatency.add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Returns a copy of the current metrics.
+     *
+     * @param bytesPerVoice         stored audio size of each voice key
+     * @param memoryResidentBytes   size of the audio kept in the in-memory tier
+     * @param evictionBacklogBytes  size of the audio the eviction worker still needs to expire
+     *
+     * @return  metrics snapshot
+     */
+    synchronized
+    public Snapshot snapshot(Map<String, Long> bytesPerVoice, long memoryResidentBytes,
+                             long evictionBacklogBytes) {
+        return new Snapshot(this, bytesPerVoice, memoryResidentBytes, evictionBacklogBytes);
+    }
+}
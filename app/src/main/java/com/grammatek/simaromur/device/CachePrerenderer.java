@@ -0,0 +1,311 @@
+package com.grammatek.simaromur.device;
+
+import android.util.Log;
+
+import com.grammatek.simaromur.cache.AudioEntry;
+import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.UtteranceCacheManager;
+import com.grammatek.simaromur.db.Voice;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Synthesizes the audio of texts requested by client apps ahead of time, e.g. the menu labels,
+ * error prompts and numbers of an app with a fixed vocabulary, see CachePrerenderService. The
+ * cache items of these texts are pinned by the caller, so that their audio isn't evicted within
+ * the pinned budget of the cache.
+ *
+ * Requests are processed in the order they have been enqueued. Each call of prerenderStep()
+ * first runs the frontend for a limited number of texts of the requests, so that a big request
+ * doesn't occupy the calling thread for long. It then hands over the next cache items without
+ * complete audio to the TTS engine controller, which
+ * synthesizes them within a time budget. In contrast to CachePrewarmer, the device doesn't need
+ * to be idle, but synthesis requests still have priority: a running step is stopped as soon as
+ * a speak task is started and the remaining items are synthesized by the next steps. The caller
+ * is responsible for rate limiting by calling prerenderStep() periodically.
+ *
+ * This class is thread-safe.
+ */
+public class CachePrerenderer {
+    private final static String LOG_TAG = "Simaromur_" + CachePrerenderer.class.getSimpleName();
+    // max. synthesis time of one prerender step
+    public final static long DEFAULT_STEP_BUDGET_MILLIS = 3 * 1000L;
+    // max. number of cache items handed over to one prerender task
+    private final static int MAX_ITEMS_PER_STEP = 16;
+    // max. number of texts processed by the frontend in one prerender step
+    private final static int MAX_TEXTS_PER_STEP = 16;
+    // a request is dropped after this many consecutive steps without any synthesized sentence
+    private final static int MAX_STALLED_STEPS = 10;
+
+    /**
+     * The frontend preparing the texts of the requests.
+     */
+    public interface Frontend {
+        /**
+         * Executes normalization and G2P for given text, unless its cache item is already up to
+         * date, saves the results into the cache and pins the cache item.
+         *
+         * @param text  the raw text of a request
+         * @param voice the voice of the request
+         *
+         * @return  uuid of the pinned cache item, or null if the text couldn't be processed
+         */
+        String prepare(String text, Voice voice);
+    }
+
+    /**
+     * Pending request of a client app.
+     */
+    private static class Request {
+        final Voice voice;
+        // texts not yet processed by the frontend, in the requested order
+        final Deque<String> texts;
+        // uuids of the cache items without complete audio, in the requested order
+        final List<String> uuids = new ArrayList<>();
+        int nStalledSteps = 0;
+
+        Request(Voice voice, List<String> texts) {
+            this.voice = voice;
+            this.texts = new ArrayDeque<>(texts);
+        }
+    }
+
+    private final UtteranceCacheManager mCacheManager;
+    private final TTSEngineController mEngineController;
+    private final Frontend mFrontend;
+    private final long mStepBudgetMillis;
+    private final Deque<Request> mRequests = new ArrayDeque<>();
+    // request processed by the running step, null if there is none
+    private Request mStepRequest = null;
+    private Future<Integer> mPrerenderFuture = null;
+
+    // metrics, accumulated over all prerender steps
+    private long mRequestsFinished = 0;
+    private long mSentencesSynthesized = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param cacheManager      the cache manager, whose items are prerendered
+     * @param engineController  controller of the on-device TTS engines
+     * @param frontend          frontend preparing the texts of the requests
+     * @param stepBudgetMillis  max. synthesis time of one prerender step
+     */
+    public CachePrerenderer(UtteranceCacheManager cacheManager, TTSEngineController engineController,
+                            Frontend frontend, long stepBudgetMillis) {
+        mCacheManager = cacheManager;
+        mEngineController = engineController;
+        mFrontend = frontend;
+        mStepBudgetMillis = stepBudgetMillis;
+    }
+
+    /**
+     * Enqueues the texts of a client request. They are processed by the frontend and their audio
+     * is synthesized by the following prerender steps.
+     *
+     * @param voice     the on-device voice to synthesize the audio with
+     * @param texts     raw texts
+     */
+    synchronized
+    public void enqueue(Voice voice, List<String> texts) {
+        if (texts.isEmpty()) {
+            return;
+        }
+        mRequests.add(new Request(voice, texts));
+        Log.v(LOG_TAG, "enqueue(): " + texts.size() + " texts for voice " + voice.name);
+    }
+
+    /**
+     * Executes the next prerender step: prepares the next texts and starts synthesizing, if the
+     * previous step has finished. Must only be called by one thread at a time.
+     */
+    public void prerenderStep() {
+        prepareTexts();
+        startPrerenderTask();
+    }
+
+    /**
+     * Runs the frontend for the next texts of the pending requests, in the order of the requests.
+     * The frontend runs without holding the monitor, so that requests can be enqueued meanwhile.
+     */
+    private void prepareTexts() {
+        Request request = null;
+        final List<String> texts = new ArrayList<>();
+        synchronized (this) {
+            for (Request pendingRequest : mRequests) {
+                if (!pendingRequest.texts.isEmpty()) {
+                    request = pendingRequest;
+                    break;
+                }
+            }
+            while (request != null && !request.texts.isEmpty() && texts.size() < MAX_TEXTS_PER_STEP) {
+                texts.add(request.texts.poll());
+            }
+        }
+        if (request == null) {
+            return;
+        }
+        final List<String> uuids = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            try {
+                final String uuid = mFrontend.prepare(text, request.voice);
+                if (uuid != null) {
+                    uuids.add(uuid);
+                }
+            } catch (RuntimeException e) {
+                // e.g. the cache has been closed
+                Log.e(LOG_TAG, "prepareTexts(): couldn't process (\"" + text + "\")", e);
+            }
+        }
+        synchronized (this) {
+            request.uuids.addAll(uuids);
+        }
+    }
+
+    /**
+     * Hands over the next cache items to the TTS engine controller, if the previous step has
+     * finished.
+     */
+    synchronized
+    private void startPrerenderTask() {
+        try {
+            collectFinishedStep();
+            // don't swap the engine under the prewarm task of the cache prewarmer
+            if (mPrerenderFuture != null || !mCacheManager.isLoaded() || mEngineController.IsPrewarming()) {
+                return;
+            }
+            while (!mRequests.isEmpty()) {
+                final Request request = mRequests.peek();
+                final List<String> uuids = findItemsToPrerender(request);
+                if (uuids.isEmpty() && !request.texts.isEmpty()) {
+                    // waiting for the frontend
+                    return;
+                }
+                if (uuids.isEmpty() || request.nStalledSteps >= MAX_STALLED_STEPS) {
+                    if (!uuids.isEmpty()) {
+                        Log.w(LOG_TAG, "startPrerenderTask(): dropping request with "
+                                + (request.uuids.size() + request.texts.size())
+                                + " remaining items of voice " + request.voice.name);
+                    }
+                    mRequests.poll();
+                    mRequestsFinished++;
+                    continue;
+                }
+                try {
+                    mEngineController.LoadEngine(request.voice);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "startPrerenderTask(): couldn't load voice " + request.voice.name, e);
+                    mRequests.poll();
+                    mRequestsFinished++;
+                    continue;
+                }
+                // null if a speak task is running, retried by the next step
+                mPrerenderFuture = mEngineController.StartPrewarm(uuids, mStepBudgetMillis);
+                if (mPrerenderFuture != null) {
+                    mStepRequest = request;
+                    Log.v(LOG_TAG, "startPrerenderTask(): prerendering " + uuids.size() + " items");
+                }
+                return;
+            }
+        } catch (RuntimeException e) {
+            // e.g. the cache has been closed
+            Log.e(LOG_TAG, "startPrerenderTask(): prerendering aborted", e);
+        }
+    }
+
+    /**
+     * Collects the result of the previous prerender step, if it has finished.
+     */
+    private void collectFinishedStep() {
+        if (mPrerenderFuture == null || !mPrerenderFuture.isDone()) {
+            return;
+        }
+        int nSynthesized = 0;
+        try {
+            nSynthesized = mPrerenderFuture.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "collectFinishedStep(): prerender task failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mSentencesSynthesized += nSynthesized;
+        mStepRequest.nStalledSteps = (nSynthesized > 0) ? 0 : mStepRequest.nStalledSteps + 1;
+        mStepRequest = null;
+        mPrerenderFuture = null;
+    }
+
+    /**
+     * Returns the next cache items of given request, whose audio for the voice of the request is
+     * incomplete. Items with complete audio and deleted items are removed from the request.
+     *
+     * @param request   the request
+     *
+     * @return  uuids of the cache items, in the requested order
+     */
+    private List<String> findItemsToPrerender(Request request) {
+        final String voiceKey = UtteranceCacheManager.buildVoiceKey(request.voice.internalName,
+                request.voice.version);
+        final List<String> itemsToPrerender = new ArrayList<>();
+        final Iterator<String> it = request.uuids.iterator();
+        while (it.hasNext() && itemsToPrerender.size() < MAX_ITEMS_PER_STEP) {
+            final String uuid = it.next();
+            final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(uuid);
+            if (!optItem.isPresent()) {
+                it.remove();
+                continue;
+            }
+            final CacheItem item = optItem.get();
+            final AudioEntry audioEntry = item.getVoiceAudioEntriesMap().get(voiceKey);
+            final int nAudio = (audioEntry != null) ? audioEntry.getAudioDescriptorsCount() : 0;
+            if (nAudio < item.getUtterance().getPhonemesCount()) {
+                itemsToPrerender.add(uuid);
+            } else {
+                it.remove();
+            }
+        }
+        return itemsToPrerender;
+    }
+
+    /**
+     * Returns the number of texts of all pending requests, whose audio hasn't been completely
+     * synthesized yet, including texts not yet processed by the frontend.
+     *
+     * @return  number of pending texts
+     */
+    synchronized
+    public int getPendingItemCount() {
+        int nPending = 0;
+        for (Request request : mRequests) {
+            nPending += request.uuids.size() + request.texts.size();
+        }
+        return nPending;
+    }
+
+    /**
+     * Returns the number of finished requests, including dropped requests.
+     *
+     * @return  number of finished requests
+     */
+    synchronized
+    public long getRequestsFinished() {
+        return mRequestsFinished;
+    }
+
+    /**
+     * Returns the number of sentences synthesized by all finished prerender steps.
+     *
+     * @return  number of synthesized sentences
+     */
+    synchronized
+    public long getSentencesSynthesized() {
+        return mSentencesSynthesized;
+    }
+}
@@ -0,0 +1,211 @@
+package com.grammatek.simaromur.device;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.grammatek.simaromur.cache.AudioEntry;
+import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.UtteranceCacheManager;
+import com.grammatek.simaromur.db.Voice;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Synthesizes the audio of frequently used cache items ahead of time, while the device is
+ * charging and idle. This fills the cache e.g. after a voice switch or upgrade, or after the
+ * audio of a voice has been deleted.
+ *
+ * Each call of prewarmStep() selects the most used cache items without complete audio for the
+ * selected on-device voice and hands them over to the TTS engine controller, which synthesizes
+ * them within a time budget. The caller is responsible for rate limiting by calling it
+ * periodically, the ratio between the time budget and the call interval limits the CPU usage.
+ * Prewarming pauses as soon as a synthesis request arrives and resumes only after the device has
+ * been idle for a while.
+ *
+ * This class is thread-safe.
+ */
+public class CachePrewarmer {
+    private final static String LOG_TAG = "Simaromur_" + CachePrewarmer.class.getSimpleName();
+    // max. synthesis time of one prewarm step
+    public final static long DEFAULT_STEP_BUDGET_MILLIS = 5 * 1000L;
+    // time without synthesis requests, after which the device is considered idle
+    public final static long DEFAULT_MIN_IDLE_MILLIS = 5 * 60 * 1000L;
+    // only cache items used at least this often are prewarmed
+    private final static long MIN_USAGE_COUNT = 2;
+    // max. number of cache items handed over to one prewarm task
+    private final static int MAX_ITEMS_PER_STEP = 16;
+
+    private final Context mContext;
+    private final UtteranceCacheManager mCacheManager;
+    private final TTSEngineController mEngineController;
+    private final long mStepBudgetMillis;
+    private final long mMinIdleMillis;
+    private volatile long mLastRequestMillis = System.currentTimeMillis();
+    private Future<Integer> mPrewarmFuture = null;
+
+    // metrics, accumulated over all prewarm steps
+    private long mStepsStarted = 0;
+    private long mSentencesSynthesized = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param context           application context
+     * @param cacheManager      the cache manager, whose cache is prewarmed
+     * @param engineController  controller of the on-device TTS engines
+     * @param stepBudgetMillis  max. synthesis time of one prewarm step
+     * @param minIdleMillis     min. time without synthesis requests before prewarming
+     */
+    public CachePrewarmer(Context context, UtteranceCacheManager cacheManager,
+                          TTSEngineController engineController, long stepBudgetMillis, long minIdleMillis) {
+        mContext = context;
+        mCacheManager = cacheManager;
+        mEngineController = engineController;
+        mStepBudgetMillis = stepBudgetMillis;
+        mMinIdleMillis = minIdleMillis;
+    }
+
+    /**
+     * Notifies the prewarmer about a synthesis request. Running prewarming is stopped
+     * immediately, i.e. after the currently synthesized sentence.
+     */
+    public void onSynthesisRequest() {
+        mLastRequestMillis = System.currentTimeMillis();
+        mEngineController.StopPrewarm();
+    }
+
+    /**
+     * Executes the next prewarm step for given voice, if the device is charging and idle and the
+     * previous step has finished. Only on-device voices are prewarmed.
+     *
+     * @param voice     the currently selected voice, can be null
+     */
+    synchronized
+    public void prewarmStep(Voice voice) {
+        try {
+            collectFinishedStep();
+            // don't swap the engine under the prewarm task of the cache prerenderer
+            if (mPrewarmFuture != null || voice == null || !voice.type.equals(Voice.TYPE_ONNX)
+                    || !mCacheManager.isLoaded() || mEngineController.IsPrewarming() || !isDeviceIdle()) {
+                return;
+            }
+            final List<String> uuids = findItemsToPrewarm(
+                    UtteranceCacheManager.buildVoiceKey(voice.internalName, voice.version));
+            if (uuids.isEmpty()) {
+                return;
+            }
+            try {
+                mEngineController.LoadEngine(voice);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "prewarmStep(): couldn't load voice " + voice.name, e);
+                return;
+            }
+            // the device might have been used meanwhile
+            if (!isDeviceIdle()) {
+                return;
+            }
+            mPrewarmFuture = mEngineController.StartPrewarm(uuids, mStepBudgetMillis);
+            if (mPrewarmFuture != null) {
+                mStepsStarted++;
+                Log.v(LOG_TAG, "prewarmStep(): prewarming " + uuids.size() + " items");
+            }
+        } catch (RuntimeException e) {
+            // e.g. the cache has been closed
+            Log.e(LOG_TAG, "prewarmStep(): prewarming aborted", e);
+        }
+    }
+
+    /**
+     * Collects the result of the previous prewarm step, if it has finished.
+     */
+    private void collectFinishedStep() {
+        if (mPrewarmFuture == null || !mPrewarmFuture.isDone()) {
+            return;
+        }
+        try {
+            mSentencesSynthesized += mPrewarmFuture.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "collectFinishedStep(): prewarm task failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mPrewarmFuture = null;
+    }
+
+    /**
+     * Returns true in case the device is charging, the screen is off and there hasn't been any
+     * synthesis request for a while.
+     *
+     * @return  true if prewarming is allowed
+     */
+    private boolean isDeviceIdle() {
+        if (System.currentTimeMillis() - mLastRequestMillis < mMinIdleMillis) {
+            return false;
+        }
+        final Intent batteryStatus = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null || batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+        final PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        return powerManager != null && !powerManager.isInteractive();
+    }
+
+    /**
+     * Returns the most used cache items, whose audio for given voice is incomplete.
+     *
+     * @param voiceKey  voice key of the voice to prewarm
+     *
+     * @return  uuids of the cache items, most used first
+     */
+    private List<String> findItemsToPrewarm(String voiceKey) {
+        final List<String> uuids = mCacheManager.getUuidsSortedByUsage();
+        final List<String> itemsToPrewarm = new ArrayList<>();
+        for (int i = uuids.size() - 1; i >= 0 && itemsToPrewarm.size() < MAX_ITEMS_PER_STEP; --i) {
+            final Optional<CacheItem> optItem = mCacheManager.findItemByUuid(uuids.get(i));
+            if (!optItem.isPresent()) {
+                continue;
+            }
+            final CacheItem item = optItem.get();
+            if (item.getUsageCount() < MIN_USAGE_COUNT) {
+                // sorted by usage, all remaining items are used even less
+                break;
+            }
+            final AudioEntry audioEntry = item.getVoiceAudioEntriesMap().get(voiceKey);
+            final int nAudio = (audioEntry != null) ? audioEntry.getAudioDescriptorsCount() : 0;
+            if (nAudio < item.getUtterance().getPhonemesCount()) {
+                itemsToPrewarm.add(item.getUuid());
+            }
+        }
+        return itemsToPrewarm;
+    }
+
+    /**
+     * Returns the number of started prewarm steps.
+     *
+     * @return  number of started prewarm steps
+     */
+    synchronized
+    public long getStepsStarted() {
+        return mStepsStarted;
+    }
+
+    /**
+     * Returns the number of sentences synthesized by all finished prewarm steps.
+     *
+     * @return  number of synthesized sentences
+     */
+    synchronized
+    public long getSentencesSynthesized() {
+        return mSentencesSynthesized;
+    }
+}
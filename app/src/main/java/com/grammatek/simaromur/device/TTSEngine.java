@@ -22,4 +22,12 @@ public interface TTSEngine {
      * @return  Native sample rate of voice.
      */
     int GetNativeSampleRate();
+
+    /**
+     * Returns the PCM encoded silence inserted between sentences. The sample rate is the native
+     * sample rate of the voice.
+     *
+     * @return  PCM encoded silence
+     */
+    byte[] GetSentencePause();
 }
@@ -16,6 +16,7 @@ import com.grammatek.simaromur.App;
 import com.grammatek.simaromur.TTSObserver;
 import com.grammatek.simaromur.TTSRequest;
 import com.grammatek.simaromur.audio.AudioManager;
+import com.grammatek.simaromur.cache.AudioEntry;
 import com.grammatek.simaromur.cache.CacheItem;
 import com.grammatek.simaromur.cache.PhonemeEntry;
 import com.grammatek.simaromur.cache.SampleRate;
@@ -26,8 +27,11 @@ import com.grammatek.simaromur.db.Voice;
 import com.grammatek.simaromur.device.pojo.DeviceVoice;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -45,6 +49,7 @@ public class TTSEngineController {
     TTSEngine mEngine;
     final ExecutorService mExecutorService;
     Future<?> mTaskFuture;  // the currently enqueued task, might be executed by the executor service
+    PrewarmTask mPrewarmTask;   // the currently enqueued prewarm task, null if none
     TTSAudioControl mTTSAudioControl;
 
     /**
@@ -130,6 +135,7 @@ public class TTSEngineController {
             Log.v(LOG_TAG, "StartSpeak: Canceling previous task");
             mTaskFuture.cancel(true);
         }
+        StopPrewarm();
         Log.v(LOG_TAG, "StartSpeak: scheduling new SpeakTask (1)");
         SpeakTask speakTask = new SpeakTask(item.getUuid(), speed, pitch, observer, mCurrentVoice, ttsRequest);
         mTaskFuture = mExecutorService.submit(speakTask);
@@ -148,6 +154,7 @@ public class TTSEngineController {
             throw new RuntimeException(errorMsg);
         }
 
+        StopPrewarm();
         SpeakTask speakTask = new SpeakTask(observer, ttsRequest, mCurrentVoice);
         Log.v(LOG_TAG, "StartSpeak: scheduling new SpeakTask (2)");
         if ((mTaskFuture != null) && !mTaskFuture.isDone()) {
@@ -173,10 +180,190 @@ public class TTSEngineController {
         }
     }
 
+    /**
+     * Start to synthesize the missing audio of given cache items with the current voice ahead of
+     * time. The prewarm task is executed by the same executor as the speak tasks and is stopped
+     * as soon as a speak task is started or the given time budget is used up. A running sentence
+     * synthesis is finished before, its audio is saved.
+     *
+     * @param uuids         uuids of the cache items to prewarm, most important first
+     * @param budgetMillis  max. time spent for synthesis
+     *
+     * @return  future of the number of synthesized sentences, null in case no engine is loaded or
+     *          a task is still running
+     */
+    synchronized
+    public Future<Integer> StartPrewarm(List<String> uuids, long budgetMillis) {
+        if (mEngine == null || mCurrentVoice == null) {
+            Log.w(LOG_TAG, "StartPrewarm: No TTS engine loaded !");
+            return null;
+        }
+        if ((mTaskFuture != null && !mTaskFuture.isDone()) || mPrewarmTask != null) {
+            Log.v(LOG_TAG, "StartPrewarm: busy");
+            return null;
+        }
+        Log.v(LOG_TAG, "StartPrewarm: scheduling new PrewarmTask for " + uuids.size() + " items");
+        final PrewarmTask prewarmTask = new PrewarmTask(uuids, budgetMillis);
+        mPrewarmTask = prewarmTask;
+        return mExecutorService.submit(prewarmTask);
+    }
+
+    /**
+     * Stop prewarming. Ignored in case currently no prewarm task is enqueued.
+     */
+    synchronized
+    public void StopPrewarm() {
+        if (mPrewarmTask != null) {
+            Log.v(LOG_TAG, "StopPrewarm: stopping PrewarmTask");
+            mPrewarmTask.stop();
+            mPrewarmTask = null;
+        }
+    }
+
+    /**
+     * Returns true in case a prewarm task is enqueued or running.
+     *
+     * @return  true if prewarming
+     */
+    synchronized
+    public boolean IsPrewarming() {
+        return mPrewarmTask != null;
+    }
+
+    /**
+     * Called by a prewarm task, when it has finished.
+     *
+     * @param prewarmTask   the finished prewarm task
+     */
+    synchronized
+    private void onPrewarmFinished(PrewarmTask prewarmTask) {
+        if (mPrewarmTask == prewarmTask) {
+            mPrewarmTask = null;
+        }
+    }
+
     public TTSEngine getEngine() {
         return mEngine;
     }
 
+    /**
+     * Builds the voice audio description for PCM audio of the current voice.
+     *
+     * @param nBytes            size of the audio in bytes
+     * @param synthesisMillis   time needed for synthesizing the audio, 0 if unknown
+     *
+     * @return  voice audio description
+     */
+    private VoiceAudioDescription buildAudioDescription(int nBytes, long synthesisMillis) {
+        SampleRate sampleRate;
+        switch(mEngine.GetNativeSampleRate())
+        {
+            case 11025:
+                sampleRate = SAMPLE_RATE_11KHZ;
+                break;
+            case 16000:
+                sampleRate = SAMPLE_RATE_16KHZ;
+                break;
+            case 22050:
+                sampleRate = SAMPLE_RATE_22KHZ;
+                break;
+            case 44100:
+                sampleRate = SAMPLE_RATE_44_1KHZ;
+                break;
+            case 48000:
+                sampleRate = SAMPLE_RATE_48KHZ;
+                break;
+            default:
+                throw new IllegalStateException("Unknown sample rate: " + mEngine.GetNativeSampleRate());
+        }
+
+        return UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
+                sampleRate, nBytes, mCurrentVoice.InternalName, mCurrentVoice.Version, synthesisMillis);
+    }
+
+    /**
+     * Task synthesizing the missing audio of cache items ahead of time. The audio is added in
+     * sentence order, so that a speak task can continue where the prewarm task has stopped.
+     * Prewarmed audio doesn't count as usage of the cache items.
+     */
+    public class PrewarmTask implements Callable<Integer> {
+        private final String LOG_PREWARM_TASK_TAG = "Simaromur_" + PrewarmTask.class.getSimpleName();
+        private final List<String> uuids;
+        private final long budgetMillis;
+        private volatile boolean isStopped = false;
+
+        /**
+         * Constructor.
+         *
+         * @param uuids         uuids of the cache items to prewarm, most important first
+         * @param budgetMillis  max. time spent for synthesis
+         */
+        PrewarmTask(List<String> uuids, long budgetMillis) {
+            this.uuids = uuids;
+            this.budgetMillis = budgetMillis;
+        }
+
+        /**
+         * Synthesizes the missing sentences of the cache items, until all are done, the time
+         * budget is used up or the task is stopped.
+         *
+         * @return  number of synthesized sentences
+         */
+        @Override
+        public Integer call() {
+            int nSynthesized = 0;
+            try {
+                if (isStopped || mEngine == null) {
+                    return 0;
+                }
+                final long deadlineMillis = System.currentTimeMillis() + budgetMillis;
+                final UtteranceCacheManager ucm = App.getAppRepository().getUtteranceCache();
+                final VoiceAudioDescription sharedVad = buildAudioDescription(0, 0);
+                final String voiceKey = UtteranceCacheManager.buildVoiceKey(sharedVad);
+                for (String uuid : uuids) {
+                    final Optional<CacheItem> optItem = ucm.findItemByUuid(uuid);
+                    if (!optItem.isPresent()) {
+                        continue;
+                    }
+                    final Utterance utterance = optItem.get().getUtterance();
+                    final AudioEntry audioEntry = optItem.get().getVoiceAudioEntriesMap().get(voiceKey);
+                    for (int i = (audioEntry != null) ? audioEntry.getAudioDescriptorsCount() : 0;
+                         i < utterance.getPhonemesCount(); ++i) {
+                        if (isStopped || System.currentTimeMillis() >= deadlineMillis) {
+                            Log.v(LOG_PREWARM_TASK_TAG, "call(): stopped after " + nSynthesized + " sentences");
+                            return nSynthesized;
+                        }
+                        final PhonemeEntry phonemeEntry = utterance.getPhonemes(i);
+                        byte[] audioData = ucm.getSharedAudio(phonemeEntry, sharedVad);
+                        long synthesisMillis = 0;
+                        if (audioData == null) {
+                            final long startMillis = System.currentTimeMillis();
+                            audioData = mEngine.SpeakToPCM(phonemeEntry.getSymbols());
+                            synthesisMillis = System.currentTimeMillis() - startMillis;
+                            nSynthesized++;
+                        }
+                        if (audioData.length == 0 || !ucm.addAudioToCacheItem(uuid, phonemeEntry,
+                                buildAudioDescription(audioData.length, synthesisMillis), audioData, false)) {
+                            Log.w(LOG_PREWARM_TASK_TAG, "call(): couldn't add audio to cache item " + uuid);
+                            break;
+                        }
+                    }
+                }
+                Log.v(LOG_PREWARM_TASK_TAG, "call(): finished after " + nSynthesized + " sentences");
+                return nSynthesized;
+            } finally {
+                onPrewarmFinished(this);
+            }
+        }
+
+        /**
+         * Stops the prewarm task, after the currently synthesized sentence.
+         */
+        public void stop() {
+            isStopped = true;
+        }
+    }
+
     public class SpeakTask implements Runnable {
         private final String LOG_SPEAK_TASK_TAG = "Simaromur_" + SpeakTask.class.getSimpleName();
         private final TTSRequest ttsRequest;
@@ -254,7 +441,8 @@ public class TTSEngineController {
                 return;
             }
 
-            // retrieve audio from utterance cache, if available
+            // retrieve audio from utterance cache, if available. Each phoneme entry holds one
+            // sentence, only the sentences without cached audio are synthesized
             UtteranceCacheManager ucm =  App.getAppRepository().getUtteranceCache();
             final List<byte[]> audioBuffers =
                     ucm.getAudioForUtterance(item.getUtterance(), mCurrentVoice.InternalName, voice.Version);
@@ -263,26 +451,53 @@ public class TTSEngineController {
                 return;
             }
 
-            byte[] audioData;
-            PhonemeEntry phonemeEntry = null;
-            if (!audioBuffers.isEmpty()) {
-                audioData = audioBuffers.get(0);
-            } else {
-                // no audio for utterance yet
-                // TODO: optimization: could we save the phonemes directly
-                phonemeEntry = utterance.getPhonemesList().get(0);
-                audioData = synthesizeSpeech(phonemeEntry);
+            final int nSentences = utterance.getPhonemesCount();
+            final List<byte[]> sentenceAudio =
+                    new ArrayList<>(audioBuffers.subList(0, Math.min(audioBuffers.size(), nSentences)));
+            // sentences whose audio still needs to be saved into the utterance cache
+            final List<Integer> unsavedSentences = new ArrayList<>();
+            // synthesis time of each sentence, 0 for audio taken from the cache
+            final long[] synthesisMillis = new long[nSentences];
+            final VoiceAudioDescription sharedVad = buildAudioDescription(0, 0);
+            for (int i = sentenceAudio.size(); i < nSentences; ++i) {
+                final PhonemeEntry phonemeEntry = utterance.getPhonemes(i);
+                // another utterance with the same sentence might already have audio. Audio is
+                // added to the cache in sentence order, therefore shared audio is linked right
+                // away only, if no preceding sentence is waiting to be saved
+                final boolean isLinked = unsavedSentences.isEmpty();
+                byte[] audioData = isLinked
+                        ? ucm.addSharedAudioToCacheItem(item.getUuid(), phonemeEntry, sharedVad)
+                        : ucm.getSharedAudio(phonemeEntry, sharedVad);
+                if (audioData != null) {
+                    Log.v(LOG_SPEAK_TASK_TAG, "run(): reusing cached audio of sentence " + i);
+                    if (!isLinked) {
+                        unsavedSentences.add(i);
+                    }
+                } else {
+                    final long startMillis = System.currentTimeMillis();
+                    audioData = synthesizeSpeech(phonemeEntry);
+                    synthesisMillis[i] = System.currentTimeMillis() - startMillis;
+                    if ((audioData == null) || (audioData.length == 0)) {
+                        Log.w(LOG_SPEAK_TASK_TAG, "run(): No audio generated ?!");
+                        saveAudioToCacheEntries(utterance, unsavedSentences, sentenceAudio, synthesisMillis);
+                        return;
+                    }
+                    unsavedSentences.add(i);
+                }
+                sentenceAudio.add(audioData);
+                if (shouldStop()) {
+                    Log.v(LOG_SPEAK_TASK_TAG, "run(): shouldStop(3): true");
+                    // keep the audio synthesized so far
+                    saveAudioToCacheEntries(utterance, unsavedSentences, sentenceAudio, synthesisMillis);
+                    return;
+                }
             }
 
-            if ((audioData == null) || (audioData.length == 0)) {
+            final byte[] audioData = joinSentenceAudio(sentenceAudio);
+            if (audioData.length == 0) {
                 Log.w(LOG_SPEAK_TASK_TAG, "run(): No audio generated ?!");
                 return;
             }
-            if (shouldStop()) {
-                Log.v(LOG_SPEAK_TASK_TAG, "run(): shouldStop(3): true");
-                return;
-            }
-
             if (observer == null) {
                 // TODO: also the media players should stop, if item has changed:
                 //       - pass the cache item along
@@ -294,8 +509,53 @@ public class TTSEngineController {
 
             // update utterance cache with the synthesized audio. We do this only after the audio
             // have been enqueued
-            if (phonemeEntry != null) {
-                saveAudioToCacheEntry(phonemeEntry, audioData);
+            saveAudioToCacheEntries(utterance, unsavedSentences, sentenceAudio, synthesisMillis);
+        }
+
+        /**
+         * Joins the audio of all sentences of an utterance, the sentence pause of the engine is
+         * inserted between the sentences.
+         *
+         * @param sentenceAudio     PCM audio of each sentence
+         *
+         * @return  PCM audio of the whole utterance
+         */
+        private byte[] joinSentenceAudio(List<byte[]> sentenceAudio) {
+            if (sentenceAudio.size() == 1) {
+                return sentenceAudio.get(0);
+            }
+            final byte[] pause = mEngine.GetSentencePause();
+            int totalSize = 0;
+            for (byte[] pcm : sentenceAudio) {
+                totalSize += pcm.length;
+            }
+            totalSize += pause.length * Math.max(0, sentenceAudio.size() - 1);
+            ByteBuffer buffer = ByteBuffer.wrap(new byte[totalSize]);
+            for (int i = 0; i < sentenceAudio.size(); ++i) {
+                if (i > 0) {
+                    buffer.put(pause);
+                }
+                buffer.put(sentenceAudio.get(i));
+            }
+            return buffer.array();
+        }
+
+        /**
+         * Saves the audio of given sentences into the utterance cache, in sentence order.
+         *
+         * @param utterance         the spoken utterance
+         * @param sentences         indexes of the sentences to save, ascending
+         * @param sentenceAudio     PCM audio of all sentences of the utterance so far
+         * @param synthesisMillis   synthesis time of each sentence, 0 if not synthesized
+         */
+        private void saveAudioToCacheEntries(Utterance utterance, List<Integer> sentences,
+                                             List<byte[]> sentenceAudio, long[] synthesisMillis) {
+            for (int i : sentences) {
+                if (!saveAudioToCacheEntry(utterance.getPhonemes(i), sentenceAudio.get(i),
+                        synthesisMillis[i])) {
+                    // audio of the following sentences would be attached to the wrong sentence
+                    return;
+                }
             }
         }
 
@@ -318,38 +578,15 @@ public class TTSEngineController {
             return mEngine.SpeakToPCM(phonemeEntry.getSymbols());
         }
 
-        private boolean saveAudioToCacheEntry(PhonemeEntry phonemeEntry, byte[] bytes) {
-            SampleRate sampleRate;
-            switch(mEngine.GetNativeSampleRate())
-            {
-                case 11025:
-                    sampleRate = SAMPLE_RATE_11KHZ;
-                    break;
-                case 16000:
-                    sampleRate = SAMPLE_RATE_16KHZ;
-                    break;
-                case 22050:
-                    sampleRate = SAMPLE_RATE_22KHZ;
-                    break;
-                case 44100:
-                    sampleRate = SAMPLE_RATE_44_1KHZ;
-                    break;
-                case 48000:
-                    sampleRate = SAMPLE_RATE_48KHZ;
-                    break;
-                default:
-                    throw new IllegalStateException("Unknown sample rate: " + mEngine.GetNativeSampleRate());
-            }
-
-            final VoiceAudioDescription vad = UtteranceCacheManager.newAudioDescription(AUDIO_FMT_PCM,
-                    sampleRate, bytes.length, mCurrentVoice.InternalName, mCurrentVoice.Version);
+        private boolean saveAudioToCacheEntry(PhonemeEntry phonemeEntry, byte[] bytes, long synthesisMillis) {
+            final VoiceAudioDescription vad = buildAudioDescription(bytes.length, synthesisMillis);
             if (bytes.length == 0) {
                 Log.w(LOG_SPEAK_TASK_TAG, "synthesizeSpeech(): No audio generated ?!");
                 return false;
             }
             UtteranceCacheManager ucm = App.getAppRepository().getUtteranceCache();
-            if (ucm.addAudioToCacheItem(this.item.getUuid(), phonemeEntry, vad, bytes)) {
-                Log.v(LOG_SPEAK_TASK_TAG, "Cached speech audio " + this.item.getUuid());
+            if (ucm.addAudioToCacheItemAsync(this.item.getUuid(), phonemeEntry, vad, bytes)) {
+                Log.v(LOG_SPEAK_TASK_TAG, "Queued speech audio " + this.item.getUuid());
             } else {
                 Log.e(LOG_SPEAK_TASK_TAG, "Couldn't add audio to cache item " + this.item.getUuid());
                 return false;
@@ -35,7 +35,8 @@ import ai.onnxruntime.OrtSession.SessionOptions.OptLevel;
 
 public class TTSEngineOnnx  implements TTSEngine {
     private final static String LOG_TAG = "Simaromur_" + TTSEngineOnnx.class.getSimpleName();
-    private final static float SENTENCE_PAUSE = 0.5f;
+    // duration of the pause between two sentences in seconds
+    public final static float SENTENCE_PAUSE = 0.5f;
     private static DeviceVoice sVoice = null;
     // matches a position preceded by any of the characters '.!?;' not followed by zero or
     // more whitespace characters ([\\s]*) and then a double quote (\").
@@ -153,15 +154,15 @@ public class TTSEngineOnnx  implements TTSEngine {
         Instant startTime = Instant.now();
 
         List<byte[]> pcmList = new ArrayList<>();
-        List<String> sentences = new ArrayList<>();
-
-        // split ipa's to sentences by splitting at punctuation; we also need to
-        // add the punctuation symbol at the end of a split sentence
-        Collections.addAll(sentences, ipas.split(SplitPunctuationSymbols));
+        List<String> sentences = splitSentences(ipas);
+        if (sentences.isEmpty()) {
+            Log.w(LOG_TAG, "SpeakToPCM(): nothing to synthesize");
+            return new byte[0];
+        }
         long generatedPcmLength = 0;
         for (String sentence : sentences) {
-            Log.v(LOG_TAG, "VITS sentence: " + sentence.strip());
-            byte[] pcmSentence = speakSentenceToPCM(sentence.strip());
+            Log.v(LOG_TAG, "VITS sentence: " + sentence);
+            byte[] pcmSentence = speakSentenceToPCM(sentence);
             pcmList.add(pcmSentence);
             generatedPcmLength += pcmSentence.length;
             // add silence after each sentence, as the voice doesn't have any pauses
@@ -191,6 +192,30 @@ public class TTSEngineOnnx  implements TTSEngine {
         return pcm;
     }
 
+    @Override
+    public byte[] GetSentencePause() {
+        return mPauseSilence;
+    }
+
+    /**
+     * Splits given IPA phonemes into sentences at punctuation. The punctuation symbol stays at
+     * the end of each sentence, leading and trailing whitespace is removed.
+     *
+     * @param ipas  IPA phonemes of one or more sentences
+     *
+     * @return  list of sentences, empty if there are only whitespaces
+     */
+    public static List<String> splitSentences(String ipas) {
+        List<String> sentences = new ArrayList<>();
+        for (String sentence : ipas.split(SplitPunctuationSymbols)) {
+            final String stripped = sentence.strip();
+            if (!stripped.isEmpty()) {
+                sentences.add(stripped);
+            }
+        }
+        return sentences;
+    }
+
     @NonNull
     private byte[] speakSentenceToPCM(String ipas) {
         long[] ipa2VecInput = mPhoneConverter.convertToPhonemeIds(ipas);
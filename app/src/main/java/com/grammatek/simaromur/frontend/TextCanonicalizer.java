@@ -0,0 +1,147 @@
+package com.grammatek.simaromur.frontend;
+
+import java.text.Normalizer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Computes the canonical form of a raw text, which is used as the key of the utterance cache.
+ * Texts that differ only in ways that don't change the normalization and the pronunciation,
+ * e.g. by their Unicode composition, invisible characters, whitespace or repeated punctuation,
+ * have the same canonical form and therefore share their cache item.
+ *
+ * Each canonicalization step can be enabled separately:
+ *
+ *   - STEP_UNICODE: composes the text to Unicode NFC, e.g. "a" + combining acute accent to "á"
+ *   - STEP_INVISIBLE: deletes and replaces the characters, that TTSUnicodeNormalizer deletes or
+ *     replaces by a space, e.g. zero width characters and control characters
+ *   - STEP_PUNCTUATION: collapses repeated punctuation marks, e.g. "!!!" to "!" and "....." to
+ *     "..."
+ *   - STEP_WHITESPACE: collapses whitespace to single spaces and trims the text
+ *
+ * This class is thread-safe.
+ */
+public class TextCanonicalizer {
+    public final static String STEP_UNICODE = "unicode";
+    public final static String STEP_INVISIBLE = "invisible";
+    public final static String STEP_PUNCTUATION = "punctuation";
+    public final static String STEP_WHITESPACE = "whitespace";
+    // punctuation marks, whose repetitions are collapsed into one
+    private final static String COLLAPSED_PUNCTUATION = "!?,;:";
+    // max. number of consecutive dots kept, i.e. an ellipsis
+    private final static int MAX_DOTS = 3;
+
+    private final boolean mDoUnicode;
+    private final boolean mDoInvisible;
+    private final boolean mDoPunctuation;
+    private final boolean mDoWhitespace;
+
+    /**
+     * Constructor.
+     *
+     * @param steps     enabled canonicalization steps, see the STEP_ constants
+     */
+    public TextCanonicalizer(Set<String> steps) {
+        mDoUnicode = steps.contains(STEP_UNICODE);
+        mDoInvisible = steps.contains(STEP_INVISIBLE);
+        mDoPunctuation = steps.contains(STEP_PUNCTUATION);
+        mDoWhitespace = steps.contains(STEP_WHITESPACE);
+    }
+
+    /**
+     * Creates a canonicalizer from given configuration value.
+     *
+     * @param value     comma separated list of the enabled steps, "all" for all steps, "none" or
+     *                  empty for none. Unknown steps are ignored
+     *
+     * @return  the canonicalizer, or null if no step is enabled
+     */
+    public static TextCanonicalizer fromConfig(String value) {
+        final Set<String> steps = new HashSet<>();
+        for (String step : value.toLowerCase(Locale.ROOT).split(",")) {
+            step = step.trim();
+            if (step.equals("all")) {
+                steps.add(STEP_UNICODE);
+                steps.add(STEP_INVISIBLE);
+                steps.add(STEP_PUNCTUATION);
+                steps.add(STEP_WHITESPACE);
+            } else if (!step.isEmpty() && !step.equals("none")) {
+                steps.add(step);
+            }
+        }
+        final TextCanonicalizer canonicalizer = new TextCanonicalizer(steps);
+        return canonicalizer.isEnabled() ? canonicalizer : null;
+    }
+
+    /**
+     * Returns true in case any canonicalization step is enabled.
+     *
+     * @return  true if canonicalize() can modify texts
+     */
+    public boolean isEnabled() {
+        return mDoUnicode || mDoInvisible || mDoPunctuation || mDoWhitespace;
+    }
+
+    /**
+     * Returns the canonical form of given text.
+     *
+     * @param text  raw text
+     *
+     * @return  canonical text, the given instance if it's already canonical
+     */
+    public String canonicalize(String text) {
+        String canonicalText = text;
+        if (mDoUnicode && !Normalizer.isNormalized(canonicalText, Normalizer.Form.NFC)) {
+            canonicalText = Normalizer.normalize(canonicalText, Normalizer.Form.NFC);
+        }
+        if (!mDoInvisible && !mDoPunctuation && !mDoWhitespace) {
+            return canonicalText;
+        }
+        final StringBuilder sb = new StringBuilder(canonicalText.length());
+        boolean isModified = false;
+        // the space is only appended, if followed by any other character
+        boolean hasPendingSpace = false;
+        int nDots = 0;
+        for (int i = 0; i < canonicalText.length(); ++i) {
+            char c = canonicalText.charAt(i);
+            if (mDoInvisible) {
+                if (UnicodeMaps.deleteCharsMap.containsKey(c)) {
+                    isModified = true;
+                    continue;
+                }
+                if (UnicodeMaps.insertSpaceMap.containsKey(c)) {
+                    isModified = true;
+                    c = ' ';
+                }
+            }
+            if (mDoWhitespace && Character.isWhitespace(c)) {
+                if (c != ' ' || hasPendingSpace || sb.length() == 0) {
+                    isModified = true;
+                }
+                hasPendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (hasPendingSpace) {
+                sb.append(' ');
+                hasPendingSpace = false;
+                nDots = 0;
+            }
+            if (mDoPunctuation) {
+                nDots = (c == '.') ? nDots + 1 : 0;
+                final int len = sb.length();
+                if ((nDots > MAX_DOTS)
+                        || (COLLAPSED_PUNCTUATION.indexOf(c) >= 0 && len > 0 && sb.charAt(len - 1) == c)) {
+                    isModified = true;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        if (hasPendingSpace) {
+            // trailing whitespace
+            isModified = true;
+        }
+        return isModified ? sb.toString() : canonicalText;
+    }
+}
@@ -44,6 +44,7 @@ public class SpeakController implements Callback<ResponseBody> {
     private SpeakRequest mRequest;              // saved for audio parameter handling
     private CacheItem mItem;                    // the cache item to be used
     private TTSRequest mTTSRequest;             // the tts request that is being processed
+    private long mStartMillis;                  // start time of the request, i.e. of the synthesis
 
     /**
      *  Starts streaming speech audio from Network API. This call is done asynchronously and can be
@@ -64,6 +65,7 @@ public class SpeakController implements Callback<ResponseBody> {
         mCall = buildSpeakCall(request);
         mRequest = request;
         mAudioObserver = audioObserver;
+        mStartMillis = System.currentTimeMillis();
         // async request execution
         mCall.enqueue(this);
     }
@@ -222,8 +224,9 @@ public class SpeakController implements Callback<ResponseBody> {
      * Saves given speech data to appropriate cache item in the speech utterance cache. The given
      * uuid must be valid.
      *
-     * @note Currently we only support associating the data to the first phoneme entry of the cache
-     *       item.
+     * @note The network voice synthesizes the whole utterance at once, therefore the data is
+     *       associated with all phoneme entries of the cache item, see
+     *       UtteranceCacheManager.newWholeUtterancePhoneme().
      *
      * @param data  data buffer to be saved to cache
      * @param uuid  the uuid of the cache item to associate the data to
@@ -237,21 +240,27 @@ public class SpeakController implements Callback<ResponseBody> {
             if (mItem.getUuid().equals(uuid)) {
                 Utterance utterance = item.getUtterance();
                 if (utterance.getPhonemesCount() > 0) {
-                    // use first phoneme entry of the cache item
-                    PhonemeEntry phonemeEntry = utterance.getPhonemesList().get(0);
+                    // the audio covers all sentences of the cache item
+                    final boolean isWholeUtterance = utterance.getPhonemesCount() > 1;
+                    PhonemeEntry phonemeEntry = isWholeUtterance
+                            ? UtteranceCacheManager.newWholeUtterancePhoneme(utterance)
+                            : utterance.getPhonemes(0);
                     final String voiceName = mRequest.VoiceId;
                     final String version = App.getAppRepository().getVersionOfVoice(voiceName);
                     final SampleRate sampleRate = getSampleRate();
                     final AudioFormat audioFormat = getAudioFormat();
                     final VoiceAudioDescription vad =
                             UtteranceCacheManager.newAudioDescription(audioFormat, sampleRate,
-                                    data.length, voiceName, version);
+                                    data.length, voiceName, version,
+                                    System.currentTimeMillis() - mStartMillis).toBuilder()
+                                    .setWholeUtterance(isWholeUtterance)
+                                    .build();
                     if (data.length == 0) {
                         Log.w(LOG_TAG, "synthesizeSpeech(): No audio generated ?!");
                     } else {
                         UtteranceCacheManager ucm = appRepo.getUtteranceCache();
-                        if (ucm.addAudioToCacheItem(item.getUuid(), phonemeEntry, vad, data)) {
-                            Log.v(LOG_TAG, "Cached speech audio ("
+                        if (ucm.addAudioToCacheItemAsync(item.getUuid(), phonemeEntry, vad, data)) {
+                            Log.v(LOG_TAG, "Queued speech audio ("
                                     + mRequest.SampleRate + "/"
                                     + mRequest.OutputFormat + ") "
                                     + item.getUuid());
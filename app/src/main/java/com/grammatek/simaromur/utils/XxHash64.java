@@ -0,0 +1,148 @@
+package com.grammatek.simaromur.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Implementation of the non-cryptographic 64 bit hash function xxHash64. It's considerably
+ * faster than MD5 and has a good distribution, which makes it suitable for lookup keys. As it's
+ * not collision resistant, a hash match always needs to be verified against the hashed data.
+ *
+ * The results are identical to the reference implementation, see https://github.com/Cyan4973/xxHash
+ */
+public final class XxHash64 {
+    private final static long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private final static long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private final static long PRIME64_3 = 0x165667B19E3779F9L;
+    private final static long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private final static long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private XxHash64() {
+    }
+
+    /**
+     * Returns the xxHash64 with seed 0 of the UTF-8 representation of given string.
+     *
+     * @param text  the string to hash
+     *
+     * @return  64 bit hash value
+     */
+    public static long hash(String text) {
+        final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        return hash(data, 0, data.length, 0);
+    }
+
+    /**
+     * Returns the xxHash64 with seed 0 of the UTF-8 representation of given string as 16 digit
+     * hex string.
+     *
+     * @param text  the string to hash
+     *
+     * @return  hash value as lower case hex string
+     */
+    public static String hashHex(String text) {
+        return toHex(hash(text));
+    }
+
+    /**
+     * Returns given hash value as 16 digit hex string.
+     *
+     * @param hash  hash value
+     *
+     * @return  hash value as lower case hex string
+     */
+    public static String toHex(long hash) {
+        final String hex = Long.toHexString(hash);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Returns the xxHash64 of given data.
+     *
+     * @param data      data buffer
+     * @param offset    offset of the first byte to hash
+     * @param length    number of bytes to hash
+     * @param seed      hash seed
+     *
+     * @return  64 bit hash value
+     */
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        final int end = offset + length;
+        int p = offset;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + PRIME64_1 + PRIME64_2;
+            long v2 = seed + PRIME64_2;
+            long v3 = seed;
+            long v4 = seed - PRIME64_1;
+            final int limit = end - 32;
+            do {
+                v1 = round(v1, readLongLE(data, p));
+                v2 = round(v2, readLongLE(data, p + 8));
+                v3 = round(v3, readLongLE(data, p + 16));
+                v4 = round(v4, readLongLE(data, p + 24));
+                p += 32;
+            } while (p <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + PRIME64_5;
+        }
+        h += length;
+
+        while (p + 8 <= end) {
+            h ^= round(0, readLongLE(data, p));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+            p += 8;
+        }
+        if (p + 4 <= end) {
+            h ^= (readIntLE(data, p) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            p += 4;
+        }
+        while (p < end) {
+            h ^= (data[p] & 0xFF) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+            p++;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long readLongLE(byte[] data, int p) {
+        return (data[p] & 0xFFL)
+                | (data[p + 1] & 0xFFL) << 8
+                | (data[p + 2] & 0xFFL) << 16
+                | (data[p + 3] & 0xFFL) << 24
+                | (data[p + 4] & 0xFFL) << 32
+                | (data[p + 5] & 0xFFL) << 40
+                | (data[p + 6] & 0xFFL) << 48
+                | (data[p + 7] & 0xFFL) << 56;
+    }
+
+    private static int readIntLE(byte[] data, int p) {
+        return (data[p] & 0xFF)
+                | (data[p + 1] & 0xFF) << 8
+                | (data[p + 2] & 0xFF) << 16
+                | (data[p + 3] & 0xFF) << 24;
+    }
+}
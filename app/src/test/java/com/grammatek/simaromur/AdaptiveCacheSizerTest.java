@@ -0,0 +1,105 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+
+import com.grammatek.simaromur.cache.AdaptiveCacheSizer;
+
+import org.junit.Test;
+
+public class AdaptiveCacheSizerTest {
+    private static final long MB = 1024 * 1024;
+    private static final long GB = 1024 * MB;
+
+    private static AdaptiveCacheSizer newSizer(long minFreeStorageBytes) {
+        return new AdaptiveCacheSizer(16 * MB, 512 * MB, 0.1, minFreeStorageBytes);
+    }
+
+    /**
+     * Records the expiration of 100 audios of 1 MB each, "k0" is expired first.
+     */
+    private static void expireAudio(AdaptiveCacheSizer sizer) {
+        for (int i = 0; i < 100; ++i) {
+            sizer.recordExpiration("k" + i, MB);
+        }
+    }
+
+    @Test
+    public void growsByReuseDistanceOfGhostHits() {
+        final AdaptiveCacheSizer sizer = newSizer(0);
+        expireAudio(sizer);
+        // 90 hits, 10 misses of the most recently expired audio with reuse distances 1 - 10 MB
+        for (int i = 0; i < 90; ++i) {
+            sizer.recordLookup("h" + i, true);
+        }
+        for (int i = 90; i < 100; ++i) {
+            sizer.recordLookup("k" + i, false);
+        }
+        assertEquals(48 * MB + 9 * MB, sizer.computeLowWatermark(48 * MB, 48 * MB, 100 * GB));
+        // the lookups have been reset and the ghost entries hit are gone
+        assertEquals(90, sizer.getGhostCount());
+        assertEquals(57 * MB, sizer.computeLowWatermark(57 * MB, 48 * MB, 100 * GB));
+    }
+
+    @Test
+    public void keepsSizeWithoutEnoughGhostHits() {
+        final AdaptiveCacheSizer sizer = newSizer(0);
+        expireAudio(sizer);
+        // too few lookups
+        for (int i = 0; i < 10; ++i) {
+            sizer.recordLookup("k" + i, false);
+        }
+        assertEquals(48 * MB, sizer.computeLowWatermark(48 * MB, 48 * MB, 100 * GB));
+        // enough lookups, but misses of audio never cached or long expired
+        for (int i = 0; i < 1000; ++i) {
+            sizer.recordLookup("m" + i, false);
+        }
+        sizer.recordLookup("k99", false);
+        assertEquals(48 * MB, sizer.computeLowWatermark(48 * MB, 48 * MB, 100 * GB));
+    }
+
+    @Test
+    public void growsAtMostTwiceItsSize() {
+        final AdaptiveCacheSizer sizer = newSizer(0);
+        expireAudio(sizer);
+        // reuse distances 91 - 100 MB
+        for (int i = 0; i < 50; ++i) {
+            sizer.recordLookup("k" + (i % 10), false);
+        }
+        assertEquals(64 * MB, sizer.computeLowWatermark(32 * MB, 32 * MB, 100 * GB));
+    }
+
+    @Test
+    public void growthIsLimitedByStorageShare() {
+        final AdaptiveCacheSizer sizer = newSizer(0);
+        expireAudio(sizer);
+        for (int i = 0; i < 50; ++i) {
+            sizer.recordLookup("k" + (50 + i), false);
+        }
+        // 10 percent of the free storage and the cache itself
+        assertEquals(52 * MB, sizer.computeLowWatermark(48 * MB, 40 * MB, 480 * MB));
+    }
+
+    @Test
+    public void shrinksUnderStoragePressure() {
+        final AdaptiveCacheSizer sizer = newSizer(512 * MB);
+        // the storage share allows 54 MB, but 32 MB are missing to the min. free storage
+        assertEquals(60 * MB - 32 * MB, sizer.computeLowWatermark(80 * MB, 60 * MB, 480 * MB));
+        // never below the min. low watermark
+        assertEquals(16 * MB, sizer.computeLowWatermark(28 * MB, 28 * MB, 100 * MB));
+        // without pressure, the size is kept
+        assertEquals(28 * MB, sizer.computeLowWatermark(28 * MB, 28 * MB, 10 * GB));
+    }
+
+    @Test
+    public void ghostEntriesAreLimitedToMaxLowWatermark() {
+        final AdaptiveCacheSizer sizer = new AdaptiveCacheSizer(16 * MB, 64 * MB, 0.1, 0);
+        expireAudio(sizer);
+        assertEquals(64, sizer.getGhostCount());
+        assertEquals(64 * MB, sizer.getGhostBytes());
+        // the oldest ghost entries have been dropped
+        for (int i = 0; i < 50; ++i) {
+            sizer.recordLookup("k" + (i % 36), false);
+        }
+        assertEquals(48 * MB, sizer.computeLowWatermark(48 * MB, 48 * MB, 100 * GB));
+    }
+}
@@ -0,0 +1,93 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.grammatek.simaromur.cache.AudioCodec;
+import com.grammatek.simaromur.cache.AudioFormat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class AudioCodecTest {
+    private final static int SampleRate = 22050;
+
+    /**
+     * Creates 16 bit PCM audio with a mix of two sinus tones and some noise.
+     *
+     * @param nSamples  number of samples
+     * @return PCM audio buffer
+     */
+    private static byte[] createPcmAudio(int nSamples) {
+        final Random random = new Random(42);
+        byte[] pcm = new byte[2 * nSamples];
+        for (int i = 0; i < nSamples; ++i) {
+            final double t = (double) i / SampleRate;
+            int val = (int) (8000 * Math.sin(2 * Math.PI * 220 * t)
+                    + 2000 * Math.sin(2 * Math.PI * 1230 * t)
+                    + 50 * random.nextGaussian());
+            val = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, val));
+            pcm[2 * i] = (byte) val;
+            pcm[2 * i + 1] = (byte) (val >> 8);
+        }
+        return pcm;
+    }
+
+    @Test
+    public void lpcCodecIsLossless() throws IOException {
+        final AudioCodec codec = AudioCodec.forFormat(AudioFormat.AUDIO_FMT_PCM_LPC);
+        for (int nSamples: new int[]{0, 1, 3, 4095, 4096, 4097, 3 * SampleRate}) {
+            final byte[] pcm = createPcmAudio(nSamples);
+            final byte[] encoded = codec.encode(pcm);
+            assertArrayEquals(pcm, codec.decode(encoded));
+        }
+        // odd PCM length is preserved as well
+        final byte[] oddPcm = new byte[]{1, 2, 3};
+        assertArrayEquals(oddPcm, codec.decode(codec.encode(oddPcm)));
+    }
+
+    @Test
+    public void lpcCodecCompresses() {
+        final AudioCodec codec = AudioCodec.forFormat(AudioFormat.AUDIO_FMT_PCM_LPC);
+        final byte[] pcm = createPcmAudio(3 * SampleRate);
+        assertTrue(codec.encode(pcm).length < pcm.length * 3 / 4);
+    }
+
+    @Test
+    public void adpcmCodecRoundTrip() throws IOException {
+        final AudioCodec codec = AudioCodec.forFormat(AudioFormat.AUDIO_FMT_IMA_ADPCM);
+        final byte[] pcm = createPcmAudio(3 * SampleRate);
+        final byte[] encoded = codec.encode(pcm);
+        assertTrue(encoded.length < pcm.length / 3);
+        final byte[] decoded = codec.decode(encoded);
+        assertEquals(pcm.length, decoded.length);
+
+        // the signal to noise ratio of the decoded audio should be reasonable
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < pcm.length; i += 2) {
+            final int x = (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8));
+            final int y = (short) ((decoded[i] & 0xff) | (decoded[i + 1] << 8));
+            signal += (double) x * x;
+            noise += (double) (x - y) * (x - y);
+        }
+        assertTrue(10 * Math.log10(signal / noise) > 20);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedAudioIsDetected() throws IOException {
+        final AudioCodec codec = AudioCodec.forFormat(AudioFormat.AUDIO_FMT_PCM_LPC);
+        final byte[] encoded = codec.encode(createPcmAudio(1000));
+        codec.decode(java.util.Arrays.copyOf(encoded, encoded.length / 2));
+    }
+
+    @Test
+    public void uncompressedFormatsHaveNoCodec() {
+        assertNull(AudioCodec.forFormat(AudioFormat.AUDIO_FMT_PCM));
+        assertNull(AudioCodec.forFormat(AudioFormat.AUDIO_FMT_MP3));
+    }
+}
@@ -0,0 +1,92 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.grammatek.simaromur.cache.AudioFormat;
+import com.grammatek.simaromur.cache.AudioReferenceIndex;
+import com.grammatek.simaromur.cache.PhonemeEntry;
+import com.grammatek.simaromur.cache.SampleRate;
+import com.grammatek.simaromur.cache.VoiceAudioDescription;
+import com.grammatek.simaromur.utils.XxHash64;
+
+import org.junit.Test;
+
+public class AudioReferenceIndexTest {
+    private static PhonemeEntry phonemes(String symbols) {
+        return PhonemeEntry.newBuilder().setSymbols(symbols).setHash(XxHash64.hash(symbols)).build();
+    }
+
+    private static VoiceAudioDescription audio(AudioFormat format, String path, int fileSize) {
+        return VoiceAudioDescription.newBuilder()
+                .setFormat(format)
+                .setRate(SampleRate.SAMPLE_RATE_22KHZ)
+                .setVoiceName("Alfur")
+                .setVoiceVersion("1")
+                .setPath(path)
+                .setFileSize(fileSize)
+                .build();
+    }
+
+    @Test
+    public void sharedAudioIsCountedAndReleasedOnce() {
+        final AudioReferenceIndex index = new AudioReferenceIndex();
+        final PhonemeEntry phonemeEntry = phonemes("n i: s k I l a p O D");
+        final VoiceAudioDescription vad = audio(AudioFormat.AUDIO_FMT_PCM, "/cache/a.pcm", 1000);
+
+        assertTrue(index.addReference(phonemeEntry, vad));
+        assertFalse(index.addReference(phonemeEntry, vad));
+        assertEquals(2, index.getRefCount(vad));
+        assertEquals(1000, index.getStoredBytes());
+        assertEquals(vad, index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_PCM, "", 0)));
+
+        assertFalse(index.removeReference(vad));
+        assertEquals(vad, index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_PCM, "", 0)));
+        assertTrue(index.removeReference(vad));
+        assertFalse(index.contains(vad));
+        assertEquals(0, index.getStoredBytes());
+        assertNull(index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_PCM, "", 0)));
+        // unknown audio is never reported for deletion
+        assertFalse(index.removeReference(vad));
+    }
+
+    @Test
+    public void findMatchesVoiceRateAndPhonemes() {
+        final AudioReferenceIndex index = new AudioReferenceIndex();
+        final PhonemeEntry phonemeEntry = phonemes("h a l o");
+        // compressed PCM is decoded on read and can be shared for PCM requests
+        final VoiceAudioDescription vad = audio(AudioFormat.AUDIO_FMT_PCM_LPC, "/cache/b.lpc", 500);
+        index.addReference(phonemeEntry, vad);
+
+        assertEquals(vad, index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_PCM, "", 0)));
+        assertNull(index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_MP3, "", 0)));
+        assertNull(index.find(phonemes("h a l o:"), audio(AudioFormat.AUDIO_FMT_PCM, "", 0)));
+        assertNull(index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_PCM, "", 0).toBuilder()
+                .setVoiceVersion("2").build()));
+        assertNull(index.find(phonemeEntry, audio(AudioFormat.AUDIO_FMT_PCM, "", 0).toBuilder()
+                .setRate(SampleRate.SAMPLE_RATE_16KHZ).build()));
+        // a hash collision must not return audio of different phonemes
+        final PhonemeEntry colliding = PhonemeEntry.newBuilder().setSymbols("b l a")
+                .setHash(phonemeEntry.getHash()).build();
+        assertNull(index.find(colliding, audio(AudioFormat.AUDIO_FMT_PCM, "", 0)));
+    }
+
+    @Test
+    public void audioWithoutPhonemesIsOnlyReferenceCounted() {
+        final AudioReferenceIndex index = new AudioReferenceIndex();
+        final VoiceAudioDescription segmentVad = audio(AudioFormat.AUDIO_FMT_PCM, "/cache/seg_1.seg", 300)
+                .toBuilder().setSegmentId(1).setSegmentOffset(4096).build();
+        final VoiceAudioDescription otherSegmentVad = segmentVad.toBuilder().setSegmentOffset(0).build();
+        assertTrue(index.addReference(null, segmentVad));
+        assertTrue(index.addReference(null, otherSegmentVad));
+        assertEquals(2, index.size());
+        assertEquals(600, index.getStoredBytes());
+        assertTrue(index.removeReference(segmentVad));
+        assertTrue(index.contains(otherSegmentVad));
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, index.getStoredBytes());
+    }
+}
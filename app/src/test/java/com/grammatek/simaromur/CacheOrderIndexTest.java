@@ -0,0 +1,137 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.grammatek.simaromur.cache.CacheOrderIndex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CacheOrderIndexTest {
+    private final CacheOrderIndex mIndex = new CacheOrderIndex();
+
+    private static List<String> toList(Iterable<String> uuids) {
+        final List<String> list = new ArrayList<>();
+        uuids.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    public void ordersByRecencyAndUsage() {
+        mIndex.put("a", 3, 1000, 10);
+        mIndex.put("b", 1, 3000, 20);
+        mIndex.put("c", 2, 2000, 30);
+        assertEquals(List.of("a", "c", "b"), toList(mIndex.byRecency()));
+        assertEquals(List.of("b", "c", "a"), toList(mIndex.byUsage()));
+        assertEquals(3, mIndex.size());
+        assertEquals(60, mIndex.getTotalAudioBytes());
+        assertEquals(30, mIndex.getAudioBytes("c"));
+        assertEquals(2, mIndex.getUsageCount("c"));
+        assertEquals(-1, mIndex.getAudioBytes("unknown"));
+        assertEquals(-1, mIndex.getUsageCount("unknown"));
+    }
+
+    @Test
+    public void promotesAndDemotesUsage() {
+        mIndex.put("a", 1, 1000, 10);
+        mIndex.put("b", 2, 2000, 10);
+        mIndex.put("c", 3, 3000, 10);
+        // promote past the other buckets, the emptied bucket is dropped
+        mIndex.touch("a", 4, 1000);
+        assertEquals(List.of("b", "c", "a"), toList(mIndex.byUsage()));
+        // demote, e.g. by an imported or restored usage count
+        mIndex.touch("c", 1, 3000);
+        assertEquals(List.of("c", "b", "a"), toList(mIndex.byUsage()));
+        // into a new bucket between existing ones
+        mIndex.touch("a", 2, 1000);
+        assertEquals(List.of("c", "b", "a"), toList(mIndex.byUsage()));
+        mIndex.touch("b", 5, 2000);
+        assertEquals(List.of("c", "a", "b"), toList(mIndex.byUsage()));
+        // the recency order is unaffected
+        assertEquals(List.of("a", "b", "c"), toList(mIndex.byRecency()));
+    }
+
+    @Test
+    public void tiesKeepOrderOfEnteringTheBucket() {
+        mIndex.put("a", 1, 1000, 10);
+        mIndex.put("b", 1, 2000, 10);
+        mIndex.put("c", 2, 3000, 10);
+        mIndex.put("d", 1, 4000, 10);
+        assertEquals(List.of("a", "b", "d", "c"), toList(mIndex.byUsage()));
+        // entering a bucket appends to it
+        mIndex.touch("a", 2, 5000);
+        assertEquals(List.of("b", "d", "c", "a"), toList(mIndex.byUsage()));
+        mIndex.touch("b", 2, 6000);
+        assertEquals(List.of("d", "c", "a", "b"), toList(mIndex.byUsage()));
+        // equal timestamps keep the order of insertion
+        mIndex.put("e", 1, 6000, 10);
+        assertEquals(List.of("c", "d", "a", "b", "e"), toList(mIndex.byRecency()));
+    }
+
+    @Test
+    public void removesHeadAndTail() {
+        mIndex.put("a", 1, 1000, 10);
+        mIndex.put("b", 2, 2000, 20);
+        mIndex.put("c", 3, 3000, 30);
+        mIndex.put("d", 3, 4000, 40);
+
+        mIndex.remove("a");
+        assertEquals(List.of("b", "c", "d"), toList(mIndex.byRecency()));
+        assertEquals(List.of("b", "c", "d"), toList(mIndex.byUsage()));
+        mIndex.remove("d");
+        assertEquals(List.of("b", "c"), toList(mIndex.byRecency()));
+        assertEquals(List.of("b", "c"), toList(mIndex.byUsage()));
+        assertEquals(50, mIndex.getTotalAudioBytes());
+        // removing unknown items doesn't do anything
+        mIndex.remove("a");
+        assertEquals(2, mIndex.size());
+
+        mIndex.remove("b");
+        mIndex.remove("c");
+        assertEquals(0, mIndex.size());
+        assertEquals(0, mIndex.getTotalAudioBytes());
+        assertFalse(mIndex.byRecency().iterator().hasNext());
+        assertFalse(mIndex.byUsage().iterator().hasNext());
+        // the index is usable again after being emptied
+        mIndex.put("e", 1, 5000, 50);
+        assertEquals(List.of("e"), toList(mIndex.byRecency()));
+        assertEquals(List.of("e"), toList(mIndex.byUsage()));
+    }
+
+    @Test
+    public void retouchedEntriesMoveToTheTail() {
+        mIndex.put("a", 1, 1000, 10);
+        mIndex.put("b", 1, 2000, 10);
+        mIndex.put("c", 1, 3000, 10);
+        mIndex.touch("a", 2, 4000);
+        assertEquals(List.of("b", "c", "a"), toList(mIndex.byRecency()));
+        mIndex.touch("c", 2, 5000);
+        mIndex.touch("a", 3, 6000);
+        assertEquals(List.of("b", "c", "a"), toList(mIndex.byRecency()));
+        assertEquals(List.of("b", "c", "a"), toList(mIndex.byUsage()));
+        // an older timestamp, e.g. of a merged item, is sorted into the list
+        mIndex.touch("a", 3, 2500);
+        assertEquals(List.of("b", "a", "c"), toList(mIndex.byRecency()));
+        // touching unknown items doesn't add them
+        mIndex.touch("unknown", 1, 7000);
+        assertEquals(3, mIndex.size());
+    }
+
+    @Test
+    public void updatesAudioSize() {
+        mIndex.put("a", 1, 1000, 10);
+        mIndex.put("b", 1, 2000, 20);
+        mIndex.put("a", 1, 1000, 5);
+        mIndex.touch("b", 2, 3000);
+        assertEquals(5, mIndex.getAudioBytes("a"));
+        assertEquals(20, mIndex.getAudioBytes("b"));
+        assertEquals(25, mIndex.getTotalAudioBytes());
+        mIndex.clear();
+        assertEquals(0, mIndex.size());
+        assertEquals(0, mIndex.getTotalAudioBytes());
+        assertFalse(mIndex.byRecency().iterator().hasNext());
+    }
+}
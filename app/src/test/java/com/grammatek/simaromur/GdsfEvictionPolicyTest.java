@@ -0,0 +1,101 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.grammatek.simaromur.cache.AudioEntry;
+import com.grammatek.simaromur.cache.AudioFormat;
+import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.CacheOrderIndex;
+import com.grammatek.simaromur.cache.GdsfEvictionPolicy;
+import com.grammatek.simaromur.cache.LruEvictionPolicy;
+import com.grammatek.simaromur.cache.SampleRate;
+import com.grammatek.simaromur.cache.VoiceAudioDescription;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class GdsfEvictionPolicyTest {
+    private final CacheOrderIndex mOrderIndex = new CacheOrderIndex();
+    private final Map<String, CacheItem> mItems = new HashMap<>();
+
+    private void putItem(String uuid, int usageCount, long timestampMillis, int fileSize, int synthesisMillis) {
+        final VoiceAudioDescription vad = VoiceAudioDescription.newBuilder()
+                .setFormat(AudioFormat.AUDIO_FMT_PCM)
+                .setRate(SampleRate.SAMPLE_RATE_22KHZ)
+                .setVoiceName("Alfur")
+                .setVoiceVersion("1")
+                .setPath("/cache/" + uuid + ".pcm")
+                .setFileSize(fileSize)
+                .setSynthesisMillis(synthesisMillis)
+                .build();
+        final CacheItem item = CacheItem.newBuilder()
+                .setUuid(uuid)
+                .setUsageCount(usageCount)
+                .putVoiceAudioEntries("Alfur:1", AudioEntry.newBuilder().addAudioDescriptors(vad).build())
+                .build();
+        mItems.put(uuid, item);
+        mOrderIndex.put(uuid, usageCount, timestampMillis, fileSize);
+    }
+
+    private static List<String> toList(Iterable<String> uuids) {
+        final List<String> list = new ArrayList<>();
+        uuids.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    public void cheapAudioIsEvictedBeforeExpensiveAudio() {
+        // the expensive paragraph is the least recently used item
+        putItem("paragraph", 1, 1000, 880000, 8000);
+        putItem("word", 1, 2000, 8800, 40);
+        putItem("sentence", 1, 3000, 88000, 200);
+
+        assertEquals(List.of("paragraph", "word", "sentence"),
+                toList(new LruEvictionPolicy().evictionOrder(mOrderIndex, mItems)));
+        assertEquals(List.of("sentence", "word", "paragraph"),
+                toList(new GdsfEvictionPolicy().evictionOrder(mOrderIndex, mItems)));
+    }
+
+    @Test
+    public void frequentlyUsedAudioIsKept() {
+        putItem("rare", 1, 1000, 10000, 100);
+        putItem("frequent", 20, 1000, 10000, 10);
+
+        assertEquals(List.of("rare", "frequent"),
+                toList(new GdsfEvictionPolicy().evictionOrder(mOrderIndex, mItems)));
+    }
+
+    @Test
+    public void unusedAudioAgesAfterEvictions() {
+        final GdsfEvictionPolicy policy = new GdsfEvictionPolicy();
+        putItem("expensive", 1, 1000, 10000, 300);
+        putItem("cheap", 1, 2000, 10000, 100);
+        assertEquals(List.of("cheap", "expensive"), toList(policy.evictionOrder(mOrderIndex, mItems)));
+
+        // evicting raises the inflation value, audio used afterwards is worth more than
+        // slightly more expensive audio, that hasn't been used since
+        policy.onEvict("cheap");
+        policy.onRemove("cheap");
+        mItems.remove("cheap");
+        mOrderIndex.remove("cheap");
+        assertTrue(policy.getInflation() > 0.0);
+        putItem("used", 1, 3000, 10000, 250);
+        assertEquals(List.of("used", "expensive"), toList(new GdsfEvictionPolicy().evictionOrder(mOrderIndex, mItems)));
+        policy.onAccess("used");
+        assertEquals(List.of("expensive", "used"), toList(policy.evictionOrder(mOrderIndex, mItems)));
+    }
+
+    @Test
+    public void unknownCostIsEstimatedFromSize() {
+        putItem("unknown", 1, 1000, 10240, 0);
+        putItem("measured", 1, 2000, 10240, 6000);
+
+        assertEquals(List.of("unknown", "measured"),
+                toList(new GdsfEvictionPolicy().evictionOrder(mOrderIndex, mItems)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.grammatek.simaromur.cache.AudioFormat;
+import com.grammatek.simaromur.cache.PcmMemoryCache;
+import com.grammatek.simaromur.cache.SampleRate;
+import com.grammatek.simaromur.cache.VoiceAudioDescription;
+
+import org.junit.Test;
+
+public class PcmMemoryCacheTest {
+    private static VoiceAudioDescription audio(String voiceName, String path, int segmentId, long offset) {
+        return VoiceAudioDescription.newBuilder()
+                .setFormat(AudioFormat.AUDIO_FMT_PCM_LPC)
+                .setRate(SampleRate.SAMPLE_RATE_22KHZ)
+                .setVoiceName(voiceName)
+                .setVoiceVersion("1")
+                .setPath(path)
+                .setSegmentId(segmentId)
+                .setSegmentOffset(offset)
+                .build();
+    }
+
+    @Test
+    public void leastRecentlyUsedAudioIsDropped() {
+        final PcmMemoryCache cache = new PcmMemoryCache(8000);
+        final VoiceAudioDescription vad1 = audio("Alfur", "/cache/seg-1", 1, 0);
+        final VoiceAudioDescription vad2 = audio("Alfur", "/cache/seg-1", 1, 1000);
+        final VoiceAudioDescription vad3 = audio("Alfur", "/cache/seg-1", 1, 2000);
+        final byte[] pcm1 = new byte[1000];
+        final byte[] pcm2 = new byte[1000];
+        cache.put(vad1, pcm1);
+        cache.put(vad2, pcm2);
+        assertSame(pcm1, cache.get(vad1));
+        assertEquals(2000, cache.getResidentBytes());
+
+        // the capacity is exceeded: vad2 is the least recently used audio
+        cache.setCapacity(2100);
+        cache.put(vad3, new byte[200]);
+        assertNull(cache.get(vad2));
+        assertSame(pcm1, cache.get(vad1));
+        assertEquals(1200, cache.getResidentBytes());
+    }
+
+    @Test
+    public void keysAreVoiceAndLocation() {
+        final PcmMemoryCache cache = new PcmMemoryCache(80000);
+        final VoiceAudioDescription vad = audio("Alfur", "/cache/a.lpc", 0, 0);
+        cache.put(vad, new byte[1000]);
+        assertNull(cache.get(audio("Dilja", "/cache/a.lpc", 0, 0)));
+        assertNull(cache.get(audio("Alfur", "/cache/seg-1", 1, 0)));
+
+        final VoiceAudioDescription relocatedVad = audio("Alfur", "/cache/seg-2", 2, 4000);
+        cache.relocate(vad, relocatedVad);
+        assertNull(cache.get(vad));
+        assertEquals(1000, cache.get(relocatedVad).length);
+        cache.remove(relocatedVad);
+        assertEquals(0, cache.getResidentBytes());
+    }
+
+    @Test
+    public void tooBigOrDisabledAudioIsNotKept() {
+        final PcmMemoryCache cache = new PcmMemoryCache(8000);
+        final VoiceAudioDescription vad = audio("Alfur", "/cache/a.lpc", 0, 0);
+        cache.put(vad, new byte[4000]);
+        assertNull(cache.get(vad));
+
+        cache.put(vad, new byte[500]);
+        cache.setCapacity(0);
+        assertNull(cache.get(vad));
+        cache.put(vad, new byte[500]);
+        assertEquals(0, cache.getResidentBytes());
+    }
+}
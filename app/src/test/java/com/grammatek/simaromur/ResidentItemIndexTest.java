@@ -0,0 +1,300 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.grammatek.simaromur.cache.AudioEntry;
+import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.PhonemeEntry;
+import com.grammatek.simaromur.cache.ResidentItemIndex;
+import com.grammatek.simaromur.cache.UtteranceBodyStore;
+import com.grammatek.simaromur.cache.UtteranceCache;
+import com.grammatek.simaromur.cache.UtteranceCacheManager;
+import com.grammatek.simaromur.cache.Utterance;
+import com.grammatek.simaromur.cache.VoiceAudioDescription;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ResidentItemIndexTest {
+    private static final String VOICE_KEY = "Alfur:v1";
+    private File mDir;
+    private String mBodiesPath;
+    private UtteranceBodyStore mBodyStore;
+    private ResidentItemIndex mIndex;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("bodies", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        mBodiesPath = new File(mDir, "utterance_cache.pb.bodies").getPath();
+        mBodyStore = new UtteranceBodyStore(mBodiesPath, 0, 4);
+        mIndex = new ResidentItemIndex(mBodyStore);
+    }
+
+    @After
+    public void tearDown() {
+        mBodyStore.close();
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(mDir.delete());
+    }
+
+    /**
+     * Returns a cache item like created by speak requests: a sentence with its normalization,
+     * three phoneme entries and audio of one voice for each of them, packed into segment files.
+     */
+    private static CacheItem newItem(int i) {
+        final String text = "Þetta er setning númer " + i + " sem var lesin upp af talgervlinum í gær.";
+        final Utterance.Builder utterance = Utterance.newBuilder()
+                .setText(text)
+                .setNormalized("þetta er setning númer " + i + " sem var lesin upp af talgervlinum í gær")
+                .setCanonicalText(text.toLowerCase())
+                .setTextHash(1000L + i)
+                .setFrontendVersion("1.2.0");
+        final AudioEntry.Builder audio = AudioEntry.newBuilder();
+        for (int j = 0; j < 3; ++j) {
+            final String symbols = "T E t a E r s E i n k k 9 y: m E r " + i + " " + j;
+            utterance.addPhonemes(PhonemeEntry.newBuilder().setSymbols(symbols).setHash(31L * i + j));
+            audio.addAudioDescriptors(VoiceAudioDescription.newBuilder()
+                    .setVoiceName("Alfur")
+                    .setVoiceVersion("v1")
+                    // the strings of resident items are shared, even if read from different messages
+                    .setPath(new String("/data/voice_cache/segment_" + (i / 100)))
+                    .setFileSize(20000 + i)
+                    .setSegmentId(1 + i / 100)
+                    .setSegmentOffset(20000L * (i % 100)));
+        }
+        return CacheItem.newBuilder()
+                .setUuid("uuid-" + i)
+                .setUtterance(utterance)
+                .putVoiceAudioEntries(VOICE_KEY, audio.build())
+                .setUsageCount(i % 7)
+                .build();
+    }
+
+    /**
+     * Returns the item with given uuid including its body, like the cache manager reads it.
+     */
+    private CacheItem readItem(String uuid) throws IOException {
+        final CacheItem residentItem = mIndex.getResident(uuid);
+        final Long location = mIndex.getBodyLocation(uuid);
+        if (residentItem == null || location == null) {
+            return residentItem;
+        }
+        return residentItem.toBuilder().setUtterance(mBodyStore.read(location)).build();
+    }
+
+    @Test
+    public void restoresCompleteItems() throws IOException {
+        for (int i = 0; i < 10; ++i) {
+            final CacheItem item = newItem(i);
+            mIndex.put(item, item.getUtterance().getTextHash());
+        }
+        assertEquals(10, mIndex.size());
+        for (int i = 0; i < 10; ++i) {
+            final CacheItem item = newItem(i);
+            assertEquals(item, readItem(item.getUuid()));
+            // only the text hash and the phoneme hashes of the utterance are resident
+            final CacheItem residentItem = mIndex.getResident(item.getUuid());
+            assertEquals(item.getUtterance().getTextHash(), residentItem.getUtterance().getTextHash());
+            assertTrue(residentItem.getUtterance().getText().isEmpty());
+            assertEquals(3, residentItem.getUtterance().getPhonemesCount());
+            for (int j = 0; j < 3; ++j) {
+                final PhonemeEntry phonemeEntry = residentItem.getUtterance().getPhonemes(j);
+                assertEquals(UtteranceCacheManager.getPhonemeHash(item.getUtterance().getPhonemes(j)),
+                        phonemeEntry.getHash());
+                assertTrue(phonemeEntry.getSymbols().isEmpty());
+            }
+            assertEquals(item.getVoiceAudioEntriesMap(), residentItem.getVoiceAudioEntriesMap());
+        }
+        assertNull(readItem("unknown"));
+    }
+
+    @Test
+    public void residentItemKeepsStoredBody() throws IOException {
+        final CacheItem item = newItem(1);
+        mIndex.put(item, item.getUtterance().getTextHash());
+        final long fileSize = mBodyStore.getFileSize();
+        // e.g. a touch or expired audio of the resident item
+        final CacheItem updatedItem = mIndex.getResident(item.getUuid()).toBuilder()
+                .setUsageCount(42)
+                .clearVoiceAudioEntries()
+                .build();
+        mIndex.put(updatedItem, item.getUtterance().getTextHash());
+        assertEquals(fileSize, mBodyStore.getFileSize());
+        assertEquals(item.toBuilder().setUsageCount(42).clearVoiceAudioEntries().build(),
+                readItem(item.getUuid()));
+        // a changed utterance replaces the body
+        final Utterance changed = item.getUtterance().toBuilder().setNormalized("breytt").build();
+        mIndex.put(item.toBuilder().setUtterance(changed).build(), changed.getTextHash());
+        assertEquals(changed, readItem(item.getUuid()).getUtterance());
+        assertTrue(mBodyStore.getFileSize() > fileSize);
+    }
+
+    @Test
+    public void snapshotReadsRemovedItems() throws IOException {
+        for (int i = 0; i < 10; ++i) {
+            final CacheItem item = newItem(i);
+            mIndex.put(item, item.getUtterance().getTextHash());
+        }
+        final ResidentItemIndex.Snapshot snapshot = mIndex.snapshot();
+        mIndex.clear();
+        assertEquals(0, mIndex.size());
+        assertEquals(10, snapshot.size());
+        for (CacheItem residentItem : snapshot.getResidentItems()) {
+            assertEquals(newItem(Integer.parseInt(residentItem.getUuid().substring(5))),
+                    snapshot.readItem(residentItem));
+        }
+    }
+
+    @Test
+    public void reopensStoredBodies() throws IOException {
+        for (int i = 0; i < 10; ++i) {
+            final CacheItem item = newItem(i);
+            mIndex.put(item, item.getUtterance().getTextHash());
+        }
+        // like writing the snapshot and loading it on the next start
+        final ResidentItemIndex.Snapshot snapshot = mIndex.snapshot();
+        final List<CacheItem> storedItems = new ArrayList<>();
+        for (CacheItem residentItem : snapshot.getResidentItems()) {
+            storedItems.add(snapshot.getStoredItem(residentItem));
+        }
+        mBodyStore.sync();
+        final long fileSize = mBodyStore.getFileSize();
+        mBodyStore.close();
+
+        mBodyStore = new UtteranceBodyStore(mBodiesPath, snapshot.getBodyFileId(), 4);
+        mIndex = new ResidentItemIndex(mBodyStore);
+        for (CacheItem storedItem : storedItems) {
+            assertTrue(storedItem.getBodyLocation() != 0);
+            assertTrue(mIndex.putStored(storedItem, storedItem.getBodyLocation()));
+        }
+        assertEquals(fileSize, mBodyStore.getFileSize());
+        assertEquals(fileSize, mBodyStore.getLiveBytes());
+        for (int i = 0; i < 10; ++i) {
+            final CacheItem item = newItem(i);
+            assertEquals(item, readItem(item.getUuid()));
+        }
+        // a body beyond the end of the body file is lost
+        final CacheItem lostItem = storedItems.get(0).toBuilder().setUuid("lost").build();
+        assertFalse(mIndex.putStored(lostItem, (fileSize << 24) | 10));
+        assertFalse(mIndex.contains("lost"));
+    }
+
+    @Test
+    public void keyCheckHashTellsCollidingTextsApart() throws IOException {
+        final CacheItem item1 = newItem(1);
+        // a second text forced to the same text hash
+        final CacheItem item2 = newItem(2).toBuilder()
+                .setUtterance(newItem(2).getUtterance().toBuilder()
+                        .setTextHash(item1.getUtterance().getTextHash()))
+                .build();
+        mIndex.put(item1, item1.getUtterance().getTextHash());
+        mIndex.put(item2, item2.getUtterance().getTextHash());
+        final Utterance resident1 = mIndex.getResident(item1.getUuid()).getUtterance();
+        final Utterance resident2 = mIndex.getResident(item2.getUuid()).getUtterance();
+        assertEquals(resident1.getTextHash(), resident2.getTextHash());
+        assertEquals(UtteranceCacheManager.getKeyCheckHash(item1.getUtterance()),
+                UtteranceCacheManager.getKeyCheckHash(resident1));
+        assertEquals(UtteranceCacheManager.getKeyCheckHash(item2.getUtterance()),
+                UtteranceCacheManager.getKeyCheckHash(resident2));
+        assertNotEquals(resident1.getKeyCheckHash(), resident2.getKeyCheckHash());
+
+        // stored items of older snapshots get the key check hash from their body
+        final ResidentItemIndex.Snapshot snapshot = mIndex.snapshot();
+        final CacheItem storedItem = snapshot.getStoredItem(mIndex.getResident(item1.getUuid()));
+        final CacheItem legacyItem = storedItem.toBuilder()
+                .setUtterance(storedItem.getUtterance().toBuilder().clearKeyCheckHash())
+                .build();
+        mIndex.clear();
+        assertTrue(mIndex.putStored(legacyItem, legacyItem.getBodyLocation()));
+        assertEquals(resident1, mIndex.getResident(item1.getUuid()).getUtterance());
+    }
+
+    @Test
+    public void compactsDeadBodies() throws IOException {
+        final int nItems = 5000;
+        for (int i = 0; i < nItems; ++i) {
+            final CacheItem item = newItem(i);
+            mIndex.put(item, item.getUtterance().getTextHash());
+        }
+        mIndex.compactBodiesIfNeeded();
+        final long fileSize = mBodyStore.getFileSize();
+        for (int i = 0; i < nItems; ++i) {
+            if (i % 10 != 0) {
+                mIndex.remove("uuid-" + i);
+            }
+        }
+        assertEquals(fileSize, mBodyStore.getFileSize());
+        mIndex.compactBodiesIfNeeded();
+        assertEquals(mBodyStore.getLiveBytes(), mBodyStore.getFileSize());
+        assertTrue(mBodyStore.getFileSize() < fileSize / 5);
+        // the previous body file is kept until a snapshot refers to the compacted one
+        assertEquals(1, mBodyStore.getFileId());
+        assertTrue(new File(mBodiesPath + ".0").exists());
+        mBodyStore.deleteFilesExcept(mBodyStore.getFileId());
+        assertFalse(new File(mBodiesPath + ".0").exists());
+        for (int i = 0; i < nItems; i += 10) {
+            assertEquals(newItem(i), readItem("uuid-" + i));
+        }
+        assertFalse(mIndex.contains("uuid-1"));
+    }
+
+    /**
+     * Returns the heap used after garbage collection.
+     */
+    private static long usedHeapBytes() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compares the heap held by the cache meta data as complete UtteranceCache message, like
+     * before the resident index has been introduced, with the heap held by the resident index.
+     */
+    @Test
+    public void benchmarkHeapFootprint() throws InterruptedException {
+        final int nItems = 5000;
+
+        long heapBefore = usedHeapBytes();
+        UtteranceCache.Builder cacheBuilder = UtteranceCache.newBuilder();
+        for (int i = 0; i < nItems; ++i) {
+            final CacheItem item = newItem(i);
+            cacheBuilder.putEntries(item.getUuid(), item);
+        }
+        final long completeBytes = usedHeapBytes() - heapBefore;
+        assertEquals(nItems, cacheBuilder.getEntriesCount());
+        cacheBuilder = null;
+
+        heapBefore = usedHeapBytes();
+        for (int i = 0; i < nItems; ++i) {
+            final CacheItem item = newItem(i);
+            mIndex.put(item, item.getUtterance().getTextHash());
+        }
+        final long residentBytes = usedHeapBytes() - heapBefore;
+        assertEquals(nItems, mIndex.size());
+
+        System.out.println("Heap footprint of " + nItems + " cache items: complete "
+                + completeBytes / 1024 + " KB, resident " + residentBytes / 1024 + " KB, bodies on disk "
+                + mBodyStore.getFileSize() / 1024 + " KB");
+        assertTrue(residentBytes < completeBytes);
+    }
+}
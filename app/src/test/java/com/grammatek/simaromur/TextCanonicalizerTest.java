@@ -0,0 +1,88 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.grammatek.simaromur.frontend.TextCanonicalizer;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TextCanonicalizerTest {
+    private final TextCanonicalizer mCanonicalizer = TextCanonicalizer.fromConfig("all");
+
+    @Test
+    public void unicodeCompositionIsCanonicalized() {
+        // "á" composed vs. "a" + combining acute accent
+        assertEquals("Til baka á forsíðu", mCanonicalizer.canonicalize("Til baka a\u0301 forsi\u0301ðu"));
+    }
+
+    @Test
+    public void invisibleCharactersAndWhitespaceAreCanonicalized() {
+        assertEquals("Stillingar", mCanonicalizer.canonicalize("  Stillingar\u200e \n"));
+        assertEquals("Ný skilaboð frá Jóni", mCanonicalizer.canonicalize("Ný skilaboð\ufeff frá\u200b\u200bJóni"));
+        assertEquals("Hnappur, tvísmelltu", mCanonicalizer.canonicalize("Hnappur,\ttvísmelltu "));
+    }
+
+    @Test
+    public void repeatedPunctuationIsCollapsed() {
+        assertEquals("Halló!", mCanonicalizer.canonicalize("Halló!!!"));
+        assertEquals("Hvað?! Nei...", mCanonicalizer.canonicalize("Hvað??!! Nei......"));
+        // an ellipsis is kept
+        assertEquals("Hleð...", mCanonicalizer.canonicalize("Hleð..."));
+    }
+
+    @Test
+    public void canonicalTextIsReturnedAsIs() {
+        final String text = "Rafhlaða 80 prósent.";
+        assertSame(text, mCanonicalizer.canonicalize(text));
+    }
+
+    @Test
+    public void stepsAreConfigurable() {
+        assertNull(TextCanonicalizer.fromConfig("none"));
+        assertNull(TextCanonicalizer.fromConfig(""));
+        final TextCanonicalizer whitespaceOnly = TextCanonicalizer.fromConfig(TextCanonicalizer.STEP_WHITESPACE);
+        assertNotNull(whitespaceOnly);
+        assertEquals("Halló!!", whitespaceOnly.canonicalize(" Halló!! "));
+        assertEquals("a\u0301", whitespaceOnly.canonicalize("a\u0301"));
+    }
+
+    @Test
+    public void canonicalizationIncreasesHitRate() {
+        // variants of screen reader announcements as sent by different apps
+        final List<String> corpus = List.of(
+                "Til baka, hnappur", "Til baka, hnappur ", "Til baka,  hnappur",
+                "Leita", "Leita\u200b", "Leita",
+                "Ný skilaboð!", "Ný skilaboð!!", "Ný skilaboð!!!",
+                "Fara á forsíðu", "Fara a\u0301 forsi\u0301ðu", "Fara á forsíðu",
+                "Hleð...", "Hleð.....", "Hleð...",
+                "Stillingar", "Stillingar\n", "\tStillingar");
+        final double rawHitRate = hitRate(corpus, null);
+        final double canonicalHitRate = hitRate(corpus, mCanonicalizer);
+        assertEquals(3.0 / corpus.size(), rawHitRate, 1e-9);
+        assertEquals(12.0 / corpus.size(), canonicalHitRate, 1e-9);
+        assertTrue(canonicalHitRate > rawHitRate);
+    }
+
+    /**
+     * Returns the ratio of texts of given corpus, whose cache key has been seen before.
+     */
+    private static double hitRate(List<String> corpus, TextCanonicalizer canonicalizer) {
+        final Set<String> keys = new HashSet<>();
+        int nHits = 0;
+        for (String text : corpus) {
+            final String key = (canonicalizer != null) ? canonicalizer.canonicalize(text) : text;
+            if (!keys.add(key)) {
+                nHits++;
+            }
+        }
+        return (double) nHits / corpus.size();
+    }
+}
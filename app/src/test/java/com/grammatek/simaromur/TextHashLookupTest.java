@@ -0,0 +1,107 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.grammatek.simaromur.cache.TextHashIndex;
+import com.grammatek.simaromur.utils.FileUtils;
+import com.grammatek.simaromur.utils.XxHash64;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TextHashLookupTest {
+    private final static String LOG_TAG = "Simarómur_Test_" + TextHashLookupTest.class.getSimpleName();
+
+    @Test
+    public void xxHash64MatchesReference() {
+        assertEquals(0xef46db3751d8e999L, XxHash64.hash(""));
+        assertEquals(0xd24ec4f1a98c6e5bL, XxHash64.hash("a"));
+        assertEquals(0x44bc2cf5ad770999L, XxHash64.hash("abc"));
+        // longer than 32 bytes, exercises the striped main loop
+        assertEquals(0xfbcea83c8a378bf1L, XxHash64.hash("Nobody inspects the spammish repetition"));
+        assertEquals("44bc2cf5ad770999", XxHash64.hashHex("abc"));
+        assertEquals("0000000000000001", XxHash64.toHex(1));
+    }
+
+    @Test
+    public void textHashIndexBehavesLikeMap() {
+        final Random random = new Random(4711);
+        final TextHashIndex index = new TextHashIndex();
+        final Map<Long, String> reference = new HashMap<>();
+        for (int i = 0; i < 100000; ++i) {
+            // small key range, so that there are many updates and removals
+            final long key = random.nextInt(2000) - 1000;
+            final String value = "uuid" + random.nextInt(4);
+            if (random.nextInt(3) == 0) {
+                index.remove(key, value);
+                if (value.equals(reference.get(key))) {
+                    reference.remove(key);
+                }
+            } else {
+                index.put(key, value);
+                reference.put(key, value);
+            }
+        }
+        assertEquals(reference.size(), index.size());
+        for (long key = -1000; key < 1000; ++key) {
+            assertEquals(reference.get(key), index.get(key));
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(0));
+    }
+
+    /**
+     * Microbenchmark for the utterance cache text lookup: the former lookup via MD5 hex string
+     * keys in a string map against the lookup via 64 bit xxHash in the primitive text hash index.
+     * Both lookups include hashing the text, as this is done for every speak request.
+     */
+    @Test
+    public void benchmarkTextLookup() {
+        final int nItems = 5000;
+        final int nRounds = 20;
+        final Random random = new Random(42);
+        final List<String> texts = new ArrayList<>(nItems);
+        for (int i = 0; i < nItems; ++i) {
+            StringBuilder sb = new StringBuilder();
+            final int nWords = 3 + random.nextInt(20);
+            for (int w = 0; w < nWords; ++w) {
+                sb.append("orð").append(random.nextInt(10000)).append(' ');
+            }
+            texts.add(sb.toString());
+        }
+
+        final Map<String, String> md5Map = new HashMap<>();
+        final TextHashIndex hashIndex = new TextHashIndex();
+        for (int i = 0; i < nItems; ++i) {
+            md5Map.put(FileUtils.getMD5SumOfString(texts.get(i)), "uuid" + i);
+            hashIndex.put(XxHash64.hash(texts.get(i)), "uuid" + i);
+        }
+
+        long md5Nanos = Long.MAX_VALUE;
+        long xxHashNanos = Long.MAX_VALUE;
+        int nFound = 0;
+        for (int round = 0; round < nRounds; ++round) {
+            long start = System.nanoTime();
+            for (String text: texts) {
+                nFound += md5Map.get(FileUtils.getMD5SumOfString(text)) != null ? 1 : 0;
+            }
+            md5Nanos = Math.min(md5Nanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (String text: texts) {
+                nFound += hashIndex.get(XxHash64.hash(text)) != null ? 1 : 0;
+            }
+            xxHashNanos = Math.min(xxHashNanos, System.nanoTime() - start);
+        }
+        assertEquals(2 * nRounds * nItems, nFound);
+        System.out.println(LOG_TAG + ": lookup latency MD5/string map: " + md5Nanos / nItems
+                + " ns, xxHash64/long index: " + xxHashNanos / nItems + " ns");
+    }
+}
@@ -0,0 +1,196 @@
+package com.grammatek.simaromur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+
+import com.grammatek.simaromur.cache.CacheItem;
+import com.grammatek.simaromur.cache.Utterance;
+import com.grammatek.simaromur.cache.UtteranceCache;
+import com.grammatek.simaromur.cache.UtteranceCacheJournal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.O_MR1})
+public class UtteranceCacheJournalTest {
+    private File mDir;
+    private String mJournalPath;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("journal", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        mJournalPath = new File(mDir, "utterance_cache.pb.journal").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(mDir.delete());
+    }
+
+    private static CacheItem newItem(String uuid, int usageCount) {
+        return CacheItem.newBuilder().setUuid(uuid).setUsageCount(usageCount).build();
+    }
+
+    /**
+     * Replays the journal at the path like on startup, i.e. with a new journal instance.
+     */
+    private UtteranceCache replay() {
+        final UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        final UtteranceCache.Builder cacheBuilder = UtteranceCache.newBuilder();
+        journal.replay(cacheBuilder);
+        journal.close();
+        return cacheBuilder.build();
+    }
+
+    /**
+     * Appends the first bytes of a record, as if the app crashed while writing it.
+     */
+    private void appendTornRecord(String path) throws IOException {
+        final byte[] record = newItem("torn", 1).toByteArray();
+        try (FileOutputStream out = new FileOutputStream(path, true)) {
+            out.write(record.length + 10);
+            out.write(record, 0, record.length / 2);
+        }
+    }
+
+    @Test
+    public void replaysPutsRemovesAndClears() {
+        final UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        assertTrue(journal.appendPut(newItem("a", 1)));
+        assertTrue(journal.appendPut(newItem("b", 1)));
+        assertTrue(journal.appendClear());
+        assertTrue(journal.appendPut(newItem("c", 1)));
+        assertTrue(journal.appendPut(newItem("d", 1)));
+        assertTrue(journal.appendRemove("c"));
+        assertTrue(journal.appendPut(newItem("d", 2)));
+        journal.close();
+        assertEquals(new File(mJournalPath).length(), journal.size());
+
+        final UtteranceCache cache = replay();
+        assertEquals(1, cache.getEntriesCount());
+        assertEquals(newItem("d", 2), cache.getEntriesMap().get("d"));
+    }
+
+    @Test
+    public void updateKeepsUtteranceOfItem() {
+        final Utterance utterance = Utterance.newBuilder().setText("halló").setTextHash(42).build();
+        final UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        assertTrue(journal.appendPut(newItem("a", 1).toBuilder().setUtterance(utterance).build()));
+        // updates of resident items only carry the hashes of the utterance
+        assertTrue(journal.appendUpdate(newItem("a", 2).toBuilder()
+                .setUtterance(Utterance.newBuilder().setTextHash(42)).build()));
+        // updates of removed items are ignored
+        assertTrue(journal.appendUpdate(newItem("b", 1)));
+        journal.close();
+
+        final UtteranceCache cache = replay();
+        assertEquals(1, cache.getEntriesCount());
+        assertEquals(newItem("a", 2).toBuilder().setUtterance(utterance).build(),
+                cache.getEntriesMap().get("a"));
+    }
+
+    @Test
+    public void rotatedJournalIsReplayedUntilDiscarded() {
+        final UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        assertTrue(journal.appendPut(newItem("a", 1)));
+        assertTrue(journal.rotate());
+        assertTrue(journal.hasRotated());
+        assertEquals(0, journal.size());
+        assertTrue(journal.appendPut(newItem("b", 1)));
+        // a second rotation has to wait for the snapshot of the first one
+        assertFalse(journal.rotate());
+        journal.close();
+
+        // crash before the snapshot has been written: both journals are replayed
+        assertEquals(2, replay().getEntriesCount());
+
+        journal.discardRotated();
+        assertFalse(journal.hasRotated());
+        final UtteranceCache cache = replay();
+        assertEquals(1, cache.getEntriesCount());
+        assertTrue(cache.containsEntries("b"));
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        assertTrue(journal.appendPut(newItem("a", 1)));
+        assertTrue(journal.appendPut(newItem("b", 1)));
+        journal.close();
+        final long validSize = new File(mJournalPath).length();
+        appendTornRecord(mJournalPath);
+
+        journal = new UtteranceCacheJournal(mJournalPath);
+        UtteranceCache.Builder cacheBuilder = UtteranceCache.newBuilder();
+        assertEquals(2, journal.replay(cacheBuilder));
+        assertTrue(journal.isCorrupt());
+        assertEquals(validSize, new File(mJournalPath).length());
+        assertEquals(validSize, journal.size());
+        // records appended after the replay are not lost behind the torn record
+        assertTrue(journal.appendPut(newItem("c", 1)));
+        journal.close();
+
+        final UtteranceCache cache = replay();
+        assertEquals(3, cache.getEntriesCount());
+        assertTrue(cache.containsEntries("c"));
+    }
+
+    @Test
+    public void tornTailIsTruncatedWhileRotatedJournalExists() throws IOException {
+        UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        assertTrue(journal.appendPut(newItem("a", 1)));
+        assertTrue(journal.rotate());
+        assertTrue(journal.appendPut(newItem("b", 1)));
+        journal.close();
+        // crash while writing the snapshot and a record
+        appendTornRecord(mJournalPath);
+
+        journal = new UtteranceCacheJournal(mJournalPath);
+        assertEquals(2, journal.replay(UtteranceCache.newBuilder()));
+        assertTrue(journal.hasRotated());
+        // the current journal can't be rotated, further records are appended to it
+        assertTrue(journal.appendPut(newItem("c", 1)));
+        journal.close();
+
+        assertEquals(3, replay().getEntriesCount());
+    }
+
+    @Test
+    public void garbageRecordSizeIsTruncated() throws IOException {
+        UtteranceCacheJournal journal = new UtteranceCacheJournal(mJournalPath);
+        assertTrue(journal.appendPut(newItem("a", 1)));
+        journal.close();
+        final long validSize = new File(mJournalPath).length();
+        try (RandomAccessFile raf = new RandomAccessFile(mJournalPath, "rw")) {
+            raf.seek(validSize);
+            // varint of a negative record size
+            raf.write(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f});
+        }
+
+        journal = new UtteranceCacheJournal(mJournalPath);
+        assertEquals(1, journal.replay(UtteranceCache.newBuilder()));
+        assertTrue(journal.isCorrupt());
+        assertEquals(validSize, new File(mJournalPath).length());
+        journal.close();
+    }
+}